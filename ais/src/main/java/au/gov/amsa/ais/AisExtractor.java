@@ -5,7 +5,7 @@ import au.gov.amsa.util.SixBitException;
 
 /**
  * Utility class for extracting parts of an ais message as unsigned integers,
- * signed integers or strings.
+ * signed integers or strings. See also {@link PackedAisExtractor}.
  * 
  * @author dxm
  * 
@@ -41,6 +41,18 @@ public class AisExtractor {
         }
     }
 
+    /**
+     * Constructor for subclasses that decode the message themselves and
+     * override {@link #getValue}, {@link #getSignedValue} and
+     * {@link #getString}.
+     */
+    protected AisExtractor() {
+        this.message = null;
+        this.bitSet = null;
+        this.calculated = null;
+        this.padBits = 0;
+    }
+
     /**
      * Returns the message id field (the first 6 characters of the decoded
      * message).
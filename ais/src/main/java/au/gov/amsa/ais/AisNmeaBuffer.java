@@ -1,77 +1,39 @@
 package au.gov.amsa.ais;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.davidmoten.guavamini.Lists;
-import com.google.common.collect.LinkedHashMultimap;
 
 import au.gov.amsa.util.nmea.NmeaMessage;
 import au.gov.amsa.util.nmea.NmeaMessageParseException;
 import au.gov.amsa.util.nmea.NmeaUtil;
 
+/**
+ * Buffers the lines of multi-line NMEA sentence groups until each group is
+ * complete. Delegates to an {@link AisNmeaReassembler} using the time of
+ * arrival as now.
+ */
 public class AisNmeaBuffer {
 
     private static final int AIS_MESSAGE_COL_NO = 5;
-    private static final int MIN_NUM_COLS_FOR_LINE_TO_BE_AGGREGATED = 6;
     private static final int COLUMN_TO_AGGREGATE = AIS_MESSAGE_COL_NO;
-    private final int maxBufferSize;
-    private final LinkedHashMultimap<String, NmeaMessage> buffer;
-    private final AtomicBoolean adding = new AtomicBoolean();
+    private final AisNmeaReassembler reassembler;
 
     public AisNmeaBuffer(int maxBufferSize) {
-        this.maxBufferSize = maxBufferSize;
-        this.buffer = LinkedHashMultimap.create();
+        this.reassembler = new AisNmeaReassembler(maxBufferSize);
     }
 
     /**
      * Returns the complete message only once the whole group of messages has
-     * arrived otherwise returns null.
+     * arrived otherwise returns empty.
      * 
      * @param nmea
      * @return
      */
     public Optional<List<NmeaMessage>> add(NmeaMessage nmea) {
-        // use compare-and-swap semantics instead of synchronizing to squeak a
-        // bit more performance out of this. Contention is expected to be low so
-        // this should help.
-        while (true) {
-            if (adding.compareAndSet(false, true)) {
-                Optional<List<NmeaMessage>> result = doAdd(nmea);
-                adding.set(false);
-                return result;
-            }
-        }
-    }
-
-    private Optional<List<NmeaMessage>> doAdd(NmeaMessage nmea) {
-        List<String> items = nmea.getItems();
-        if (items.size() > 0 && items.size() < MIN_NUM_COLS_FOR_LINE_TO_BE_AGGREGATED)
-            return Optional.of(Collections.singletonList(nmea));
-        if (nmea.isSingleSentence()) {
-            return Optional.of(Collections.singletonList(nmea));
-        } else {
-            String groupId = nmea.getSentenceGroupId();
-            buffer.put(groupId, nmea);
-            // trim the oldest if we have reached max buffer size
-            if (buffer.size() > maxBufferSize)
-                buffer.removeAll(buffer.keySet().iterator().next());
-            int numGroupMessages = nmea.getSentenceCount();
-            int numGroupMessagesSoFar = buffer.get(groupId).size();
-            if (numGroupMessagesSoFar == numGroupMessages) {
-                // we have all messages in that group now so concatenate
-                List<NmeaMessage> list = orderMessages(buffer.get(groupId));
-                // NmeaMessage concatenatedMessage = concatenateMessages(list);
-                buffer.removeAll(groupId);
-                return Optional.of(list);
-            } else
-                return Optional.empty();
-        }
+        return reassembler.add(nmea);
     }
 
     /**
@@ -128,18 +90,7 @@ public class AisNmeaBuffer {
         }
     }
 
-    private static List<NmeaMessage> orderMessages(Collection<NmeaMessage> c) {
-        List<NmeaMessage> list = Lists.newArrayList(c);
-        Collections.sort(list, new Comparator<NmeaMessage>() {
-            @Override
-            public int compare(NmeaMessage a, NmeaMessage b) {
-                return a.getSentenceNumber().compareTo(b.getSentenceNumber());
-            }
-        });
-        return list;
-    }
-
     public int size() {
-        return buffer.size();
+        return reassembler.size();
     }
 }
@@ -0,0 +1,235 @@
+package au.gov.amsa.ais;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import au.gov.amsa.util.nmea.NmeaMessage;
+
+/**
+ * Reassembles multi-line NMEA sentence groups. Fragments are keyed by (source,
+ * channel, group id) and held in a slot array per group indexed by sentence
+ * number, so a group is complete when all its slots are filled and is returned
+ * in sentence order without sorting. The keys are spread across shards each
+ * guarded by its own lock so concurrent callers (for example several socket
+ * readers) rarely contend. Each shard evicts groups older than the maximum
+ * age and, if over its share of the maximum number of fragments, its oldest
+ * groups.
+ *
+ * <p>
+ * The source and channel are only used in the key when the group id is the
+ * sequential message id from the sentence columns. Tag block group ids (
+ * {@code g:} or NMEA 4.1 {@code 1G2} tags) are used alone because only the
+ * first line of such a group carries the source.
+ */
+public final class AisNmeaReassembler {
+
+    public static final long DEFAULT_MAX_AGE_MS = 60000;
+
+    private static final int AIS_CHANNEL_COL_NO = 4;
+    private static final int MIN_NUM_COLS_FOR_LINE_TO_BE_AGGREGATED = 6;
+    private static final int MAX_SENTENCES = 99;
+    private static final int MAX_SHARDS = 16;
+    private static final int MIN_FRAGMENTS_PER_SHARD = 16;
+
+    private final Shard[] shards;
+    private final int mask;
+    private final long maxAgeMs;
+
+    /**
+     * Constructor.
+     *
+     * @param maxFragments
+     *            maximum number of fragments held awaiting the rest of their
+     *            group
+     * @param maxAgeMs
+     *            fragments of a group that has not completed within this time
+     *            of its first fragment arriving are discarded
+     */
+    public AisNmeaReassembler(int maxFragments, long maxAgeMs) {
+        if (maxFragments <= 0)
+            throw new IllegalArgumentException("maxFragments must be positive");
+        int n = 1;
+        while (n < MAX_SHARDS && n * 2 * MIN_FRAGMENTS_PER_SHARD <= maxFragments)
+            n *= 2;
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            // share the max fragments between the shards
+            shards[i] = new Shard(maxFragments / n + (i < maxFragments % n ? 1 : 0));
+        this.mask = n - 1;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public AisNmeaReassembler(int maxFragments) {
+        this(maxFragments, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * As for {@link #add(NmeaMessage, long)} with the arrival time being now.
+     *
+     * @param nmea
+     * @return
+     */
+    public Optional<List<NmeaMessage>> add(NmeaMessage nmea) {
+        return add(nmea, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the messages of the group of the message in sentence order once
+     * the whole group has arrived, otherwise returns empty. Messages that are
+     * not part of a multi-line group are returned immediately as a singleton
+     * list.
+     *
+     * @param nmea
+     * @param arrivalTime
+     *            time the message arrived in epoch ms, used for expiry
+     * @return
+     */
+    public Optional<List<NmeaMessage>> add(NmeaMessage nmea, long arrivalTime) {
+        List<String> items = nmea.getItems();
+        if (items.size() > 0 && items.size() < MIN_NUM_COLS_FOR_LINE_TO_BE_AGGREGATED)
+            return Optional.of(Collections.singletonList(nmea));
+        if (nmea.isSingleSentence())
+            return Optional.of(Collections.singletonList(nmea));
+        int count = nmea.getSentenceCount();
+        int number = nmea.getSentenceNumber();
+        if (count > MAX_SENTENCES || number < 1 || number > count)
+            // can never complete
+            return Optional.empty();
+        Key key;
+        if (nmea.isSentenceGroupedByTagBlock())
+            key = new Key("", "", nmea.getSentenceGroupId());
+        else
+            key = new Key(nullToEmpty(nmea.getSource()),
+                    items.size() > AIS_CHANNEL_COL_NO ? items.get(AIS_CHANNEL_COL_NO) : "",
+                    nmea.getSentenceGroupId());
+        Shard shard = shards[key.hash & mask];
+        synchronized (shard) {
+            return shard.add(key, nmea, count, number, arrivalTime, maxAgeMs);
+        }
+    }
+
+    /**
+     * Returns the number of fragments held awaiting the rest of their group.
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards)
+            synchronized (shard) {
+                size += shard.fragments;
+            }
+        return size;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static final class Shard {
+
+        private final int maxFragments;
+        // insertion order is arrival order of the first fragment of each group
+        private final LinkedHashMap<Key, Group> groups = new LinkedHashMap<Key, Group>();
+        private int fragments;
+
+        Shard(int maxFragments) {
+            this.maxFragments = Math.max(1, maxFragments);
+        }
+
+        Optional<List<NmeaMessage>> add(Key key, NmeaMessage nmea, int count, int number,
+                long arrivalTime, long maxAgeMs) {
+            expire(arrivalTime - maxAgeMs);
+            Group group = groups.get(key);
+            if (group != null && group.fragments.length != count) {
+                // a new group has reused the id before the old one completed
+                remove(key, group);
+                group = null;
+            }
+            if (group == null) {
+                group = new Group(count, arrivalTime);
+                groups.put(key, group);
+            }
+            if (group.fragments[number - 1] == null) {
+                group.received++;
+                fragments++;
+            }
+            group.fragments[number - 1] = nmea;
+            if (group.received == count) {
+                remove(key, group);
+                return Optional.of(Arrays.asList(group.fragments));
+            }
+            // trim the oldest groups if over the max size
+            Iterator<Entry<Key, Group>> it = groups.entrySet().iterator();
+            while (fragments > maxFragments && it.hasNext()) {
+                fragments -= it.next().getValue().received;
+                it.remove();
+            }
+            return Optional.empty();
+        }
+
+        private void expire(long minTime) {
+            Iterator<Group> it = groups.values().iterator();
+            while (it.hasNext()) {
+                Group g = it.next();
+                if (g.time < minTime) {
+                    fragments -= g.received;
+                    it.remove();
+                } else
+                    break;
+            }
+        }
+
+        private void remove(Key key, Group group) {
+            groups.remove(key);
+            fragments -= group.received;
+        }
+    }
+
+    private static final class Group {
+        final NmeaMessage[] fragments;
+        final long time;
+        int received;
+
+        Group(int count, long time) {
+            this.fragments = new NmeaMessage[count];
+            this.time = time;
+        }
+    }
+
+    private static final class Key {
+        final String source;
+        final String channel;
+        final String groupId;
+        final int hash;
+
+        Key(String source, String channel, String groupId) {
+            this.source = source;
+            this.channel = channel;
+            this.groupId = groupId;
+            int h = (source.hashCode() * 31 + channel.hashCode()) * 31 + groupId.hashCode();
+            // spread the bits so that the low bits select the shard
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key k = (Key) obj;
+            return hash == k.hash && groupId.equals(k.groupId) && channel.equals(k.channel)
+                    && source.equals(k.source);
+        }
+    }
+
+}
@@ -37,7 +37,7 @@ public class NmeaStreamProcessor {
 	private final boolean matchWithTimestampLine;
 	private final AtomicLong count = new AtomicLong();
 	private final long logCountFrequency;
-	private final AisNmeaBuffer nmeaBuffer;
+	private final AisNmeaReassembler nmeaBuffer;
 
 	/**
 	 * Constructor.
@@ -51,7 +51,7 @@ public class NmeaStreamProcessor {
 		this.listener = listener;
 		this.matchWithTimestampLine = matchWithTimestampLine;
 		this.logCountFrequency = logCountFrequency;
-		this.nmeaBuffer = new AisNmeaBuffer(nmeaBufferSize);
+		this.nmeaBuffer = new AisNmeaReassembler(nmeaBufferSize);
 	}
 
 	/**
@@ -104,7 +104,8 @@ public class NmeaStreamProcessor {
 		// if is multi line message then don't report to listener till last
 		// message in sequence has been received.
 		if (!nmea.isSingleSentence()) {
-			Optional<List<NmeaMessage>> messages = nmeaBuffer.add(nmea);
+			Optional<List<NmeaMessage>> messages = nmeaBuffer.add(nmea,
+					arrivalTime);
 			if (messages.isPresent()) {
 				Optional<NmeaMessage> joined = AisNmeaBuffer
 						.concatenateMessages(messages.get());
@@ -0,0 +1,175 @@
+package au.gov.amsa.ais;
+
+import au.gov.amsa.util.SixBit;
+
+/**
+ * {@link AisExtractor} that decodes the six bit payload once on construction
+ * into a {@code long[]} (64 bits per element, most significant bit first) and
+ * extracts fields with shifts and masks. Instances are immutable so no locking
+ * is required for thread safety.
+ *
+ * <p>
+ * Behaves the same as {@link AisExtractor} including when exceptions are
+ * thrown. In particular an illegal character in the payload only causes an
+ * {@link AisParseException} when a field that spans the character is read.
+ */
+public final class PackedAisExtractor extends AisExtractor {
+
+    public static final AisExtractorFactory FACTORY = new AisExtractorFactory() {
+
+        @Override
+        public AisExtractor create(String message, int minLength, int padBits) {
+            return new PackedAisExtractor(message, minLength, padBits);
+        }
+    };
+
+    private static final int[] NO_ILLEGAL_CHARS = new int[0];
+
+    private final long[] words;
+    private final int numBits;
+    // indexes of illegal six bit characters in the message (usually empty)
+    private final int[] illegal;
+    private final String message;
+
+    /**
+     * Constructor. If message once decoded is less than minLength then throws
+     * {@link AisParseException}.
+     *
+     * @param message
+     * @param minLength
+     * @param padBits
+     */
+    public PackedAisExtractor(String message, Integer minLength, int padBits) {
+        if (message.length() == 0)
+            throw new AisParseException("message length cannot be 0");
+        if (padBits > 6 || padBits < 0)
+            throw new AisParseException("padBits must be between 0 and 6");
+        int length = message.length();
+        this.message = message;
+        this.numBits = length * 6 - padBits;
+        if (minLength != null && numBits < minLength) {
+            throw new AisParseException(AisParseException.NOT_CONSISTENT_DECODED_STRING
+                    + ", length was " + numBits + " and should be >=" + minLength);
+        }
+        long[] words = new long[(length * 6 + 63) >>> 6];
+        int[] illegal = NO_ILLEGAL_CHARS;
+        int numIllegal = 0;
+        int bit = 0;
+        for (int i = 0; i < length; i++) {
+            int value = SixBit.toSixBit(message.charAt(i));
+            if (value == -1) {
+                if (numIllegal == illegal.length) {
+                    int[] a = new int[Math.max(4, numIllegal * 2)];
+                    System.arraycopy(illegal, 0, a, 0, numIllegal);
+                    illegal = a;
+                }
+                illegal[numIllegal++] = i;
+                value = 0;
+            }
+            int word = bit >>> 6;
+            int offset = bit & 63;
+            if (offset <= 58)
+                words[word] |= (long) value << (58 - offset);
+            else {
+                // value straddles two words
+                words[word] |= (long) value >>> (offset - 58);
+                words[word + 1] |= (long) value << (122 - offset);
+            }
+            bit += 6;
+        }
+        this.words = words;
+        if (numIllegal < illegal.length) {
+            int[] a = new int[numIllegal];
+            System.arraycopy(illegal, 0, a, 0, numIllegal);
+            illegal = a;
+        }
+        this.illegal = illegal;
+    }
+
+    @Override
+    public int getValue(int from, int to) {
+        check(from, to);
+        int n = to - from;
+        if (n <= 0)
+            return 0;
+        else
+            return (int) (bits(from, n) >>> (64 - n));
+    }
+
+    @Override
+    public int getSignedValue(int from, int to) {
+        check(from, to);
+        int n = to - from;
+        if (n <= 0)
+            return 0;
+        else
+            return (int) (bits(from, n) >> (64 - n));
+    }
+
+    @Override
+    public String getString(int from, int to) {
+        if (from < 0)
+            throw new AisParseException("illegal bit range " + from + " to " + to);
+        checkLegal(from, to);
+        int len = (to - from) / 6;
+        char[] resStr = new char[len];
+        int pos = from;
+        for (int i = 0; i < len; i++) {
+            checkLength(pos + 6);
+            char ch = (char) SixBit.intToAscii((int) (bits(pos, 6) >>> 58));
+            // stops at the first instance of @ character
+            if (ch == '@') {
+                len = i;
+                break;
+            }
+            resStr[i] = ch;
+            pos += 6;
+        }
+        // remove trailing spaces
+        while (len > 0 && (resStr[len - 1] == ' '))
+            len -= 1;
+        return new String(resStr, 0, len);
+    }
+
+    /**
+     * Returns the n bits starting at bit {@code from} left aligned in a long
+     * (the first bit is the most significant). Bits after the n bits are
+     * undefined.
+     */
+    private long bits(int from, int n) {
+        int word = from >>> 6;
+        int offset = from & 63;
+        long v = words[word] << offset;
+        if (offset + n > 64)
+            v |= words[word + 1] >>> (64 - offset);
+        return v;
+    }
+
+    private void check(int from, int to) {
+        if (from < 0 || to - from > 64)
+            throw new AisParseException("illegal bit range " + from + " to " + to);
+        checkLegal(from, to);
+        checkLength(to);
+    }
+
+    private void checkLength(int to) {
+        if (to > numBits)
+            throw new AisParseException(numBits + " is not enough bits. At least " + to
+                    + " expected.");
+    }
+
+    // throws if an illegal char is in the chars decoded by AisExtractor for the
+    // bit range
+    private void checkLegal(int from, int to) {
+        if (illegal.length > 0) {
+            int first = from / 6;
+            int last = Math.min(to / 6, message.length() - 1);
+            for (int index : illegal) {
+                if (index >= first && index <= last)
+                    throw new AisParseException(
+                            "Illegal sixbit ascii char: " + message.charAt(index));
+            }
+        }
+    }
+
+}
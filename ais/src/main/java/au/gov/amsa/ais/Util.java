@@ -234,7 +234,19 @@ public final class Util {
 			throw new AisParseException(message);
 	}
 
-	private static AisExtractorFactory extractorFactory = new AisExtractorFactory() {
+	/**
+	 * System property that selects the {@link AisExtractor} implementation
+	 * returned by {@link #getAisExtractorFactory()}. If the value is
+	 * {@code packed} then {@link PackedAisExtractor} is used, otherwise the
+	 * original {@link AisExtractor} (that decodes to a boolean array under a
+	 * lock) is used.
+	 */
+	public static final String AIS_EXTRACTOR_PROPERTY = "au.gov.amsa.ais.extractor";
+
+	/**
+	 * Factory for the original {@link AisExtractor}.
+	 */
+	public static final AisExtractorFactory BOOLEAN_ARRAY_EXTRACTOR_FACTORY = new AisExtractorFactory() {
 
 		@Override
 		public AisExtractor create(String message, int minLength, int padBits) {
@@ -243,8 +255,14 @@ public final class Util {
 
 	};
 
+	private static final AisExtractorFactory extractorFactory = "packed"
+	        .equals(System.getProperty(AIS_EXTRACTOR_PROPERTY)) ? PackedAisExtractor.FACTORY
+	                : BOOLEAN_ARRAY_EXTRACTOR_FACTORY;
+
 	/**
-	 * Returns singleton {@link AisExtractorFactory}.
+	 * Returns singleton {@link AisExtractorFactory}. This is
+	 * {@link #BOOLEAN_ARRAY_EXTRACTOR_FACTORY} unless the system property
+	 * {@link #AIS_EXTRACTOR_PROPERTY} has the value {@code packed}.
 	 * 
 	 * @return
 	 */
@@ -0,0 +1,281 @@
+package au.gov.amsa.ais.message;
+
+import au.gov.amsa.util.SixBit;
+
+/**
+ * Reusable decoder for the position fields of class A (message types 1, 2, 3)
+ * and class B (message types 18, 19) position reports. Call
+ * {@link #reset(CharSequence, int, int, int)} for each six bit payload and
+ * then read the fields as primitives. Values that are not available (or out of
+ * range, in which case {@link AisPositionA} and friends would return null or
+ * throw) are returned as {@link Double#NaN} or a documented sentinel, so
+ * decoding allocates nothing.
+ *
+ * <p>
+ * Mutable and not thread safe. Use one instance per thread or stream.
+ */
+public final class AisPositionDecoder {
+
+    public static final int NOT_AVAILABLE = -1;
+
+    private static final int HEADING_NOT_AVAILABLE = 511;
+    private static final int COG_NOT_AVAILABLE = 3600;
+    private static final int SOG_NOT_AVAILABLE = 1023;
+    private static final int LONGITUDE_NOT_AVAILABLE = 181 * 600000;
+    private static final int LATITUDE_NOT_AVAILABLE = 91 * 600000;
+
+    private static final int MIN_BITS_CLASS_A = 137;
+    private static final int MIN_BITS_CLASS_B = 133;
+    private static final int MIN_BITS_CLASS_B_EXTENDED = 301;
+
+    // six bit payload packed 64 bits per element, most significant bit first
+    private long[] words = new long[4];
+    private int numBits;
+    private int messageId;
+    private boolean position;
+    private boolean classA;
+    // offset of speed over ground, subsequent fields of class B reports are
+    // 4 bits earlier than in class A reports
+    private int sogOffset;
+
+    /**
+     * Decodes the whole payload. Returns true if and only if the payload is a
+     * class A or B position report of sufficient length composed of legal six
+     * bit characters. If false is returned then only {@link #messageId()} may
+     * be meaningful.
+     *
+     * @param payload
+     * @param padBits
+     * @return
+     */
+    public boolean reset(CharSequence payload, int padBits) {
+        return reset(payload, 0, payload.length(), padBits);
+    }
+
+    /**
+     * As for {@link #reset(CharSequence, int)} but decodes
+     * {@code payload[start, end)} so that a column of a line can be decoded
+     * without creating a substring.
+     *
+     * @param payload
+     * @param start
+     * @param end
+     * @param padBits
+     * @return
+     */
+    public boolean reset(CharSequence payload, int start, int end, int padBits) {
+        position = false;
+        messageId = NOT_AVAILABLE;
+        int length = end - start;
+        if (length <= 0 || padBits < 0 || padBits > 6)
+            return false;
+        int numWords = (length * 6 + 63) >>> 6;
+        if (words.length < numWords)
+            words = new long[Math.max(numWords, words.length * 2)];
+        long[] w = words;
+        for (int i = 0; i < numWords; i++)
+            w[i] = 0;
+        int bit = 0;
+        for (int i = start; i < end; i++) {
+            int value = SixBit.toSixBit(payload.charAt(i));
+            if (value == -1)
+                return false;
+            int word = bit >>> 6;
+            int offset = bit & 63;
+            if (offset <= 58)
+                w[word] |= (long) value << (58 - offset);
+            else {
+                w[word] |= (long) value >>> (offset - 58);
+                w[word + 1] |= (long) value << (122 - offset);
+            }
+            bit += 6;
+        }
+        numBits = length * 6 - padBits;
+        if (numBits < 6)
+            return false;
+        messageId = value(0, 6);
+        if (messageId == 1 || messageId == 2 || messageId == 3) {
+            classA = true;
+            sogOffset = 50;
+            position = numBits >= MIN_BITS_CLASS_A;
+        } else if (messageId == 18 || messageId == 19) {
+            classA = false;
+            sogOffset = 46;
+            position = numBits >= (messageId == 18 ? MIN_BITS_CLASS_B
+                    : MIN_BITS_CLASS_B_EXTENDED);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the unsigned value of bits {@code [from, to)} where
+     * {@code to - from <= 32}.
+     */
+    private int value(int from, int to) {
+        return (int) (bits(from, to - from) >>> (64 - (to - from)));
+    }
+
+    private int signedValue(int from, int to) {
+        return (int) (bits(from, to - from) >> (64 - (to - from)));
+    }
+
+    private long bits(int from, int n) {
+        int word = from >>> 6;
+        int offset = from & 63;
+        long v = words[word] << offset;
+        if (offset + n > 64)
+            v |= words[word + 1] >>> (64 - offset);
+        return v;
+    }
+
+    /**
+     * Returns the message id or {@link #NOT_AVAILABLE} if the payload could
+     * not be decoded.
+     *
+     * @return
+     */
+    public int messageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the value returned by the last call to {@code reset}.
+     *
+     * @return
+     */
+    public boolean isPositionReport() {
+        return position;
+    }
+
+    /**
+     * Returns true if the report is class A (message types 1, 2, 3), false if
+     * class B (message types 18, 19).
+     *
+     * @return
+     */
+    public boolean isClassA() {
+        return classA;
+    }
+
+    public int repeatIndicator() {
+        return value(6, 8);
+    }
+
+    public int mmsi() {
+        return value(8, 38);
+    }
+
+    /**
+     * Returns the navigational status code (the ordinal of
+     * {@link NavigationalStatus}) for a class A report, otherwise
+     * {@link #NOT_AVAILABLE}.
+     *
+     * @return
+     */
+    public int navigationalStatus() {
+        if (classA)
+            return value(38, 42);
+        else
+            return NOT_AVAILABLE;
+    }
+
+    /**
+     * Returns the rate of turn for a class A report or -128 if not available
+     * (or a class B report).
+     *
+     * @return
+     */
+    public int rateOfTurn() {
+        if (classA)
+            return (byte) signedValue(42, 50);
+        else
+            return -128;
+    }
+
+    public double speedOverGroundKnots() {
+        int val = value(sogOffset, sogOffset + 10);
+        if (val == SOG_NOT_AVAILABLE)
+            return Double.NaN;
+        else
+            return val / 10.0;
+    }
+
+    public boolean isHighAccuracyPosition() {
+        return value(sogOffset + 10, sogOffset + 11) == 1;
+    }
+
+    /**
+     * Returns the longitude in degrees or NaN if not available or out of
+     * range.
+     *
+     * @return
+     */
+    public double longitude() {
+        int val = signedValue(sogOffset + 11, sogOffset + 39);
+        if (val == LONGITUDE_NOT_AVAILABLE)
+            return Double.NaN;
+        double lon = val / 600000.0;
+        if (lon > 181.0 || lon <= -180.0)
+            return Double.NaN;
+        else
+            return lon;
+    }
+
+    /**
+     * Returns the latitude in degrees or NaN if not available or out of range.
+     *
+     * @return
+     */
+    public double latitude() {
+        int val = signedValue(sogOffset + 39, sogOffset + 66);
+        if (val == LATITUDE_NOT_AVAILABLE)
+            return Double.NaN;
+        double lat = val / 600000.0;
+        if (lat > 91.0 || lat <= -90.0)
+            return Double.NaN;
+        else
+            return lat;
+    }
+
+    /**
+     * Returns the course over ground in degrees or NaN if not available or
+     * out of range.
+     *
+     * @return
+     */
+    public double courseOverGround() {
+        int val = value(sogOffset + 66, sogOffset + 78);
+        if (val >= COG_NOT_AVAILABLE)
+            return Double.NaN;
+        else
+            return val / 10.0;
+    }
+
+    /**
+     * Returns the true heading in degrees or {@link #NOT_AVAILABLE} if not
+     * available or out of range.
+     *
+     * @return
+     */
+    public int trueHeading() {
+        int val = value(sogOffset + 78, sogOffset + 87);
+        if (val == HEADING_NOT_AVAILABLE || val > 359)
+            return NOT_AVAILABLE;
+        else
+            return val;
+    }
+
+    /**
+     * Returns the UTC second of the report or {@link #NOT_AVAILABLE} if the
+     * payload is too short to include it.
+     *
+     * @return
+     */
+    public int timeSecondsOnly() {
+        if (numBits < sogOffset + 93)
+            return NOT_AVAILABLE;
+        else
+            return value(sogOffset + 87, sogOffset + 93);
+    }
+
+}
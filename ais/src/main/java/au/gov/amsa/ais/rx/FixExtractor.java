@@ -0,0 +1,153 @@
+package au.gov.amsa.ais.rx;
+
+import java.util.Optional;
+
+import au.gov.amsa.ais.AisMessage;
+import au.gov.amsa.ais.AisNmeaReassembler;
+import au.gov.amsa.ais.Timestamped;
+import au.gov.amsa.ais.message.AisPositionDecoder;
+import au.gov.amsa.risky.format.AisClass;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.Fix;
+import au.gov.amsa.risky.format.FixImpl;
+import au.gov.amsa.risky.format.NavigationalStatus;
+import au.gov.amsa.util.nmea.NmeaMessage;
+import au.gov.amsa.util.nmea.NmeaTokenizer;
+
+/**
+ * Extracts fixes from NMEA lines one line at a time. Single line class A and B
+ * position reports with a timestamp are decoded in place with an
+ * {@link NmeaTokenizer} and an {@link AisPositionDecoder} so that only the
+ * returned {@link Fix} is allocated. Any other line (multi-line groups, other
+ * message types, lines the fast path is not sure about) is handled as in
+ * {@link Streams#extractMessages(rx.Observable)} so the fixes returned are the
+ * same.
+ *
+ * <p>
+ * Not thread safe.
+ */
+final class FixExtractor {
+
+    private static final Optional<Short> SOURCE_PRESENT = Optional
+            .of((short) BinaryFixes.SOURCE_PRESENT_BUT_UNKNOWN);
+
+    private static final Optional<NavigationalStatus>[] NAVIGATIONAL_STATUSES = createNavigationalStatuses();
+
+    private static final Optional<Float>[] HEADINGS = createHeadings();
+
+    private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+    private final AisPositionDecoder decoder = new AisPositionDecoder();
+    private final AisNmeaReassembler buffer;
+
+    FixExtractor(int bufferSize) {
+        this.buffer = new AisNmeaReassembler(bufferSize);
+    }
+
+    /**
+     * Returns the fix from the line or null if the line does not produce one.
+     */
+    Fix extract(String line) {
+        tokenizer.tokenize(line);
+        return extract(tokenizer);
+    }
+
+    /**
+     * Returns the fix from the tokenized line or null if the line does not
+     * produce one.
+     */
+    Fix extract(NmeaTokenizer t) {
+        if (isSingleLineAisWithTime(t)) {
+            int padBits = t.intItem(6);
+            if (decoder.reset(t, t.itemStart(5), t.itemEnd(5), padBits))
+                return toFix(t);
+            int id = decoder.messageId();
+            if (id != AisPositionDecoder.NOT_AVAILABLE && !isPositionMessageId(id))
+                // not a position report
+                return null;
+        }
+        return extractSlowly(t.line());
+    }
+
+    private static boolean isPositionMessageId(int id) {
+        // 27 (long range position) is not decoded by AisPositionDecoder
+        return id == 1 || id == 2 || id == 3 || id == 18 || id == 19 || id == 27;
+    }
+
+    private static boolean isSingleLineAisWithTime(NmeaTokenizer t) {
+        if (!t.isWellFormed() || !t.hasTagBlockChecksum() || !t.hasTime()
+                || t.groupTag() != -1 || t.itemCount() < 7)
+            return false;
+        // NMEA 4.1 sentence grouping tags have keys like 1G2
+        for (int i = 0; i < t.tagCount(); i++)
+            if (t.tagKeyEnd(i) - t.tagKeyStart(i) != 1)
+                return false;
+        return t.charAt(t.itemStart(0)) == '!' && t.isIntItem(1) && t.intItem(1) == 1
+                && t.isIntItem(2) && t.isIntItem(6);
+    }
+
+    private Fix toFix(NmeaTokenizer t) {
+        AisPositionDecoder d = decoder;
+        double lat = d.latitude();
+        double lon = d.longitude();
+        if (Double.isNaN(lat) || Double.isNaN(lon) || lat < -90 || lat > 90 || lon < -180
+                || lon > 180)
+            return null;
+        Optional<NavigationalStatus> nav;
+        AisClass aisClass;
+        if (d.isClassA()) {
+            int status = d.navigationalStatus();
+            if (status >= NAVIGATIONAL_STATUSES.length)
+                return null;
+            nav = NAVIGATIONAL_STATUSES[status];
+            aisClass = AisClass.A;
+        } else {
+            nav = Optional.empty();
+            aisClass = AisClass.B;
+        }
+        double sog = d.speedOverGroundKnots();
+        double cog = d.courseOverGround();
+        int heading = d.trueHeading();
+        try {
+            return new FixImpl(d.mmsi(), (float) lat, (float) lon, t.unixTimeMillis(),
+                    Optional.empty(), t.sourceTag() == -1 ? Optional.empty() : SOURCE_PRESENT,
+                    nav, Double.isNaN(sog) ? Optional.empty() : Optional.of((float) sog),
+                    Double.isNaN(cog) ? Optional.empty() : Optional.of((float) cog),
+                    heading == AisPositionDecoder.NOT_AVAILABLE ? Optional.empty()
+                            : HEADINGS[heading],
+                    aisClass);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Fix extractSlowly(String line) {
+        Optional<NmeaMessage> nmea = Streams.LINE_TO_NMEA_MESSAGE.call(line);
+        if (!nmea.isPresent())
+            return null;
+        Optional<NmeaMessage> aggregated = Streams.aggregate(buffer, nmea.get());
+        if (!aggregated.isPresent())
+            return null;
+        Optional<Timestamped<AisMessage>> m = Streams.TO_AIS_MESSAGE.call(aggregated.get());
+        if (!m.isPresent())
+            return null;
+        return Streams.toFix(m.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<NavigationalStatus>[] createNavigationalStatuses() {
+        NavigationalStatus[] values = NavigationalStatus.values();
+        Optional<NavigationalStatus>[] a = new Optional[values.length];
+        for (int i = 0; i < values.length; i++)
+            a[i] = Optional.of(values[i]);
+        return a;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<Float>[] createHeadings() {
+        Optional<Float>[] a = new Optional[360];
+        for (int i = 0; i < a.length; i++)
+            a[i] = Optional.of((float) i);
+        return a;
+    }
+
+}
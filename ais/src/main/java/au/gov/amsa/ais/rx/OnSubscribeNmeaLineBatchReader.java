@@ -0,0 +1,62 @@
+package au.gov.amsa.ais.rx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import au.gov.amsa.util.nmea.NmeaLineBatchReader;
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Func0;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Emits the batches of lines of an {@link NmeaLineBatchReader} with
+ * backpressure support. The input stream is opened on subscription and closed
+ * on termination or unsubscription.
+ */
+final class OnSubscribeNmeaLineBatchReader
+        extends SyncOnSubscribe<NmeaLineBatchReader, ByteBuffer> {
+
+    private final Func0<? extends InputStream> inputStreamFactory;
+    private final int linesPerBatch;
+
+    OnSubscribeNmeaLineBatchReader(Func0<? extends InputStream> inputStreamFactory,
+            int linesPerBatch) {
+        this.inputStreamFactory = inputStreamFactory;
+        this.linesPerBatch = linesPerBatch;
+    }
+
+    @Override
+    protected NmeaLineBatchReader generateState() {
+        return new NmeaLineBatchReader(inputStreamFactory.call(), linesPerBatch);
+    }
+
+    @Override
+    protected NmeaLineBatchReader next(NmeaLineBatchReader reader,
+            Observer<? super ByteBuffer> observer) {
+        try {
+            ByteBuffer batch = reader.next();
+            if (batch != null)
+                observer.onNext(batch);
+            else
+                observer.onCompleted();
+        } catch (IOException e) {
+            observer.onError(e);
+        }
+        return reader;
+    }
+
+    @Override
+    protected void onUnsubscribe(NmeaLineBatchReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    Observable<ByteBuffer> toObservable() {
+        return Observable.create(this);
+    }
+}
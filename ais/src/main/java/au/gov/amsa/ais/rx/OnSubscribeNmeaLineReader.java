@@ -0,0 +1,59 @@
+package au.gov.amsa.ais.rx;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import au.gov.amsa.util.nmea.NmeaLineReader;
+import au.gov.amsa.util.nmea.NmeaTokenizer;
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Func0;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Emits the (reused) {@link NmeaTokenizer} of an {@link NmeaLineReader} once
+ * per line with backpressure support. The input stream is opened on
+ * subscription and closed on termination or unsubscription.
+ */
+final class OnSubscribeNmeaLineReader extends SyncOnSubscribe<NmeaLineReader, NmeaTokenizer> {
+
+    private final Func0<? extends InputStream> inputStreamFactory;
+    private final int bufferSize;
+
+    OnSubscribeNmeaLineReader(Func0<? extends InputStream> inputStreamFactory, int bufferSize) {
+        this.inputStreamFactory = inputStreamFactory;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected NmeaLineReader generateState() {
+        return new NmeaLineReader(inputStreamFactory.call(), bufferSize);
+    }
+
+    @Override
+    protected NmeaLineReader next(NmeaLineReader reader,
+            Observer<? super NmeaTokenizer> observer) {
+        try {
+            if (reader.next())
+                observer.onNext(reader.tokenizer());
+            else
+                observer.onCompleted();
+        } catch (IOException e) {
+            observer.onError(e);
+        }
+        return reader;
+    }
+
+    @Override
+    protected void onUnsubscribe(NmeaLineReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    Observable<NmeaTokenizer> toObservable() {
+        return Observable.create(this);
+    }
+}
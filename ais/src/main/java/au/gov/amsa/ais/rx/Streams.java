@@ -14,7 +14,9 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -36,6 +38,7 @@ import com.github.davidmoten.rx.slf4j.Logging;
 import au.gov.amsa.ais.AisMessage;
 import au.gov.amsa.ais.AisNmeaBuffer;
 import au.gov.amsa.ais.AisNmeaMessage;
+import au.gov.amsa.ais.AisNmeaReassembler;
 import au.gov.amsa.ais.AisParseException;
 import au.gov.amsa.ais.LineAndTime;
 import au.gov.amsa.ais.Timestamped;
@@ -44,14 +47,19 @@ import au.gov.amsa.ais.message.AisPositionA;
 import au.gov.amsa.risky.format.AisClass;
 import au.gov.amsa.risky.format.BinaryFixes;
 import au.gov.amsa.risky.format.BinaryFixesFormat;
+import au.gov.amsa.risky.format.BinaryFixesRunWriter;
+import au.gov.amsa.risky.format.BinaryFixesSorter;
 import au.gov.amsa.risky.format.BinaryFixesWriter;
 import au.gov.amsa.risky.format.Fix;
 import au.gov.amsa.risky.format.FixImpl;
 import au.gov.amsa.risky.format.NavigationalStatus;
 import au.gov.amsa.streams.Strings;
 import au.gov.amsa.util.Files;
+import au.gov.amsa.util.nmea.NmeaLineBatchReader;
+import au.gov.amsa.util.nmea.NmeaLineReader;
 import au.gov.amsa.util.nmea.NmeaMessage;
 import au.gov.amsa.util.nmea.NmeaMessageParseException;
+import au.gov.amsa.util.nmea.NmeaTokenizer;
 import au.gov.amsa.util.nmea.NmeaUtil;
 import rx.Observable;
 import rx.Observable.OnSubscribe;
@@ -137,18 +145,51 @@ public class Streams {
         return o -> o.filter(Streams.<T> isPresent()).map(Streams.<T> toValue());
     }
 
+    /**
+     * Returns the fixes from the position reports in the NMEA lines. Single
+     * line position reports are decoded with a reused {@link FixExtractor}
+     * without creating intermediate message objects, other lines are parsed as
+     * for {@link #extractMessages(Observable)}. The lines are parsed one at a
+     * time on the thread that emits them, to parse the lines of a gzipped file
+     * in batches on all cores use
+     * {@link #extractFixesFromGzip(File, Scheduler)}.
+     * 
+     * @param rawAisNmea
+     * @return
+     */
     public static Observable<Fix> extractFixes(Observable<String> rawAisNmea) {
-        return extractMessages(rawAisNmea).flatMap(TO_FIX, 1);
+        return Observable.defer(() -> {
+            FixExtractor extractor = new FixExtractor(BUFFER_SIZE);
+            return rawAisNmea.map(line -> extractor.extract(line)).filter(fix -> fix != null);
+        });
     }
 
-    private static final Func1<Timestamped<AisMessage>, Observable<Fix>> TO_FIX = m -> {
+    /**
+     * As for {@link #extractFixes(Observable)} but from lines already
+     * tokenized (see {@link #nmeaTokensFrom(File)}).
+     * 
+     * @param tokens
+     * @return
+     */
+    public static Observable<Fix> extractFixesFromTokens(Observable<NmeaTokenizer> tokens) {
+        return Observable.defer(() -> {
+            FixExtractor extractor = new FixExtractor(BUFFER_SIZE);
+            return tokens.map(t -> extractor.extract(t)).filter(fix -> fix != null);
+        });
+    }
+
+    /**
+     * Returns the fix for a position report or null if the message is not a
+     * position report or is invalid.
+     */
+    static Fix toFix(Timestamped<AisMessage> m) {
         try {
             if (m.message() instanceof AisPosition) {
                 AisPosition a = (AisPosition) m.message();
                 if (a.getLatitude() == null || a.getLongitude() == null || a.getLatitude() < -90
                         || a.getLatitude() > 90 || a.getLongitude() < -180
                         || a.getLongitude() > 180)
-                    return Observable.empty();
+                    return null;
                 else {
                     Optional<NavigationalStatus> nav;
                     if (a instanceof AisPositionA) {
@@ -190,18 +231,17 @@ public class Streams {
                     // TODO latency
                     Optional<Integer> latency = empty();
 
-                    Fix f = new FixImpl(a.getMmsi(), a.getLatitude().floatValue(),
+                    return new FixImpl(a.getMmsi(), a.getLatitude().floatValue(),
                             a.getLongitude().floatValue(), m.time(), latency, src, nav, sog, cog,
                             heading, aisClass);
-                    return Observable.just(f);
                 }
             } else
-                return Observable.empty();
+                return null;
         } catch (RuntimeException e) {
             log.warn(e.getMessage(), e);
-            return Observable.empty();
+            return null;
         }
-    };
+    }
 
     public static Observable<String> nmeaFrom(final File file) {
         return Observable.using(
@@ -252,6 +292,158 @@ public class Streams {
         return Observable.using(resourceFactory, observableFactory, disposeAction, true);
     }
 
+    /**
+     * Returns the non-empty lines of the file tokenized in place by an
+     * {@link NmeaTokenizer} (see {@link NmeaLineReader}) without creating a
+     * String per line. The emitted tokenizer is the same object for every line
+     * so it must be consumed synchronously (for example mapped to an immutable
+     * value) before any asynchronous boundary or buffering operator.
+     * 
+     * @param file
+     * @return
+     */
+    public static Observable<NmeaTokenizer> nmeaTokensFrom(final File file) {
+        return nmeaTokensFrom(() -> {
+            try {
+                return new FileInputStream(file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * As for {@link #nmeaTokensFrom(File)} but reads from a gzipped file,
+     * tokenizing lines in the buffer that the decompressed bytes are read
+     * into.
+     * 
+     * @param file
+     * @return
+     */
+    public static Observable<NmeaTokenizer> nmeaTokensFromGzip(final File file) {
+        return nmeaTokensFrom(() -> {
+            try {
+                return new GZIPInputStream(
+                        new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * As for {@link #nmeaTokensFrom(File)} but reads from the input stream
+     * created on subscription by the factory. The stream is closed on
+     * termination or unsubscription.
+     * 
+     * @param inputStreamFactory
+     * @return
+     */
+    public static Observable<NmeaTokenizer> nmeaTokensFrom(
+            Func0<? extends InputStream> inputStreamFactory) {
+        return new OnSubscribeNmeaLineReader(inputStreamFactory,
+                NmeaLineReader.DEFAULT_BUFFER_SIZE).toObservable();
+    }
+
+    /**
+     * Returns the lines of the gzipped file in batches of about
+     * {@code linesPerBatch} lines (see {@link NmeaLineBatchReader}). The
+     * batches are independent byte arrays so they can be parsed concurrently
+     * (see {@link #extractFixesFromBatches(Observable, int, Scheduler)}).
+     * 
+     * @param file
+     * @param linesPerBatch
+     * @return
+     */
+    public static Observable<ByteBuffer> nmeaBatchesFromGzip(final File file,
+            int linesPerBatch) {
+        return nmeaBatchesFrom(() -> {
+            try {
+                return new GZIPInputStream(
+                        new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, linesPerBatch);
+    }
+
+    /**
+     * As for {@link #nmeaBatchesFromGzip(File, int)} but reads from the input
+     * stream created on subscription by the factory. The stream is closed on
+     * termination or unsubscription.
+     * 
+     * @param inputStreamFactory
+     * @param linesPerBatch
+     * @return
+     */
+    public static Observable<ByteBuffer> nmeaBatchesFrom(
+            Func0<? extends InputStream> inputStreamFactory, int linesPerBatch) {
+        return new OnSubscribeNmeaLineBatchReader(inputStreamFactory, linesPerBatch)
+                .toObservable();
+    }
+
+    /**
+     * Returns the fixes from the gzipped NMEA file decompressing on one thread
+     * and parsing batches of lines on up to {@code maxConcurrentBatches}
+     * threads of the scheduler, so that one large file can use all cores. The
+     * fixes are emitted in the same order as {@link #extractFixes(Observable)}
+     * would emit them. The fragments of a multi-line group that straddles a
+     * batch boundary are carried into the next batch (see
+     * {@link NmeaLineBatchReader}).
+     * 
+     * @param file
+     * @param linesPerBatch
+     * @param maxConcurrentBatches
+     * @param scheduler
+     * @return
+     */
+    public static Observable<Fix> extractFixesFromGzip(File file, int linesPerBatch,
+            int maxConcurrentBatches, Scheduler scheduler) {
+        return extractFixesFromBatches(
+                nmeaBatchesFromGzip(file, linesPerBatch).subscribeOn(scheduler),
+                maxConcurrentBatches, scheduler);
+    }
+
+    public static Observable<Fix> extractFixesFromGzip(File file, Scheduler scheduler) {
+        return extractFixesFromGzip(file, NmeaLineBatchReader.DEFAULT_LINES_PER_BATCH,
+                Runtime.getRuntime().availableProcessors(), scheduler);
+    }
+
+    /**
+     * Returns the fixes from batches of NMEA lines (see
+     * {@link #nmeaBatchesFrom(Func0, int)}) parsing up to
+     * {@code maxConcurrentBatches} batches at once on the scheduler. Fixes are
+     * emitted in batch order.
+     * 
+     * @param batches
+     * @param maxConcurrentBatches
+     * @param scheduler
+     * @return
+     */
+    public static Observable<Fix> extractFixesFromBatches(Observable<ByteBuffer> batches,
+            int maxConcurrentBatches, Scheduler scheduler) {
+        return batches
+                // parse batches concurrently keeping batch order
+                .concatMapEager(batch -> Observable.fromCallable(() -> extractFixes(batch))
+                        .subscribeOn(scheduler), maxConcurrentBatches, maxConcurrentBatches)
+                // flatten
+                .concatMapIterable(fixes -> fixes);
+    }
+
+    private static List<Fix> extractFixes(ByteBuffer batch) throws IOException {
+        FixExtractor extractor = new FixExtractor(BUFFER_SIZE);
+        List<Fix> fixes = new ArrayList<Fix>(batch.remaining() / 64);
+        try (NmeaLineReader reader = new NmeaLineReader(batch.array(),
+                batch.arrayOffset() + batch.position(), batch.remaining())) {
+            while (reader.next()) {
+                Fix fix = extractor.extract(reader.tokenizer());
+                if (fix != null)
+                    fixes.add(fix);
+            }
+        }
+        return fixes;
+    }
+
     public static void print(Observable<?> stream, final PrintStream out) {
         stream.subscribe(new Observer<Object>() {
 
@@ -283,6 +475,21 @@ public class Streams {
         }
     };
 
+    /**
+     * Converts tokenized lines (see {@link #nmeaTokensFrom(File)}) to
+     * {@link NmeaMessage}. Lines that are not well formed are rejected by the
+     * tokenizer without being parsed.
+     */
+    public static final Func1<NmeaTokenizer, Optional<NmeaMessage>> TOKENS_TO_NMEA_MESSAGE = tokens -> {
+        if (!tokens.isWellFormed())
+            return Optional.empty();
+        try {
+            return Optional.of(tokens.toNmeaMessage());
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    };
+
     // public static final Func1<String, Observable<NmeaMessage>>
     // toNmeaMessage() {
     // return toNmeaMessage(false);
@@ -527,7 +734,7 @@ public class Streams {
             @Override
             public Observable<Optional<List<NmeaMessage>>> call(Observable<NmeaMessage> o) {
                 return Observable.defer(() -> {
-                    AisNmeaBuffer buffer = new AisNmeaBuffer(bufferSize);
+                    AisNmeaReassembler buffer = new AisNmeaReassembler(bufferSize);
                     // use maxConcurrent so doesn't request unbounded
                     return o.map(nmea -> buffer.add(nmea));
                 });
@@ -543,7 +750,7 @@ public class Streams {
             @Override
             public Observable<NmeaMessage> call(Observable<NmeaMessage> o) {
                 return Observable.defer(() -> {
-                    AisNmeaBuffer buffer = new AisNmeaBuffer(bufferSize);
+                    AisNmeaReassembler buffer = new AisNmeaReassembler(bufferSize);
                     // use maxConcurrent so doesn't request unbounded
                     return o.flatMap(nmea -> {
                         return addToBuffer(buffer, nmea);
@@ -561,7 +768,7 @@ public class Streams {
             @Override
             public Observable<NmeaMessage> call(Observable<NmeaMessage> o) {
                 return Observable.defer(() -> {
-                    AisNmeaBuffer buffer = new AisNmeaBuffer(bufferSize);
+                    AisNmeaReassembler buffer = new AisNmeaReassembler(bufferSize);
                     // use maxConcurrent so doesn't request unbounded
                     return o.flatMap(nmea -> {
                         return addToBuffer(buffer, nmea);
@@ -572,22 +779,29 @@ public class Streams {
         };
     }
 
-    private static Observable<? extends NmeaMessage> addToBuffer(AisNmeaBuffer buffer,
+    private static Observable<? extends NmeaMessage> addToBuffer(AisNmeaReassembler buffer,
             NmeaMessage nmea) {
+        Optional<NmeaMessage> concat = aggregate(buffer, nmea);
+        if (concat.isPresent())
+            return Observable.just(concat.get());
+        else
+            return Observable.empty();
+    }
+
+    /**
+     * Adds the message to the buffer and returns the aggregated message if
+     * the group of the message is complete.
+     */
+    static Optional<NmeaMessage> aggregate(AisNmeaReassembler buffer, NmeaMessage nmea) {
         try {
             Optional<List<NmeaMessage>> list = buffer.add(nmea);
             if (!list.isPresent())
-                return Observable.empty();
-            else {
-                Optional<NmeaMessage> concat = AisNmeaBuffer.concatenateMessages(list.get());
-                if (concat.isPresent())
-                    return Observable.just(concat.get());
-                else
-                    return Observable.empty();
-            }
+                return Optional.empty();
+            else
+                return AisNmeaBuffer.concatenateMessages(list.get());
         } catch (RuntimeException e) {
             log.warn(e.getMessage(), e);
-            return Observable.empty();
+            return Optional.empty();
         }
     }
 
@@ -700,16 +914,7 @@ public class Streams {
             final Func1<Fix, String> fileMapper, final int writeBufferSize,
             final Action1<File> logger) {
         return files -> {
-            Observable<Fix> fixes = Streams
-                    .extractFixes(
-                            Observable.from(files)
-                                    // log
-                                    .doOnNext(logger)
-                                    // one file at a time
-                                    .concatMap(file -> Streams.nmeaFromGzip(file.getAbsolutePath()) //
-                                            .doOnError(e -> log.warn("problem reading file " + file
-                                                    + ": " + e.getMessage())) //
-                            .onErrorResumeNext(Observable.empty())));
+            Observable<Fix> fixes = extractFixesFromNmeaGz(files, logger, scheduler);
             return BinaryFixesWriter
                     .writeFixes(fileMapper, fixes, writeBufferSize, false,
                             BinaryFixesFormat.WITHOUT_MMSI)
@@ -720,21 +925,145 @@ public class Streams {
         };
     }
 
+    private static Observable<Fix> extractFixesFromNmeaGz(List<File> files,
+            Action1<File> logger, Scheduler scheduler) {
+        return Observable.from(files)
+                // log
+                .doOnNext(logger)
+                // one file at a time, parsing its lines in batches on the
+                // scheduler
+                .concatMap(file -> extractFixesFromGzip(file.getAbsoluteFile(), scheduler) //
+                        .doOnError(e -> log.warn(
+                                "problem reading file " + file + ": " + e.getMessage())) //
+                        .onErrorResumeNext(Observable.empty()));
+    }
+
     private static Func2<Integer, List<Fix>, Integer> countFixes() {
         return (count, fixes) -> count + fixes.size();
     }
 
+    /**
+     * Converts the gzipped NMEA files to time ordered track files using a
+     * partition per processor and the default memory budget
+     * ({@link BinaryFixesSorter#DEFAULT_MEMORY_BUDGET_BYTES}).
+     * {@code linesPerProcessor} is the number of lines parsed per batch.
+     * 
+     * @deprecated fixes are no longer appended to the track files in groups of
+     *             {@code writeBufferSize} so it has no effect, use
+     *             {@link #writeFixesFromNmeaGz(File, Pattern, File, int, Scheduler,
+     *             long, Func1, int, long)} and size the memory budget instead
+     * @return the number of fixes written followed by the number of track
+     *         files written
+     */
+    @Deprecated
     public static Observable<Integer> writeFixesFromNmeaGz(File input, Pattern inputPattern,
             File output, int logEvery, int writeBufferSize, Scheduler scheduler,
             int linesPerProcessor, long downSampleIntervalMs, Func1<Fix, String> fileMapper) {
+        return writeFixesFromNmeaGz(input, inputPattern, output, logEvery, scheduler,
+                downSampleIntervalMs, fileMapper, Runtime.getRuntime().availableProcessors(),
+                BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES, linesPerProcessor);
+    }
 
-        final List<File> fileList = Files.find(input, inputPattern);
-        Observable<File> files = Observable.from(fileList);
+    /**
+     * Converts the gzipped NMEA files to time ordered track files in a single
+     * pass. Each file is decompressed on one thread and its lines are parsed in
+     * batches concurrently (see
+     * {@link #extractFixesFromGzip(File, int, int, Scheduler)}). Fixes are
+     * partitioned by mmsi so that each track file is owned by one partition.
+     * Each partition buffers its fixes per track file and spills sorted runs
+     * when over its share of the memory budget, then merges the runs into the
+     * track files once all the NMEA has been read. No file locks are taken and
+     * the track files are not reread to be sorted.
+     * 
+     * @param input
+     *            directory containing the NMEA files
+     * @param inputPattern
+     *            pattern for the NMEA filenames
+     * @param output
+     *            directory for the track files (deleted first)
+     * @param logEvery
+     *            log progress every this many fixes
+     * @param scheduler
+     *            scheduler for parsing and for the partitions
+     * @param downSampleIntervalMs
+     *            minimum time between fixes in a track file (0 for no
+     *            downsampling)
+     * @param fileMapper
+     *            maps a fix to its track filename (must only depend on the
+     *            mmsi and time of the fix)
+     * @param partitions
+     *            number of partitions
+     * @param memoryBudgetBytes
+     *            memory shared by the partitions for buffering fixes
+     * @return the number of fixes written followed by the number of track
+     *         files written
+     */
+    public static Observable<Integer> writeFixesFromNmeaGz(File input, Pattern inputPattern,
+            File output, int logEvery, Scheduler scheduler, long downSampleIntervalMs,
+            Func1<Fix, String> fileMapper, int partitions, long memoryBudgetBytes) {
+        return writeFixesFromNmeaGz(input, inputPattern, output, logEvery, scheduler,
+                downSampleIntervalMs, fileMapper, partitions, memoryBudgetBytes,
+                NmeaLineBatchReader.DEFAULT_LINES_PER_BATCH);
+    }
+
+    private static Observable<Integer> writeFixesFromNmeaGz(File input, Pattern inputPattern,
+            File output, int logEvery, Scheduler scheduler, long downSampleIntervalMs,
+            Func1<Fix, String> fileMapper, int partitions, long memoryBudgetBytes,
+            int linesPerBatch) {
+        return Observable.defer(() -> {
+            final List<File> fileList = Files.find(input, inputPattern);
+            Action1<File> logger = createFileLogger(fileList);
+            long partitionMemoryBudgetBytes = Math.max(1, memoryBudgetBytes / partitions);
+            AtomicInteger numTrackFiles = new AtomicInteger();
+
+            deleteDirectory(output);
+
+            int processors = Runtime.getRuntime().availableProcessors();
+            // one thread decompressing a file keeps about four threads busy
+            // parsing its batches
+            int concurrentFiles = Math.max(1, (processors + 3) / 4);
+
+            return Observable.from(fileList)
+                    // log
+                    .doOnNext(logger)
+                    // extract fixes from a few files at a time, parsing each file
+                    // in batches on all processors so that one large file does
+                    // not hold up the job
+                    .flatMap(file -> extractFixesFromGzip(file.getAbsoluteFile(),
+                            linesPerBatch, processors, scheduler)
+                                    .doOnError(e -> log.warn("problem reading file " + file
+                                            + ": " + e.getMessage()))
+                                    .onErrorResumeNext(Observable.empty()),
+                            concurrentFiles)
+                    // log
+                    .lift(Logging.<Fix> logger().showCount().showMemory()
+                            .showRateSince("rate", 5000).every(logEvery).log())
+                    // partition by mmsi so that each track file belongs to one
+                    // partition
+                    .groupBy(fix -> (fix.mmsi() & Integer.MAX_VALUE) % partitions)
+                    // buffer and sort each partition on its own thread
+                    .flatMap(g -> g.observeOn(scheduler)
+                            // buffer, spilling sorted runs as required
+                            .collect(() -> new BinaryFixesRunWriter(fileMapper,
+                                    partitionMemoryBudgetBytes, downSampleIntervalMs),
+                                    (writer, fix) -> writer.add(fix))
+                            // merge the runs into the track files
+                            .doOnNext(writer -> numTrackFiles.addAndGet(writer.finish()))
+                            // count the fixes
+                            .map(writer -> writer.fixesAdded()))
+                    // total the fixes
+                    .reduce(0L, (a, b) -> a + b)
+                    // log
+                    .doOnNext(n -> log.info("wrote " + n + " fixes to " + numTrackFiles.get()
+                            + " track files"))
+                    // emit the counts
+                    .concatMap(n -> Observable.just((int) (long) n, numTrackFiles.get()));
+        });
+    }
 
+    private static Action1<File> createFileLogger(final List<File> fileList) {
         // count files across parallel streams
-        // OperatorLogging<File> logger = Logging.<File> logger().showCount()
-        // .showRateSinceStart("rateFilesPerSecond").showValue().log();
-        Action1<File> logger = new Action1<File>() {
+        return new Action1<File>() {
             AtomicInteger count = new AtomicInteger();
             Long start = null;
 
@@ -749,28 +1078,6 @@ public class Streams {
                         + ", rateFilesPerSecond=" + filesPerSecond);
             }
         };
-
-        deleteDirectory(output);
-
-        return files
-                // log the filename
-                .buffer(Math.max(fileList.size() / Runtime.getRuntime().availableProcessors(), 1))
-                // extract fixes
-                .flatMap(extractFixesFromNmeaGzAndAppendToFile(linesPerProcessor, scheduler,
-                        fileMapper, writeBufferSize, logger), 1)
-                // count number written fixes
-                .scan(0, (a, b) -> a + b)
-                // log
-                .lift(Logging.<Integer> logger().showCount().showMemory()
-                        .showRateSince("rate", 5000).every(logEvery).log())
-                // get the final count
-                .last()
-                // on completion of writing fixes, sort the track files and emit
-                // the count of files
-                .doOnCompleted(
-                        () -> log.info("completed converting nmea to binary fixes, starting sort"))
-                .concatWith(BinaryFixes.sortBinaryFixFilesByTime(output, downSampleIntervalMs,
-                        scheduler));
     }
 
     private static void deleteDirectory(File output) {
@@ -21,6 +21,17 @@ public final class SixBit {
 		return toSixbit;
 	}
 
+	/**
+	 * Returns the six bit value of the sixBit ascii character or -1 if the
+	 * character is not a legal sixBit character.
+	 * 
+	 * @param chr
+	 * @return
+	 */
+	public static int toSixBit(char chr) {
+		return INT_TO_SIX_BIT[chr];
+	}
+
 	/**
 	 * Converts sixBit string characters to bits (boolean values in the array
 	 * bitSet) but just between the bit range {@code from} to {@code to}
@@ -154,7 +165,7 @@ public final class SixBit {
 	 * @param val
 	 * @return
 	 */
-	private static int intToAscii(int val) {
+	public static int intToAscii(int val) {
 		if (val > 63) {
 			throw new SixBitException("Char value " + val + " not allowed");
 		} else if (val < 32) {
@@ -0,0 +1,203 @@
+package au.gov.amsa.util.nmea;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits the bytes read from an {@link InputStream} into batches of whole
+ * lines so that the lines can be parsed concurrently (for example with an
+ * {@link NmeaLineReader} per batch). The reader only scans for line
+ * terminators, it does not parse the lines, apart from the last lines of each
+ * batch: if a group of multi-line sentence fragments in those lines is missing
+ * its last fragment then the batch ends before the first fragment of the group
+ * and the lines from there are carried into the next batch, so the fragments
+ * of a group are parsed together even when they are not adjacent. If the
+ * group starts the batch then the batch is extended instead.
+ *
+ * <p>
+ * Each batch is returned in its own byte array (the bytes read past the end of
+ * a batch are copied to the start of the array for the next batch) so a batch
+ * may be handed to another thread.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class NmeaLineBatchReader implements Closeable {
+
+    public static final int DEFAULT_LINES_PER_BATCH = 8192;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    // number of lines at the end of a batch checked for incomplete groups,
+    // also the maximum number of lines a batch is extended by
+    private static final int TAIL_LINES = 64;
+
+    private final InputStream is;
+    private final int linesPerBatch;
+    private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+    // starts of the last TAIL_LINES lines of the batch (a ring)
+    private final int[] lineStarts = new int[TAIL_LINES];
+    // start of the first fragment of each incomplete group in the tail
+    private final Map<String, Integer> incomplete = new HashMap<String, Integer>();
+    // the batch being read, starts with bytes carried over from the previous
+    // batch
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    // end of the bytes read into the buffer
+    private int limit;
+    private boolean eof;
+    private long batches;
+
+    public NmeaLineBatchReader(InputStream is, int linesPerBatch) {
+        if (linesPerBatch <= 0)
+            throw new IllegalArgumentException("linesPerBatch must be positive");
+        this.is = is;
+        this.linesPerBatch = linesPerBatch;
+    }
+
+    public NmeaLineBatchReader(InputStream is) {
+        this(is, DEFAULT_LINES_PER_BATCH);
+    }
+
+    /**
+     * Returns the next batch of lines (wrapping a byte array owned by the
+     * caller from then on) or null if there are no more bytes. A batch
+     * contains about {@code linesPerBatch} lines: fewer if lines at the end
+     * are carried into the next batch, more if it is extended to complete a
+     * group.
+     *
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer next() throws IOException {
+        int lines = 0;
+        int lineStart = 0;
+        int end = -1;
+        int i = 0;
+        while (end == -1) {
+            byte[] b = buffer;
+            while (i < limit) {
+                if (b[i] == '\n') {
+                    lineStarts[lines % TAIL_LINES] = lineStart;
+                    lines++;
+                    if (lines >= linesPerBatch) {
+                        int carry = incompleteGroupStart(lines, i + 1);
+                        if (carry > 0) {
+                            end = carry;
+                            break;
+                        } else if (carry == -1 || lines - linesPerBatch >= TAIL_LINES) {
+                            end = i + 1;
+                            break;
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+                i++;
+            }
+            if (end == -1) {
+                if (eof)
+                    end = limit;
+                else
+                    fill();
+            }
+        }
+        if (end == 0)
+            return null;
+        byte[] batch = buffer;
+        // carry the remaining bytes over to the next batch
+        buffer = new byte[batch.length];
+        limit -= end;
+        System.arraycopy(batch, end, buffer, 0, limit);
+        batches++;
+        return ByteBuffer.wrap(batch, 0, end);
+    }
+
+    /**
+     * Returns the start of the earliest fragment of the groups in the last
+     * lines of the batch that do not have their last fragment, or -1 if there
+     * are none. {@code end} is the end of the last line.
+     */
+    private int incompleteGroupStart(int lines, int end) {
+        incomplete.clear();
+        int n = Math.min(lines, TAIL_LINES);
+        for (int k = lines - n; k < lines; k++) {
+            int start = lineStarts[k % TAIL_LINES];
+            int finish = k == lines - 1 ? end : lineStarts[(k + 1) % TAIL_LINES];
+            addFragment(start, finish);
+        }
+        int first = -1;
+        for (int start : incomplete.values())
+            if (first == -1 || start < first)
+                first = start;
+        return first;
+    }
+
+    /**
+     * Records the line {@code buffer[start, end)} in {@link #incomplete} if it
+     * is a fragment of a multi-line sentence that is followed by more
+     * fragments and removes its group if it is the last fragment.
+     */
+    private void addFragment(int start, int end) {
+        if (end > start && buffer[end - 1] == '\n')
+            end--;
+        if (end > start && buffer[end - 1] == '\r')
+            end--;
+        if (end == start)
+            return;
+        NmeaTokenizer t = tokenizer;
+        t.tokenize(buffer, start, end - start);
+        if (!t.isWellFormed())
+            return;
+        String key;
+        int index;
+        int count;
+        if (t.groupTag() != -1) {
+            index = t.groupField(0);
+            count = t.groupField(1);
+            key = "g" + t.groupField(2);
+        } else if (t.itemCount() > 4 && t.isIntItem(1) && t.isIntItem(2)) {
+            count = t.intItem(1);
+            index = t.intItem(2);
+            key = t.item(3) + "," + t.item(4);
+        } else
+            return;
+        if (index == -1 || count == -1 || count == 1)
+            return;
+        else if (index < count)
+            incomplete.putIfAbsent(key, start);
+        else
+            incomplete.remove(key);
+    }
+
+    // reads more bytes into the buffer, growing it if full
+    private void fill() throws IOException {
+        if (limit == buffer.length) {
+            byte[] b = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, b, 0, limit);
+            buffer = b;
+        }
+        int n = is.read(buffer, limit, buffer.length - limit);
+        if (n == -1)
+            eof = true;
+        else
+            limit += n;
+    }
+
+    /**
+     * Returns the number of batches returned by {@link #next()} so far.
+     *
+     * @return
+     */
+    public long batches() {
+        return batches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        is.close();
+    }
+
+}
@@ -0,0 +1,143 @@
+package au.gov.amsa.util.nmea;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads NMEA lines from an {@link InputStream} into a byte buffer and
+ * tokenizes each line in place with an {@link NmeaTokenizer}, so no
+ * {@link String} is created per line unless asked for. Lines are terminated by
+ * {@code \n} (a trailing {@code \r} is dropped) and empty lines are skipped.
+ *
+ * <p>
+ * Not thread safe. The tokenizer returned by {@link #tokenizer()} is reused and
+ * is only valid until the next call to {@link #next()}.
+ */
+public final class NmeaLineReader implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream is;
+    private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+    private byte[] buffer;
+    // start of the unread bytes in the buffer
+    private int position;
+    // end of the bytes read into the buffer
+    private int limit;
+    private boolean eof;
+    private long lines;
+
+    public NmeaLineReader(InputStream is, int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize must be positive");
+        this.is = is;
+        this.buffer = new byte[bufferSize];
+    }
+
+    public NmeaLineReader(InputStream is) {
+        this(is, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the lines in {@code bytes[offset, offset + length)} in place
+     * without copying them (for example a batch from
+     * {@link NmeaLineBatchReader}).
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public NmeaLineReader(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length);
+        this.is = null;
+        this.buffer = bytes;
+        this.position = offset;
+        this.limit = offset + length;
+        this.eof = true;
+    }
+
+    /**
+     * Advances to and tokenizes the next non-empty line. Returns false if
+     * there are no more lines. The line may not be valid NMEA (check
+     * {@link NmeaTokenizer#isValid()}).
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int lineStart = position;
+            int lineEnd = indexOfNewLine(lineStart);
+            if (lineEnd == -1) {
+                if (eof) {
+                    if (position == limit)
+                        return false;
+                    // last line has no terminator
+                    lineEnd = limit;
+                    position = limit;
+                } else {
+                    fill();
+                    continue;
+                }
+            } else
+                position = lineEnd + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+                lineEnd--;
+            if (lineEnd > lineStart) {
+                tokenizer.tokenize(buffer, lineStart, lineEnd - lineStart);
+                lines++;
+                return true;
+            }
+        }
+    }
+
+    private int indexOfNewLine(int from) {
+        byte[] b = buffer;
+        for (int i = from; i < limit; i++)
+            if (b[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    // reads more bytes into the buffer keeping the unread bytes
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            // line longer than the buffer
+            byte[] b = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, b, 0, remaining);
+            buffer = b;
+        }
+        position = 0;
+        limit = remaining;
+        int n = is.read(buffer, limit, buffer.length - limit);
+        if (n == -1)
+            eof = true;
+        else
+            limit += n;
+    }
+
+    public NmeaTokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Returns the number of lines returned by {@link #next()} so far.
+     *
+     * @return
+     */
+    public long lines() {
+        return lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (is != null)
+            is.close();
+    }
+
+}
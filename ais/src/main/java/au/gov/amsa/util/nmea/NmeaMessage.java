@@ -164,6 +164,18 @@ public class NmeaMessage {
             return null;
     }
 
+    /**
+     * Returns true if the sentence grouping is from the tag block ('g:' or
+     * NMEA 4.1 tags like '1G2') rather than from the sentence columns (in
+     * which case the group id is the sequential message id and is only unique
+     * for a source and channel).
+     * 
+     * @return
+     */
+    public boolean isSentenceGroupedByTagBlock() {
+        return sentenceInfo != null && sentenceInfo.fromTagBlock;
+    }
+
     /**
      * Returns a recalculated checksum.
      * 
@@ -192,7 +204,7 @@ public class NmeaMessage {
                 int number = Integer.parseInt(parts[0]);
                 int count = Integer.parseInt(parts[1]);
                 String id = parts[2];
-                return new SentenceInfo(number, count, id);
+                return new SentenceInfo(number, count, id, true);
 
             } else {
                 // look for new style NMEA 4.1.0 sentence grouping tag (e.g.
@@ -204,7 +216,7 @@ public class NmeaMessage {
                         int count = Integer.parseInt(matcher.group(2));
                         String id = entry.getValue();
                         // found it so return the sentence info
-                        return new SentenceInfo(number, count, id);
+                        return new SentenceInfo(number, count, id, true);
                     }
                 }
                 // didn't find the grouping tag
@@ -212,7 +224,7 @@ public class NmeaMessage {
                     int number = Integer.parseInt(items.get(2));
                     int count = Integer.parseInt(items.get(1));
                     String id = items.get(3);
-                    return new SentenceInfo(number, count, id);
+                    return new SentenceInfo(number, count, id, false);
                 } else
                     return null;
             }
@@ -229,12 +241,14 @@ public class NmeaMessage {
         int number;
         int count;
         String id;
+        boolean fromTagBlock;
 
-        public SentenceInfo(int number, int count, String id) {
+        public SentenceInfo(int number, int count, String id, boolean fromTagBlock) {
             super();
             this.number = number;
             this.count = count;
             this.id = id;
+            this.fromTagBlock = fromTagBlock;
         }
     }
 
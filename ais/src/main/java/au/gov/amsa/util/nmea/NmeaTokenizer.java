@@ -0,0 +1,550 @@
+package au.gov.amsa.util.nmea;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizes an NMEA line (with optional tag block) in a single pass without
+ * allocating substrings. The positions of the tag block fields and of the
+ * sentence columns are recorded as offsets into the line and the sentence
+ * checksum is validated. The line can be a {@link CharSequence} or ASCII bytes
+ * (for example straight from the buffer of a decompressor).
+ *
+ * <p>
+ * An instance is reused for every line so it is mutable and not thread safe.
+ * Values are only valid until the next call to a {@code tokenize} method. The
+ * tokenizer is itself a {@link CharSequence} over the current line so that
+ * columns can be passed on (for example to a six bit decoder) by offset.
+ */
+public final class NmeaTokenizer implements CharSequence {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the line is either bytes or chars
+    private byte[] bytes;
+    private CharSequence chars;
+    private int start;
+    private int end;
+
+    private boolean valid;
+    private boolean checksumValid;
+    private boolean tagBlockChecksumValid;
+    private boolean tagBlockHasChecksum;
+
+    // tag block (NMEA v4.0), -1 if absent
+    private int tagBlockEnd;
+    private int tagCount;
+    private int[] tagKeyStarts = new int[INITIAL_CAPACITY];
+    private int[] tagValueStarts = new int[INITIAL_CAPACITY];
+    private int[] tagValueEnds = new int[INITIAL_CAPACITY];
+    private int timeTag;
+    private int sourceTag;
+    private int groupTag;
+
+    // sentence columns, first column includes the leading ! or $
+    private int itemCount;
+    private int[] itemStarts = new int[INITIAL_CAPACITY];
+    private int[] itemEnds = new int[INITIAL_CAPACITY];
+    private int checksumStart;
+
+    /**
+     * Tokenizes the line. Offsets reported by this tokenizer are relative to
+     * the start of the line.
+     *
+     * @param line
+     * @return {@link #isValid()}
+     */
+    public boolean tokenize(CharSequence line) {
+        this.bytes = null;
+        this.chars = line;
+        this.start = 0;
+        this.end = line.length();
+        return tokenize();
+    }
+
+    /**
+     * Tokenizes the ASCII bytes {@code bytes[offset, offset + length)} which
+     * should not include the line terminator. The bytes must not be changed
+     * while the values of this tokenizer are in use.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return {@link #isValid()}
+     */
+    public boolean tokenize(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.chars = null;
+        this.start = offset;
+        this.end = offset + length;
+        return tokenize();
+    }
+
+    /**
+     * Tokenizes the remaining bytes of the buffer (without changing its
+     * position). Heap buffers are read in place, direct buffers are copied.
+     *
+     * @param bb
+     * @return {@link #isValid()}
+     */
+    public boolean tokenize(ByteBuffer bb) {
+        if (bb.hasArray()) {
+            return tokenize(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+        } else {
+            byte[] b = new byte[bb.remaining()];
+            bb.duplicate().get(b);
+            return tokenize(b, 0, b.length);
+        }
+    }
+
+    private boolean tokenize() {
+        tagCount = 0;
+        itemCount = 0;
+        tagBlockEnd = -1;
+        timeTag = -1;
+        sourceTag = -1;
+        groupTag = -1;
+        checksumStart = -1;
+        checksumValid = false;
+        tagBlockChecksumValid = false;
+        tagBlockHasChecksum = false;
+        valid = tokenizeTagBlock() && tokenizeSentence();
+        return isValid();
+    }
+
+    private boolean tokenizeTagBlock() {
+        int length = length();
+        if (length == 0 || at(0) != '\\')
+            return true;
+        int checksum = 0;
+        int fieldStart = 1;
+        int colon = -1;
+        for (int i = 1; i < length; i++) {
+            char ch = at(i);
+            if (ch == '\\' || ch == '*' || ch == ',') {
+                if (fieldStart < i) {
+                    if (colon == -1)
+                        return false;
+                    addTag(fieldStart, colon + 1, i);
+                } else if (ch != '\\')
+                    // empty field (rejected by NmeaMessageParser too)
+                    return false;
+                if (ch == '*') {
+                    tagBlockHasChecksum = true;
+                    int close = indexOf('\\', i + 1);
+                    if (close == -1)
+                        return false;
+                    tagBlockChecksumValid = checksumMatches(checksum, i + 1, close);
+                    i = close;
+                }
+                if (at(i) == '\\') {
+                    tagBlockEnd = i;
+                    return true;
+                }
+                fieldStart = i + 1;
+                colon = -1;
+            } else if (ch == ':' && colon == -1)
+                colon = i;
+            checksum ^= ch;
+        }
+        // no closing backslash
+        return false;
+    }
+
+    private void addTag(int keyStart, int valueStart, int valueEnd) {
+        if (tagCount == tagKeyStarts.length) {
+            tagKeyStarts = grow(tagKeyStarts);
+            tagValueStarts = grow(tagValueStarts);
+            tagValueEnds = grow(tagValueEnds);
+        }
+        tagKeyStarts[tagCount] = keyStart;
+        tagValueStarts[tagCount] = valueStart;
+        tagValueEnds[tagCount] = valueEnd;
+        if (valueStart - keyStart == 2) {
+            char key = at(keyStart);
+            if (key == 'c')
+                timeTag = tagCount;
+            else if (key == 's')
+                sourceTag = tagCount;
+            else if (key == 'g')
+                groupTag = tagCount;
+        }
+        tagCount++;
+    }
+
+    private boolean tokenizeSentence() {
+        int length = length();
+        int from = tagBlockEnd + 1;
+        if (from >= length)
+            // tag block only
+            return true;
+        int checksum = 0;
+        int itemStart = from;
+        for (int i = from; i < length; i++) {
+            char ch = at(i);
+            if (ch == ',' || ch == '*') {
+                addItem(itemStart, i);
+                itemStart = i + 1;
+                if (ch == '*') {
+                    checksumStart = i + 1;
+                    checksumValid = checksumMatches(checksum, i + 1, length);
+                    return true;
+                }
+            }
+            // same characters excluded as NmeaUtil.getChecksum
+            if (ch != '$' && ch != '!')
+                checksum ^= ch;
+        }
+        // checksum delimiter * not found
+        return false;
+    }
+
+    private void addItem(int from, int to) {
+        if (itemCount == itemStarts.length) {
+            itemStarts = grow(itemStarts);
+            itemEnds = grow(itemEnds);
+        }
+        itemStarts[itemCount] = from;
+        itemEnds[itemCount] = to;
+        itemCount++;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] b = new int[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private boolean checksumMatches(int checksum, int from, int to) {
+        if (to - from < 2)
+            return false;
+        int hi = Character.digit(at(from), 16);
+        int lo = Character.digit(at(from + 1), 16);
+        return hi != -1 && lo != -1 && (hi << 4 | lo) == (checksum & 0xFF);
+    }
+
+    private int indexOf(char ch, int from) {
+        int length = length();
+        for (int i = from; i < length; i++)
+            if (at(i) == ch)
+                return i;
+        return -1;
+    }
+
+    private char at(int index) {
+        if (bytes != null)
+            return (char) (bytes[start + index] & 0xFF);
+        else
+            return chars.charAt(index);
+    }
+
+    /**
+     * Returns true if and only if the line was well formed (tag block
+     * terminated and tag fields of the form {@code key:value}, sentence has a
+     * checksum delimiter) and the sentence checksum matched. The tag block
+     * checksum is not required to match (see
+     * {@link #isTagBlockChecksumValid()}).
+     *
+     * @return
+     */
+    public boolean isValid() {
+        return valid && checksumValid;
+    }
+
+    /**
+     * Returns true if and only if the line was well formed regardless of
+     * whether the checksums matched.
+     *
+     * @return
+     */
+    public boolean isWellFormed() {
+        return valid;
+    }
+
+    public boolean isChecksumValid() {
+        return checksumValid;
+    }
+
+    public boolean isTagBlockChecksumValid() {
+        return tagBlockChecksumValid;
+    }
+
+    public boolean hasTagBlock() {
+        return tagBlockEnd != -1;
+    }
+
+    /**
+     * Returns true if and only if the tag block has a checksum delimiter (note
+     * that {@link NmeaMessageParser} ignores the tags of a tag block without
+     * one).
+     *
+     * @return
+     */
+    public boolean hasTagBlockChecksum() {
+        return tagBlockHasChecksum;
+    }
+
+    public int tagCount() {
+        return tagCount;
+    }
+
+    public int tagKeyStart(int index) {
+        return tagKeyStarts[index];
+    }
+
+    public int tagKeyEnd(int index) {
+        return tagValueStarts[index] - 1;
+    }
+
+    public int tagValueStart(int index) {
+        return tagValueStarts[index];
+    }
+
+    public int tagValueEnd(int index) {
+        return tagValueEnds[index];
+    }
+
+    /**
+     * Returns the index of the tag with the given key or -1 if not present.
+     *
+     * @param key
+     * @return
+     */
+    public int tagIndex(CharSequence key) {
+        for (int i = 0; i < tagCount; i++) {
+            if (regionEquals(tagKeyStart(i), tagKeyEnd(i), key))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the {@code c:} tag or -1 if not present.
+     *
+     * @return
+     */
+    public int timeTag() {
+        return timeTag;
+    }
+
+    /**
+     * Returns the index of the {@code s:} tag or -1 if not present.
+     *
+     * @return
+     */
+    public int sourceTag() {
+        return sourceTag;
+    }
+
+    /**
+     * Returns the index of the {@code g:} tag or -1 if not present.
+     *
+     * @return
+     */
+    public int groupTag() {
+        return groupTag;
+    }
+
+    /**
+     * Returns true if and only if the {@code c:} tag is present and is an
+     * integer.
+     *
+     * @return
+     */
+    public boolean hasTime() {
+        return timeTag != -1
+                && isDigits(tagValueStarts[timeTag], tagValueEnds[timeTag]);
+    }
+
+    /**
+     * Returns the {@code c:} tag value (unix time in seconds) multiplied by
+     * 1000. Check {@link #hasTime()} first.
+     *
+     * @return
+     */
+    public long unixTimeMillis() {
+        return parseLong(tagValueStarts[timeTag], tagValueEnds[timeTag]) * 1000;
+    }
+
+    /**
+     * Returns the value of field {@code index} of the {@code g:} tag (of the
+     * form {@code sentenceNumber-sentenceCount-groupId}) or -1 if not present
+     * or not an integer.
+     *
+     * @param index
+     *            0 for sentence number, 1 for sentence count, 2 for group id
+     * @return
+     */
+    public int groupField(int index) {
+        if (groupTag == -1)
+            return -1;
+        int from = tagValueStarts[groupTag];
+        int to = tagValueEnds[groupTag];
+        int fieldStart = from;
+        int field = 0;
+        for (int i = from; i <= to; i++) {
+            if (i == to || at(i) == '-') {
+                if (field == index) {
+                    if (fieldStart == i || i - fieldStart > 9 || !isDigits(fieldStart, i))
+                        return -1;
+                    else
+                        return (int) parseLong(fieldStart, i);
+                }
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of sentence columns (comma delimited, the first
+     * includes the leading {@code !} or {@code $} and the checksum is
+     * excluded).
+     *
+     * @return
+     */
+    public int itemCount() {
+        return itemCount;
+    }
+
+    public int itemStart(int index) {
+        return itemStarts[index];
+    }
+
+    public int itemEnd(int index) {
+        return itemEnds[index];
+    }
+
+    /**
+     * Returns the offset of the two hex digits of the sentence checksum or -1
+     * if not present.
+     *
+     * @return
+     */
+    public int checksumStart() {
+        return checksumStart;
+    }
+
+    /**
+     * Returns true if and only if item {@code index} is present and is a
+     * non-negative integer.
+     *
+     * @param index
+     * @return
+     */
+    public boolean isIntItem(int index) {
+        return index < itemCount && itemEnds[index] > itemStarts[index]
+                && itemEnds[index] - itemStarts[index] <= 9
+                && isDigits(itemStarts[index], itemEnds[index]);
+    }
+
+    /**
+     * Returns item {@code index} parsed as a non-negative integer. Check
+     * {@link #isIntItem(int)} first.
+     *
+     * @param index
+     * @return
+     */
+    public int intItem(int index) {
+        return (int) parseLong(itemStarts[index], itemEnds[index]);
+    }
+
+    /**
+     * Returns true if and only if the sentence is an AIS sentence
+     * ({@code VDM} or {@code VDO} with any talker) with at least 7 columns.
+     *
+     * @return
+     */
+    public boolean isAis() {
+        if (itemCount < 7)
+            return false;
+        int from = itemStarts[0];
+        int to = itemEnds[0];
+        return to - from == 6 && at(to - 3) == 'V' && at(to - 2) == 'D'
+                && (at(to - 1) == 'M' || at(to - 1) == 'O');
+    }
+
+    public String tag(int index) {
+        return substring(tagValueStarts[index], tagValueEnds[index]);
+    }
+
+    public String item(int index) {
+        return substring(itemStarts[index], itemEnds[index]);
+    }
+
+    /**
+     * Returns the current line as a String (allocates).
+     *
+     * @return
+     */
+    public String line() {
+        return substring(0, length());
+    }
+
+    /**
+     * Returns an {@link NmeaMessage} equivalent to
+     * {@code NmeaUtil.parseNmea(line())}. Throws
+     * {@link NmeaMessageParseException} if the line is not well formed.
+     *
+     * @return
+     */
+    public NmeaMessage toNmeaMessage() {
+        return NmeaUtil.parseNmea(line());
+    }
+
+    public boolean regionEquals(int from, int to, CharSequence s) {
+        if (to - from != s.length())
+            return false;
+        for (int i = from; i < to; i++)
+            if (at(i) != s.charAt(i - from))
+                return false;
+        return true;
+    }
+
+    private boolean isDigits(int from, int to) {
+        if (from == to)
+            return false;
+        for (int i = from; i < to; i++) {
+            char ch = at(i);
+            if (ch < '0' || ch > '9')
+                return false;
+        }
+        return true;
+    }
+
+    private long parseLong(int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++)
+            value = value * 10 + (at(i) - '0');
+        return value;
+    }
+
+    private String substring(int from, int to) {
+        if (bytes != null)
+            return new String(bytes, start + from, to - from, StandardCharsets.ISO_8859_1);
+        else
+            return chars.subSequence(from, to).toString();
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return at(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return substring(from, to);
+    }
+
+    @Override
+    public String toString() {
+        return line();
+    }
+
+}
@@ -0,0 +1,131 @@
+package au.gov.amsa.ais;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import au.gov.amsa.util.nmea.NmeaMessage;
+import au.gov.amsa.util.nmea.NmeaUtil;
+
+public class AisNmeaReassemblerTest {
+
+    private static final String A1 = "\\s:a,c:1334278696*00\\!AIVDM,2,1,3,A,55DSBL02<Dm7<I`OP005<T4r0hTiT00000000016=hJ<855f?>kV`54Qh000,0*00";
+    private static final String A2 = "\\s:a,c:1334278696*00\\!AIVDM,2,2,3,A,00000000002,0*00";
+    private static final String B1 = "\\s:a,c:1334278696*00\\!AIVDM,2,1,3,B,54`98002>?A1`<AGD00lEBr0PD5@PE:1<4hiT01CKh`IC4w8NKjCPj1Ck`2k,0*00";
+    private static final String B2 = "\\s:a,c:1334278696*00\\!AIVDM,2,2,3,B,lQ@@0000002,0*00";
+
+    @Test
+    public void testGroupsWithSameIdOnDifferentChannelsAreSeparate() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10);
+        assertFalse(r.add(nmea(A1), 0).isPresent());
+        assertFalse(r.add(nmea(B1), 0).isPresent());
+        assertEquals(2, r.size());
+        List<NmeaMessage> b = r.add(nmea(B2), 0).get();
+        assertEquals(2, b.size());
+        assertEquals("B", b.get(0).getItems().get(4));
+        assertEquals("B", b.get(1).getItems().get(4));
+        List<NmeaMessage> a = r.add(nmea(A2), 0).get();
+        assertEquals("1", a.get(0).getItems().get(2));
+        assertEquals("2", a.get(1).getItems().get(2));
+        assertEquals(0, r.size());
+    }
+
+    @Test
+    public void testGroupsWithSameIdFromDifferentSourcesAreSeparate() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10);
+        assertFalse(r.add(nmea(A1), 0).isPresent());
+        assertFalse(r.add(nmea(A2.replace("s:a", "s:b")), 0).isPresent());
+        assertEquals(2, r.size());
+    }
+
+    @Test
+    public void testFragmentsAreReturnedInSentenceOrder() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10);
+        assertFalse(r.add(nmea(A2), 0).isPresent());
+        List<NmeaMessage> list = r.add(nmea(A1), 0).get();
+        assertEquals(1, (int) list.get(0).getSentenceNumber());
+        assertEquals(2, (int) list.get(1).getSentenceNumber());
+    }
+
+    @Test
+    public void testRepeatedFragmentDoesNotCompleteGroup() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10);
+        assertFalse(r.add(nmea(A1), 0).isPresent());
+        assertFalse(r.add(nmea(A1), 0).isPresent());
+        assertEquals(1, r.size());
+        assertTrue(r.add(nmea(A2), 0).isPresent());
+    }
+
+    @Test
+    public void testStaleFragmentsExpire() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10, 1000);
+        assertFalse(r.add(nmea(A1), 0).isPresent());
+        assertFalse(r.add(nmea(B1), 500).isPresent());
+        // A1 has expired
+        assertFalse(r.add(nmea(A2), 1001).isPresent());
+        assertEquals(2, r.size());
+        assertTrue(r.add(nmea(B2), 1400).isPresent());
+        assertEquals(1, r.size());
+    }
+
+    @Test
+    public void testTagBlockGroupIgnoresSource() {
+        AisNmeaReassembler r = new AisNmeaReassembler(10);
+        assertFalse(r.add(nmea("\\1G2:20856,s:Vlamingh Head,c:1479865268*6D\\"), 0)
+                .isPresent());
+        Optional<List<NmeaMessage>> list = r.add(
+                nmea("\\2G2:20856*44\\!ABVDM,1,1,5,A,13ohwb30068B1uEldHQ05UNB0L0S,0*24"), 0);
+        assertTrue(list.isPresent());
+        assertEquals("Vlamingh Head", list.get().get(0).getSource());
+    }
+
+    @Test
+    public void testMaxFragmentsIsHonouredAcrossShards() {
+        AisNmeaReassembler r = new AisNmeaReassembler(64);
+        for (int i = 0; i < 1000; i++)
+            r.add(nmea("\\g:1-2-" + i + "*00\\!AIVDM,2,1,3,A,55DSBL02,0*00"), 0);
+        assertTrue(r.size() <= 64);
+        assertTrue(r.size() > 32);
+    }
+
+    @Test
+    public void testConcurrentAddsCompleteAllGroups() throws InterruptedException {
+        AisNmeaReassembler r = new AisNmeaReassembler(1000);
+        NmeaMessage[][] messages = new NmeaMessage[4][];
+        for (int t = 0; t < messages.length; t++) {
+            String source = "s" + t;
+            messages[t] = new NmeaMessage[] { nmea(A1.replace("s:a", "s:" + source)),
+                    nmea(A2.replace("s:a", "s:" + source)) };
+        }
+        AtomicInteger completed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < messages.length; t++) {
+            NmeaMessage[] m = messages[t];
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    r.add(m[0], 0);
+                    if (r.add(m[1], 0).isPresent())
+                        completed.incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(messages.length * 10000, completed.get());
+        assertEquals(0, r.size());
+    }
+
+    private static NmeaMessage nmea(String line) {
+        return NmeaUtil.parseNmea(line);
+    }
+
+}
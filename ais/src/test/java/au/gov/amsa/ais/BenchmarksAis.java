@@ -7,8 +7,10 @@ import java.util.List;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
 
 import rx.Observable;
+import au.gov.amsa.ais.message.AisPositionA;
 import au.gov.amsa.ais.message.AisShipStaticA;
 import au.gov.amsa.ais.rx.Streams;
 import au.gov.amsa.util.nmea.NmeaMessage;
@@ -19,6 +21,8 @@ public class BenchmarksAis {
 	private static final String shipStaticA = "\\s:rEV02,c:1334337326*5A\\!ABVDM,1,1,0,2,57PBtv01sb5IH`PR221LE986222222222222220l28?554000:kQEhhDm31H20DPSmD`880,2*40";
 	private static final String aisPositionA = "\\s:rEV02,c:1334337326*5A\\!AIVDM,1,1,,B,18JSad001i5gcaArTICimQTT068t,0*4A";
 	private static final String aisPositionB = "\\s:MSQ - Mt Cootha,c:1426803365*73\\!AIVDM,1,1,,A,B7P?n900Irg8IHL4RblF?wRToP06,0*1B";
+	private static final String aisPositionAPayload = "18JSad001i5gcaArTICimQTT068t";
+	private static final String shipStaticAPayload = "57PBtv01sb5IH`PR221LE986222222222222220l28?554000:kQEhhDm31H20DPSmD`880";
 	private static final List<String> nmeaLines = Streams
 			.nmeaFromGzip(new File("src/test/resources/ais.txt.gz")).toList()
 			.toBlocking().single();
@@ -63,6 +67,45 @@ public class BenchmarksAis {
 		n.getMessage();
 	}
 
+	@Benchmark
+	public void extractAisPositionAUsingBooleanArrayExtractor(Blackhole bh) {
+		extractAisPositionA(Util.BOOLEAN_ARRAY_EXTRACTOR_FACTORY, bh);
+	}
+
+	@Benchmark
+	public void extractAisPositionAUsingPackedExtractor(Blackhole bh) {
+		extractAisPositionA(PackedAisExtractor.FACTORY, bh);
+	}
+
+	@Benchmark
+	public void extractShipStaticAUsingBooleanArrayExtractor(Blackhole bh) {
+		extractShipStaticA(Util.BOOLEAN_ARRAY_EXTRACTOR_FACTORY, bh);
+	}
+
+	@Benchmark
+	public void extractShipStaticAUsingPackedExtractor(Blackhole bh) {
+		extractShipStaticA(PackedAisExtractor.FACTORY, bh);
+	}
+
+	private static void extractAisPositionA(AisExtractorFactory factory, Blackhole bh) {
+		AisPositionA m = new AisPositionA(factory, aisPositionAPayload, null, 0);
+		bh.consume(m.getSpeedOverGroundKnots());
+		bh.consume(m.getCourseOverGround());
+		bh.consume(m.getTrueHeading());
+		bh.consume(m.getNavigationalStatus());
+		bh.consume(m.getRateOfTurn());
+		bh.consume(m.getTimeSecondsOnly());
+	}
+
+	private static void extractShipStaticA(AisExtractorFactory factory, Blackhole bh) {
+		AisShipStaticA m = new AisShipStaticA(factory, shipStaticAPayload, null, 2);
+		bh.consume(m.getName());
+		bh.consume(m.getShipType());
+		bh.consume(m.getImo());
+		bh.consume(m.getCallsign());
+		bh.consume(m.getDestination());
+	}
+
 	@Benchmark
 	public void parseMany() throws IOException {
 		// process 44K lines
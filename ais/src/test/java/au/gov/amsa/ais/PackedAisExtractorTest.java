@@ -0,0 +1,86 @@
+package au.gov.amsa.ais;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.gov.amsa.ais.message.AisPositionA;
+
+public class PackedAisExtractorTest {
+
+    private static final String SIX_BIT_CHARS = "0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVW`abcdefghijklmnopqrstuvw";
+
+    @Test
+    public void testExtractorGetsMessageId() {
+        String m = "1G72VO0335bPmqcabrJan7rl0000";
+        assertEquals(1, new PackedAisExtractor(m, 0, 0).getMessageId());
+    }
+
+    @Test(expected = AisParseException.class)
+    public void testExtractorConstructorThrowsAisParseExceptionIfMessageNotLongEnough() {
+        new PackedAisExtractor("1G72VO0335bPmqcabrJan7rl0000", 10000, 0);
+    }
+
+    @Test(expected = AisParseException.class)
+    public void testEmptyMessageThrowsAisParseException() {
+        new PackedAisExtractor("", 10, 0);
+    }
+
+    @Test(expected = AisParseException.class)
+    public void testArrayIndexOutOfBoundsThrowsAisParseException() {
+        new PackedAisExtractor("1G72VO0335bPmqcabrJan7rl0000", 0, 0).getValue(1000, 1005);
+    }
+
+    @Test(expected = AisParseException.class)
+    public void testReadingPadBitsThrowsAisParseException() {
+        new PackedAisExtractor("1G72VO0335bPmqcabrJan7rl0000", 0, 2).getValue(160, 168);
+    }
+
+    @Test
+    public void testIllegalCharOnlyThrowsWhenFieldSpansIt() {
+        // '!' is not a six bit char
+        AisExtractor ex = new PackedAisExtractor("1G72VO0335bPmqcab!Jan7rl0000", 0, 0);
+        assertEquals(1, ex.getMessageId());
+        try {
+            ex.getValue(100, 110);
+            throw new RuntimeException("expected AisParseException");
+        } catch (AisParseException e) {
+            assertTrue(e.getMessage().contains("!"));
+        }
+    }
+
+    @Test
+    public void testSameFieldsAsAisExtractorForPositionReport() {
+        String m = "18JSad001i5gcaArTICimQTT068t";
+        AisPositionA a = new AisPositionA(Util.BOOLEAN_ARRAY_EXTRACTOR_FACTORY, m, null, 0);
+        AisPositionA b = new AisPositionA(PackedAisExtractor.FACTORY, m, null, 0);
+        assertEquals(a.toString(), b.toString());
+    }
+
+    @Test
+    public void testSameValuesAsAisExtractorForRandomMessagesAndRanges() {
+        Random r = new Random(1234);
+        for (int k = 0; k < 1000; k++) {
+            int length = 1 + r.nextInt(80);
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < length; i++)
+                s.append(SIX_BIT_CHARS.charAt(r.nextInt(SIX_BIT_CHARS.length())));
+            int padBits = r.nextInt(6);
+            String m = s.toString();
+            AisExtractor a = new AisExtractor(m, 0, padBits);
+            AisExtractor b = new PackedAisExtractor(m, 0, padBits);
+            int numBits = length * 6 - padBits;
+            for (int j = 0; j < 50; j++) {
+                int from = r.nextInt(numBits);
+                int to = from + 1 + r.nextInt(Math.min(32, numBits - from));
+                assertEquals(a.getValue(from, to), b.getValue(from, to));
+                assertEquals(a.getSignedValue(from, to), b.getSignedValue(from, to));
+                assertEquals(a.getString(from, to), b.getString(from, to));
+            }
+        }
+    }
+
+}
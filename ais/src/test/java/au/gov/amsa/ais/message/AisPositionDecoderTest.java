@@ -0,0 +1,112 @@
+package au.gov.amsa.ais.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.gov.amsa.ais.AisNmeaMessage;
+import au.gov.amsa.ais.rx.Streams;
+
+public class AisPositionDecoderTest {
+
+    private static final double PRECISION = 0.0000001;
+
+    @Test
+    public void testDecodeClassA() {
+        AisPositionDecoder d = new AisPositionDecoder();
+        String payload = "18JSad001i5gcaArTICimQTT068t";
+        assertTrue(d.reset(payload, 0));
+        assertTrue(d.isClassA());
+        assertSame(new AisPositionA(payload, 0), d);
+    }
+
+    @Test
+    public void testDecodeClassB() {
+        AisPositionDecoder d = new AisPositionDecoder();
+        String payload = "B7P?n900Irg8IHL4RblF?wRToP06";
+        assertTrue(d.reset(payload, 0));
+        assertFalse(d.isClassA());
+        assertSame(new AisPositionB(payload, 0), d);
+    }
+
+    @Test
+    public void testDecodeColumnOfLineAndReuse() {
+        AisPositionDecoder d = new AisPositionDecoder();
+        String line = "!AIVDM,1,1,,B,18JSad001i5gcaArTICimQTT068t,0*4A";
+        assertTrue(d.reset(line, 14, 42, 0));
+        assertEquals(new AisPositionA("18JSad001i5gcaArTICimQTT068t", 0).getMmsi(), d.mmsi());
+        // static data report is not a position report
+        assertFalse(d.reset("57PBtv01sb5IH`PR221LE986222222222222220l28?554000:kQEhhDm31H20DPSmD`880", 2));
+        assertEquals(5, d.messageId());
+        // illegal character
+        assertFalse(d.reset("18JSad001i5gcaArTICimQTT06!t", 0));
+        assertEquals(AisPositionDecoder.NOT_AVAILABLE, d.messageId());
+        // too short
+        assertFalse(d.reset("18JSad001i5gcaArTICimQ", 0));
+    }
+
+    @Test
+    public void testSameAsMessageClassesForTestResources() {
+        AisPositionDecoder d = new AisPositionDecoder();
+        List<String> lines = Streams.nmeaFrom(new File("src/test/resources/exact-earth-with-tag-block.txt"))
+                .concatWith(Streams.nmeaFromGzip(new File("src/test/resources/ais.txt.gz")))
+                .toList().toBlocking().single();
+        int count = 0;
+        for (String line : lines) {
+            AisNmeaMessage n;
+            try {
+                n = new AisNmeaMessage(Streams.LINE_TO_NMEA_MESSAGE.call(line).get());
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (n.getFragmentCount() != 1)
+                continue;
+            String payload = n.getNmea().getItems().get(5);
+            if (d.reset(payload, n.getPadBits())) {
+                try {
+                    AisPosition p = (AisPosition) n.getMessage();
+                    assertSame(p, d);
+                    count++;
+                } catch (RuntimeException e) {
+                    // invalid lat or lon throws for class B
+                    assertTrue(Double.isNaN(d.latitude()) || Double.isNaN(d.longitude()));
+                }
+            }
+        }
+        assertTrue(count > 10000);
+    }
+
+    private static void assertSame(AisPosition p, AisPositionDecoder d) {
+        assertEquals(p.getMessageId(), d.messageId());
+        assertEquals(p.getRepeatIndicator(), d.repeatIndicator());
+        assertEquals(p.getMmsi(), d.mmsi());
+        assertEquals(value(p.getLatitude()), d.latitude(), PRECISION);
+        assertEquals(value(p.getLongitude()), d.longitude(), PRECISION);
+        assertEquals(value(p.getSpeedOverGroundKnots()), d.speedOverGroundKnots(), PRECISION);
+        assertEquals(p.isHighAccuracyPosition(), d.isHighAccuracyPosition());
+        Double cog = p.getCourseOverGround();
+        assertEquals(cog == null || cog >= 360 ? Double.NaN : cog, d.courseOverGround(),
+                PRECISION);
+        Integer heading = p.getTrueHeading();
+        assertEquals(heading == null || heading > 359 ? AisPositionDecoder.NOT_AVAILABLE
+                : (int) heading, d.trueHeading());
+        if (p instanceof AisPositionA) {
+            AisPositionA a = (AisPositionA) p;
+            assertTrue(d.isClassA());
+            assertEquals(a.getNavigationalStatus().ordinal(), d.navigationalStatus());
+            assertEquals(a.getRateOfTurn() == null ? -128 : (int) a.getRateOfTurn(),
+                    d.rateOfTurn());
+        }
+        assertEquals(p.getTimeSecondsOnly(), d.timeSecondsOnly());
+    }
+
+    private static double value(Double x) {
+        return x == null ? Double.NaN : x;
+    }
+
+}
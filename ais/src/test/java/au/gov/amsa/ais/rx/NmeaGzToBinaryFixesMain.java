@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import au.gov.amsa.risky.format.BinaryFixesSorter;
 import au.gov.amsa.risky.format.BinaryFixesWriter;
 import au.gov.amsa.risky.format.Fix;
 
@@ -37,13 +38,6 @@ public class NmeaGzToBinaryFixesMain {
 
         int logEvery = 100000;
 
-        // append fixes to a file once you have this many for the one mmsi
-        int writeBufferSize = 200;
-
-        // Note that the ring buffer size is twice the linesPerProcessor
-        final int ringBufferSize = 16 * 8192;
-        System.getProperty("rx.ring-buffer.size", ringBufferSize + "");
-        int linesPerProcessor = ringBufferSize / 2;
         // don't downsample
         long downSampleIntervalMs = TimeUnit.MINUTES.toMillis(0);
         Pattern inputPattern = Pattern.compile(pattern);
@@ -56,8 +50,10 @@ public class NmeaGzToBinaryFixesMain {
         else
             throw new RuntimeException("unknown file mapper (by):" + by);
 
-        Streams.writeFixesFromNmeaGz(input, inputPattern, output, logEvery, writeBufferSize,
-                Schedulers.computation(), linesPerProcessor, downSampleIntervalMs, fileMapper)
+        Streams.writeFixesFromNmeaGz(input, inputPattern, output, logEvery,
+                Schedulers.computation(), downSampleIntervalMs, fileMapper,
+                Runtime.getRuntime().availableProcessors(),
+                BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES)
                 .count().toBlocking().single();
         Thread.sleep(1000);
         // else {
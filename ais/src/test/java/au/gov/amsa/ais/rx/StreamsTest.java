@@ -6,12 +6,21 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import au.gov.amsa.ais.AisMessage;
@@ -24,6 +33,8 @@ import au.gov.amsa.risky.format.BinaryFixesWriter;
 import au.gov.amsa.risky.format.BinaryFixesWriter.ByMonth;
 import au.gov.amsa.risky.format.Fix;
 import au.gov.amsa.risky.format.NavigationalStatus;
+import au.gov.amsa.util.nmea.NmeaMessage;
+import au.gov.amsa.util.nmea.NmeaUtil;
 import rx.Observable;
 import rx.schedulers.Schedulers;
 
@@ -155,6 +166,125 @@ public class StreamsTest {
         assertEquals(85, f.listFiles().length);
     }
 
+    @Test
+    public void testWriteFixesFromNmeaGzGivesTimeOrderedTrackFiles() throws IOException {
+        File input = new File("target/nmea-gz");
+        FileUtils.deleteDirectory(input);
+        input.mkdirs();
+        try (InputStream is = StreamsTest.class.getResourceAsStream(NMEA_RESOURCE);
+                OutputStream os = new GZIPOutputStream(
+                        new FileOutputStream(new File(input, "nmea.txt.gz")))) {
+            IOUtils.copy(is, os);
+        }
+        int expectedFixes;
+        try (InputStream is = StreamsTest.class.getResourceAsStream(NMEA_RESOURCE)) {
+            expectedFixes = Streams.extractFixes(Streams.nmeaFrom(is)).count().toBlocking()
+                    .single();
+        }
+        File output = new File("target/binary-partitioned");
+        // small memory budget to force sorted runs to be spilled and merged
+        List<Integer> counts = Streams
+                .writeFixesFromNmeaGz(input, Pattern.compile(".*\\.gz"), output, 100000,
+                        Schedulers.computation(), 0, new ByMonth(output), 4, 4096)
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(expectedFixes, DISTINCT_MMSI), counts);
+        File month = new File(output, "2014" + File.separator + "12");
+        File[] files = month.listFiles();
+        assertEquals(DISTINCT_MMSI, files.length);
+        int total = 0;
+        for (File file : files) {
+            assertTrue(file.getName().endsWith(".track"));
+            List<Fix> fixes = BinaryFixes.from(file).toList().toBlocking().single();
+            for (int i = 1; i < fixes.size(); i++)
+                assertTrue(fixes.get(i - 1).time() <= fixes.get(i).time());
+            total += fixes.size();
+        }
+        assertEquals(expectedFixes, total);
+    }
+
+    @Test
+    public void testNmeaTokensFromGzipGivesSameMessagesAsNmeaFromGzip() {
+        File file = new File("src/test/resources/ais.txt.gz");
+        // nmeaTokensFromGzip skips empty lines
+        List<String> expected = Streams.nmeaFromGzip(file).map(Streams.LINE_TO_NMEA_MESSAGE)
+                .compose(Streams.<NmeaMessage> valueIfPresent())
+                .filter(m -> !m.getItems().isEmpty()).map(m -> m.getItems().toString())
+                .toList().toBlocking().single();
+        List<String> messages = Streams.nmeaTokensFromGzip(file)
+                .map(Streams.TOKENS_TO_NMEA_MESSAGE)
+                .compose(Streams.<NmeaMessage> valueIfPresent()).map(m -> m.getItems().toString())
+                .toList().toBlocking().single();
+        assertTrue(expected.size() > 40000);
+        assertEquals(expected, messages);
+    }
+
+    @Test
+    public void testExtractFixesGivesSameFixesAsExtractMessages() {
+        for (String name : new String[] { "exact-earth-with-tag-block.txt",
+                "nmea-timestamped.txt" }) {
+            File file = new File("src/test/resources/" + name);
+            List<String> expected = Streams.extractMessages(Streams.nmeaFrom(file))
+                    .map(m -> Optional.ofNullable(Streams.toFix(m)))
+                    .compose(Streams.<Fix> valueIfPresent()).map(fix -> fix.toString()).toList()
+                    .toBlocking().single();
+            List<String> fixes = Streams.extractFixes(Streams.nmeaFrom(file))
+                    .map(fix -> fix.toString()).toList().toBlocking().single();
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, fixes);
+            fixes = Streams.extractFixesFromTokens(Streams.nmeaTokensFrom(file))
+                    .map(fix -> fix.toString()).toList().toBlocking().single();
+            assertEquals(expected, fixes);
+        }
+    }
+
+    @Test
+    public void testExtractFixesFromGzipInBatchesGivesSameFixesAsExtractFixes()
+            throws IOException {
+        File file = new File("target/exact-earth-with-tag-block.txt.gz");
+        file.getParentFile().mkdirs();
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            FileUtils.copyFile(new File("src/test/resources/exact-earth-with-tag-block.txt"), os);
+        }
+        List<String> expected = Streams.extractFixes(Streams.nmeaFromGzip(file))
+                .map(fix -> fix.toString()).toList().toBlocking().single();
+        assertFalse(expected.isEmpty());
+        for (int linesPerBatch : new int[] { 1, 7, 10000 }) {
+            List<String> fixes = Streams
+                    .extractFixesFromGzip(file, linesPerBatch, 4, Schedulers.computation())
+                    .map(fix -> fix.toString()).toList().toBlocking().single();
+            assertEquals(expected, fixes);
+        }
+    }
+
+    @Test
+    public void testExtractFixesFromBatchesReassemblesGroupsSplitAcrossBatches() {
+        // a position report split over two fragments with other lines between
+        LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
+        tags.put("g", "1-2-1234");
+        tags.put("s", "src");
+        tags.put("c", "1334337326");
+        String first = NmeaUtil.createNmeaLine(tags,
+                Arrays.asList("!AIVDM", "2", "1", "7", "B", "18JSad001i5gca", "0"));
+        tags.clear();
+        tags.put("g", "2-2-1234");
+        String second = NmeaUtil.createNmeaLine(tags,
+                Arrays.asList("!AIVDM", "2", "2", "7", "B", "ArTICimQTT068t", "0"));
+        List<String> lines = Arrays.asList("junk", first, "junk", "junk", second, "junk");
+        List<String> expected = Streams.extractFixes(Observable.from(lines))
+                .map(fix -> fix.toString()).toList().toBlocking().single();
+        assertEquals(1, expected.size());
+        byte[] bytes = String.join("\n", lines).getBytes(StandardCharsets.ISO_8859_1);
+        for (int linesPerBatch = 1; linesPerBatch <= lines.size(); linesPerBatch++) {
+            List<String> fixes = Streams
+                    .extractFixesFromBatches(
+                            Streams.nmeaBatchesFrom(() -> new ByteArrayInputStream(bytes),
+                                    linesPerBatch),
+                            4, Schedulers.computation())
+                    .map(fix -> fix.toString()).toList().toBlocking().single();
+            assertEquals(expected, fixes);
+        }
+    }
+
     public static void main(String[] args) {
         Observable<String> a = Observable.just("A").repeat();
         Observable<String> b = Observable.just("B").repeat();
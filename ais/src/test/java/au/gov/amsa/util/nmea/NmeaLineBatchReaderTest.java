@@ -0,0 +1,107 @@
+package au.gov.amsa.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NmeaLineBatchReaderTest {
+
+    private static final String SINGLE = "!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0*37";
+    private static final String FIRST = "!AIVDM,2,1,3,A,55NBsJ02>mkP?D<O:21<PTr0L4hTv2222222220t1pI4457<0@EhIBCQ3,0*1C";
+    private static final String SECOND = "!AIVDM,2,2,3,A,H888888888888880,2*58";
+
+    @Test
+    public void testBatchesContainWholeLines() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 25; i++)
+            lines.add(SINGLE + i);
+        List<String> batches = batches(String.join("\r\n", lines), 10);
+        assertEquals(3, batches.size());
+        assertEquals(String.join("\r\n", lines.subList(0, 10)) + "\r\n", batches.get(0));
+        assertEquals(String.join("\r\n", lines.subList(10, 20)) + "\r\n", batches.get(1));
+        assertEquals(String.join("\r\n", lines.subList(20, 25)), batches.get(2));
+    }
+
+    @Test
+    public void testIncompleteGroupIsCarriedToNextBatch() throws IOException {
+        String text = SINGLE + "\n" + FIRST + "\n" + SECOND + "\n" + SINGLE + "\n";
+        List<String> batches = batches(text, 2);
+        assertEquals(3, batches.size());
+        assertEquals(SINGLE + "\n", batches.get(0));
+        assertEquals(FIRST + "\n" + SECOND + "\n", batches.get(1));
+        assertEquals(SINGLE + "\n", batches.get(2));
+    }
+
+    @Test
+    public void testIncompleteGroupInterleavedWithOtherLinesIsCarriedToNextBatch()
+            throws IOException {
+        String text = SINGLE + "\n" + FIRST + "\n" + SINGLE + "\n" + SINGLE + "\n" + SECOND
+                + "\n" + SINGLE + "\n";
+        List<String> batches = batches(text, 4);
+        assertEquals(3, batches.size());
+        assertEquals(SINGLE + "\n", batches.get(0));
+        assertEquals(FIRST + "\n" + SINGLE + "\n" + SINGLE + "\n" + SECOND + "\n",
+                batches.get(1));
+        assertEquals(SINGLE + "\n", batches.get(2));
+    }
+
+    @Test
+    public void testGroupStartingTheBatchIsExtended() throws IOException {
+        String text = FIRST + "\n" + SINGLE + "\n" + SECOND + "\n" + SINGLE + "\n";
+        List<String> batches = batches(text, 1);
+        assertEquals(2, batches.size());
+        assertEquals(FIRST + "\n" + SINGLE + "\n" + SECOND + "\n", batches.get(0));
+        assertEquals(SINGLE + "\n", batches.get(1));
+    }
+
+    @Test
+    public void testBatchIsExtendedForTagBlockGroup() throws IOException {
+        String first = "\\g:1-2-1234,c:1334337326*5A\\" + FIRST;
+        String second = "\\g:2-2-1234*5A\\" + SECOND;
+        List<String> batches = batches(first + "\n" + second + "\n" + SINGLE, 1);
+        assertEquals(2, batches.size());
+        assertEquals(first + "\n" + second + "\n", batches.get(0));
+    }
+
+    @Test
+    public void testEmptyInputHasNoBatches() throws IOException {
+        assertEquals(0, batches("", 10).size());
+    }
+
+    @Test
+    public void testLineReaderReadsBatchInPlace() throws IOException {
+        byte[] bytes = ("xx\n" + SINGLE + "\n\n" + SINGLE).getBytes(StandardCharsets.ISO_8859_1);
+        try (NmeaLineReader reader = new NmeaLineReader(bytes, 3, bytes.length - 3)) {
+            int count = 0;
+            while (reader.next()) {
+                assertEquals(SINGLE, reader.tokenizer().line());
+                count++;
+            }
+            assertEquals(2, count);
+        }
+    }
+
+    private static List<String> batches(String text, int linesPerBatch) throws IOException {
+        List<String> list = new ArrayList<String>();
+        try (NmeaLineBatchReader reader = new NmeaLineBatchReader(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)),
+                linesPerBatch)) {
+            ByteBuffer batch;
+            while ((batch = reader.next()) != null)
+                list.add(new String(batch.array(), batch.position(), batch.remaining(),
+                        StandardCharsets.ISO_8859_1));
+            assertNull(reader.next());
+            assertEquals(list.size(), reader.batches());
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,141 @@
+package au.gov.amsa.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+public class NmeaTokenizerTest {
+
+    private static final String LINE = "\\g:1-2-1234,s:rEV02,c:1334337326*5A\\!ABVDM,1,1,0,2,57PBtv01sb5IH`PR221LE986222222222222220l28?554000:kQEhhDm31H20DPSmD`880,2*40";
+
+    @Test
+    public void testTokenizeLineWithTagBlock() {
+        NmeaTokenizer t = new NmeaTokenizer();
+        assertTrue(t.tokenize(LINE));
+        assertTrue(t.isChecksumValid());
+        assertTrue(t.hasTagBlock());
+        assertEquals(3, t.tagCount());
+        assertEquals("rEV02", t.tag(t.sourceTag()));
+        assertTrue(t.hasTime());
+        assertEquals(1334337326000L, t.unixTimeMillis());
+        assertEquals(1, t.groupField(0));
+        assertEquals(2, t.groupField(1));
+        assertEquals(1234, t.groupField(2));
+        assertEquals(-1, t.groupField(3));
+        assertEquals(t.sourceTag(), t.tagIndex("s"));
+        assertEquals(-1, t.tagIndex("d"));
+        assertTrue(t.isAis());
+        assertEquals(7, t.itemCount());
+        assertEquals("!ABVDM", t.item(0));
+        assertEquals(1, t.intItem(1));
+        assertEquals("2", t.item(4));
+        assertEquals(2, t.intItem(6));
+        assertTrue(t.regionEquals(t.itemStart(5), t.itemEnd(5),
+                "57PBtv01sb5IH`PR221LE986222222222222220l28?554000:kQEhhDm31H20DPSmD`880"));
+        assertEquals("40", LINE.substring(t.checksumStart()));
+    }
+
+    @Test
+    public void testTokenizeLineWithoutTagBlock() {
+        NmeaTokenizer t = new NmeaTokenizer();
+        assertTrue(t.tokenize("!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0*37"));
+        assertFalse(t.hasTagBlock());
+        assertFalse(t.hasTime());
+        assertEquals(-1, t.groupField(0));
+        assertEquals("", t.item(3));
+        assertFalse(t.isIntItem(3));
+    }
+
+    @Test
+    public void testBadChecksumIsWellFormedButNotValid() {
+        NmeaTokenizer t = new NmeaTokenizer();
+        assertFalse(t.tokenize("!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0*38"));
+        assertTrue(t.isWellFormed());
+        assertFalse(t.isChecksumValid());
+    }
+
+    @Test
+    public void testMalformedLines() {
+        NmeaTokenizer t = new NmeaTokenizer();
+        assertFalse(t.tokenize("!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0"));
+        assertFalse(t.isWellFormed());
+        assertFalse(t.tokenize("\\c:1334337326*5A!AIVDM,1,1,,B,1,0*37"));
+        assertFalse(t.isWellFormed());
+        assertFalse(t.tokenize("\\c1334337326*5A\\!AIVDM,1,1,,B,1,0*37"));
+        assertFalse(t.isWellFormed());
+    }
+
+    @Test
+    public void testTagBlockChecksum() {
+        NmeaTokenizer t = new NmeaTokenizer();
+        LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
+        tags.put("c", "1334337326");
+        tags.put("s", "abc");
+        String tagBlock = NmeaUtil.createTagBlock(tags);
+        t.tokenize(tagBlock + "!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0*37");
+        assertTrue(t.isTagBlockChecksumValid());
+        t.tokenize("\\c:1420030798*00\\!ABVDM,1,1,4,B,17P;HV?P008F98Il;EC1mOwL0@KP,0*22");
+        assertFalse(t.isTagBlockChecksumValid());
+        assertTrue(t.isValid());
+    }
+
+    @Test
+    public void testTokenizeBytesAgreesWithNmeaMessageParser() {
+        byte[] bytes = ("xx" + LINE + "yy").getBytes(StandardCharsets.ISO_8859_1);
+        NmeaTokenizer t = new NmeaTokenizer();
+        assertTrue(t.tokenize(ByteBuffer.wrap(bytes, 2, LINE.length()).slice()));
+        assertEquals(LINE, t.line());
+        assertSameAsParser(t);
+    }
+
+    @Test
+    public void testLineReaderWithSmallBufferReadsAllLines() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+            lines.add(i % 2 == 0 ? LINE
+                    : "!AIVDM,1,1,,B,17P>D600?w:9K`qpgqCf43h400RS,0*37");
+        String text = String.join("\r\n", lines) + "\n\n" + LINE;
+        lines.add(LINE);
+        try (NmeaLineReader reader = new NmeaLineReader(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)), 16)) {
+            int i = 0;
+            while (reader.next()) {
+                NmeaTokenizer t = reader.tokenizer();
+                assertEquals(lines.get(i), t.line());
+                assertTrue(t.isValid());
+                assertSameAsParser(t);
+                i++;
+            }
+            assertEquals(lines.size(), i);
+            assertEquals(lines.size(), reader.lines());
+        }
+    }
+
+    private static void assertSameAsParser(NmeaTokenizer t) {
+        NmeaMessage m = NmeaUtil.parseNmea(t.line());
+        assertEquals(m.getTags().size(), t.tagCount());
+        int i = 0;
+        for (Entry<String, String> entry : m.getTags().entrySet()) {
+            assertTrue(t.regionEquals(t.tagKeyStart(i), t.tagKeyEnd(i), entry.getKey()));
+            assertEquals(entry.getValue(), t.tag(i));
+            i++;
+        }
+        assertEquals(m.getItems().size(), t.itemCount());
+        for (i = 0; i < t.itemCount(); i++)
+            assertEquals(m.getItems().get(i), t.item(i));
+        assertEquals(t.line().substring(t.line().lastIndexOf('*') + 1),
+                t.line().substring(t.checksumStart()));
+    }
+
+}
@@ -152,7 +152,7 @@ public class ModelManyCraft implements Model {
         // System.exit(0);
 
         File file = new File("/media/an/nmea/2014/NMEA_ITU_20140201.gz");
-        Observable<Fix> source = Streams.extractFixes(Streams.nmeaFromGzip(file));
+        Observable<Fix> source = Streams.extractFixesFromGzip(file, Schedulers.computation());
         final long startTime = 1391212800000L;
         System.out.println(new Date(startTime));
 
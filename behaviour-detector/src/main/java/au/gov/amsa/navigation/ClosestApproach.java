@@ -0,0 +1,88 @@
+package au.gov.amsa.navigation;
+
+import static java.util.Optional.of;
+
+import java.util.Optional;
+
+/**
+ * Closest point of approach (CPA) calculations for many neighbours of a
+ * vessel at once. The motion of each neighbour relative to the vessel is held
+ * in primitive arrays (position {@code x, y} in metres and velocity
+ * {@code vx, vy} in metres per second, element {@code i} for neighbour
+ * {@code i}) so that the time and distance of closest approach of all
+ * neighbours is calculated in one loop without allocation.
+ */
+final class ClosestApproach {
+
+    private ClosestApproach() {
+        // prevent instantiation
+    }
+
+    /**
+     * Sets {@code tcpa[i]} to the time in seconds (relative to the time of the
+     * relative positions, negative if the closest approach has passed) and
+     * {@code dcpa[i]} to the distance in metres of the closest approach of
+     * neighbour {@code i} for {@code 0 <= i < n}. A neighbour without
+     * relative velocity is at its closest approach at time 0.
+     *
+     * @param n
+     *            number of neighbours
+     * @param x
+     * @param y
+     * @param vx
+     * @param vy
+     * @param tcpa
+     *            receives the time of closest approach
+     * @param dcpa
+     *            receives the distance of closest approach
+     */
+    static void calculate(int n, double[] x, double[] y, double[] vx, double[] vy,
+            double[] tcpa, double[] dcpa) {
+        for (int i = 0; i < n; i++) {
+            double vv = vx[i] * vx[i] + vy[i] * vy[i];
+            double t = vv == 0 ? 0 : -(x[i] * vx[i] + y[i] * vy[i]) / vv;
+            double dx = x[i] + vx[i] * t;
+            double dy = y[i] + vy[i] * t;
+            tcpa[i] = t;
+            dcpa[i] = Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    /**
+     * Returns the times the neighbour crosses the ring of radius {@code r}
+     * around the vessel from its closest approach, with the same result as
+     * {@link VesselPosition#intersectionTimes} for the same relative motion.
+     *
+     * @param x
+     * @param y
+     * @param vx
+     * @param vy
+     * @param tcpa
+     *            as calculated by {@link #calculate}
+     * @param dcpa
+     *            as calculated by {@link #calculate}
+     * @param r
+     *            radius of the ring in metres
+     * @param otherTime
+     *            time of the neighbour's position report (returned if the
+     *            neighbour is already within the ring, as
+     *            {@link VesselPosition#intersectionTimes} does)
+     * @return
+     */
+    static Optional<Times> intersectionTimes(double x, double y, double vx, double vy,
+            double tcpa, double dcpa, double r, long otherTime) {
+        if (x * x + y * y <= r * r)
+            return of(new Times(otherTime));
+        double vv = vx * vx + vy * vy;
+        if (vv == 0 || dcpa > r)
+            return Optional.empty();
+        else if (dcpa == r)
+            return of(new Times(Math.round(tcpa)));
+        else {
+            // half the time taken to cross the ring
+            double h = Math.sqrt(r * r - dcpa * dcpa) / Math.sqrt(vv);
+            return of(new Times(Math.round(tcpa + h), Math.round(tcpa - h)));
+        }
+    }
+
+}
@@ -1,27 +1,28 @@
 package au.gov.amsa.navigation;
 
-import static com.github.davidmoten.rtree.geometry.Geometries.rectangle;
 import static java.lang.Math.cos;
 import static java.lang.Math.toRadians;
 import static rx.Observable.empty;
 import static rx.Observable.from;
-import static rx.Observable.just;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.geometry.Point;
-import com.github.davidmoten.rtree.geometry.Rectangle;
+import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.rx.slf4j.Logging;
 
 import rx.Observable;
 import rx.Observable.Transformer;
+import rx.Scheduler;
 import rx.functions.Func1;
 import rx.functions.Func2;
 import rx.observables.GroupedObservable;
+import rx.schedulers.Schedulers;
 
 public class CollisionDetector {
 
@@ -31,76 +32,157 @@ public class CollisionDetector {
     private static final double LATITUDE_DELTA = 2 * MAX_TIME_INTERVAL_MS / 1000
             * MAX_VESSEL_SPEED_METRES_PER_SECOND / (60 * 1852);
 
+    // avoids unbounded halos near the poles
+    private static final double MAX_HALO_LATITUDE = 89;
+
     // TODO use this?
     // private static final long STEP_MS = TimeUnit.SECONDS.toMillis(1);
 
     public Observable<CollisionCandidate> getCandidates(Observable<VesselPosition> o) {
-
         return getCandidatesForAStream(o);
-
-        // TODOs
-        // split the stream into multiple streams based on slightly overlapping
-        // geographic region (overlap is LATITUDE_DELTA and longitudeDelta(lat)
-        // in size) to enable concurrency
-        // .groupBy(toRegion()).flatMap(getCandidates());
-
     }
 
     public static Transformer<VesselPosition, CollisionCandidate> detectCollisionCandidates() {
         return o -> new CollisionDetector().getCandidates(o);
     }
 
-    private static Func1<VesselPosition, Region> toRegion() {
-        return new Func1<VesselPosition, Region>() {
-
-            @Override
-            public Region call(VesselPosition p) {
-                double maxLat = 15;
-                double minLat = -50;
-                double minLon = -70;
-                double maxLon = 179;
-                int numRegions = Runtime.getRuntime().availableProcessors();
-                int x = (int) Math.floor((p.lon() - minLon) / (maxLon - minLon) * numRegions);
-                double lonCellSize = (maxLon - minLon) / numRegions;
-                double longitudeDelta;
-                if (Math.abs(minLat) > Math.abs(maxLat))
-                    longitudeDelta = longitudeDelta(minLat);
-                else
-                    longitudeDelta = longitudeDelta(maxLat);
-                return new Region(maxLat, minLon + x * lonCellSize - longitudeDelta, minLat,
-                        minLon + (x + 1) * lonCellSize + longitudeDelta);
-            }
-        };
+    /**
+     * Returns a transformer that detects collision candidates concurrently by
+     * tile (see {@link #getCandidatesTiled}) on the computation scheduler.
+     *
+     * @param tileSizeDegrees
+     * @return
+     */
+    public static Transformer<VesselPosition, CollisionCandidate> detectCollisionCandidatesTiled(
+            double tileSizeDegrees) {
+        return o -> getCandidatesTiled(o, tileSizeDegrees, Schedulers.computation());
     }
 
     public static Observable<CollisionCandidate> getCandidatesForAStream(
             Observable<VesselPosition> o) {
-        // make a window of recent positions indexed spatially
+        return getCandidates(o, p -> true, logState())
+                // group by id of first candidate
+                .groupBy(byIdPair())
+                // only show if repeated
+                .flatMap(onlyRepeating());
+    }
 
-        return Observable.defer(() -> o.scan(new State(), nextState())
+    /**
+     * Returns the collision candidates of the positions detected concurrently
+     * by square lat/lon tiles of the given size. Each position is sent to the
+     * detector of its home tile and, as a halo, to the detectors of the
+     * neighbouring tiles within the search distance of the position. Each
+     * detector runs on its own worker of the scheduler and reports candidates
+     * only for the positions in its home tile, so every position in the
+     * search box of a reported position has been seen by the detector and no
+     * candidate is reported by more than one tile.
+     *
+     * <p>
+     * Tiles should be much bigger than the search box (which is about 0.13
+     * degrees of latitude) to keep the halo overhead small, and there should
+     * be more tiles with traffic than workers.
+     *
+     * @param o
+     *            positions in time order
+     * @param tileSizeDegrees
+     *            side of a tile in degrees
+     * @param scheduler
+     *            scheduler the detector of each tile runs on
+     * @return collision candidates
+     */
+    public static Observable<CollisionCandidate> getCandidatesTiled(Observable<VesselPosition> o,
+            double tileSizeDegrees, Scheduler scheduler) {
+        Preconditions.checkArgument(tileSizeDegrees > 0, "tileSizeDegrees must be positive");
+        return o
                 // log
-                .lift(Logging.<State> logger().showCount("positions")
+                .lift(Logging.<VesselPosition> logger().showCount("positions")
                         .showRateSince("rate (pos/s)", TimeUnit.SECONDS.toMillis(10))
-                        .showRateSinceStart("overall rate").every(10000).showValue()
-                        .value(state -> "state.map.size=" + state.mapSize() + ", state.rtree.size="
-                                + state.tree().size())
-                        .log())
-                // report collision candidates from each window for the latest
-                // reported position
-                .flatMap(toCollisionCandidatesForPosition())
+                        .showRateSinceStart("overall rate").every(10000).log())
+                // send to the home tile and any halo tiles
+                .concatMapIterable(p -> toTiles(p, tileSizeDegrees))
+                // one detector per tile
+                .groupBy(tp -> tp.tile)
+                .flatMap(g -> getCandidates(g.observeOn(scheduler).map(tp -> tp.position),
+                        isInTile(g.getKey(), tileSizeDegrees), states -> states))
                 // group by id of first candidate
                 .groupBy(byIdPair())
                 // only show if repeated
-                .flatMap(onlyRepeating()));
+                .flatMap(onlyRepeating());
+    }
+
+    private static Observable<CollisionCandidate> getCandidates(Observable<VesselPosition> o,
+            Func1<VesselPosition, Boolean> reportFor, Transformer<State, State> monitor) {
+        // make a window of recent positions indexed spatially
+
+        return Observable.defer(() -> o
+                // the state is mutable (updated in place) so each
+                // subscription needs its own and candidates for a position
+                // must be found before the next position is added
+                .scan(new State(LATITUDE_DELTA, MAX_TIME_INTERVAL_MS), nextState())
+                // monitor
+                .compose(monitor)
+                // report collision candidates from each window for the latest
+                // reported position
+                .flatMap(toCollisionCandidatesForPosition(reportFor)));
+    }
+
+    private static Transformer<State, State> logState() {
+        return o -> o.lift(Logging.<State> logger().showCount("positions")
+                .showRateSince("rate (pos/s)", TimeUnit.SECONDS.toMillis(10))
+                .showRateSinceStart("overall rate").every(10000).showValue()
+                .value(state -> "state.map.size=" + state.mapSize() + ", state.grid.size="
+                        + state.grid().size() + ", state.grid.cells=" + state.grid().cellCount())
+                .log());
+    }
+
+    private static final class TiledPosition {
+        final long tile;
+        final VesselPosition position;
+
+        TiledPosition(long tile, VesselPosition position) {
+            this.tile = tile;
+            this.position = position;
+        }
+    }
+
+    private static List<TiledPosition> toTiles(VesselPosition p, double tileSizeDegrees) {
+        // the longitude delta of the search boxes that may contain p is
+        // largest for the search box closest to a pole
+        double lonDelta = longitudeDelta(
+                Math.min(MAX_HALO_LATITUDE, Math.abs(p.lat()) + LATITUDE_DELTA));
+        long fromLat = tileIndex(p.lat() - LATITUDE_DELTA, tileSizeDegrees);
+        long toLat = tileIndex(p.lat() + LATITUDE_DELTA, tileSizeDegrees);
+        long fromLon = tileIndex(p.lon() - lonDelta, tileSizeDegrees);
+        long toLon = tileIndex(p.lon() + lonDelta, tileSizeDegrees);
+        List<TiledPosition> list = new ArrayList<TiledPosition>(
+                (int) ((toLat - fromLat + 1) * (toLon - fromLon + 1)));
+        for (long i = fromLat; i <= toLat; i++)
+            for (long j = fromLon; j <= toLon; j++)
+                list.add(new TiledPosition(tileKey(i, j), p));
+        return list;
+    }
+
+    private static Func1<VesselPosition, Boolean> isInTile(long tile, double tileSizeDegrees) {
+        return p -> tileKey(tileIndex(p.lat(), tileSizeDegrees),
+                tileIndex(p.lon(), tileSizeDegrees)) == tile;
+    }
+
+    private static long tileIndex(double degrees, double tileSizeDegrees) {
+        return (long) Math.floor(degrees / tileSizeDegrees);
+    }
+
+    private static long tileKey(long latIndex, long lonIndex) {
+        return (latIndex << 32) | (lonIndex & 0xFFFFFFFFL);
     }
 
     private static Func2<State, VesselPosition, State> nextState() {
-        return (state, p) -> state.nextState(MAX_TIME_INTERVAL_MS, p);
+        return (state, p) -> state.nextState(p);
     }
 
-    private static Func1<State, Observable<CollisionCandidate>> toCollisionCandidatesForPosition() {
+    private static Func1<State, Observable<CollisionCandidate>> toCollisionCandidatesForPosition(
+            Func1<VesselPosition, Boolean> reportFor) {
         return state -> {
-            if (!state.last().isPresent())
+            if (!state.last().isPresent() || !reportFor.call(state.last().get()))
                 return Observable.empty();
             else {
                 return toCollisionCandidatesForPosition(state);
@@ -118,35 +200,58 @@ public class CollisionDetector {
         // setup a region around the latest position report to search with a
         // decent delta).
         double longitudeDelta = longitudeDelta(p.lat());
-        Rectangle searchRegion = rectangle(p.lon() - longitudeDelta, p.lat() - LATITUDE_DELTA,
-                p.lon() + longitudeDelta, p.lat() + LATITUDE_DELTA);
-
-        // find nearby vessels within time constraints and cache them
-        Observable<VesselPosition> near = state.tree()
-                // search the R-tree
-                .search(searchRegion)
-                // get just the vessel position
-                .map(toVesselPosition)
-                // only accept positions with time close to p
-                .filter(aroundInTime(p, MAX_TIME_INTERVAL_MS));
 
-        final Observable<TreeSet<VesselPosition>> othersByVessel = near
-                // only those vessels with different id as latest position
-                // report
-                .filter(not(isVessel(p.id())))
-                // group by individual vessel
-                .groupBy(byId())
-                // sort the positions by time
-                .flatMap(toSortedSet());
-
-        Observable<CollisionCandidate> collisionCandidates = othersByVessel
-                .flatMap(toCollisionCandidates2(p, next));
-
-        return collisionCandidates;
-    }
+        // find nearby vessels (the search is eager because the state changes
+        // with the next position)
+        List<VesselPosition> near = state.grid()
+                // search the grid
+                .search(p.lat() - LATITUDE_DELTA, p.lat() + LATITUDE_DELTA,
+                        p.lon() - longitudeDelta, p.lon() + longitudeDelta);
+
+        // group the positions of other vessels close in time to p by vessel
+        // and sort them by time
+        Map<Identifier, TreeSet<VesselPosition>> othersByVessel = new HashMap<>();
+        for (VesselPosition q : near)
+            if (isAroundInTime(q, p, MAX_TIME_INTERVAL_MS) && !q.id().equals(p.id())) {
+                TreeSet<VesselPosition> set = othersByVessel.get(q.id());
+                if (set == null) {
+                    set = new TreeSet<VesselPosition>(Comparators.timeIdMessageIdComparator);
+                    othersByVessel.put(q.id(), set);
+                }
+                set.add(q);
+            }
 
-    private static <T> Func1<T, Boolean> not(final Func1<T, Boolean> f) {
-        return t -> !f.call(t);
+        // the latest position of each other vessel before p
+        VesselPosition[] others = new VesselPosition[othersByVessel.size()];
+        int count = 0;
+        for (TreeSet<VesselPosition> set : othersByVessel.values()) {
+            VesselPosition other = set.lower(p);
+            if (other != null)
+                others[count++] = other;
+        }
+
+        // the motion of p relative to each of them
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] vx = new double[count];
+        double[] vy = new double[count];
+        int n = p.relativeStates(others, count, x, y, vx, vy);
+
+        // closest approach of all of them at once
+        double[] tcpa = new double[n];
+        double[] dcpa = new double[n];
+        ClosestApproach.calculate(n, x, y, vx, vy, tcpa, dcpa);
+
+        List<CollisionCandidate> candidates = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Optional<Times> times = ClosestApproach.intersectionTimes(x[i], y[i], vx[i], vy[i],
+                    tcpa[i], dcpa[i], p.collisionRadiusMetres(others[i]), others[i].time());
+            Optional<CollisionCandidate> c = toCollisionCandidate(p, next, others[i],
+                    othersByVessel.get(others[i].id()), times);
+            if (c.isPresent())
+                candidates.add(c.get());
+        }
+        return from(candidates);
     }
 
     private static double longitudeDelta(double lat) {
@@ -178,31 +283,23 @@ public class CollisionDetector {
         return c -> new IdentifierPair(c.position1().id(), c.position2().id());
     }
 
-    private static Func1<TreeSet<VesselPosition>, Observable<CollisionCandidate>> toCollisionCandidates2(
-            final VesselPosition p, final Optional<VesselPosition> next) {
-        return set -> {
-            Optional<VesselPosition> other = Optional.ofNullable(set.lower(p));
-            if (other.isPresent()) {
-                Optional<Times> times = p.intersectionTimes(other.get());
-                if (times.isPresent()) {
-                    Optional<Long> tCollision = plus(times.get().leastPositive(), p.time());
-                    if (tCollision.isPresent()
-                            && tCollision.get() < p.time() + MAX_TIME_INTERVAL_MS) {
-                        Optional<VesselPosition> otherNext = Optional
-                                .ofNullable(set.higher(other.get()));
-                        if (otherNext.isPresent() && otherNext.get().time() < tCollision.get())
-                            return empty();
-                        else if (next.isPresent() && next.get().time() < tCollision.get())
-                            return empty();
-                        else
-                            return just(new CollisionCandidate(p, other.get(), tCollision.get()));
-                    } else
-                        return empty();
-                } else
-                    return empty();
+    private static Optional<CollisionCandidate> toCollisionCandidate(final VesselPosition p,
+            final Optional<VesselPosition> next, VesselPosition other, TreeSet<VesselPosition> set,
+            Optional<Times> times) {
+        if (times.isPresent()) {
+            Optional<Long> tCollision = plus(times.get().leastPositive(), p.time());
+            if (tCollision.isPresent() && tCollision.get() < p.time() + MAX_TIME_INTERVAL_MS) {
+                Optional<VesselPosition> otherNext = Optional.ofNullable(set.higher(other));
+                if (otherNext.isPresent() && otherNext.get().time() < tCollision.get())
+                    return Optional.empty();
+                else if (next.isPresent() && next.get().time() < tCollision.get())
+                    return Optional.empty();
+                else
+                    return Optional.of(new CollisionCandidate(p, other, tCollision.get()));
             } else
-                return empty();
-        };
+                return Optional.empty();
+        } else
+            return Optional.empty();
     }
 
     private static Optional<Long> plus(Optional<Long> a, long b) {
@@ -212,29 +309,9 @@ public class CollisionDetector {
             return Optional.empty();
     }
 
-    private static Func1<GroupedObservable<Identifier, VesselPosition>, Observable<TreeSet<VesselPosition>>> toSortedSet() {
-        return g -> g.toList().map(singleVesselPositions -> {
-            TreeSet<VesselPosition> set = new TreeSet<VesselPosition>(
-                    Comparators.timeIdMessageIdComparator);
-            set.addAll(singleVesselPositions);
-            return set;
-        });
-    }
-
-    private static Func1<VesselPosition, Identifier> byId() {
-        return position -> position.id();
-    }
-
-    private static Func1<VesselPosition, Boolean> aroundInTime(final VesselPosition position,
-            final long maxTimeIntervalMs) {
-        return p -> Math.abs(p.time() - position.time()) <= maxTimeIntervalMs;
+    private static boolean isAroundInTime(VesselPosition p, VesselPosition position,
+            long maxTimeIntervalMs) {
+        return Math.abs(p.time() - position.time()) <= maxTimeIntervalMs;
     }
 
-    private static Func1<VesselPosition, Boolean> isVessel(final Identifier id) {
-        return p -> p.id().equals(id);
-    }
-
-    private static Func1<Entry<VesselPosition, Point>, VesselPosition> toVesselPosition = entry -> entry
-            .value();
-
 }
@@ -5,13 +5,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Optional;
 import java.util.zip.GZIPInputStream;
 
+import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.rx.Checked;
 
 import au.gov.amsa.risky.format.AisClass;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.BinaryFixesCursor;
+import au.gov.amsa.risky.format.BinaryFixesFormat;
 import au.gov.amsa.risky.format.FixImpl;
 import au.gov.amsa.risky.format.NavigationalStatus;
 import au.gov.amsa.streams.Strings;
@@ -22,6 +31,35 @@ import rx.functions.Func1;
 
 public final class DriftCandidates {
 
+    private static final int FIX_BYTES = BinaryFixes.recordSize(BinaryFixesFormat.WITH_MMSI);
+
+    /**
+     * Size in bytes of a drift candidate in a binary candidates file: the fix
+     * in {@link BinaryFixesFormat#WITH_MMSI} format followed by the drifting
+     * since time.
+     */
+    public static final int BINARY_RECORD_BYTES = FIX_BYTES + 8;
+
+    // the fix time follows the mmsi, lat and lon of the fix
+    private static final int TIME_OFFSET = 12;
+
+    /**
+     * A binary candidates file has an index entry (time and record number of
+     * the record) for every this many records.
+     */
+    static final int INDEX_INTERVAL_RECORDS = 1024;
+
+    /**
+     * A binary candidates file ends with a trailer of the number of records
+     * (long), the number of index entries (int) and {@link #BINARY_MAGIC}
+     * (int).
+     */
+    static final int BINARY_TRAILER_BYTES = 16;
+
+    static final int BINARY_MAGIC = 0x44524654;
+
+    private static final int INDEX_ENTRY_BYTES = 16;
+
     public static Observable<DriftCandidate> fromCsv(Reader reader) {
         return Strings.lines(reader)
                 // remove blank lines
@@ -81,6 +119,155 @@ public final class DriftCandidates {
         return Observable.using(resourceFactory, obFactory, disposeAction, true);
     }
 
+    /**
+     * Returns the candidates in a binary candidates file (as written by
+     * {@link DriftCandidatesExtractor}) in ascending time order.
+     *
+     * <p>
+     * A binary candidates file is the records in time order followed by the
+     * time index (the time and record number of every
+     * {@link #INDEX_INTERVAL_RECORDS}th record as longs) and the trailer
+     * described at {@link #BINARY_TRAILER_BYTES}.
+     *
+     * @param file
+     * @return candidates
+     */
+    public static Observable<DriftCandidate> fromBinary(File file) {
+        return fromBinary(file, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the candidates in a binary candidates file with fix time at or
+     * after {@code startTime} and before {@code finishTime} in ascending time
+     * order. Only the part of the file indicated by the time index of the
+     * file is read.
+     *
+     * @param file
+     * @param startTime
+     *            inclusive
+     * @param finishTime
+     *            exclusive
+     * @return candidates
+     */
+    public static Observable<DriftCandidate> fromBinary(File file, long startTime,
+            long finishTime) {
+        return Observable.defer(() -> {
+            long[][] index = readIndex(file);
+            long[] times = index[0];
+            long[] recordNumbers = index[1];
+            long first = 0;
+            long last = index[2][0];
+            // the records before the first index entry at or after startTime
+            // may include candidates at or after startTime
+            int i = firstIndexAtOrAfter(times, startTime);
+            if (i > 0)
+                first = recordNumbers[i - 1];
+            int j = firstIndexAtOrAfter(times, finishTime);
+            if (j < times.length)
+                last = Math.max(first, recordNumbers[j]);
+            ByteBuffer bb = map(file, first * BINARY_RECORD_BYTES,
+                    (last - first) * BINARY_RECORD_BYTES);
+            return Observable.range(0, (int) (last - first))
+                    // decode
+                    .map(n -> read(bb, n * BINARY_RECORD_BYTES))
+                    // records are in time order
+                    .skipWhile(c -> c.fix().time() < startTime)
+                    .takeWhile(c -> c.fix().time() < finishTime);
+        });
+    }
+
+    static void write(DriftCandidate c, ByteBuffer bb) {
+        BinaryFixes.write(c.fix(), bb, BinaryFixesFormat.WITH_MMSI);
+        bb.putLong(c.driftingSince());
+    }
+
+    /**
+     * Returns the fix time of the binary candidate record at the index
+     * without decoding the rest of the record.
+     */
+    static long time(ByteBuffer bb, int index) {
+        return bb.getLong(index + TIME_OFFSET);
+    }
+
+    /**
+     * Returns the mmsi of the binary candidate record at the index without
+     * decoding the rest of the record.
+     */
+    static int mmsi(ByteBuffer bb, int index) {
+        return bb.getInt(index);
+    }
+
+    /**
+     * Returns the drifting since time of the binary candidate record at the
+     * index without decoding the rest of the record.
+     */
+    static long driftingSince(ByteBuffer bb, int index) {
+        return bb.getLong(index + FIX_BYTES);
+    }
+
+    static DriftCandidate read(ByteBuffer bb, int index) {
+        BinaryFixesCursor cursor = BinaryFixesCursor.from(bb, index, FIX_BYTES, 0,
+                BinaryFixesFormat.WITH_MMSI);
+        cursor.next();
+        return new DriftCandidate(cursor.toFix(), driftingSince(bb, index));
+    }
+
+    private static ByteBuffer map(File file, long position, long size) {
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                "time range too large to map: " + file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            // the mapping remains valid after the channel is closed
+            return channel.map(MapMode.READ_ONLY, position, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the times and record numbers of the index entries and the
+     * number of records of a binary candidates file.
+     */
+    private static long[][] readIndex(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < BINARY_TRAILER_BYTES)
+                throw new IllegalArgumentException("not a binary candidates file: " + file);
+            raf.seek(length - BINARY_TRAILER_BYTES);
+            long records = raf.readLong();
+            int entries = raf.readInt();
+            if (raf.readInt() != BINARY_MAGIC || records * BINARY_RECORD_BYTES
+                    + (long) entries * INDEX_ENTRY_BYTES + BINARY_TRAILER_BYTES != length)
+                throw new IllegalArgumentException("not a binary candidates file: " + file);
+            byte[] bytes = new byte[entries * INDEX_ENTRY_BYTES];
+            raf.seek(records * BINARY_RECORD_BYTES);
+            raf.readFully(bytes);
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            long[] times = new long[entries];
+            long[] recordNumbers = new long[entries];
+            for (int n = 0; n < entries; n++) {
+                times[n] = bb.getLong();
+                recordNumbers[n] = bb.getLong();
+            }
+            return new long[][] { times, recordNumbers, { records } };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int firstIndexAtOrAfter(long[] times, long time) {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
     private static Func1<String, Boolean> nonBlankLinesOnly() {
         return line -> line.trim().length() > 0;
     }
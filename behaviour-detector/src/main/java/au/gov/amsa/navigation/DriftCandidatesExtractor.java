@@ -0,0 +1,389 @@
+package au.gov.amsa.navigation;
+
+import static au.gov.amsa.navigation.DriftCandidates.BINARY_MAGIC;
+import static au.gov.amsa.navigation.DriftCandidates.BINARY_RECORD_BYTES;
+import static au.gov.amsa.navigation.DriftCandidates.INDEX_INTERVAL_RECORDS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+import au.gov.amsa.navigation.DriftDetector.Options;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.Downsample;
+import au.gov.amsa.util.Files;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Extracts the drift candidates of a directory of track files to a binary
+ * candidates file that can be loaded quickly (by time range) with
+ * {@link DriftCandidates#fromBinary}. Drift is detected in the track files
+ * concurrently by a bounded number of workers. Each worker sorts the
+ * candidates of a file by time and writes them to a temporary run file beside
+ * the output, and the runs are merged by time into the output file (with its
+ * time index at the end of the file). If there are more than
+ * {@link #MAX_MERGE_FAN_IN} runs then groups of runs are first merged into
+ * fewer runs so that the number of open runs is bounded.
+ */
+public final class DriftCandidatesExtractor {
+
+    private static final Logger log = LoggerFactory.getLogger(DriftCandidatesExtractor.class);
+
+    private static final Pattern TRACK_FILES = Pattern.compile(".*\\.track");
+
+    // maximum number of runs read at once by a merge
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private DriftCandidatesExtractor() {
+        // prevent instantiation
+    }
+
+    public static void main(String[] args) {
+        Preconditions.checkArgument(args.length >= 2,
+                "usage: DriftCandidatesExtractor <track files directory> <output file> [workers]");
+        File directory = new File(args[0]);
+        File output = new File(args[1]);
+        if (args.length > 2)
+            extract(directory, output, Options.instance(), TimeUnit.MINUTES.toMillis(5),
+                    Integer.parseInt(args[2]));
+        else
+            extract(directory, output);
+    }
+
+    /**
+     * Extracts the drift candidates of the track files in the directory (and
+     * its subdirectories) to the output file using the default options,
+     * downsampling the candidates of each vessel to at least 5 minutes apart
+     * and a worker per available processor less one.
+     *
+     * @param directory
+     * @param output
+     * @return number of candidates written
+     */
+    public static long extract(File directory, File output) {
+        return extract(directory, output, Options.instance(), TimeUnit.MINUTES.toMillis(5),
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Extracts the drift candidates of the track files in the directory (and
+     * its subdirectories) to the output file, replacing it atomically if it
+     * exists. Blocks until the extraction is complete.
+     *
+     * @param directory
+     * @param output
+     * @param options
+     * @param minTimeStepMs
+     *            the candidates of a vessel are downsampled to at least this
+     *            many ms apart except that the start of a drift is always
+     *            kept (0 for no downsampling)
+     * @param workers
+     *            maximum number of files processed concurrently
+     * @return number of candidates written
+     */
+    public static long extract(File directory, File output, Options options, long minTimeStepMs,
+            int workers) {
+        Preconditions.checkArgument(minTimeStepMs >= 0, "minTimeStepMs cannot be negative");
+        Preconditions.checkArgument(workers > 0, "workers must be positive");
+        List<File> files = Files.find(directory, TRACK_FILES);
+        log.info("extracting drift candidates from " + files.size() + " files using " + workers
+                + " workers");
+        long start = System.currentTimeMillis();
+        File runDirectory = output.getAbsoluteFile().getParentFile();
+        runDirectory.mkdirs();
+        List<File> runs = Collections.synchronizedList(new ArrayList<File>());
+        try {
+            Observable.from(files)
+                    // detect drift in each file on a bounded number of workers
+                    .flatMap(file -> candidates(file, options, minTimeStepMs, runDirectory)
+                            .subscribeOn(Schedulers.computation()), workers)
+                    // record each run so it is deleted even if a file fails
+                    .doOnNext(runs::add)
+                    // wait for all files
+                    .toBlocking().subscribe();
+            long count = merge(new ArrayList<File>(runs), output);
+            log.info("wrote " + count + " drift candidates to " + output + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return count;
+        } finally {
+            for (File run : runs)
+                run.delete();
+        }
+    }
+
+    /**
+     * Returns the run file of the candidates of the track file (empty if the
+     * file has no drift).
+     */
+    private static Observable<File> candidates(File file, Options options, long minTimeStepMs,
+            File runDirectory) {
+        return BinaryFixes.from(file)
+                // detect drift
+                .compose(DriftDetector.detectDrift(options))
+                // buffer the candidates of the file
+                .collect(() -> new RunBuffer(), (run, c) -> run.add(c))
+                // ignore files without drift
+                .filter(run -> run.records > 0)
+                // sort, downsample and write to disk
+                .map(run -> run.spill(runDirectory, minTimeStepMs))
+                // log on error
+                .doOnError(e -> log.error(file + ":" + e.getMessage(), e));
+    }
+
+    /**
+     * Writes the records of the runs in time order to the output file followed
+     * by an index entry for every {@link DriftCandidates#INDEX_INTERVAL_RECORDS}
+     * records and the trailer. The file is written to a temporary file then
+     * moved into place.
+     */
+    private static long merge(List<File> runs, File output) {
+        try {
+            List<File> merged = reduceRuns(runs, output.getAbsoluteFile().getParentFile());
+            File tmp = new File(output.getPath() + ".tmp");
+            long count;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_BYTES))) {
+                ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+                DataOutputStream index = new DataOutputStream(indexBytes);
+                count = merge(merged, out, index);
+                out.write(indexBytes.toByteArray());
+                out.writeLong(count);
+                // an entry for the first record of each interval
+                out.writeInt((int) ((count + INDEX_INTERVAL_RECORDS - 1) / INDEX_INTERVAL_RECORDS));
+                out.writeInt(BINARY_MAGIC);
+            } finally {
+                for (File run : merged)
+                    run.delete();
+            }
+            java.nio.file.Files.move(tmp.toPath(), output.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Merges groups of runs into single runs (deleting the merged runs) until
+     * there are at most {@link #MAX_MERGE_FAN_IN} runs.
+     */
+    private static List<File> reduceRuns(List<File> runs, File directory) throws IOException {
+        while (runs.size() > MAX_MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_FAN_IN));
+                if (group.size() == 1)
+                    merged.add(group.get(0));
+                else {
+                    File run = createRunFile(directory);
+                    merged.add(run);
+                    try (OutputStream out = openRun(run)) {
+                        merge(group, out, null);
+                    }
+                    for (File f : group)
+                        f.delete();
+                }
+            }
+            log.info("merged " + runs.size() + " runs into " + merged.size() + " runs");
+            runs = merged;
+        }
+        return runs;
+    }
+
+    /**
+     * Writes the records of the runs to the output ordered by time then mmsi,
+     * adding an index entry to {@code index} (if not null) every
+     * {@link DriftCandidates#INDEX_INTERVAL_RECORDS} records, and returns the
+     * number of records written.
+     */
+    private static long merge(List<File> runs, OutputStream out, DataOutputStream index)
+            throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                Math.max(1, runs.size()), (a, b) -> {
+                    int c = Long.compare(a.time(), b.time());
+                    if (c != 0)
+                        return c;
+                    else
+                        return Integer.compare(a.mmsi(), b.mmsi());
+                });
+        List<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+            long count = 0;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (index != null && count % INDEX_INTERVAL_RECORDS == 0) {
+                    index.writeLong(reader.time());
+                    index.writeLong(count);
+                }
+                out.write(reader.record);
+                count++;
+                if (reader.next())
+                    queue.add(reader);
+            }
+            return count;
+        } finally {
+            for (RunReader reader : readers)
+                reader.close();
+        }
+    }
+
+    private static File createRunFile(File directory) throws IOException {
+        return File.createTempFile("drift-", ".run", directory);
+    }
+
+    private static OutputStream openRun(File file) throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES);
+    }
+
+    /**
+     * The candidates of one track file as binary records in the order
+     * detected.
+     */
+    private static final class RunBuffer {
+
+        private byte[] bytes = new byte[BINARY_RECORD_BYTES * 16];
+        private ByteBuffer bb = ByteBuffer.wrap(bytes);
+        int records;
+
+        void add(DriftCandidate c) {
+            int position = records * BINARY_RECORD_BYTES;
+            if (position + BINARY_RECORD_BYTES > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                bb = ByteBuffer.wrap(bytes);
+            }
+            bb.position(position);
+            DriftCandidates.write(c, bb);
+            records++;
+        }
+
+        /**
+         * Writes the records ordered by time then mmsi to a new run file in the
+         * directory and returns the file. The detector can emit candidates out
+         * of time order (after a drift starts it compares later fixes with the
+         * start of the drift rather than the latest candidate) so the records
+         * are sorted unless already in order. The sorted records are then
+         * downsampled as {@link Downsample#minTimeStep} would, always keeping
+         * the start of a drift.
+         */
+        File spill(File directory, long minTimeStepMs) {
+            try {
+                File run = createRunFile(directory);
+                try (OutputStream out = openRun(run)) {
+                    boolean first = true;
+                    long lastTime = 0;
+                    for (int i : order()) {
+                        long time = time(i);
+                        if (first || minTimeStepMs == 0 || time != lastTime
+                                && (time - lastTime >= minTimeStepMs || isStartOfDrift(i))) {
+                            out.write(bytes, i * BINARY_RECORD_BYTES, BINARY_RECORD_BYTES);
+                            first = false;
+                            lastTime = time;
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    run.delete();
+                    throw e;
+                }
+                return run;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int[] order() {
+            Comparator<Integer> comparator = Comparator.<Integer> comparingLong(i -> time(i))
+                    .thenComparingInt(i -> mmsi(i));
+            boolean sorted = true;
+            for (int i = 1; i < records && sorted; i++)
+                sorted = comparator.compare(i - 1, i) <= 0;
+            if (sorted)
+                return IntStream.range(0, records).toArray();
+            else
+                return IntStream.range(0, records).boxed().sorted(comparator)
+                        .mapToInt(i -> i).toArray();
+        }
+
+        private long time(int i) {
+            return DriftCandidates.time(bb, i * BINARY_RECORD_BYTES);
+        }
+
+        private int mmsi(int i) {
+            return DriftCandidates.mmsi(bb, i * BINARY_RECORD_BYTES);
+        }
+
+        private boolean isStartOfDrift(int i) {
+            return DriftCandidates.driftingSince(bb, i * BINARY_RECORD_BYTES) == time(i);
+        }
+    }
+
+    /**
+     * Reads the records of a run file in order.
+     */
+    private static final class RunReader {
+
+        private final DataInputStream in;
+        final byte[] record = new byte[BINARY_RECORD_BYTES];
+        private final ByteBuffer bb = ByteBuffer.wrap(record);
+
+        RunReader(File file) throws IOException {
+            this.in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES));
+        }
+
+        boolean next() throws IOException {
+            try {
+                in.readFully(record);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        long time() {
+            return DriftCandidates.time(bb, 0);
+        }
+
+        int mmsi() {
+            return DriftCandidates.mmsi(bb, 0);
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -29,6 +29,26 @@ public class DriftDetector {
         return new DriftDetectorTransformer(options);
     }
 
+    /**
+     * Returns a transformer that detects drift in a stream of fixes of many
+     * vessels interleaved (for example a live feed) without grouping the
+     * stream by vessel. The fixes of each vessel should be in ascending time
+     * order. The state of a vessel is discarded when the vessel has not
+     * reported for the expiry age of the options (by fix time), after which
+     * a new report would be treated the same by the state as if the state had
+     * been kept.
+     *
+     * @param options
+     * @return transformer
+     */
+    public static MultiVesselDriftDetectorTransformer detectDriftInterleaved(Options options) {
+        return new MultiVesselDriftDetectorTransformer(options, options.expiryAgeMs());
+    }
+
+    public static MultiVesselDriftDetectorTransformer detectDriftInterleaved() {
+        return detectDriftInterleaved(Options.instance());
+    }
+
     public static class DriftDetectorTransformer implements Transformer<HasFix, DriftCandidate> {
 
         // because many of these are expected to be in existence simultaneously
@@ -36,7 +56,6 @@ public class DriftDetector {
         // our coverage annually, we need to be nice and careful with how much
         // memory this operator uses.
 
-        private static final long NOT_DRIFTING = Long.MAX_VALUE;
         private static final long MMSI_NOT_SET = 0;
 
         private final Options options;
@@ -66,9 +85,7 @@ public class DriftDetector {
 
         // mutable class but is mutated serially (google Observable contract)
         private static final class State {
-            Item a;
-            Item b;
-            long driftingSince = NOT_DRIFTING;
+            final VesselState vessel = new VesselState();
             long mmsi = 0;
             private final Options options;
 
@@ -86,178 +103,371 @@ public class DriftDetector {
 
                     if (mmsi != MMSI_NOT_SET && fix.mmsi() != mmsi) {
                         // reset for a new vessel
-                        a = null;
-                        b = null;
-                        driftingSince = NOT_DRIFTING;
+                        vessel.reset();
                     }
                     mmsi = fix.mmsi();
-
-                    if (outOfTimeOrder(fix)) {
-                        return;
-                    }
-
-                    final Item item;
-                    if (isCandidate.call(fix)) {
-                        item = new Drifter(f, false);
-                    } else
-                        item = new NonDrifter(fix.time());
-                    if (a == null) {
-                        a = item;
-                        processAB(subscriber);
-                    } else if (b == null) {
-                        b = item;
-                        processAB(subscriber);
-                    } else {
-                        processABC(item, subscriber);
-                    }
+                    vessel.onNext(f, fix, subscriber, isCandidate, options);
                 } catch (RuntimeException e) {
                     subscriber.onError(e);
                 }
             }
+        }
+    }
+
+    /**
+     * Detects drift in a stream of the fixes of many vessels interleaved. The
+     * drift state of each vessel is held in a table keyed by mmsi in one
+     * operator (rather than one operator per vessel after a groupBy) and is
+     * discarded when the vessel has been idle (by fix time) for a given
+     * period.
+     */
+    public static class MultiVesselDriftDetectorTransformer
+            implements Transformer<HasFix, DriftCandidate> {
+
+        private final Options options;
+        private final long idleEvictionMs;
+        private final Func1<Fix, Boolean> isCandidate;
+
+        /**
+         * Constructor.
+         *
+         * @param options
+         * @param idleEvictionMs
+         *            the state of a vessel is discarded once a fix of any
+         *            vessel is more than this many ms after the vessel's last
+         *            fix
+         */
+        public MultiVesselDriftDetectorTransformer(Options options, long idleEvictionMs) {
+            Preconditions.checkArgument(idleEvictionMs > 0, "idleEvictionMs must be positive");
+            this.options = options;
+            this.idleEvictionMs = idleEvictionMs;
+            this.isCandidate = isCandidate(options);
+        }
+
+        @Override
+        public Observable<DriftCandidate> call(Observable<HasFix> o) {
+            Transformer<HasFix, DriftCandidate> t = Transformers.stateMachine()
+                    .initialStateFactory(() -> new VesselStates(idleEvictionMs)) //
+                    .transition(new Transition<VesselStates, HasFix, DriftCandidate>() {
+
+                        @Override
+                        public VesselStates call(VesselStates states, HasFix value,
+                                Subscriber<DriftCandidate> subscriber) {
+                            try {
+                                Fix fix = value.fix();
+                                states.get(fix.mmsi(), fix.time()).onNext(value, fix,
+                                        subscriber, isCandidate, options);
+                            } catch (RuntimeException e) {
+                                subscriber.onError(e);
+                            }
+                            return states;
+                        }
+                    }) //
+                    .build();
+            return o.compose(t);
+        }
+    }
+
+    /**
+     * The drift state of a vessel from its fixes so far (in ascending time
+     * order). Mutable, and mutated serially.
+     */
+    private static final class VesselState {
+
+        private static final long NOT_DRIFTING = Long.MAX_VALUE;
+
+        Item a;
+        Item b;
+        long driftingSince = NOT_DRIFTING;
+
+        void reset() {
+            a = null;
+            b = null;
+            driftingSince = NOT_DRIFTING;
+        }
+
+        void onNext(HasFix f, Fix fix, Subscriber<DriftCandidate> subscriber,
+                Func1<Fix, Boolean> isCandidate, Options options) {
+            if (outOfTimeOrder(fix)) {
+                return;
+            }
 
-            private boolean outOfTimeOrder(Fix fix) {
-                if (b != null && fix.time() < b.time())
-                    return true;
-                else if (a != null && fix.time() < a.time())
-                    return true;
-                else
-                    return false;
+            final Item item;
+            if (isCandidate.call(fix)) {
+                item = new Drifter(f, false);
+            } else
+                item = new NonDrifter(fix.time());
+            if (a == null) {
+                a = item;
+                processAB(subscriber, options);
+            } else if (b == null) {
+                b = item;
+                processAB(subscriber, options);
+            } else {
+                processABC(item, subscriber, options);
             }
+        }
 
-            private void processABC(Item c, Subscriber<DriftCandidate> subscriber) {
-                if (isDrifter(a) && !isDrifter(b) && !isDrifter(c)) {
-                    // ignore c
-                    // rule 4, 5
-                } else if (isDrifter(a) && !isDrifter(b) && isDrifter(c)) {
-                    // rule 6, 7
-                    if (withinNonDriftingThreshold(b, c)) {
-                        b = c;
-                        processAB(subscriber);
-                    } else {
-                        a = c;
-                        b = null;
-                    }
+        private boolean outOfTimeOrder(Fix fix) {
+            if (b != null && fix.time() < b.time())
+                return true;
+            else if (a != null && fix.time() < a.time())
+                return true;
+            else
+                return false;
+        }
+
+        private void processABC(Item c, Subscriber<DriftCandidate> subscriber, Options options) {
+            if (isDrifter(a) && !isDrifter(b) && !isDrifter(c)) {
+                // ignore c
+                // rule 4, 5
+            } else if (isDrifter(a) && !isDrifter(b) && isDrifter(c)) {
+                // rule 6, 7
+                if (withinNonDriftingThreshold(b, c, options)) {
+                    b = c;
+                    processAB(subscriber, options);
                 } else {
-                    System.out.println(a + "," + b + "," + c);
-                    unexpected();
+                    a = c;
+                    b = null;
                 }
+            } else {
+                System.out.println(a + "," + b + "," + c);
+                unexpected();
             }
+        }
 
-            private void unexpected() {
-                throw new RuntimeException("unexpected");
-            }
+        private void unexpected() {
+            throw new RuntimeException("unexpected");
+        }
 
-            private void processAB(Subscriber<DriftCandidate> subscriber) {
-                if (!isDrifter(a)) {
-                    // rule 1
-                    a = null;
-                    if (b != null)
-                        unexpected();
-                } else if (b == null) {
-                    // do nothing
-                } else if (!a.emitted()) {
-                    if (isDrifter(b)) {
-                        // rule 2
-                        if (!expired(a, b)) {
-                            driftingSince = a.time();
-                            subscriber.onNext(new DriftCandidate(a.fix(), a.time()));
-                            subscriber.onNext(new DriftCandidate(b.fix(), a.time()));
-                            // mark as emitted
-                            a = new Drifter(a.fix(), true);
-                            b = null;
-                        } else {
-                            a = b;
-                            b = null;
-                        }
+        private void processAB(Subscriber<DriftCandidate> subscriber, Options options) {
+            if (!isDrifter(a)) {
+                // rule 1
+                a = null;
+                if (b != null)
+                    unexpected();
+            } else if (b == null) {
+                // do nothing
+            } else if (!a.emitted()) {
+                if (isDrifter(b)) {
+                    // rule 2
+                    if (!expired(a, b, options)) {
+                        driftingSince = a.time();
+                        subscriber.onNext(new DriftCandidate(a.fix(), a.time()));
+                        subscriber.onNext(new DriftCandidate(b.fix(), a.time()));
+                        // mark as emitted
+                        a = new Drifter(a.fix(), true);
+                        b = null;
+                    } else {
+                        a = b;
+                        b = null;
                     }
-                } else {
-                    // a has been emitted
-                    // rule 3
-                    if (isDrifter(b)) {
-                        if (!expired(a, b)) {
-                            subscriber.onNext(new DriftCandidate(b.fix(), driftingSince));
-                            a = new Drifter(b.fix(), true);
-                            b = null;
-                        } else {
-                            a = b;
-                            b = null;
-                        }
+                }
+            } else {
+                // a has been emitted
+                // rule 3
+                if (isDrifter(b)) {
+                    if (!expired(a, b, options)) {
+                        subscriber.onNext(new DriftCandidate(b.fix(), driftingSince));
+                        a = new Drifter(b.fix(), true);
+                        b = null;
+                    } else {
+                        a = b;
+                        b = null;
                     }
                 }
             }
+        }
 
-            private boolean expired(Item a, Item b) {
-                return b.time() - a.time() >= options.expiryAgeMs();
-            }
+        private static boolean expired(Item a, Item b, Options options) {
+            return b.time() - a.time() >= options.expiryAgeMs();
+        }
+
+        private static boolean withinNonDriftingThreshold(Item a, Item b, Options options) {
+            return b.time() - a.time() < options.nonDriftingThresholdMs();
+        }
 
-            private boolean withinNonDriftingThreshold(Item a, Item b) {
-                return b.time() - a.time() < options.nonDriftingThresholdMs();
+    }
+
+    /**
+     * Open addressing hash table (linear probing) of the {@link VesselState}
+     * of each vessel keyed by mmsi in parallel primitive arrays, so a vessel
+     * costs a table slot and its state object (no boxed keys or entry
+     * objects). The states of vessels whose last fix is more than the idle
+     * period before the latest fix seen are evicted by a sweep of the table
+     * once per table capacity of fixes (amortized O(1) per fix), and the table
+     * only grows if a sweep does not free enough slots.
+     */
+    private static final class VesselStates {
+
+        private static final int INITIAL_CAPACITY = 1 << 10;
+        private static final double MAX_LOAD = 0.5;
+
+        private final long idleMs;
+        private int[] mmsis;
+        private VesselState[] states;
+        private long[] lastTimes;
+        private int size;
+        private long latestTime = Long.MIN_VALUE;
+        private int fixesSinceSweep;
+
+        VesselStates(long idleMs) {
+            this.idleMs = idleMs;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            mmsis = new int[capacity];
+            states = new VesselState[capacity];
+            lastTimes = new long[capacity];
+            size = 0;
+        }
+
+        /**
+         * Returns the state of the vessel (a new state if none or the vessel
+         * has been idle) and records the time of its latest fix.
+         *
+         * @param mmsi
+         * @param time
+         * @return
+         */
+        VesselState get(int mmsi, long time) {
+            latestTime = Math.max(latestTime, time);
+            if (++fixesSinceSweep >= states.length) {
+                evictIdle();
+                fixesSinceSweep = 0;
+            }
+            int i = index(mmsi);
+            if (states[i] == null) {
+                if (size + 1 > states.length * MAX_LOAD) {
+                    evictIdle();
+                    if (size + 1 > states.length * MAX_LOAD)
+                        rehash(states.length * 2);
+                    i = index(mmsi);
+                }
+                mmsis[i] = mmsi;
+                states[i] = new VesselState();
+                size++;
+            } else if (isIdle(lastTimes[i])) {
+                // idle but not yet swept
+                states[i].reset();
             }
+            lastTimes[i] = Math.max(lastTimes[i], time);
+            return states[i];
+        }
 
+        /**
+         * Returns the slot of the mmsi or the empty slot where it would be
+         * inserted.
+         */
+        private int index(int mmsi) {
+            int mask = states.length - 1;
+            int i = mix(mmsi) & mask;
+            while (states[i] != null && mmsis[i] != mmsi)
+                i = (i + 1) & mask;
+            return i;
         }
 
-        private static boolean isDrifter(Item item) {
-            return item instanceof Drifter;
+        private static int mix(int x) {
+            int h = x * 0x9E3779B9;
+            return h ^ (h >>> 16);
         }
 
-        private static interface Item {
-            long time();
+        private void evictIdle() {
+            int capacity = states.length;
+            int live = 0;
+            for (int i = 0; i < capacity; i++)
+                if (states[i] != null && !isIdle(lastTimes[i]))
+                    live++;
+            if (live == size)
+                return;
+            // shrink if mostly empty after eviction
+            while (capacity > INITIAL_CAPACITY && live < capacity * MAX_LOAD / 4)
+                capacity /= 2;
+            rehash(capacity);
+        }
 
-            HasFix fix();
+        private boolean isIdle(long lastTime) {
+            return latestTime - lastTime > idleMs;
+        }
 
-            boolean emitted();
+        private void rehash(int capacity) {
+            int[] oldMmsis = mmsis;
+            VesselState[] oldStates = states;
+            long[] oldLastTimes = lastTimes;
+            allocate(capacity);
+            for (int i = 0; i < oldStates.length; i++)
+                if (oldStates[i] != null && !isIdle(oldLastTimes[i])) {
+                    int j = index(oldMmsis[i]);
+                    mmsis[j] = oldMmsis[i];
+                    states[j] = oldStates[i];
+                    lastTimes[j] = oldLastTimes[i];
+                    size++;
+                }
         }
+    }
 
-        private static class Drifter implements Item {
+    private static boolean isDrifter(Item item) {
+        return item instanceof Drifter;
+    }
 
-            private final HasFix fix;
-            private final boolean emitted;
+    private static interface Item {
+        long time();
 
-            Drifter(HasFix fix, boolean emitted) {
-                this.fix = fix;
-                this.emitted = emitted;
-            }
+        HasFix fix();
 
-            @Override
-            public long time() {
-                return fix.fix().time();
-            }
+        boolean emitted();
+    }
 
-            @Override
-            public HasFix fix() {
-                return fix;
-            }
+    private static class Drifter implements Item {
 
-            @Override
-            public boolean emitted() {
-                return emitted;
-            }
+        private final HasFix fix;
+        private final boolean emitted;
 
+        Drifter(HasFix fix, boolean emitted) {
+            this.fix = fix;
+            this.emitted = emitted;
         }
 
-        private static class NonDrifter implements Item {
+        @Override
+        public long time() {
+            return fix.fix().time();
+        }
 
-            private final long time;
+        @Override
+        public HasFix fix() {
+            return fix;
+        }
 
-            NonDrifter(long time) {
-                this.time = time;
-            }
+        @Override
+        public boolean emitted() {
+            return emitted;
+        }
 
-            @Override
-            public long time() {
-                return time;
-            }
+    }
 
-            @Override
-            public Fix fix() {
-                throw new RuntimeException("unexpected");
-            }
+    private static class NonDrifter implements Item {
 
-            @Override
-            public boolean emitted() {
-                // never gets emitted
-                return false;
-            }
+        private final long time;
+
+        NonDrifter(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long time() {
+            return time;
+        }
+
+        @Override
+        public Fix fix() {
+            throw new RuntimeException("unexpected");
+        }
+
+        @Override
+        public boolean emitted() {
+            // never gets emitted
+            return false;
         }
     }
 
@@ -0,0 +1,237 @@
+package au.gov.amsa.navigation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Mutable index of the vessel positions reported in a recent time window.
+ * Positions are held in the cells of a uniform lat/lon grid (only occupied
+ * cells are allocated) and by vessel, each in a ring buffer in the order the
+ * positions were added. Adding a position and expiring positions from the
+ * window are O(1) (amortized) and finding the positions near a point only
+ * visits the cells overlapping the search box.
+ *
+ * <p>
+ * Positions are expired in the order they were added so the index is
+ * bounded by the number of positions reported in the window as long as
+ * positions arrive roughly in time order. A position that arrives late is
+ * kept until the positions added before it have expired, so callers should
+ * filter search results by time.
+ *
+ * <p>
+ * Not thread safe.
+ */
+final class PositionGrid {
+
+    private final double cellSizeDegrees;
+    private final long windowMs;
+    private final Map<Long, Ring> cells = new HashMap<Long, Ring>();
+    private final Map<Identifier, Ring> vessels = new HashMap<Identifier, Ring>();
+    // all positions in the order they were added
+    private final Ring positions = new Ring();
+
+    /**
+     * Constructor.
+     *
+     * @param cellSizeDegrees
+     *            side of a grid cell in degrees (best about the size of a
+     *            typical search box)
+     * @param windowMs
+     *            positions more than this many ms before the most recent
+     *            position added are expired
+     */
+    PositionGrid(double cellSizeDegrees, long windowMs) {
+        Preconditions.checkArgument(cellSizeDegrees > 0, "cellSizeDegrees must be positive");
+        Preconditions.checkArgument(windowMs >= 0, "windowMs must be non-negative");
+        this.cellSizeDegrees = cellSizeDegrees;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Adds the position then expires the positions more than the window
+     * before it.
+     *
+     * @param p
+     */
+    void add(VesselPosition p) {
+        positions.add(p);
+        cell(p).add(p);
+        Ring track = vessels.get(p.id());
+        if (track == null) {
+            track = new Ring();
+            vessels.put(p.id(), track);
+        }
+        track.add(p);
+        expireBefore(p.time() - windowMs);
+    }
+
+    private void expireBefore(long time) {
+        // the oldest position in the index is also the oldest in its cell and
+        // its vessel's track because all are in the order added
+        while (!positions.isEmpty() && positions.first().time() < time) {
+            VesselPosition p = positions.removeFirst();
+            long key = key(p.lat(), p.lon());
+            Ring cell = cells.get(key);
+            cell.removeFirst();
+            if (cell.isEmpty())
+                cells.remove(key);
+            Ring track = vessels.get(p.id());
+            track.removeFirst();
+            if (track.isEmpty())
+                vessels.remove(p.id());
+        }
+    }
+
+    /**
+     * Returns the positions in the box (inclusive). The box should not cross
+     * the antimeridian.
+     *
+     * @param minLat
+     * @param maxLat
+     * @param minLon
+     * @param maxLon
+     * @return
+     */
+    List<VesselPosition> search(double minLat, double maxLat, double minLon, double maxLon) {
+        List<VesselPosition> list = new ArrayList<VesselPosition>();
+        long fromLat = index(minLat);
+        long toLat = index(maxLat);
+        long fromLon = index(minLon);
+        long toLon = index(maxLon);
+        for (long i = fromLat; i <= toLat; i++)
+            for (long j = fromLon; j <= toLon; j++) {
+                Ring cell = cells.get(key(i, j));
+                if (cell != null)
+                    for (int k = 0; k < cell.size(); k++) {
+                        VesselPosition p = cell.get(k);
+                        if (p.lat() >= minLat && p.lat() <= maxLat && p.lon() >= minLon
+                                && p.lon() <= maxLon)
+                            list.add(p);
+                    }
+            }
+        return list;
+    }
+
+    /**
+     * Returns the earliest position of the same vessel that is after the
+     * position (by {@link Comparators#timeIdMessageIdComparator}).
+     *
+     * @param p
+     * @return
+     */
+    Optional<VesselPosition> next(VesselPosition p) {
+        Ring track = vessels.get(p.id());
+        VesselPosition next = null;
+        if (track != null)
+            for (int i = 0; i < track.size(); i++) {
+                VesselPosition q = track.get(i);
+                if (Comparators.timeIdMessageIdComparator.compare(q, p) > 0 && (next == null
+                        || Comparators.timeIdMessageIdComparator.compare(q, next) < 0))
+                    next = q;
+            }
+        return Optional.ofNullable(next);
+    }
+
+    /**
+     * Returns the number of positions in the index.
+     *
+     * @return
+     */
+    int size() {
+        return positions.size();
+    }
+
+    /**
+     * Returns the number of vessels with positions in the index.
+     *
+     * @return
+     */
+    int vesselCount() {
+        return vessels.size();
+    }
+
+    /**
+     * Returns the number of grid cells holding positions.
+     *
+     * @return
+     */
+    int cellCount() {
+        return cells.size();
+    }
+
+    private Ring cell(VesselPosition p) {
+        long key = key(p.lat(), p.lon());
+        Ring cell = cells.get(key);
+        if (cell == null) {
+            cell = new Ring();
+            cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    private long index(double degrees) {
+        return (long) Math.floor(degrees / cellSizeDegrees);
+    }
+
+    private long key(double lat, double lon) {
+        return key(index(lat), index(lon));
+    }
+
+    private static long key(long latIndex, long lonIndex) {
+        return (latIndex << 32) | (lonIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Growable circular buffer of positions in the order added.
+     */
+    private static final class Ring {
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        private VesselPosition[] items = new VesselPosition[INITIAL_CAPACITY];
+        private int head;
+        private int size;
+
+        void add(VesselPosition p) {
+            if (size == items.length) {
+                VesselPosition[] a = new VesselPosition[items.length * 2];
+                for (int i = 0; i < size; i++)
+                    a[i] = get(i);
+                items = a;
+                head = 0;
+            }
+            items[(head + size) % items.length] = p;
+            size++;
+        }
+
+        VesselPosition get(int i) {
+            return items[(head + i) % items.length];
+        }
+
+        VesselPosition first() {
+            return items[head];
+        }
+
+        VesselPosition removeFirst() {
+            VesselPosition p = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            size--;
+            return p;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+}
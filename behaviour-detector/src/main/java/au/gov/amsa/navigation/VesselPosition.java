@@ -297,9 +297,7 @@ public class VesselPosition implements HasFix {
     // }
 
     public Optional<VesselPosition> predict(long t) {
-        if (!speedMetresPerSecond.isPresent() || !cogDegrees.isPresent()
-                || navigationalStatus == NavigationalStatus.AT_ANCHOR
-                || navigationalStatus == NavigationalStatus.MOORED)
+        if (!isPredictable())
             return Optional.empty();
         else {
             double lat = this.lat - speedMetresPerSecond.get() / metresPerDegreeLatitude()
@@ -318,6 +316,87 @@ public class VesselPosition implements HasFix {
         }
     }
 
+    private boolean isPredictable() {
+        return speedMetresPerSecond.isPresent() && cogDegrees.isPresent()
+                && navigationalStatus != NavigationalStatus.AT_ANCHOR
+                && navigationalStatus != NavigationalStatus.MOORED;
+    }
+
+    /**
+     * Sets element {@code i} of the arrays to the position (metres) and
+     * velocity (metres per second) of this vessel relative to the position of
+     * {@code others[i]} predicted to the time of this vessel (the relative
+     * motion used by {@link #intersectionTimes}) for the first {@code n}
+     * others, in one loop. Others whose position cannot be predicted are
+     * skipped and the remaining others are moved to the front of the array
+     * (in order) so that element {@code i} of the arrays is for
+     * {@code others[i]}.
+     *
+     * @param others
+     * @param n
+     *            number of others
+     * @param x
+     * @param y
+     * @param vx
+     * @param vy
+     * @return the number of others whose relative motion was set (0 if this
+     *         vessel has no velocity)
+     */
+    int relativeStates(VesselPosition[] others, int n, double[] x, double[] y, double[] vx,
+            double[] vy) {
+        if (!speedMetresPerSecond.isPresent() || !cogDegrees.isPresent())
+            return 0;
+        double cog = Math.toRadians(cogDegrees.get());
+        double velocityX = speedMetresPerSecond.get() * Math.sin(cog);
+        double velocityY = speedMetresPerSecond.get() * Math.cos(cog);
+        double metresPerDegreeLongitude = metresPerDegreeLongitude();
+        double metresPerDegreeLatitude = metresPerDegreeLatitude();
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            VesselPosition o = others[i];
+            if (!o.isPredictable())
+                continue;
+            double speed = o.speedMetresPerSecond.get();
+            double c = Math.toRadians(o.cogDegrees.get());
+            double sin = Math.sin(c);
+            double cos = Math.cos(c);
+            double seconds = (time - o.time) / 1000.0;
+            // as predict
+            double lat = o.lat - speed / o.metresPerDegreeLatitude() * seconds * cos;
+            if (lat > 90)
+                lat = 90;
+            else if (lat < -90)
+                lat = -90;
+            double lon = Position
+                    .to180(o.lon + speed / o.metresPerDegreeLongitude() * seconds * sin);
+            others[count] = o;
+            x[count] = -(lon - this.lon) * metresPerDegreeLongitude;
+            y[count] = -(lat - this.lat) * metresPerDegreeLatitude;
+            vx[count] = velocityX - speed * sin;
+            vy[count] = velocityY - speed * cos;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the radius of the ring around this vessel and the other vessel
+     * that {@link #intersectionTimes} tests for collision.
+     *
+     * @param other
+     * @return
+     */
+    double collisionRadiusMetres(VesselPosition other) {
+        return other.halfMaxDimensionMetres() + halfMaxDimensionMetres();
+    }
+
+    private int halfMaxDimensionMetres() {
+        if (lengthMetres.isPresent() && widthMetres.isPresent())
+            return Math.max(lengthMetres.get(), widthMetres.get()) / 2;
+        else
+            return maxDimensionMetresWhenUnknown / 2;
+    }
+
     private Optional<Vector> velocity() {
         if (speedMetresPerSecond.isPresent() && cogDegrees.isPresent())
             return Optional.of(new Vector(
@@ -348,10 +427,10 @@ public class VesselPosition implements HasFix {
 
         // imagine a ring around the vessel centroid with maxDimensionMetres/2
         // radius. This is the ring we are going to test for collision.
-        double r = p.get().maxDimensionMetres().orElse(maxDimensionMetresWhenUnknown) / 2
-                + maxDimensionMetres().orElse(maxDimensionMetresWhenUnknown) / 2;
+        double r = collisionRadiusMetres(p.get());
 
-        if (deltaP.dot(deltaP) <= r)
+        // already within the ring
+        if (deltaP.dot(deltaP) <= r * r)
             return of(new Times(p.get().time()));
 
         double a = deltaV.dot(deltaV);
@@ -0,0 +1,86 @@
+package au.gov.amsa.navigation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+import java.util.Optional;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import au.gov.amsa.navigation.VesselPosition.NavigationalStatus;
+
+/**
+ * Cost per position of finding the collision times of its neighbours, pairwise
+ * with {@link VesselPosition#intersectionTimes} or in one batch with
+ * {@link ClosestApproach}.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksNavigation {
+
+    @Param({ "50", "500" })
+    public int neighbours;
+
+    private VesselPosition p;
+    private VesselPosition[] others;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(12345);
+        long time = 1000000000L;
+        p = position(0, time, -35, 150, r);
+        others = new VesselPosition[neighbours];
+        for (int i = 0; i < neighbours; i++)
+            others[i] = position(i + 1, time - r.nextInt(300000), -35 + r.nextDouble() * 0.1,
+                    150 + r.nextDouble() * 0.1, r);
+    }
+
+    @Benchmark
+    public long collisionTimesPairwise() {
+        long sum = 0;
+        for (VesselPosition other : others) {
+            Optional<Times> times = p.intersectionTimes(other);
+            if (times.isPresent())
+                sum += times.get().leastPositive().orElse(0L);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long collisionTimesBatch() {
+        // relativeStates reorders the others
+        VesselPosition[] os = others.clone();
+        int size = os.length;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        double[] vx = new double[size];
+        double[] vy = new double[size];
+        int n = p.relativeStates(os, size, x, y, vx, vy);
+        double[] tcpa = new double[n];
+        double[] dcpa = new double[n];
+        ClosestApproach.calculate(n, x, y, vx, vy, tcpa, dcpa);
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            Optional<Times> times = ClosestApproach.intersectionTimes(x[i], y[i], vx[i], vy[i],
+                    tcpa[i], dcpa[i], p.collisionRadiusMetres(os[i]), os[i].time());
+            if (times.isPresent())
+                sum += times.get().leastPositive().orElse(0L);
+        }
+        return sum;
+    }
+
+    private static VesselPosition position(int mmsi, long time, double lat, double lon,
+            Random r) {
+        return VesselPosition.builder().id(new Mmsi(mmsi)).time(time).lat(lat).lon(lon)
+                .cls(VesselClass.A).cogDegrees(of(r.nextDouble() * 360)).headingDegrees(empty())
+                .speedMetresPerSecond(of(r.nextDouble() * 12)).lengthMetres(of(100))
+                .widthMetres(of(20)).navigationalStatus(NavigationalStatus.UNDER_WAY_USING_ENGINE)
+                .positionAisNmea(empty()).shipStaticAisNmea(empty()).shipType(empty())
+                .data(empty()).build();
+    }
+
+}
@@ -0,0 +1,153 @@
+package au.gov.amsa.navigation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.gov.amsa.navigation.VesselPosition.NavigationalStatus;
+
+public class ClosestApproachTest {
+
+    private static final double PRECISION = 0.000001;
+
+    @Test
+    public void testClosestApproachOfNeighbours() {
+        double[] x = { 1000, 0, 300, 50 };
+        double[] y = { 0, 400, 400, 0 };
+        double[] vx = { -10, 3, 0, 0 };
+        double[] vy = { 0, 0, 0, 0 };
+        double[] tcpa = new double[4];
+        double[] dcpa = new double[4];
+        ClosestApproach.calculate(3, x, y, vx, vy, tcpa, dcpa);
+        // head on
+        assertEquals(100, tcpa[0], PRECISION);
+        assertEquals(0, dcpa[0], PRECISION);
+        // crossing ahead
+        assertEquals(0, tcpa[1], PRECISION);
+        assertEquals(400, dcpa[1], PRECISION);
+        // no relative motion
+        assertEquals(0, tcpa[2], PRECISION);
+        assertEquals(500, dcpa[2], PRECISION);
+        // only n neighbours are calculated
+        assertEquals(0, tcpa[3], PRECISION);
+        assertEquals(0, dcpa[3], PRECISION);
+    }
+
+    @Test
+    public void testClosestApproachInThePast() {
+        double[] tcpa = new double[1];
+        double[] dcpa = new double[1];
+        ClosestApproach.calculate(1, new double[] { 100 }, new double[] { 30 },
+                new double[] { 5 }, new double[] { 0 }, tcpa, dcpa);
+        assertEquals(-20, tcpa[0], PRECISION);
+        assertEquals(30, dcpa[0], PRECISION);
+    }
+
+    @Test
+    public void testIntersectionTimesFromClosestApproach() {
+        // crosses a ring of radius 30 from 97s to 103s
+        Optional<Times> times = ClosestApproach.intersectionTimes(1000, 0, -10, 0, 100, 0, 30,
+                1234);
+        assertTrue(times.isPresent());
+        assertEquals(103, times.get().time1());
+        assertEquals(97, (long) times.get().time2().get());
+        assertEquals(97, (long) times.get().leastPositive().get());
+        assertFalse(ClosestApproach.intersectionTimes(1000, 0, -10, 0, 100, 31, 30, 1234)
+                .isPresent());
+        assertFalse(
+                ClosestApproach.intersectionTimes(1000, 0, 0, 0, 0, 1000, 30, 1234).isPresent());
+    }
+
+    @Test
+    public void testNeighbourAlreadyWithinRingReturnsItsReportTime() {
+        // 20m away is inside a ring of radius 30 (but further than the square
+        // root of the radius)
+        Optional<Times> times = ClosestApproach.intersectionTimes(20, 0, 10, 0, -2, 0, 30,
+                1234);
+        assertTrue(times.isPresent());
+        assertEquals(1234, times.get().time1());
+        assertFalse(times.get().time2().isPresent());
+
+        // about 22m apart with a collision radius of 100m
+        VesselPosition p = position(1, 1000, -35, 150, 0, 5, of(100));
+        VesselPosition other = position(2, 1000, -35.0002, 150, 180, 5, of(100));
+        assertEquals(100, p.collisionRadiusMetres(other), PRECISION);
+        assertEquals(1000, p.intersectionTimes(other).get().time1());
+    }
+
+    @Test
+    public void testAgreesWithIntersectionTimesOfVesselPosition() {
+        Random r = new Random(123);
+        double[] x = new double[1];
+        double[] y = new double[1];
+        double[] vx = new double[1];
+        double[] vy = new double[1];
+        double[] tcpa = new double[1];
+        double[] dcpa = new double[1];
+        int intersecting = 0;
+        for (int i = 0; i < 100000; i++) {
+            long time = 1000000000L + r.nextInt(100000);
+            VesselPosition p = position(1, time, -35 + r.nextDouble() * 0.01,
+                    150 + r.nextDouble() * 0.01, r.nextDouble() * 360, r.nextDouble() * 12,
+                    r.nextBoolean() ? of(r.nextInt(300)) : empty());
+            VesselPosition other = position(2, time - r.nextInt(300000),
+                    -35 + r.nextDouble() * 0.01, 150 + r.nextDouble() * 0.01,
+                    r.nextDouble() * 360, r.nextDouble() * 12,
+                    r.nextBoolean() ? of(r.nextInt(300)) : empty());
+            Optional<Times> expected = p.intersectionTimes(other);
+            assertEquals(1, p.relativeStates(new VesselPosition[] { other }, 1, x, y, vx, vy));
+            ClosestApproach.calculate(1, x, y, vx, vy, tcpa, dcpa);
+            Optional<Times> actual = ClosestApproach.intersectionTimes(x[0], y[0], vx[0], vy[0],
+                    tcpa[0], dcpa[0], p.collisionRadiusMetres(other), other.time());
+            assertEquals(expected.isPresent(), actual.isPresent());
+            if (expected.isPresent()) {
+                intersecting++;
+                assertEquals(expected.get().leastPositive().isPresent(),
+                        actual.get().leastPositive().isPresent());
+                if (expected.get().leastPositive().isPresent())
+                    assertEquals(expected.get().leastPositive().get(),
+                            actual.get().leastPositive().get(), 1);
+            }
+        }
+        assertTrue(intersecting > 100);
+    }
+
+    @Test
+    public void testRelativeStatesSkipsOthersThatCannotBePredicted() {
+        double[] x = new double[3];
+        double[] y = new double[3];
+        VesselPosition p = position(1, 1000, -35, 150, 0, 5, empty());
+        VesselPosition a = position(3, 1000, -35.001, 150, 0, 5, empty());
+        VesselPosition b = position(4, 1000, -35.002, 150, 0, 5, empty());
+        VesselPosition moored = VesselPosition.builder().id(new Mmsi(2)).time(0).lat(-35)
+                .lon(150).cls(VesselClass.A).cogDegrees(of(0.0)).headingDegrees(empty())
+                .speedMetresPerSecond(of(0.0)).lengthMetres(empty()).widthMetres(empty())
+                .navigationalStatus(NavigationalStatus.MOORED).positionAisNmea(empty())
+                .shipStaticAisNmea(empty()).shipType(empty()).data(empty()).build();
+        VesselPosition[] others = { a, moored, b };
+        assertEquals(2, p.relativeStates(others, 3, x, y, new double[3], new double[3]));
+        assertEquals(a, others[0]);
+        assertEquals(b, others[1]);
+        assertEquals(0.001 * 111321.543, y[0], 0.001);
+        assertEquals(0.002 * 111321.543, y[1], 0.001);
+    }
+
+    private static VesselPosition position(int mmsi, long time, double lat, double lon,
+            double cogDegrees, double speedMetresPerSecond, Optional<Integer> lengthMetres) {
+        return VesselPosition.builder().id(new Mmsi(mmsi)).time(time).lat(lat).lon(lon)
+                .cls(VesselClass.A).cogDegrees(of(cogDegrees)).headingDegrees(empty())
+                .speedMetresPerSecond(of(speedMetresPerSecond)).lengthMetres(lengthMetres)
+                .widthMetres(lengthMetres.map(len -> len / 5))
+                .navigationalStatus(NavigationalStatus.UNDER_WAY_USING_ENGINE)
+                .positionAisNmea(empty()).shipStaticAisNmea(empty()).shipType(empty())
+                .data(empty()).build();
+    }
+
+}
@@ -0,0 +1,112 @@
+package au.gov.amsa.navigation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import au.gov.amsa.navigation.VesselPosition.NavigationalStatus;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+public class CollisionDetectorTest {
+
+    private static final long INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    @Test
+    public void testVesselsOnCollisionCourseAreCandidates() {
+        List<CollisionCandidate> list = CollisionDetector
+                .getCandidatesForAStream(Observable.from(headOn(-35.0, 150.0, 20)))
+                .toList().toBlocking().single();
+        assertFalse(list.isEmpty());
+        for (CollisionCandidate c : list)
+            assertTrue(c.position1().id().uniqueId() != c.position2().id().uniqueId());
+    }
+
+    @Test
+    public void testDistantVesselsAreNotCandidates() {
+        List<VesselPosition> positions = new ArrayList<VesselPosition>();
+        for (int i = 0; i < 20; i++) {
+            positions.add(position(1, i * INTERVAL_MS, -35.0, 150.0, 0.0));
+            positions.add(position(2, i * INTERVAL_MS, -30.0, 150.0, 180.0));
+        }
+        assertEquals(0, (int) CollisionDetector
+                .getCandidatesForAStream(Observable.from(positions)).count().toBlocking()
+                .single());
+    }
+
+    @Test
+    public void testEachSubscriptionHasItsOwnState() {
+        Observable<CollisionCandidate> candidates = CollisionDetector
+                .getCandidatesForAStream(Observable.from(headOn(-35.0, 150.0, 20)));
+        int count = candidates.count().toBlocking().single();
+        assertEquals(count, (int) candidates.count().toBlocking().single());
+    }
+
+    @Test
+    public void testTiledDetectionReportsSameCandidatesAsSingleStream() {
+        List<VesselPosition> positions = new ArrayList<VesselPosition>();
+        // pairs inside tiles, straddling tile edges and near a tile corner
+        positions.addAll(headOn(-35.5, 150.5, 20));
+        positions.addAll(renumber(headOn(-35.0, 150.98, 20), 10));
+        positions.addAll(renumber(headOn(-34.001, 151.995, 20), 20));
+        positions.sort((a, b) -> Long.compare(a.time(), b.time()));
+        List<String> expected = describe(CollisionDetector
+                .getCandidatesForAStream(Observable.from(positions)));
+        List<String> tiled = describe(CollisionDetector
+                .getCandidatesTiled(Observable.from(positions), 1.0, Schedulers.computation()));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, tiled);
+    }
+
+    private static List<VesselPosition> renumber(List<VesselPosition> positions, int offset) {
+        List<VesselPosition> list = new ArrayList<VesselPosition>();
+        for (VesselPosition p : positions)
+            list.add(position((int) p.id().uniqueId() + offset, p.time(), p.lat(), p.lon(),
+                    p.cogDegrees().get()));
+        return list;
+    }
+
+    private static List<String> describe(Observable<CollisionCandidate> candidates) {
+        return candidates
+                .map(c -> c.position1().id().uniqueId() + "," + c.position1().time() + ","
+                        + c.position2().id().uniqueId() + "," + c.position2().time() + ","
+                        + c.time())
+                .toSortedList().toBlocking().single();
+    }
+
+    /**
+     * Returns positions of two vessels reported every 10 seconds
+     * approaching each other head on along a line of latitude.
+     */
+    static List<VesselPosition> headOn(double lat, double lon, int reports) {
+        List<VesselPosition> positions = new ArrayList<VesselPosition>();
+        // 10m/s each so 200m closer every report
+        double degreesPerReport = 100 / (1852.0 * 60 * Math.cos(Math.toRadians(lat)));
+        for (int i = 0; i < reports; i++) {
+            long time = i * INTERVAL_MS;
+            positions.add(position(1, time, lat, lon + i * degreesPerReport, 90.0));
+            positions.add(position(2, time, lat,
+                    lon + (2 * reports - i) * degreesPerReport, 270.0));
+        }
+        return positions;
+    }
+
+    static VesselPosition position(int mmsi, long time, double lat, double lon,
+            double cogDegrees) {
+        return VesselPosition.builder().id(new Mmsi(mmsi)).time(time).lat(lat).lon(lon)
+                .cls(VesselClass.A).cogDegrees(of(cogDegrees)).headingDegrees(empty())
+                .speedMetresPerSecond(of(10.0)).lengthMetres(empty()).widthMetres(empty())
+                .navigationalStatus(NavigationalStatus.UNDER_WAY_USING_ENGINE)
+                .positionAisNmea(empty()).shipStaticAisNmea(empty()).shipType(empty())
+                .data(empty()).build();
+    }
+
+}
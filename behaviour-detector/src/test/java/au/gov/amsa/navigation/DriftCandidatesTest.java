@@ -2,20 +2,36 @@ package au.gov.amsa.navigation;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import au.gov.amsa.navigation.DriftDetector.Options;
 import au.gov.amsa.risky.format.AisClass;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.BinaryFixesFormat;
 import au.gov.amsa.risky.format.Fix;
+import au.gov.amsa.risky.format.FixImpl;
 
 public class DriftCandidatesTest {
 
     private static final double PRECISION = 0.00001;
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testSplit() {
         String s = "a,,,b,c";
@@ -42,4 +58,137 @@ public class DriftCandidatesTest {
         assertEquals(1413956437000L, list.get(0).driftingSince());
     }
 
+    @Test
+    public void testExtractToBinaryAndReadByTimeRange() throws IOException {
+        File directory = folder.newFolder();
+        long start = 1420070400000L;
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        // drifting every minute
+        writeTrack(directory, 123456789, start, minute, 2000, 90);
+        writeTrack(directory, 123456790, start + 30000, minute, 2000, 90);
+        // not drifting
+        writeTrack(directory, 123456791, start, minute, 2000, 0);
+        File output = new File(folder.newFolder(), "drift-candidates.bin");
+        long count = DriftCandidatesExtractor.extract(directory, output, Options.instance(), 0,
+                2);
+        assertEquals(4000, count);
+        // records, 4 index entries and the trailer
+        assertEquals(4000 * DriftCandidates.BINARY_RECORD_BYTES + 4 * 16
+                + DriftCandidates.BINARY_TRAILER_BYTES, output.length());
+        // the runs and the temporary file have been deleted
+        assertEquals(1, output.getParentFile().list().length);
+
+        List<DriftCandidate> list = DriftCandidates.fromBinary(output).toList().toBlocking()
+                .single();
+        assertEquals(4000, list.size());
+        for (int i = 1; i < list.size(); i++)
+            assertTrue(list.get(i - 1).fix().time() <= list.get(i).fix().time());
+        Fix f = list.get(0).fix();
+        assertEquals(123456789, f.mmsi());
+        assertEquals(-35.0, f.lat(), PRECISION);
+        assertEquals(150.0, f.lon(), PRECISION);
+        assertEquals(start, f.time());
+        assertEquals(10.0, f.courseOverGroundDegrees().get(), PRECISION);
+        assertEquals(100.0, f.headingDegrees().get(), PRECISION);
+        assertEquals(5.0, f.speedOverGroundKnots().get(), PRECISION);
+        assertEquals(start, list.get(0).driftingSince());
+        assertEquals(start + 30000, list.get(1).driftingSince());
+
+        // a range in the middle of the file
+        long from = start + 1500 * minute;
+        long to = start + 1600 * minute;
+        List<DriftCandidate> range = DriftCandidates.fromBinary(output, from, to).toList()
+                .toBlocking().single();
+        assertEquals(200, range.size());
+        assertEquals(from, range.get(0).fix().time());
+        assertTrue(range.get(199).fix().time() < to);
+        assertTrue(DriftCandidates.fromBinary(output, start - 10 * minute, start).isEmpty()
+                .toBlocking().single());
+    }
+
+    @Test
+    public void testExtractSortsCandidatesDetectedOutOfTimeOrder() throws IOException {
+        File directory = folder.newFolder();
+        long start = 1420070400000L;
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        int mmsi = 123456789;
+        try (OutputStream os = new FileOutputStream(new File(directory, mmsi + ".track"))) {
+            write(os, mmsi, start, 90);
+            write(os, mmsi, start + 10 * minute, 90);
+            // out of order but after the start of the drift so is a candidate
+            write(os, mmsi, start + 5 * minute, 90);
+        }
+        File output = new File(folder.newFolder(), "drift-candidates.bin");
+        assertEquals(3,
+                DriftCandidatesExtractor.extract(directory, output, Options.instance(), 0, 1));
+        List<DriftCandidate> list = DriftCandidates.fromBinary(output).toList().toBlocking()
+                .single();
+        assertEquals(3, list.size());
+        assertEquals(start, list.get(0).fix().time());
+        assertEquals(start + 5 * minute, list.get(1).fix().time());
+        assertEquals(start + 10 * minute, list.get(2).fix().time());
+
+        // downsampled after sorting, keeping the start of the drift
+        assertEquals(2, DriftCandidatesExtractor.extract(directory, output, Options.instance(),
+                6 * minute, 1));
+        list = DriftCandidates.fromBinary(output).toList().toBlocking().single();
+        assertEquals(start, list.get(0).fix().time());
+        assertEquals(start + 10 * minute, list.get(1).fix().time());
+    }
+
+    @Test
+    public void testExtractMergesMoreRunsThanTheMergeFanIn() throws IOException {
+        File directory = folder.newFolder();
+        long start = 1420070400000L;
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        int files = DriftCandidatesExtractor.MAX_MERGE_FAN_IN * 2 + 2;
+        for (int i = 0; i < files; i++)
+            writeTrack(directory, 100000000 + i, start + i * 1000, minute, 3, 90);
+        File output = new File(folder.newFolder(), "drift-candidates.bin");
+        assertEquals(files * 3,
+                DriftCandidatesExtractor.extract(directory, output, Options.instance(), 0, 1));
+        List<DriftCandidate> list = DriftCandidates.fromBinary(output).toList().toBlocking()
+                .single();
+        assertEquals(files * 3, list.size());
+        for (int i = 1; i < list.size(); i++)
+            assertTrue(list.get(i - 1).fix().time() <= list.get(i).fix().time());
+        assertEquals(1, output.getParentFile().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromBinaryRejectsFileWithoutTrailer() throws IOException {
+        File file = folder.newFile();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(new byte[DriftCandidates.BINARY_RECORD_BYTES * 2]);
+        }
+        DriftCandidates.fromBinary(file).count().toBlocking().single();
+    }
+
+    @Test
+    public void testTimeAndMmsiOfBinaryRecord() {
+        ByteBuffer bb = ByteBuffer.allocate(DriftCandidates.BINARY_RECORD_BYTES * 2);
+        bb.position(DriftCandidates.BINARY_RECORD_BYTES);
+        DriftCandidates.write(new DriftCandidate(new FixImpl(123456789, -35.0f, 150.0f,
+                1420070400000L, AisClass.A), 1420070000000L), bb);
+        assertEquals(1420070400000L,
+                DriftCandidates.time(bb, DriftCandidates.BINARY_RECORD_BYTES));
+        assertEquals(123456789, DriftCandidates.mmsi(bb, DriftCandidates.BINARY_RECORD_BYTES));
+    }
+
+    private static void writeTrack(File directory, int mmsi, long start, long interval, int n,
+            float courseHeadingDiff) throws IOException {
+        try (OutputStream os = new FileOutputStream(new File(directory, mmsi + ".track"))) {
+            for (int i = 0; i < n; i++)
+                write(os, mmsi, start + i * interval, courseHeadingDiff);
+        }
+    }
+
+    private static void write(OutputStream os, int mmsi, long time, float courseHeadingDiff)
+            throws IOException {
+        BinaryFixes.write(new FixImpl(mmsi, -35.0f, 150.0f, time, Optional.empty(),
+                Optional.empty(), Optional.empty(), Optional.of(5.0f), Optional.of(10.0f),
+                Optional.of(10.0f + courseHeadingDiff), AisClass.A), os,
+                BinaryFixesFormat.WITHOUT_MMSI);
+    }
+
 }
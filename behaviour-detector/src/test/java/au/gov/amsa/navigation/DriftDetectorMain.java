@@ -1,5 +1,6 @@
 package au.gov.amsa.navigation;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
@@ -11,13 +12,14 @@ import au.gov.amsa.navigation.DriftDetector.Options;
 import au.gov.amsa.risky.format.Downsample;
 import au.gov.amsa.risky.format.HasFix;
 import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 public class DriftDetectorMain {
 
     public static void main(String[] args) throws FileNotFoundException, IOException {
         System.out.println(Options.instance());
         String filename = "/media/an/nmea/2013/NMEA_ITU_20130108.gz";
-        Streams.extractFixes(Streams.nmeaFromGzip(filename))
+        Streams.extractFixesFromGzip(new File(filename), Schedulers.computation())
                 // parse positions
                 // .compose(AisVesselPositions.positions())
                 // log
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -324,6 +325,69 @@ public class DriftDetectorTest {
         assertEquals(3, ts.getOnNextEvents().size());
     }
 
+    @Test
+    public void testInterleavedVesselsGiveSameCandidatesAsGroupedByVessel() {
+        List<Fix> fixes = new ArrayList<Fix>();
+        long t = 0;
+        for (int i = 0; i < 10; i++) {
+            t += 1;
+            // drifting throughout
+            fixes.add(createFix(1, 90 + i, DRIFT_SPEED_KNOTS, t));
+            // alternating drifting and not drifting
+            fixes.add(createFix(2, i % 2 == 0 ? 90 : 1, DRIFT_SPEED_KNOTS, t));
+            // never drifting
+            fixes.add(createFix(3, 1, DRIFT_SPEED_KNOTS, t));
+        }
+        List<DriftCandidate> interleaved = Observable.from(fixes)
+                .compose(DriftDetector.detectDriftInterleaved(testOptions)).toList()
+                .toBlocking().single();
+        List<DriftCandidate> grouped = Observable.from(fixes).groupBy(fix -> fix.mmsi())
+                .concatMap(g -> g.compose(DriftDetector.detectDrift(testOptions)))
+                .toSortedList((a, b) -> Long.compare(a.fix().time(), b.fix().time()))
+                .toBlocking().single();
+        assertEquals(15, interleaved.size());
+        assertEquals(grouped.size(), interleaved.size());
+        for (DriftCandidate c : grouped)
+            assertTrue(interleaved.stream().anyMatch(d -> d.fix() == c.fix()
+                    && d.driftingSince() == c.driftingSince()));
+    }
+
+    @Test
+    public void testInterleavedManyVessels() {
+        // more vessels than the initial capacity of the table
+        int vessels = 5000;
+        List<Fix> fixes = new ArrayList<Fix>();
+        for (int time = 0; time < 2; time++)
+            for (int mmsi = 1; mmsi <= vessels; mmsi++)
+                fixes.add(createFix(mmsi, 90, DRIFT_SPEED_KNOTS, time));
+        List<DriftCandidate> list = Observable.from(fixes)
+                .compose(DriftDetector.detectDriftInterleaved(testOptions)).toList()
+                .toBlocking().single();
+        assertEquals(2 * vessels, list.size());
+    }
+
+    @Test
+    public void testInterleavedVesselStateDiscardedWhenIdle() {
+        long idleMs = 100;
+        List<Fix> fixes = new ArrayList<Fix>();
+        // drifter
+        fixes.add(createFix(1, 90, DRIFT_SPEED_KNOTS, 0));
+        // another vessel reporting for longer than the idle period
+        for (long t = 0; t <= 3000; t += 10)
+            fixes.add(createFix(2, 1, DRIFT_SPEED_KNOTS, t));
+        // drifter after the state of the first drifter has been discarded
+        fixes.add(createFix(1, 91, DRIFT_SPEED_KNOTS, 3000));
+        // drifter within the idle period
+        fixes.add(createFix(1, 92, DRIFT_SPEED_KNOTS, 3050));
+        List<DriftCandidate> list = Observable.from(fixes)
+                .compose(new DriftDetector.MultiVesselDriftDetectorTransformer(testOptions,
+                        idleMs))
+                .toList().toBlocking().single();
+        assertEquals(2, list.size());
+        assertEquals(3000, list.get(0).driftingSince());
+        assertEquals(3050, list.get(1).fix().time());
+    }
+
     private List<DriftCandidate> getCandidates(Observable<Fix> source) {
         return source.compose(DriftDetector.detectDrift(testOptions)).toList().toBlocking()
                 .single();
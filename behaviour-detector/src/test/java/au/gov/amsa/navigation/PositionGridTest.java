@@ -0,0 +1,104 @@
+package au.gov.amsa.navigation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import au.gov.amsa.navigation.VesselPosition.NavigationalStatus;
+
+public class PositionGridTest {
+
+    private static final long WINDOW_MS = TimeUnit.MINUTES.toMillis(5);
+
+    @Test
+    public void testSearchReturnsOnlyPositionsInBox() {
+        PositionGrid grid = new PositionGrid(0.1, WINDOW_MS);
+        VesselPosition a = position(1, 0, -35.0, 150.0);
+        VesselPosition b = position(2, 0, -35.05, 150.12);
+        VesselPosition c = position(3, 0, -35.3, 150.0);
+        grid.add(a);
+        grid.add(b);
+        grid.add(c);
+        assertEquals(3, grid.size());
+        assertEquals(new HashSet<VesselPosition>(Arrays.asList(a, b)),
+                new HashSet<VesselPosition>(grid.search(-35.1, -34.9, 149.9, 150.2)));
+        assertEquals(Arrays.asList(c), grid.search(-35.4, -35.2, 149.9, 150.1));
+        assertTrue(grid.search(10, 11, 10, 11).isEmpty());
+    }
+
+    @Test
+    public void testSearchAcrossNegativeAndPositiveCellIndexes() {
+        PositionGrid grid = new PositionGrid(0.1, WINDOW_MS);
+        VesselPosition a = position(1, 0, -0.01, -0.01);
+        VesselPosition b = position(2, 0, 0.01, 0.01);
+        grid.add(a);
+        grid.add(b);
+        assertEquals(2, grid.search(-0.05, 0.05, -0.05, 0.05).size());
+        assertEquals(Arrays.asList(b), grid.search(0, 0.05, 0, 0.05));
+    }
+
+    @Test
+    public void testPositionsOutsideWindowAreExpired() {
+        PositionGrid grid = new PositionGrid(0.1, WINDOW_MS);
+        grid.add(position(1, 0, -35.0, 150.0));
+        grid.add(position(2, 1000, -35.0, 150.0));
+        grid.add(position(1, WINDOW_MS, -36.0, 150.0));
+        assertEquals(3, grid.size());
+        grid.add(position(3, WINDOW_MS + 500, -37.0, 150.0));
+        assertEquals(3, grid.size());
+        List<VesselPosition> list = grid.search(-35.1, -34.9, 149.9, 150.1);
+        assertEquals(1, list.size());
+        assertEquals(new Mmsi(2), list.get(0).id());
+        grid.add(position(3, WINDOW_MS + 2000, -37.0, 150.0));
+        assertTrue(grid.search(-35.1, -34.9, 149.9, 150.1).isEmpty());
+        assertEquals(3, grid.size());
+        assertEquals(2, grid.vesselCount());
+        assertEquals(2, grid.cellCount());
+    }
+
+    @Test
+    public void testMemoryIsBoundedByWindow() {
+        PositionGrid grid = new PositionGrid(0.1, WINDOW_MS);
+        for (int i = 0; i < 100000; i++)
+            grid.add(position(i % 100, i * 1000L, -35 + (i % 100) * 0.01, 150 + i * 0.0001));
+        // one position a second so 301 positions in the window
+        assertEquals(301, grid.size());
+        assertEquals(100, grid.vesselCount());
+    }
+
+    @Test
+    public void testNextReturnsEarliestLaterPositionOfVessel() {
+        PositionGrid grid = new PositionGrid(0.1, WINDOW_MS);
+        VesselPosition a = position(1, 1000, -35.0, 150.0);
+        VesselPosition b = position(1, 3000, -35.0, 150.0);
+        VesselPosition c = position(1, 2000, -35.0, 150.0);
+        VesselPosition other = position(2, 1500, -35.0, 150.0);
+        grid.add(a);
+        grid.add(b);
+        grid.add(c);
+        grid.add(other);
+        assertEquals(of(c), grid.next(a));
+        assertEquals(of(b), grid.next(c));
+        assertFalse(grid.next(b).isPresent());
+        assertFalse(grid.next(other).isPresent());
+    }
+
+    private static VesselPosition position(int mmsi, long time, double lat, double lon) {
+        return VesselPosition.builder().id(new Mmsi(mmsi)).time(time).lat(lat).lon(lon)
+                .cls(VesselClass.A).cogDegrees(of(0.0)).headingDegrees(empty())
+                .speedMetresPerSecond(of(5.0)).lengthMetres(empty()).widthMetres(empty())
+                .navigationalStatus(NavigationalStatus.UNDER_WAY_USING_ENGINE)
+                .positionAisNmea(empty()).shipStaticAisNmea(empty()).shipType(empty())
+                .data(empty()).build();
+    }
+
+}
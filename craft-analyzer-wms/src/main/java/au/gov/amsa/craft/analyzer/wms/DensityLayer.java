@@ -0,0 +1,62 @@
+package au.gov.amsa.craft.analyzer.wms;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.io.File;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.grumpy.core.Position;
+import com.github.davidmoten.grumpy.projection.Projector;
+import com.github.davidmoten.grumpy.wms.Layer;
+import com.github.davidmoten.grumpy.wms.LayerFeatures;
+import com.github.davidmoten.grumpy.wms.WmsRequest;
+import com.github.davidmoten.grumpy.wms.WmsUtil;
+
+import au.gov.amsa.geo.distance.DensityPyramid;
+import au.gov.amsa.geo.distance.Renderer;
+import au.gov.amsa.geo.model.Bounds;
+
+/**
+ * Traffic density layer served from a {@link DensityPyramid}. Each request
+ * reads only the tiles of the pyramid level matching the pixel size that
+ * intersect the requested area.
+ */
+public class DensityLayer implements Layer {
+
+    private static Logger log = LoggerFactory.getLogger(DensityLayer.class);
+
+    private static final int NUMBER_STANDARD_DEVIATIONS_FOR_HIGH_VALUE = 2;
+
+    private final DensityPyramid pyramid;
+
+    public DensityLayer(File pyramidDirectory) {
+        log.info("creating Density layer from " + pyramidDirectory);
+        this.pyramid = DensityPyramid.open(pyramidDirectory);
+    }
+
+    @Override
+    public LayerFeatures getFeatures() {
+        return LayerFeatures.builder().crs("EPSG:4326").crs("EPSG:3857").name("Density")
+                .build();
+    }
+
+    @Override
+    public String getInfo(Date time, WmsRequest request, Point point, String mimeType) {
+        return "";
+    }
+
+    @Override
+    public void render(Graphics2D g, WmsRequest request) {
+        final Projector projector = WmsUtil.getProjector(request);
+        Position a = projector.toPosition(0, 0);
+        Position b = projector.toPosition(request.getWidth(), request.getHeight());
+        Bounds bounds = new Bounds(a.getLat(), a.getLon(), b.getLat(), b.getLon());
+        Renderer.paintMap(g, pyramid, bounds, NUMBER_STANDARD_DEVIATIONS_FOR_HIGH_VALUE,
+                request.getWidth(), request.getHeight(), false,
+                p -> projector.toPoint(p.lat(), p.lon()));
+    }
+
+}
@@ -1,5 +1,6 @@
 package au.gov.amsa.craft.analyzer.wms;
 
+import java.io.File;
 import java.io.IOException;
 
 import javax.servlet.ServletException;
@@ -25,11 +26,15 @@ public class WmsServlet extends HttpServlet {
 
         // instantiate the layers
         Layer layer = new DriftingLayer();
+        // the density layer is only served if a density pyramid is configured
+        String densityPyramid = System.getProperty("density.pyramid");
+        Layer densityLayer = densityPyramid == null ? null
+                : new DensityLayer(new File(densityPyramid));
 
         // setup the capabilities of the service which will extract features
         // from the layers to fill in defaults for the layer fields in generated
         // capabilities.xml
-        Capabilities cap = Capabilities.builder()
+        Capabilities.Builder capBuilder = Capabilities.builder()
         // set service name
                 .serviceName(SERVICE_NAME)
                 // set service title
@@ -41,12 +46,14 @@ public class WmsServlet extends HttpServlet {
                 // add info format
                 .infoFormat("text/html")
                 // add custom layer
-                .layerFeatures(layer) //
-                // build caps
-                .build();
+                .layerFeatures(layer);
+        if (densityLayer != null)
+            // add density layer
+            capBuilder = capBuilder.layerFeatures(densityLayer);
+        Capabilities cap = capBuilder.build();
 
         // initialize the request processor
-        processor = WmsServletRequestProcessor.builder()
+        WmsServletRequestProcessor.Builder processorBuilder = WmsServletRequestProcessor.builder()
         // capabilities
                 .capabilities(cap)
                 // or use
@@ -54,9 +61,12 @@ public class WmsServlet extends HttpServlet {
                 // set image cache size
                 .imageCache(200)
                 // add custom layer non-cached
-                .addLayer("Drifting", layer)
-                // build it up
-                .build();
+                .addLayer("Drifting", layer);
+        if (densityLayer != null)
+            // add density layer
+            processorBuilder = processorBuilder.addLayer("Density", densityLayer);
+        // build it up
+        processor = processorBuilder.build();
     }
 
     @Override
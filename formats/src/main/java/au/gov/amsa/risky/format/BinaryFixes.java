@@ -8,12 +8,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
@@ -23,8 +19,8 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.davidmoten.rx.Functions;
 import com.github.davidmoten.rx.slf4j.Logging;
+import com.github.davidmoten.util.Preconditions;
 
 import au.gov.amsa.util.Files;
 import rx.Observable;
@@ -49,13 +45,35 @@ public final class BinaryFixes {
     protected static final char COMMA = ',';
     protected static final byte RATE_OF_TURN_ABSENT = -128;
 
+    /**
+     * Returns the size in bytes of a record of the format.
+     *
+     * @param format
+     *            {@link BinaryFixesFormat#WITH_MMSI} or
+     *            {@link BinaryFixesFormat#WITHOUT_MMSI}
+     * @return record size
+     * @throws IllegalArgumentException
+     *             if the format is {@link BinaryFixesFormat#COLUMNAR}
+     */
     public static int recordSize(BinaryFixesFormat format) {
+        checkFixedRecordSize(format);
         if (format == BinaryFixesFormat.WITH_MMSI)
             return BINARY_FIX_WITH_MMSI_BYTES;
         else
             return BINARY_FIX_BYTES;
     }
 
+    /**
+     * Rejects the {@link BinaryFixesFormat#COLUMNAR} format for operations on
+     * fixed size records.
+     *
+     * @param format
+     */
+    static void checkFixedRecordSize(BinaryFixesFormat format) {
+        Preconditions.checkArgument(format != BinaryFixesFormat.COLUMNAR,
+                "columnar format does not have fixed size records, use BinaryFixesColumnar");
+    }
+
     /**
      * Automatically detects gzip based on filename.
      * 
@@ -74,7 +92,9 @@ public final class BinaryFixes {
      * @return
      */
     public static Observable<Fix> from(File file, boolean backpressure, BinaryFixesFormat format) {
-        if (backpressure)
+        if (format == BinaryFixesFormat.COLUMNAR)
+            return BinaryFixesColumnar.from(file);
+        else if (backpressure)
             return BinaryFixesOnSubscribeWithBackp.from(file, format);
         else
             return BinaryFixesOnSubscribeFastPath.from(file, format);
@@ -84,6 +104,46 @@ public final class BinaryFixes {
         return from(file, backpressure, BinaryFixesFormat.WITHOUT_MMSI);
     }
 
+    /**
+     * Memory maps the file and decodes the fixes in place. Does not support
+     * backpressure or gzipped files. Columnar files are read with
+     * {@link BinaryFixesColumnar#from(File)} (which also memory maps the file).
+     *
+     * @param file
+     * @param format
+     * @return fixes
+     */
+    public static Observable<Fix> fromMemoryMapped(File file, BinaryFixesFormat format) {
+        if (format == BinaryFixesFormat.COLUMNAR)
+            return BinaryFixesColumnar.from(file);
+        else
+            return BinaryFixesOnSubscribeMemoryMapped.from(file, format);
+    }
+
+    public static Observable<Fix> fromMemoryMapped(File file) {
+        return fromMemoryMapped(file, BinaryFixesFormat.WITHOUT_MMSI);
+    }
+
+    /**
+     * Returns an allocation free cursor over the fixes in the memory mapped
+     * file. Files with names ending in '.gz' are decompressed into memory
+     * first. The cursor should be closed after use.
+     *
+     * @param file
+     * @param format
+     * @return cursor
+     */
+    public static FixCursor cursor(File file, BinaryFixesFormat format) {
+        if (format == BinaryFixesFormat.COLUMNAR)
+            return BinaryFixesColumnar.cursor(file);
+        else
+            return BinaryFixesCursor.from(file, format);
+    }
+
+    public static FixCursor cursor(File file) {
+        return cursor(file, BinaryFixesFormat.WITHOUT_MMSI);
+    }
+
     public static Observable<String> csv(Observable<Fix> fixes) {
         return fixes.map(f -> {
             StringBuilder s = new StringBuilder();
@@ -122,6 +182,7 @@ public final class BinaryFixes {
     }
 
     public static void write(Fix fix, ByteBuffer bb, BinaryFixesFormat format) {
+        checkFixedRecordSize(format);
         if (format.equals(BinaryFixesFormat.WITH_MMSI)) {
             bb.putInt(fix.mmsi());
         }
@@ -167,16 +228,42 @@ public final class BinaryFixes {
 
     public static Observable<Integer> sortBinaryFixFilesByTime(File output,
             final long downSampleIntervalMs, Scheduler scheduler) {
+        return sortBinaryFixFilesByTime(output, downSampleIntervalMs, scheduler,
+                BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES);
+    }
+
+    /**
+     * Sorts the fixes in each track file in the directory by time (using an
+     * external sort so that files larger than the memory budget can be
+     * sorted), downsamples them as the sorted fixes are written and rewrites
+     * the files.
+     * 
+     * @param output
+     *            directory containing the track files
+     * @param downSampleIntervalMs
+     * @param scheduler
+     * @param memoryBudgetBytes
+     *            memory budget shared by the files being sorted (one file per
+     *            available processor is sorted at a time)
+     * @return number of files sorted
+     */
+    public static Observable<Integer> sortBinaryFixFilesByTime(File output,
+            final long downSampleIntervalMs, Scheduler scheduler, long memoryBudgetBytes) {
         final AtomicInteger numFiles = new AtomicInteger();
         final AtomicLong totalSizeBytes = new AtomicLong();
         final Action1<File> preSortAction = createLogAction(numFiles, totalSizeBytes);
+        int processors = Runtime.getRuntime().availableProcessors();
         return Observable.just(output)
                 // log
                 .lift(Logging.<File> logger().prefix("sorting files in folder ").log())
                 // find the track files
-                .concatMap(findTrackFiles(numFiles, totalSizeBytes))
+                .concatMap(findTrackFiles(numFiles, totalSizeBytes, processors))
                 // sort the fixes in each file in each list and rewrite files
-                .flatMap(sortFileFixes(downSampleIntervalMs, scheduler, preSortAction))
+                // with at most one list per processor in flight so the budget
+                // is shared between the concurrent sorts
+                .flatMap(sortFileFixes(downSampleIntervalMs,
+                        Math.max(1, memoryBudgetBytes / processors), scheduler, preSortAction),
+                        processors)
                 // return the count
                 .count();
     }
@@ -208,8 +295,8 @@ public final class BinaryFixes {
     }
 
     private static Func1<List<File>, Observable<Integer>> sortFileFixes(
-            final long downSampleIntervalMs, final Scheduler scheduler,
-            final Action1<File> preSortAction) {
+            final long downSampleIntervalMs, final long memoryBudgetBytes,
+            final Scheduler scheduler, final Action1<File> preSortAction) {
         return files -> {
             return Observable
                     // from list of files
@@ -217,35 +304,25 @@ public final class BinaryFixes {
                     // log
                     .doOnNext(preSortAction)
                     // process one file after another
-                    .concatMap(sortFileFixes(downSampleIntervalMs))
+                    .concatMap(sortFileFixes(downSampleIntervalMs, memoryBudgetBytes))
                     // async
                     .subscribeOn(scheduler);
         };
     }
 
-    private static Func1<File, Observable<Integer>> sortFileFixes(final long downSampleIntervalMs) {
-        return file -> {
-            return BinaryFixes.from(file)
-                    // to list
-                    .toList()
-                    // sort each list
-                    .map(sortFixes())
-                    // flatten
-                    .flatMapIterable(Functions.<List<Fix>> identity())
-                    // downsample the sorted fixes
-                    .compose(Downsample.minTimeStep(downSampleIntervalMs, TimeUnit.MILLISECONDS))
-                    .cast(HasFix.class)
-                    // make into a list again
-                    .toList()
-                    // replace the file with sorted fixes
-                    .doOnNext(writeFixes(file))
-                    // count the fixes
-                    .count();
-        };
+    private static Func1<File, Observable<Integer>> sortFileFixes(final long downSampleIntervalMs,
+            final long memoryBudgetBytes) {
+        return file -> Observable.fromCallable(() -> {
+            // sort and downsample the file in place without loading it all
+            // into memory
+            BinaryFixesSorter.sortByTime(file, file, BinaryFixesFormat.WITHOUT_MMSI,
+                    memoryBudgetBytes, downSampleIntervalMs);
+            return 1;
+        });
     }
 
     private static Func1<File, Observable<List<File>>> findTrackFiles(final AtomicInteger numFiles,
-            final AtomicLong totalSize) {
+            final AtomicLong totalSize, final int processors) {
         return output -> {
             List<File> files = Files.find(output, Pattern.compile("\\d+\\.track"));
             log.info("found files " + files.size());
@@ -256,27 +333,11 @@ public final class BinaryFixes {
             log.info("total size=" + size);
             totalSize.set(size);
             numFiles.set(files.size());
-            return Observable.from(files).buffer(
-                    Math.max(1, files.size() / Runtime.getRuntime().availableProcessors() - 1));
+            return Observable.from(files)
+                    .buffer(Math.max(1, (files.size() + processors - 1) / processors));
         };
     }
 
-    private static Action1<List<HasFix>> writeFixes(final File file) {
-        return list -> BinaryFixesWriter.writeFixes(list, file, false, false,
-                BinaryFixesFormat.WITHOUT_MMSI);
-    }
-
-    private static Func1<List<Fix>, List<Fix>> sortFixes() {
-        return list -> {
-            ArrayList<Fix> temp = new ArrayList<Fix>(list);
-            Collections.sort(temp, FIX_ORDER_BY_TIME);
-            return temp;
-        };
-    }
-
-    private static final Comparator<Fix> FIX_ORDER_BY_TIME = (a, b) -> ((Long) a.time())
-            .compareTo(b.time());
-
     public static Observable<Fix> from(List<File> files) {
         return Observable.from(files).concatMap(file -> BinaryFixes.from(file));
     }
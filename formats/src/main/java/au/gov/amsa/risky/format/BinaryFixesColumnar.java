@@ -0,0 +1,181 @@
+package au.gov.amsa.risky.format;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Subscriber;
+
+/**
+ * Reads and converts files in the {@link BinaryFixesFormat#COLUMNAR} format.
+ *
+ * <p>
+ * A file is a sequence of blocks of up to {@link #DEFAULT_BLOCK_SIZE} fixes
+ * (the block size is chosen by the writer). Each block is:
+ *
+ * <pre>
+ * int    magic
+ * int    number of fixes
+ * long   min time
+ * long   max time
+ * float  min lat
+ * float  max lat
+ * float  min lon
+ * float  max lon
+ * int    length of the deflated columns
+ * byte[] deflated columns
+ * </pre>
+ *
+ * The columns are, in order: mmsi (int), time (zig-zag varint delta),
+ * lat and lon (zig-zag varint delta of the value in millionths of a
+ * degree), latency (int), source (short), navigational
+ * status (byte), speed over ground, course over ground and heading (short,
+ * tenths) and ais class (byte). Absent values use the same sentinels as
+ * {@link BinaryFixes}.
+ *
+ * <p>
+ * The headers let a reader skip whole blocks that are outside a time range or
+ * region without decompressing them.
+ */
+public final class BinaryFixesColumnar {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Lat and lon are stored as whole numbers of millionths of a degree
+     * (about 0.1m).
+     */
+    public static final double QUANTA_PER_DEGREE = 1000000.0;
+
+    public static final String FILE_EXTENSION = ".ctrack";
+
+    static final int BLOCK_MAGIC = 0x52434231;
+
+    static final int BLOCK_HEADER_BYTES = 44;
+
+    private BinaryFixesColumnar() {
+        // prevent instantiation
+    }
+
+    /**
+     * Decides from the header of a block if the block should be read.
+     */
+    public interface BlockFilter {
+
+        boolean accept(long minTime, long maxTime, float minLat, float maxLat, float minLon,
+                float maxLon);
+
+    }
+
+    public static final BlockFilter ALL_BLOCKS = (minTime, maxTime, minLat, maxLat, minLon,
+            maxLon) -> true;
+
+    /**
+     * Returns a filter that accepts blocks that may contain fixes with
+     * {@code startTime <= time < finishTime} and inside the given bounding box
+     * (inclusive).
+     *
+     * @param startTime
+     * @param finishTime
+     * @param minLat
+     * @param maxLat
+     * @param minLon
+     * @param maxLon
+     * @return filter
+     */
+    public static BlockFilter intersecting(long startTime, long finishTime, double minLat,
+            double maxLat, double minLon, double maxLon) {
+        return (bMinTime, bMaxTime, bMinLat, bMaxLat, bMinLon, bMaxLon) -> bMaxTime >= startTime
+                && bMinTime < finishTime && bMaxLat >= minLat && bMinLat <= maxLat
+                && bMaxLon >= minLon && bMinLon <= maxLon;
+    }
+
+    public static Observable<Fix> from(File file) {
+        return from(file, ALL_BLOCKS);
+    }
+
+    /**
+     * Returns the fixes in the blocks of the file accepted by the filter. Fixes
+     * in accepted blocks are not filtered individually. Does not support
+     * backpressure.
+     *
+     * @param file
+     * @param filter
+     * @return fixes
+     */
+    public static Observable<Fix> from(File file, BlockFilter filter) {
+        return Observable.create(new OnSubscribe<Fix>() {
+
+            @Override
+            public void call(Subscriber<? super Fix> subscriber) {
+                try (ColumnarFixCursor c = cursor(file, filter)) {
+                    while (c.next()) {
+                        if (subscriber.isUnsubscribed())
+                            return;
+                        subscriber.onNext(c.toFix());
+                    }
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onCompleted();
+                } catch (RuntimeException e) {
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onError(e);
+                }
+            }
+        });
+    }
+
+    public static ColumnarFixCursor cursor(File file) {
+        return cursor(file, ALL_BLOCKS);
+    }
+
+    public static ColumnarFixCursor cursor(File file, BlockFilter filter) {
+        return ColumnarFixCursor.from(file, filter);
+    }
+
+    /**
+     * Converts a file of binary fixes (for example a {@code .track} file) to
+     * the columnar format. The fixes are not sorted.
+     *
+     * @param input
+     * @param format
+     *            format of the input file (not columnar)
+     * @param output
+     * @param blockSize
+     *            maximum number of fixes per block
+     * @return number of fixes written
+     */
+    public static int convert(File input, BinaryFixesFormat format, File output, int blockSize) {
+        BinaryFixes.checkFixedRecordSize(format);
+        List<Fix> fixes = BinaryFixes.from(input, false, format).toList().toBlocking().single();
+        writeFixes(fixes, output, blockSize);
+        return fixes.size();
+    }
+
+    public static int convert(File input, File output) {
+        return convert(input, BinaryFixesFormat.WITHOUT_MMSI, output, DEFAULT_BLOCK_SIZE);
+    }
+
+    static void writeFixes(List<? extends HasFix> fixes, File output, int blockSize) {
+        if (output.getParentFile() != null)
+            output.getParentFile().mkdirs();
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(output))) {
+            BinaryFixesColumnarWriter.write(fixes, os, blockSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static long quantise(float degrees) {
+        return Math.round(degrees * QUANTA_PER_DEGREE);
+    }
+
+    static float unquantise(long value) {
+        return (float) (value / QUANTA_PER_DEGREE);
+    }
+
+}
@@ -0,0 +1,173 @@
+package au.gov.amsa.risky.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * Writes fixes in the {@link BinaryFixesFormat#COLUMNAR} format. See
+ * {@link BinaryFixesColumnar} for the layout. Blocks are self contained so
+ * appending to an existing file is supported.
+ */
+public final class BinaryFixesColumnarWriter {
+
+    private BinaryFixesColumnarWriter() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes the fixes to the output stream in blocks of at most
+     * {@code blockSize} fixes. The stream is not closed.
+     *
+     * @param fixes
+     * @param os
+     * @param blockSize
+     * @throws IOException
+     */
+    public static void write(List<? extends HasFix> fixes, OutputStream os, int blockSize)
+            throws IOException {
+        Preconditions.checkArgument(blockSize > 0, "blockSize must be positive");
+        DataOutputStream out = new DataOutputStream(os);
+        ByteArrayOutputStream columns = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try {
+            for (int start = 0; start < fixes.size(); start += blockSize) {
+                List<? extends HasFix> block = fixes.subList(start,
+                        Math.min(fixes.size(), start + blockSize));
+                columns.reset();
+                writeColumns(block, new DataOutputStream(columns));
+                compressed.reset();
+                deflater.reset();
+                DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater);
+                columns.writeTo(dos);
+                dos.finish();
+                writeHeader(block, compressed.size(), out);
+                compressed.writeTo(out);
+            }
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeHeader(List<? extends HasFix> block, int compressedLength,
+            DataOutputStream out) throws IOException {
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        float minLat = Float.MAX_VALUE;
+        float maxLat = -Float.MAX_VALUE;
+        float minLon = Float.MAX_VALUE;
+        float maxLon = -Float.MAX_VALUE;
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            minTime = Math.min(minTime, fix.time());
+            maxTime = Math.max(maxTime, fix.time());
+            minLat = Math.min(minLat, fix.lat());
+            maxLat = Math.max(maxLat, fix.lat());
+            minLon = Math.min(minLon, fix.lon());
+            maxLon = Math.max(maxLon, fix.lon());
+        }
+        out.writeInt(BinaryFixesColumnar.BLOCK_MAGIC);
+        out.writeInt(block.size());
+        out.writeLong(minTime);
+        out.writeLong(maxTime);
+        out.writeFloat(minLat);
+        out.writeFloat(maxLat);
+        out.writeFloat(minLon);
+        out.writeFloat(maxLon);
+        out.writeInt(compressedLength);
+    }
+
+    private static void writeColumns(List<? extends HasFix> block, DataOutputStream out)
+            throws IOException {
+        for (HasFix f : block)
+            out.writeInt(f.fix().mmsi());
+        long previousTime = 0;
+        for (HasFix f : block) {
+            long time = f.fix().time();
+            writeVarLong(out, time - previousTime);
+            previousTime = time;
+        }
+        long previousLat = 0;
+        for (HasFix f : block) {
+            long lat = BinaryFixesColumnar.quantise(f.fix().lat());
+            writeVarLong(out, lat - previousLat);
+            previousLat = lat;
+        }
+        long previousLon = 0;
+        for (HasFix f : block) {
+            long lon = BinaryFixesColumnar.quantise(f.fix().lon());
+            writeVarLong(out, lon - previousLon);
+            previousLon = lon;
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.latencySeconds().isPresent())
+                out.writeInt(fix.latencySeconds().get());
+            else
+                out.writeInt(BinaryFixes.LATENCY_ABSENT);
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.source().isPresent())
+                out.writeShort(fix.source().get());
+            else
+                out.writeShort(BinaryFixes.SOURCE_ABSENT);
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.navigationalStatus().isPresent())
+                out.writeByte(fix.navigationalStatus().get().ordinal());
+            else
+                out.writeByte(BinaryFixes.NAV_STATUS_ABSENT);
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.speedOverGroundKnots().isPresent())
+                out.writeShort(Math.round(10 * fix.speedOverGroundKnots().get()));
+            else
+                out.writeShort(BinaryFixes.SOG_ABSENT);
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.courseOverGroundDegrees().isPresent())
+                out.writeShort(Math.round(10 * fix.courseOverGroundDegrees().get()));
+            else
+                out.writeShort(BinaryFixes.COG_ABSENT);
+        }
+        for (HasFix f : block) {
+            Fix fix = f.fix();
+            if (fix.headingDegrees().isPresent())
+                out.writeShort(Math.round(10 * fix.headingDegrees().get()));
+            else
+                out.writeShort(BinaryFixes.HEADING_ABSENT);
+        }
+        for (HasFix f : block) {
+            if (f.fix().aisClass() == AisClass.A)
+                out.writeByte(0);
+            else
+                out.writeByte(1);
+        }
+    }
+
+    /**
+     * Writes a zig-zag encoded variable length long (small magnitudes of
+     * either sign use few bytes).
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+}
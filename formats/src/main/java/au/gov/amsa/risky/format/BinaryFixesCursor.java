@@ -0,0 +1,195 @@
+package au.gov.amsa.risky.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.GZIPInputStream;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * A {@link FixCursor} that decodes binary fixes records in place from a
+ * {@link ByteBuffer} (typically a memory mapped file) using absolute reads.
+ */
+public final class BinaryFixesCursor implements FixCursor {
+
+    private final ByteBuffer bb;
+    private final int start;
+    private final int limit;
+    private final int recordSize;
+    private final boolean withMmsi;
+    private final int fixedMmsi;
+
+    // index in bb of the current record (excluding the mmsi field if present)
+    private int index;
+    private int nextRecord;
+    private int mmsi;
+
+    private BinaryFixesCursor(ByteBuffer bb, int start, int length, int mmsi,
+            BinaryFixesFormat format) {
+        this.bb = bb;
+        this.start = start;
+        this.recordSize = BinaryFixes.recordSize(format);
+        // ignore a trailing partial record
+        this.limit = start + length - length % recordSize;
+        this.withMmsi = format == BinaryFixesFormat.WITH_MMSI;
+        this.fixedMmsi = mmsi;
+        reset();
+    }
+
+    /**
+     * Returns a cursor over the records in the region of the buffer starting at
+     * {@code start} with the given length in bytes. The mmsi is ignored if the
+     * format is {@link BinaryFixesFormat#WITH_MMSI}.
+     *
+     * @param bb
+     * @param start
+     * @param length
+     * @param mmsi
+     * @param format
+     * @return cursor
+     */
+    public static BinaryFixesCursor from(ByteBuffer bb, int start, int length, int mmsi,
+            BinaryFixesFormat format) {
+        Preconditions.checkArgument(start >= 0 && start + length <= bb.capacity(),
+                "region must be within the buffer");
+        BinaryFixes.checkFixedRecordSize(format);
+        return new BinaryFixesCursor(bb, start, length, mmsi, format);
+    }
+
+    public static BinaryFixesCursor from(ByteBuffer bb, int mmsi, BinaryFixesFormat format) {
+        return from(bb, 0, bb.capacity(), mmsi, format);
+    }
+
+    /**
+     * Memory maps the file and returns a cursor over its fixes. If the file
+     * name ends in '.gz' the file is instead decompressed into memory. Files
+     * in {@link BinaryFixesFormat#WITHOUT_MMSI} format must be named
+     * {@code <mmsi>.track} (or {@code <mmsi>.track.gz}).
+     *
+     * @param file
+     * @param format
+     * @return cursor
+     */
+    public static BinaryFixesCursor from(File file, BinaryFixesFormat format) {
+        final int mmsi;
+        if (format == BinaryFixesFormat.WITH_MMSI)
+            mmsi = 0;
+        else
+            mmsi = BinaryFixesUtil.getMmsi(file);
+        if (file.getName().endsWith(".gz"))
+            return from(ByteBuffer.wrap(decompress(file)), mmsi, format);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                    "file too large to map to a single cursor: " + file);
+            // the mapping remains valid after the channel is closed
+            ByteBuffer bb = channel.map(MapMode.READ_ONLY, 0, size);
+            return from(bb, mmsi, format);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] decompress(File file) {
+        try (InputStream is = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    (int) Math.min(Integer.MAX_VALUE - 8, file.length() * 4));
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1)
+                bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves the cursor back to before the first fix.
+     */
+    public void reset() {
+        index = -1;
+        nextRecord = start;
+        mmsi = fixedMmsi;
+    }
+
+    @Override
+    public boolean next() {
+        if (nextRecord >= limit)
+            return false;
+        if (withMmsi) {
+            mmsi = bb.getInt(nextRecord);
+            index = nextRecord + 4;
+        } else
+            index = nextRecord;
+        nextRecord += recordSize;
+        return true;
+    }
+
+    @Override
+    public int mmsi() {
+        return mmsi;
+    }
+
+    @Override
+    public float lat() {
+        return bb.getFloat(index);
+    }
+
+    @Override
+    public float lon() {
+        return bb.getFloat(index + 4);
+    }
+
+    @Override
+    public long time() {
+        return bb.getLong(index + 8);
+    }
+
+    @Override
+    public int latencySecondsRaw() {
+        return bb.getInt(index + 16);
+    }
+
+    @Override
+    public short sourceRaw() {
+        return bb.getShort(index + 20);
+    }
+
+    @Override
+    public byte navigationalStatusRaw() {
+        return bb.get(index + 22);
+    }
+
+    @Override
+    public short sogRaw() {
+        return bb.getShort(index + 24);
+    }
+
+    @Override
+    public short cogRaw() {
+        return bb.getShort(index + 26);
+    }
+
+    @Override
+    public short headingRaw() {
+        return bb.getShort(index + 28);
+    }
+
+    @Override
+    public AisClass aisClass() {
+        if (bb.get(index + 30) == 0)
+            return AisClass.A;
+        else
+            return AisClass.B;
+    }
+
+}
@@ -1,5 +1,12 @@
 package au.gov.amsa.risky.format;
 
 public enum BinaryFixesFormat {
-    WITHOUT_MMSI, WITH_MMSI;
+    WITHOUT_MMSI, WITH_MMSI,
+
+    /**
+     * Blocks of fixes stored column-wise and deflated, each block with a
+     * header holding its time range and bounding box (see
+     * {@link BinaryFixesColumnar}). Has no fixed record size.
+     */
+    COLUMNAR;
 }
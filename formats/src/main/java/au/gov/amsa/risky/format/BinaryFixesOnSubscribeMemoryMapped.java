@@ -0,0 +1,104 @@
+package au.gov.amsa.risky.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Subscriber;
+
+/**
+ * Reads fixes from a binary fixes file by memory mapping the file and decoding
+ * each record in place using absolute reads. Avoids the per read system call
+ * and the per record {@link java.nio.ByteBuffer} wrapper of
+ * {@link BinaryFixesOnSubscribeFastPath}. Like the fast path this does not
+ * support backpressure and does not read gzipped files.
+ */
+public final class BinaryFixesOnSubscribeMemoryMapped implements OnSubscribe<Fix> {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(BinaryFixesOnSubscribeMemoryMapped.class);
+
+    private final File file;
+
+    private final BinaryFixesFormat format;
+
+    public BinaryFixesOnSubscribeMemoryMapped(File file, BinaryFixesFormat format) {
+        this.file = file;
+        this.format = format;
+    }
+
+    public static Observable<Fix> from(File file, BinaryFixesFormat format) {
+        return Observable.create(new BinaryFixesOnSubscribeMemoryMapped(file, format));
+    }
+
+    @Override
+    public void call(Subscriber<? super Fix> subscriber) {
+        try {
+            final int mmsi;
+            if (format == BinaryFixesFormat.WITH_MMSI)
+                mmsi = 0;
+            else
+                mmsi = BinaryFixesUtil.getMmsi(file);
+            int recordSize = BinaryFixes.recordSize(format);
+            // a mapping is limited to Integer.MAX_VALUE bytes so map large
+            // files in chunks that hold a whole number of records
+            long chunkSize = (Integer.MAX_VALUE / recordSize) * (long) recordSize;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    if (subscriber.isUnsubscribed())
+                        return;
+                    long length = Math.min(chunkSize, size - position);
+                    MappedByteBuffer bb = channel.map(MapMode.READ_ONLY, position, length);
+                    reportFixes(mmsi, subscriber, bb, (int) length, format);
+                    position += length;
+                }
+            }
+            if (!subscriber.isUnsubscribed())
+                subscriber.onCompleted();
+        } catch (IOException | RuntimeException e) {
+            if (!subscriber.isUnsubscribed())
+                subscriber.onError(e);
+        }
+    }
+
+    private static void reportFixes(int mmsi, Subscriber<? super Fix> subscriber,
+            MappedByteBuffer bb, int length, BinaryFixesFormat format) {
+        int recordSize = BinaryFixes.recordSize(format);
+        boolean withMmsi = format == BinaryFixesFormat.WITH_MMSI;
+        // ignore a trailing partial record
+        int limit = length - length % recordSize;
+        for (int i = 0; i < limit; i += recordSize) {
+            if (subscriber.isUnsubscribed())
+                return;
+            final int m;
+            final int offset;
+            if (withMmsi) {
+                m = bb.getInt(i);
+                offset = i + 4;
+            } else {
+                m = mmsi;
+                offset = i;
+            }
+            Fix fix = null;
+            try {
+                fix = BinaryFixesUtil.toFix(m, bb, offset);
+            } catch (RuntimeException e) {
+                log.warn(e.getMessage());
+            }
+            if (fix != null)
+                subscriber.onNext(fix);
+        }
+    }
+
+}
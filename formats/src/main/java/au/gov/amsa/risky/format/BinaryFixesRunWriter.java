@@ -0,0 +1,281 @@
+package au.gov.amsa.risky.format;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.davidmoten.util.Preconditions;
+
+import rx.functions.Func1;
+
+/**
+ * Writes fixes that arrive in any order to time ordered track files (in
+ * {@link BinaryFixesFormat#WITHOUT_MMSI} format) without a separate sort pass
+ * over the written files. Fixes are buffered in memory per track file. When the
+ * memory budget is exceeded the largest buffers are sorted by time and spilled
+ * to run files beside their track files until half the budget is free, so
+ * tracks with few buffered fixes are not spilled to many tiny runs. When a
+ * track file has {@link BinaryFixesSorter#MAX_MERGE_FAN_IN} runs they are
+ * merged into one run. {@link #finish()} merges the runs and the remaining
+ * buffered fixes of each track file into the track file, optionally
+ * downsampling, and optionally records a summary of the file in the
+ * {@link TrackIndex} of its directory.
+ *
+ * <p>
+ * Not thread safe and takes no file locks. Each instance must exclusively own
+ * the track files it writes, for example by partitioning fixes across
+ * instances by mmsi.
+ */
+public final class BinaryFixesRunWriter {
+
+    private static final BinaryFixesFormat FORMAT = BinaryFixesFormat.WITHOUT_MMSI;
+    private static final int RECORD_SIZE = BinaryFixes.recordSize(FORMAT);
+    private static final int TIME_OFFSET = 8;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Func1<Fix, String> fileMapper;
+    private final long memoryBudgetBytes;
+    private final long minTimeStepMs;
+    private final boolean index;
+    private final Map<String, TrackBuffer> buffers = new HashMap<String, TrackBuffer>();
+    private long bufferedBytes;
+    private long fixesAdded;
+
+    /**
+     * Constructor.
+     *
+     * @param fileMapper
+     *            maps a fix to the filename of its track file
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to buffer fixes before sorted
+     *            runs are spilled to disk
+     * @param minTimeStepMs
+     *            minimum time between consecutive fixes written to a track
+     *            file (0 for no downsampling)
+     */
+    public BinaryFixesRunWriter(Func1<Fix, String> fileMapper, long memoryBudgetBytes,
+            long minTimeStepMs) {
+        this(fileMapper, memoryBudgetBytes, minTimeStepMs, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileMapper
+     *            maps a fix to the filename of its track file
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to buffer fixes before sorted
+     *            runs are spilled to disk
+     * @param minTimeStepMs
+     *            minimum time between consecutive fixes written to a track
+     *            file (0 for no downsampling)
+     * @param index
+     *            if true a summary of each track file written is recorded in
+     *            the track index of its directory
+     */
+    public BinaryFixesRunWriter(Func1<Fix, String> fileMapper, long memoryBudgetBytes,
+            long minTimeStepMs, boolean index) {
+        Preconditions.checkNotNull(fileMapper);
+        Preconditions.checkArgument(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        Preconditions.checkArgument(minTimeStepMs >= 0, "minTimeStepMs cannot be negative");
+        this.fileMapper = fileMapper;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.minTimeStepMs = minTimeStepMs;
+        this.index = index;
+    }
+
+    public BinaryFixesRunWriter add(Fix fix) {
+        String filename = fileMapper.call(fix);
+        TrackBuffer buffer = buffers.get(filename);
+        if (buffer == null) {
+            buffer = new TrackBuffer(new File(filename));
+            buffers.put(filename, buffer);
+        }
+        bufferedBytes += buffer.add(fix);
+        fixesAdded++;
+        if (bufferedBytes > memoryBudgetBytes)
+            spill();
+        return this;
+    }
+
+    public long fixesAdded() {
+        return fixesAdded;
+    }
+
+    /**
+     * Writes every track file (replacing any existing file) and deletes the
+     * runs.
+     *
+     * @return the number of track files written
+     */
+    public int finish() {
+        try {
+            for (TrackBuffer buffer : buffers.values())
+                buffer.finish();
+            return buffers.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (TrackBuffer buffer : buffers.values())
+                buffer.deleteRuns();
+            buffers.clear();
+            bufferedBytes = 0;
+        }
+    }
+
+    private void spill() {
+        List<TrackBuffer> list = new ArrayList<TrackBuffer>();
+        for (TrackBuffer buffer : buffers.values())
+            if (buffer.bytes() > 0)
+                list.add(buffer);
+        // largest first
+        list.sort((a, b) -> Long.compare(b.bytes(), a.bytes()));
+        try {
+            for (TrackBuffer buffer : list) {
+                if (bufferedBytes <= memoryBudgetBytes / 2)
+                    break;
+                bufferedBytes -= buffer.spill();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final class TrackBuffer {
+
+        private final File file;
+        private final List<File> runs = new ArrayList<File>();
+        // number of run files created (names the next run)
+        private int runNumber;
+        private byte[] records;
+        private long[] times;
+        private ByteBuffer bb;
+        private int count;
+
+        TrackBuffer(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Returns the number of bytes newly allocated for the buffer.
+         */
+        long add(Fix fix) {
+            long allocated = 0;
+            if (records == null) {
+                allocate(INITIAL_CAPACITY);
+                allocated = INITIAL_CAPACITY * (long) (RECORD_SIZE + 8);
+            } else if (count == times.length) {
+                int capacity = times.length * 2;
+                byte[] r = records;
+                long[] t = times;
+                allocate(capacity);
+                System.arraycopy(r, 0, records, 0, count * RECORD_SIZE);
+                System.arraycopy(t, 0, times, 0, count);
+                allocated = (capacity - t.length) * (long) (RECORD_SIZE + 8);
+            }
+            bb.position(count * RECORD_SIZE);
+            BinaryFixes.write(fix, bb, FORMAT);
+            times[count] = fix.time();
+            count++;
+            return allocated;
+        }
+
+        private void allocate(int capacity) {
+            records = new byte[capacity * RECORD_SIZE];
+            times = new long[capacity];
+            bb = ByteBuffer.wrap(records);
+        }
+
+        /**
+         * Returns the number of bytes allocated for the buffer.
+         */
+        long bytes() {
+            return times == null ? 0 : times.length * (long) (RECORD_SIZE + 8);
+        }
+
+        /**
+         * Writes the buffered fixes to a new run and returns the number of
+         * bytes released.
+         */
+        long spill() throws IOException {
+            long bytes = bytes();
+            if (count > 0) {
+                File run = nextRun();
+                runs.add(run);
+                write(run, 0);
+                if (runs.size() >= BinaryFixesSorter.MAX_MERGE_FAN_IN)
+                    mergeRuns();
+            }
+            // release the memory
+            records = null;
+            times = null;
+            bb = null;
+            count = 0;
+            return bytes;
+        }
+
+        private File nextRun() {
+            return new File(file.getParentFile(), file.getName() + ".run" + runNumber++);
+        }
+
+        // merges the runs into one run so the runs of a track are bounded
+        private void mergeRuns() throws IOException {
+            File merged = nextRun();
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(merged))) {
+                BinaryFixesSorter.merge(runs, os, RECORD_SIZE, TIME_OFFSET, 0);
+            } catch (IOException | RuntimeException e) {
+                merged.delete();
+                throw e;
+            }
+            deleteRuns();
+            runs.clear();
+            runs.add(merged);
+        }
+
+        void finish() throws IOException {
+            if (runs.isEmpty())
+                write(file, minTimeStepMs);
+            else {
+                spill();
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                    BinaryFixesSorter.merge(runs, os, RECORD_SIZE, TIME_OFFSET, minTimeStepMs);
+                }
+            }
+            if (index)
+                TrackIndex.update(file);
+        }
+
+        // writes the buffered fixes sorted by time
+        private void write(File f, long minTimeStepMs) throws IOException {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++)
+                order[i] = i;
+            BinaryFixesSorter.sortByTime(times, order, new int[count], count);
+            if (f.getParentFile() != null)
+                f.getParentFile().mkdirs();
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f))) {
+                long lastTime = 0;
+                for (int i = 0; i < count; i++) {
+                    long time = times[order[i]];
+                    if (i == 0 || time - lastTime >= minTimeStepMs) {
+                        os.write(records, order[i] * RECORD_SIZE, RECORD_SIZE);
+                        lastTime = time;
+                    }
+                }
+            }
+        }
+
+        void deleteRuns() {
+            for (File run : runs)
+                run.delete();
+        }
+    }
+
+}
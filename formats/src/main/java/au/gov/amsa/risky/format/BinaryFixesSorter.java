@@ -0,0 +1,380 @@
+package au.gov.amsa.risky.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.util.Preconditions;
+
+/**
+ * Sorts the records of a binary fixes file by time using bounded memory. Runs
+ * of records that fit in the memory budget are sorted and spilled to temporary
+ * files beside the output file, then the runs are merged using a heap of run
+ * readers. Records are moved as raw bytes so no {@link Fix} objects are
+ * created. The sort is stable.
+ */
+public final class BinaryFixesSorter {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryFixesSorter.class);
+
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    private static final int RUN_READ_BUFFER_BYTES = 64 * 1024;
+
+    // maximum number of runs read at once by a merge
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private BinaryFixesSorter() {
+        // prevent instantiation
+    }
+
+    /**
+     * Sorts the file by time in place.
+     *
+     * @param file
+     * @param format
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to hold records while sorting
+     * @return the number of sorted runs that were merged (1 if the file fitted
+     *         in the memory budget)
+     */
+    public static int sortByTime(File file, BinaryFixesFormat format, long memoryBudgetBytes) {
+        return sortByTime(file, file, format, memoryBudgetBytes);
+    }
+
+    /**
+     * Writes the records of the input file sorted by time to the output file.
+     * The output file may be the same as the input file. A trailing partial
+     * record in the input is ignored.
+     *
+     * @param input
+     * @param output
+     * @param format
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to hold records while sorting
+     * @return the number of sorted runs that were merged (1 if the file fitted
+     *         in the memory budget)
+     */
+    public static int sortByTime(File input, File output, BinaryFixesFormat format,
+            long memoryBudgetBytes) {
+        return sortByTime(input, output, format, memoryBudgetBytes, 0);
+    }
+
+    /**
+     * Writes the records of the input file sorted by time to the output file,
+     * downsampling them as they are written so that the records pass through
+     * I/O once. A record is written only if it is at least
+     * {@code minTimeStepMs} after the last record written (as
+     * {@link Downsample} does for a single vessel). The output file may be the
+     * same as the input file.
+     *
+     * @param input
+     * @param output
+     * @param format
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to hold records while sorting
+     * @param minTimeStepMs
+     *            0 to write every record
+     * @return the number of sorted runs that were merged (1 if the file fitted
+     *         in the memory budget)
+     */
+    public static int sortByTime(File input, File output, BinaryFixesFormat format,
+            long memoryBudgetBytes, long minTimeStepMs) {
+        Preconditions.checkArgument(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        Preconditions.checkArgument(minTimeStepMs >= 0, "minTimeStepMs cannot be negative");
+        BinaryFixes.checkFixedRecordSize(format);
+        int recordSize = BinaryFixes.recordSize(format);
+        int timeOffset = format == BinaryFixesFormat.WITH_MMSI ? 12 : 8;
+        // record, time and two indexes (for the merge sort) per record
+        long bytesPerRecord = recordSize + 8 + 4 + 4;
+        long numRecords = input.length() / recordSize;
+        long budgetRecords = Math.max(1, memoryBudgetBytes / bytesPerRecord);
+        int runRecords = (int) Math.max(1,
+                Math.min(Math.min(budgetRecords, numRecords), Integer.MAX_VALUE / recordSize));
+        File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+        List<File> runs = new ArrayList<File>();
+        try {
+            try (InputStream is = new BufferedInputStream(new FileInputStream(input))) {
+                Run run = new Run(runRecords, recordSize, timeOffset);
+                while (run.read(is) > 0) {
+                    run.sort();
+                    boolean lastRun = runs.isEmpty() && run.size < runRecords;
+                    File runFile = lastRun ? temp
+                            : new File(output.getParentFile(),
+                                    output.getName() + ".run" + runs.size());
+                    // only the one and only run is downsampled as it is written
+                    run.write(runFile, lastRun ? minTimeStepMs : 0);
+                    runs.add(runFile);
+                    if (lastRun)
+                        break;
+                }
+            }
+            if (runs.size() > 1) {
+                log.info("merging " + runs.size() + " sorted runs of " + input.getName());
+                merge(runs, temp, recordSize, timeOffset, minTimeStepMs);
+            } else if (runs.size() == 1 && !runs.get(0).equals(temp)) {
+                // a single full run (the input was exactly the run size)
+                if (minTimeStepMs == 0)
+                    rename(runs.get(0), temp);
+                else
+                    merge(runs, temp, recordSize, timeOffset, minTimeStepMs);
+            } else if (runs.isEmpty()) {
+                new FileOutputStream(temp).close();
+            }
+            if (!output.delete() && output.exists())
+                throw new IOException("could not delete " + output);
+            rename(temp, output);
+            return Math.max(1, runs.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (File run : runs)
+                if (!run.equals(temp))
+                    run.delete();
+            temp.delete();
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to))
+            throw new IOException("could not rename " + from + " to " + to);
+    }
+
+    private static void merge(List<File> runs, File output, int recordSize, int timeOffset,
+            long minTimeStepMs) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(output))) {
+            merge(runs, os, recordSize, timeOffset, minTimeStepMs);
+        }
+    }
+
+    /**
+     * Merges the sorted runs to the output stream in time order. When
+     * {@code minTimeStepMs} is positive a record is only written if it is at
+     * least that long after the last record written (see {@link Downsample}).
+     * If there are more than {@link #MAX_MERGE_FAN_IN} runs then consecutive
+     * groups of runs are first merged to intermediate runs beside the first run
+     * (in as many passes as needed) so that the open runs and their read
+     * buffers are bounded. The intermediate runs are deleted, the given runs
+     * are left for the caller to delete.
+     * 
+     * @return number of records written
+     */
+    static long merge(List<File> runs, OutputStream os, int recordSize, int timeOffset,
+            long minTimeStepMs) throws IOException {
+        return merge(runs, os, recordSize, timeOffset, minTimeStepMs, MAX_MERGE_FAN_IN);
+    }
+
+    static long merge(List<File> runs, OutputStream os, int recordSize, int timeOffset,
+            long minTimeStepMs, int maxFanIn) throws IOException {
+        Preconditions.checkArgument(maxFanIn > 1, "maxFanIn must be at least 2");
+        List<File> intermediate = new ArrayList<File>();
+        try {
+            List<File> current = runs;
+            int pass = 0;
+            while (current.size() > maxFanIn) {
+                List<File> next = new ArrayList<File>();
+                for (int i = 0; i < current.size(); i += maxFanIn) {
+                    // merging consecutive runs keeps the sort stable
+                    List<File> group = current.subList(i, Math.min(current.size(), i + maxFanIn));
+                    if (group.size() == 1)
+                        next.add(group.get(0));
+                    else {
+                        File first = runs.get(0);
+                        File merged = new File(first.getParentFile(),
+                                first.getName() + ".pass" + pass + "." + next.size());
+                        intermediate.add(merged);
+                        try (OutputStream out = new BufferedOutputStream(
+                                new FileOutputStream(merged))) {
+                            mergeRuns(group, out, recordSize, timeOffset, 0);
+                        }
+                        next.add(merged);
+                        // release the disk used by merged intermediate runs
+                        for (File f : group)
+                            if (intermediate.contains(f))
+                                f.delete();
+                    }
+                }
+                current = next;
+                pass++;
+            }
+            return mergeRuns(current, os, recordSize, timeOffset, minTimeStepMs);
+        } finally {
+            for (File f : intermediate)
+                f.delete();
+        }
+    }
+
+    // merges the runs in one pass
+    private static long mergeRuns(List<File> runs, OutputStream os, int recordSize,
+            int timeOffset, long minTimeStepMs) throws IOException {
+        PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(Math.max(1, runs.size()),
+                (a, b) -> {
+                    int c = Long.compare(a.time(), b.time());
+                    if (c == 0)
+                        // keep the sort stable
+                        return Integer.compare(a.index, b.index);
+                    else
+                        return c;
+                });
+        List<RunReader> readers = new ArrayList<RunReader>();
+        long count = 0;
+        long lastTime = 0;
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader r = new RunReader(runs.get(i), i, recordSize, timeOffset);
+                readers.add(r);
+                if (r.next())
+                    heap.add(r);
+            }
+            while (!heap.isEmpty()) {
+                RunReader r = heap.poll();
+                long time = r.time();
+                if (count == 0 || time - lastTime >= minTimeStepMs) {
+                    os.write(r.record);
+                    lastTime = time;
+                    count++;
+                }
+                if (r.next())
+                    heap.add(r);
+            }
+            return count;
+        } finally {
+            for (RunReader r : readers)
+                r.close();
+        }
+    }
+
+    /**
+     * Sorts {@code order[0, size)} (indexes into {@code times}) by time. The
+     * sort is stable. {@code work} must be at least {@code size} long.
+     */
+    static void sortByTime(long[] times, int[] order, int[] work, int size) {
+        mergeSort(times, order, work, 0, size);
+    }
+
+    // stable top down merge sort of order[from, to) by time
+    private static void mergeSort(long[] times, int[] order, int[] work, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        mergeSort(times, order, work, from, mid);
+        mergeSort(times, order, work, mid, to);
+        if (times[order[mid - 1]] <= times[order[mid]])
+            return;
+        System.arraycopy(order, from, work, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && times[work[i]] <= times[work[j]]))
+                order[k] = work[i++];
+            else
+                order[k] = work[j++];
+        }
+    }
+
+    private static final class Run {
+
+        private final byte[] records;
+        private final long[] times;
+        private final int[] order;
+        private final int[] work;
+        private final int recordSize;
+        private final int timeOffset;
+        private final ByteBuffer bb;
+        int size;
+
+        Run(int capacity, int recordSize, int timeOffset) {
+            this.records = new byte[capacity * recordSize];
+            this.times = new long[capacity];
+            this.order = new int[capacity];
+            this.work = new int[capacity];
+            this.recordSize = recordSize;
+            this.timeOffset = timeOffset;
+            this.bb = ByteBuffer.wrap(records);
+        }
+
+        int read(InputStream is) throws IOException {
+            int n = 0;
+            int length = records.length;
+            while (n < length) {
+                int count = is.read(records, n, length - n);
+                if (count == -1)
+                    break;
+                n += count;
+            }
+            size = n / recordSize;
+            for (int i = 0; i < size; i++) {
+                times[i] = bb.getLong(i * recordSize + timeOffset);
+                order[i] = i;
+            }
+            return size;
+        }
+
+        void sort() {
+            sortByTime(times, order, work, size);
+        }
+
+        void write(File file, long minTimeStepMs) throws IOException {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                long lastTime = 0;
+                for (int i = 0; i < size; i++) {
+                    long time = times[order[i]];
+                    if (i == 0 || time - lastTime >= minTimeStepMs) {
+                        os.write(records, order[i] * recordSize, recordSize);
+                        lastTime = time;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class RunReader {
+
+        private final DataInputStream is;
+        final int index;
+        final byte[] record;
+        private final ByteBuffer bb;
+        private final int timeOffset;
+
+        RunReader(File file, int index, int recordSize, int timeOffset) throws IOException {
+            this.is = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), RUN_READ_BUFFER_BYTES));
+            this.index = index;
+            this.record = new byte[recordSize];
+            this.bb = ByteBuffer.wrap(record);
+            this.timeOffset = timeOffset;
+        }
+
+        boolean next() throws IOException {
+            try {
+                is.readFully(record);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        long time() {
+            return bb.getLong(timeOffset);
+        }
+
+        void close() throws IOException {
+            is.close();
+        }
+    }
+
+}
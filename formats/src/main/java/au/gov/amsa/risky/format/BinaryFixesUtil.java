@@ -10,52 +10,67 @@ import java.util.Optional;
 public class BinaryFixesUtil {
 
 	static FixImpl toFix(int mmsi, ByteBuffer bb) {
-		float lat = bb.getFloat();
-		float lon = bb.getFloat();
-		long time = bb.getLong();
-		int latency = bb.getInt();
+		int position = bb.position();
+		FixImpl fix = toFix(mmsi, bb, position);
+		bb.position(position + BinaryFixes.recordSize(BinaryFixesFormat.WITHOUT_MMSI));
+		return fix;
+	}
+
+	/**
+	 * Decodes the fix (without mmsi) that starts at the given index of the buffer
+	 * using absolute reads only so the position of the buffer is not changed.
+	 * 
+	 * @param mmsi
+	 * @param bb
+	 * @param index
+	 * @return fix
+	 */
+	static FixImpl toFix(int mmsi, ByteBuffer bb, int index) {
+		float lat = bb.getFloat(index);
+		float lon = bb.getFloat(index + 4);
+		long time = bb.getLong(index + 8);
+		int latency = bb.getInt(index + 16);
 		final Optional<Integer> latencySeconds;
 		if (latency == -1)
 			latencySeconds = empty();
 		else
 			latencySeconds = of(latency);
-		short src = bb.getShort();
+		short src = bb.getShort(index + 20);
 		final Optional<Short> source;
 		if (src == 0)
 			source = empty();
 		else
 			source = of(src);
-		byte nav = bb.get();
+		byte nav = bb.get(index + 22);
 		final Optional<NavigationalStatus> navigationalStatus;
 		if (nav == Byte.MAX_VALUE)
 			navigationalStatus = empty();
 		else
 			navigationalStatus = of(NavigationalStatus.values()[nav]);
 
-		// rate of turn
-		bb.get();
+		// rate of turn is at index + 23 and is ignored
 
-		short sog = bb.getShort();
+		short sog = bb.getShort(index + 24);
 		final Optional<Float> speedOverGroundKnots;
 		if (sog == BinaryFixes.SOG_ABSENT)
 			speedOverGroundKnots = empty();
 		else
 			speedOverGroundKnots = of(sog / 10f);
 
-		short cog = bb.getShort();
+		short cog = bb.getShort(index + 26);
 		final Optional<Float> courseOverGroundDegrees;
 		if (cog == BinaryFixes.COG_ABSENT)
 			courseOverGroundDegrees = empty();
 		else
 			courseOverGroundDegrees = of(cog / 10f);
 
-		short heading = bb.getShort();
+		short heading = bb.getShort(index + 28);
 		final Optional<Float> headingDegrees;
 		if (heading == BinaryFixes.HEADING_ABSENT)
 			headingDegrees = empty();
 		else
 			headingDegrees = of(heading / 10f);
-		byte cls = bb.get();
+		byte cls = bb.get(index + 30);
 		final AisClass aisClass;
 		if (cls == 0)
 			aisClass = AisClass.A;
@@ -25,13 +25,34 @@ public final class BinaryFixesWriter {
 
     public static Observable<List<Fix>> writeFixes(final Func1<Fix, String> fileMapper,
             Observable<Fix> fixes, int bufferSize, boolean zip, BinaryFixesFormat format) {
+        return writeFixes(fileMapper, fixes, bufferSize, zip, format, false);
+    }
+
+    /**
+     * Writes the fixes to the files given by the file mapper, optionally
+     * recording a summary of each write in the {@link TrackIndex} of the
+     * directory of the file.
+     *
+     * @param fileMapper
+     * @param fixes
+     * @param bufferSize
+     * @param zip
+     * @param format
+     * @param index
+     *            if true the track index of the directory of each file is
+     *            updated
+     * @return the lists of fixes written
+     */
+    public static Observable<List<Fix>> writeFixes(final Func1<Fix, String> fileMapper,
+            Observable<Fix> fixes, int bufferSize, boolean zip, BinaryFixesFormat format,
+            boolean index) {
         return fixes
                 // group by filename
                 .groupBy(fileMapper)
                 // buffer fixes by filename
                 .flatMap(buffer(bufferSize))
                 // write each list to a file
-                .doOnNext(writeFixList(fileMapper, zip, format));
+                .doOnNext(writeFixList(fileMapper, zip, format, index));
     }
 
     private static Func1<GroupedObservable<String, Fix>, Observable<List<Fix>>> buffer(
@@ -41,12 +62,13 @@ public final class BinaryFixesWriter {
 
     @SuppressWarnings("unchecked")
     private static Action1<List<Fix>> writeFixList(final Func1<Fix, String> fileMapper,
-            final boolean zip, BinaryFixesFormat format) {
+            final boolean zip, BinaryFixesFormat format, boolean index) {
         return fixes -> {
             if (fixes.size() == 0)
                 return;
             String filename = fileMapper.call(fixes.get(0));
-            writeFixes((List<HasFix>) (List<?>) fixes, new File(filename), true, zip, format);
+            writeFixes((List<HasFix>) (List<?>) fixes, new File(filename), true, zip, format,
+                    index);
         };
     }
 
@@ -61,18 +83,41 @@ public final class BinaryFixesWriter {
 
     public static void writeFixes(List<HasFix> fixes, File file, boolean append, boolean zip,
             BinaryFixesFormat format) {
+        writeFixes(fixes, file, append, zip, format, false);
+    }
+
+    /**
+     * Writes the fixes to the file and optionally records a summary of them in
+     * the {@link TrackIndex} of the directory of the file.
+     * 
+     * @param fixes
+     * @param file
+     * @param append
+     * @param zip
+     * @param format
+     * @param index
+     *            if true the track index of the directory of the file is
+     *            updated
+     */
+    public static void writeFixes(List<HasFix> fixes, File file, boolean append, boolean zip,
+            BinaryFixesFormat format, boolean index) {
         Preconditions.checkArgument(!zip || !append, "cannot perform append and zip at same time");
+        Preconditions.checkArgument(!zip || format != BinaryFixesFormat.COLUMNAR,
+                "columnar format is already compressed");
 
         // get the lock for the file
         final Lock lock = fileLocks.get(file);
 
         OutputStream os = null;
+        boolean written = false;
+        long startLength = 0;
         try {
             // open the lock for the file
             lock.lock();
 
             // open an output stream
             file.getParentFile().mkdirs();
+            startLength = append ? file.length() : 0;
             FileOutputStream fos = new FileOutputStream(file, append);
             OutputStream s;
             if (zip)
@@ -82,12 +127,17 @@ public final class BinaryFixesWriter {
             os = new BufferedOutputStream(s);
 
             // write the fixes to the output stream
-            ByteBuffer bb = BinaryFixes.createFixByteBuffer(format);
-            for (HasFix fix : fixes) {
-                bb.rewind();
-                BinaryFixes.write(fix.fix(), bb, format);
-                os.write(bb.array());
+            if (format == BinaryFixesFormat.COLUMNAR)
+                BinaryFixesColumnarWriter.write(fixes, os, BinaryFixesColumnar.DEFAULT_BLOCK_SIZE);
+            else {
+                ByteBuffer bb = BinaryFixes.createFixByteBuffer(format);
+                for (HasFix fix : fixes) {
+                    bb.rewind();
+                    BinaryFixes.write(fix.fix(), bb, format);
+                    os.write(bb.array());
+                }
             }
+            written = true;
         } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -100,6 +150,10 @@ public final class BinaryFixesWriter {
                         // we care because we are writing
                         throw new RuntimeException(e);
                     }
+                // index while holding the file lock so the recorded file
+                // length is that after this write
+                if (written && index)
+                    TrackIndex.append(file, fixes, startLength);
             } finally {
                 // must unlock no matter what happens
                 lock.unlock();
@@ -1,6 +1,5 @@
 package au.gov.amsa.risky.format;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,8 +8,6 @@ import java.text.DecimalFormat;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -68,40 +65,39 @@ public class ByMmsiToDailyConverter {
     }
 
     public static void sort(File output) {
+        sort(output, BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES);
+    }
+
+    /**
+     * Sorts the fixes in each daily file in the directory by time.
+     * 
+     * @param output
+     *            directory containing the daily files
+     * @param memoryBudgetBytes
+     *            memory budget shared by the files being sorted (one file per
+     *            available processor is sorted at a time)
+     */
+    public static void sort(File output, long memoryBudgetBytes) {
         // now sort the data in each output file by time and rewrite
         List<File> files = Files.find(output, Pattern.compile(".*\\.fix"));
+        int processors = Runtime.getRuntime().availableProcessors();
+        long budgetPerFile = Math.max(1, memoryBudgetBytes / processors);
         Observable.from(files)
                 //
-                .buffer(Math.max(1, files.size() / Runtime.getRuntime().availableProcessors()))
-                //
+                .buffer(Math.max(1, (files.size() + processors - 1) / processors))
+                // at most one list per processor in flight so the budget is
+                // shared between the concurrent sorts
                 .flatMap(list -> Observable.from(list)
                         //
-                        .doOnNext(file -> sortFixFile(file)).subscribeOn(Schedulers.computation()))
+                        .doOnNext(file -> sortFixFile(file, budgetPerFile))
+                        .subscribeOn(Schedulers.computation()), processors)
                 .count().toBlocking().single();
     }
 
-    static void sortFixFile(File file) {
+    static void sortFixFile(File file, long memoryBudgetBytes) {
         log.info("sorting " + file.getName() + ", size="
                 + new DecimalFormat("0.00").format(file.length() / 1024.0 / 1024.0));
-
-        try {
-            File temp = new File(file.getParent(), file.getName() + ".tmp");
-            temp.delete();
-            ArrayList<Fix> fixes = BinaryFixes.from(file, false, BinaryFixesFormat.WITH_MMSI)
-                    .collect(() -> new ArrayList<Fix>(20_000_000), (list, fix) -> list.add(fix))
-                    .toBlocking().single();
-            Collections.sort(fixes, (a, b) -> Long.compare(a.time(), b.time()));
-            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(temp))) {
-                for (Fix fix : fixes) {
-                    BinaryFixes.write(fix, os, BinaryFixesFormat.WITH_MMSI);
-                }
-            }
-            file.delete();
-            temp.renameTo(file);
-            log.info("sorted");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
+        BinaryFixesSorter.sortByTime(file, BinaryFixesFormat.WITH_MMSI, memoryBudgetBytes);
+        log.info("sorted");
     }
-}
\ No newline at end of file
+}
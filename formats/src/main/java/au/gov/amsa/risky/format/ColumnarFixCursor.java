@@ -0,0 +1,310 @@
+package au.gov.amsa.risky.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.davidmoten.util.Preconditions;
+
+import au.gov.amsa.risky.format.BinaryFixesColumnar.BlockFilter;
+
+/**
+ * A {@link FixCursor} over a {@link BinaryFixesFormat#COLUMNAR} buffer. Blocks
+ * rejected by the {@link BlockFilter} are skipped without being decompressed.
+ * Accepted blocks are decoded into primitive arrays that are reused from block
+ * to block. The cursor holds native memory for decompression until it is
+ * closed.
+ */
+public final class ColumnarFixCursor implements FixCursor {
+
+    private final ByteBuffer bb;
+    private final BlockFilter filter;
+    private final Inflater inflater = new Inflater();
+
+    private byte[] compressed = new byte[0];
+    private byte[] columns = new byte[0];
+    private int capacity;
+    private int[] mmsis;
+    private long[] times;
+    private float[] lats;
+    private float[] lons;
+    private int[] latencies;
+    private short[] sources;
+    private byte[] navStatuses;
+    private short[] sogs;
+    private short[] cogs;
+    private short[] headings;
+    private byte[] classes;
+
+    // read position in the columns of the current block
+    private int columnsPosition;
+
+    private int nextBlock;
+    private int blockCount;
+    private int index;
+    private long blocksRead;
+    private long blocksSkipped;
+    private boolean closed;
+
+    private ColumnarFixCursor(ByteBuffer bb, BlockFilter filter) {
+        this.bb = bb;
+        this.filter = filter;
+        ensureCapacity(0);
+        reset();
+    }
+
+    public static ColumnarFixCursor from(ByteBuffer bb, BlockFilter filter) {
+        return new ColumnarFixCursor(bb, filter);
+    }
+
+    public static ColumnarFixCursor from(File file, BlockFilter filter) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                    "file too large to map to a single cursor: " + file);
+            // the mapping remains valid after the channel is closed
+            return from(channel.map(MapMode.READ_ONLY, 0, size), filter);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves the cursor back to before the first fix.
+     */
+    public void reset() {
+        nextBlock = 0;
+        blockCount = 0;
+        index = -1;
+        blocksRead = 0;
+        blocksSkipped = 0;
+    }
+
+    @Override
+    public boolean next() {
+        index++;
+        while (index >= blockCount) {
+            if (!readNextAcceptedBlock())
+                return false;
+            index = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the native memory of the decompressor. Calling close more than
+     * once has no effect.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the number of blocks decompressed so far.
+     *
+     * @return blocks read
+     */
+    public long blocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * Returns the number of blocks skipped so far because they were rejected
+     * by the filter.
+     *
+     * @return blocks skipped
+     */
+    public long blocksSkipped() {
+        return blocksSkipped;
+    }
+
+    private boolean readNextAcceptedBlock() {
+        Preconditions.checkArgument(!closed, "cursor is closed");
+        while (nextBlock + BinaryFixesColumnar.BLOCK_HEADER_BYTES <= bb.limit()) {
+            int p = nextBlock;
+            if (bb.getInt(p) != BinaryFixesColumnar.BLOCK_MAGIC)
+                throw new RuntimeException("block header not found at position " + p);
+            int count = bb.getInt(p + 4);
+            long minTime = bb.getLong(p + 8);
+            long maxTime = bb.getLong(p + 16);
+            float minLat = bb.getFloat(p + 24);
+            float maxLat = bb.getFloat(p + 28);
+            float minLon = bb.getFloat(p + 32);
+            float maxLon = bb.getFloat(p + 36);
+            int length = bb.getInt(p + 40);
+            int start = p + BinaryFixesColumnar.BLOCK_HEADER_BYTES;
+            if (start + length > bb.limit())
+                // ignore a trailing partial block
+                return false;
+            nextBlock = start + length;
+            if (filter.accept(minTime, maxTime, minLat, maxLat, minLon, maxLon)) {
+                readBlock(start, length, count);
+                blocksRead++;
+                if (count > 0)
+                    return true;
+            } else
+                blocksSkipped++;
+        }
+        return false;
+    }
+
+    private void readBlock(int start, int length, int count) {
+        ensureCapacity(count);
+        if (compressed.length < length)
+            compressed = new byte[length];
+        ByteBuffer b = bb.duplicate();
+        b.position(start);
+        b.get(compressed, 0, length);
+        // the largest possible size of the columns (varints at most 10 bytes)
+        int maxColumnsLength = count * (4 + 10 * 3 + 4 + 2 + 1 + 2 * 3 + 1);
+        if (columns.length < maxColumnsLength)
+            columns = new byte[maxColumnsLength];
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            int n = 0;
+            while (!inflater.finished()) {
+                int m = inflater.inflate(columns, n, columns.length - n);
+                if (m == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new RuntimeException("unexpected end of compressed block");
+                n += m;
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+        ByteBuffer c = ByteBuffer.wrap(columns);
+        for (int i = 0; i < count; i++)
+            mmsis[i] = c.getInt();
+        columnsPosition = c.position();
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            time += readVarLong();
+            times[i] = time;
+        }
+        long lat = 0;
+        for (int i = 0; i < count; i++) {
+            lat += readVarLong();
+            lats[i] = BinaryFixesColumnar.unquantise(lat);
+        }
+        long lon = 0;
+        for (int i = 0; i < count; i++) {
+            lon += readVarLong();
+            lons[i] = BinaryFixesColumnar.unquantise(lon);
+        }
+        c.position(columnsPosition);
+        for (int i = 0; i < count; i++)
+            latencies[i] = c.getInt();
+        for (int i = 0; i < count; i++)
+            sources[i] = c.getShort();
+        for (int i = 0; i < count; i++)
+            navStatuses[i] = c.get();
+        for (int i = 0; i < count; i++)
+            sogs[i] = c.getShort();
+        for (int i = 0; i < count; i++)
+            cogs[i] = c.getShort();
+        for (int i = 0; i < count; i++)
+            headings[i] = c.getShort();
+        for (int i = 0; i < count; i++)
+            classes[i] = c.get();
+        blockCount = count;
+    }
+
+    private long readVarLong() {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = columns[columnsPosition++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        // undo the zig-zag encoding
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private void ensureCapacity(int count) {
+        if (mmsis != null && count <= capacity)
+            return;
+        capacity = count;
+        mmsis = new int[count];
+        times = new long[count];
+        lats = new float[count];
+        lons = new float[count];
+        latencies = new int[count];
+        sources = new short[count];
+        navStatuses = new byte[count];
+        sogs = new short[count];
+        cogs = new short[count];
+        headings = new short[count];
+        classes = new byte[count];
+    }
+
+    @Override
+    public int mmsi() {
+        return mmsis[index];
+    }
+
+    @Override
+    public float lat() {
+        return lats[index];
+    }
+
+    @Override
+    public float lon() {
+        return lons[index];
+    }
+
+    @Override
+    public long time() {
+        return times[index];
+    }
+
+    @Override
+    public int latencySecondsRaw() {
+        return latencies[index];
+    }
+
+    @Override
+    public short sourceRaw() {
+        return sources[index];
+    }
+
+    @Override
+    public byte navigationalStatusRaw() {
+        return navStatuses[index];
+    }
+
+    @Override
+    public short sogRaw() {
+        return sogs[index];
+    }
+
+    @Override
+    public short cogRaw() {
+        return cogs[index];
+    }
+
+    @Override
+    public short headingRaw() {
+        return headings[index];
+    }
+
+    @Override
+    public AisClass aisClass() {
+        if (classes[index] == 0)
+            return AisClass.A;
+        else
+            return AisClass.B;
+    }
+
+}
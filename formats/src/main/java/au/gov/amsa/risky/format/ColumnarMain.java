@@ -0,0 +1,31 @@
+package au.gov.amsa.risky.format;
+
+import java.io.File;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import rx.functions.Action2;
+import rx.functions.Func1;
+
+/**
+ * Converts the binary fixes files matching a pattern in the input directory
+ * to the {@link BinaryFixesFormat#COLUMNAR} format in the output directory.
+ */
+public class ColumnarMain {
+
+    public static void main(String[] args) {
+        final File input = new File(System.getProperty("input"));
+        final File output = new File(System.getProperty("output"));
+        Pattern pattern = Pattern.compile(System.getProperty("pattern", "\\d+\\.track"));
+        int blockSize = Integer.parseInt(System.getProperty("blockSize",
+                String.valueOf(BinaryFixesColumnar.DEFAULT_BLOCK_SIZE)));
+        Action2<List<HasFix>, File> fixesWriter = (fixes, file) -> {
+            BinaryFixesColumnar.writeFixes(fixes, file, blockSize);
+        };
+        Func1<String, String> renamer = name -> name.replaceAll("\\.track$", "")
+                + BinaryFixesColumnar.FILE_EXTENSION;
+        Formats.transform(input, output, pattern, Transformers.<HasFix> identity(), fixesWriter,
+                renamer).count().toBlocking().single();
+    }
+
+}
@@ -53,6 +53,21 @@ public class Downsample<T extends HasFix> implements Transformer<T, T> {
         return result;
     }
 
+    /**
+     * Returns a cursor that skips fixes of the source cursor that are less than
+     * the given duration after the last fix returned. Like the
+     * {@link Transformer} this assumes the fixes are for a single vessel and are
+     * in time order.
+     * 
+     * @param fixes
+     * @param duration
+     * @param unit
+     * @return downsampled cursor
+     */
+    public static FixCursor minTimeStep(FixCursor fixes, long duration, TimeUnit unit) {
+        return new DownsampleCursor(fixes, unit.toMillis(duration));
+    }
+
     public static Observable<Integer> downsample(final File input, final File output,
             Pattern pattern, final long duration, final TimeUnit unit) {
         return Formats.transform(input, output, pattern, Downsample.minTimeStep(duration, unit),
@@ -63,4 +78,100 @@ public class Downsample<T extends HasFix> implements Transformer<T, T> {
         BinaryFixesWriter.writeFixes(list, file, false, false, BinaryFixesFormat.WITHOUT_MMSI);
     };
 
+    private static final class DownsampleCursor implements FixCursor {
+
+        private final FixCursor fixes;
+        private final long minTimeBetweenFixesMs;
+        private boolean started;
+        private int mmsi;
+        private long latestTime;
+
+        DownsampleCursor(FixCursor fixes, long minTimeBetweenFixesMs) {
+            this.fixes = fixes;
+            this.minTimeBetweenFixesMs = minTimeBetweenFixesMs;
+        }
+
+        @Override
+        public void close() {
+            fixes.close();
+        }
+
+        @Override
+        public boolean next() {
+            while (fixes.next()) {
+                long time = fixes.time();
+                if (!started) {
+                    started = true;
+                    mmsi = fixes.mmsi();
+                    latestTime = time;
+                    return true;
+                } else if (fixes.mmsi() != mmsi)
+                    throw new RuntimeException("can only downsample a single vessel");
+                else if (time < latestTime)
+                    throw new RuntimeException("not in ascending time order!");
+                else if (time - latestTime >= minTimeBetweenFixesMs) {
+                    latestTime = time;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int mmsi() {
+            return fixes.mmsi();
+        }
+
+        @Override
+        public float lat() {
+            return fixes.lat();
+        }
+
+        @Override
+        public float lon() {
+            return fixes.lon();
+        }
+
+        @Override
+        public long time() {
+            return fixes.time();
+        }
+
+        @Override
+        public int latencySecondsRaw() {
+            return fixes.latencySecondsRaw();
+        }
+
+        @Override
+        public short sourceRaw() {
+            return fixes.sourceRaw();
+        }
+
+        @Override
+        public byte navigationalStatusRaw() {
+            return fixes.navigationalStatusRaw();
+        }
+
+        @Override
+        public short sogRaw() {
+            return fixes.sogRaw();
+        }
+
+        @Override
+        public short cogRaw() {
+            return fixes.cogRaw();
+        }
+
+        @Override
+        public short headingRaw() {
+            return fixes.headingRaw();
+        }
+
+        @Override
+        public AisClass aisClass() {
+            return fixes.aisClass();
+        }
+
+    }
+
 }
@@ -0,0 +1,166 @@
+package au.gov.amsa.risky.format;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+import java.util.Optional;
+
+/**
+ * Forward only view over a sequence of fixes that exposes the fields of the
+ * current fix as primitives so that no {@link Fix} objects (or boxed
+ * {@link Optional} values) need to be created. Absent values are represented
+ * by the sentinels in {@link BinaryFixes} (for example
+ * {@link BinaryFixes#SOG_ABSENT}).
+ *
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * FixCursor c = BinaryFixes.cursor(file);
+ * while (c.next()) {
+ *     process(c.lat(), c.lon(), c.time());
+ * }
+ * </pre>
+ * 
+ * <p>
+ * A cursor should be closed when it is no longer needed so that resources it
+ * holds (for example the native memory of a decompressor) are released.
+ */
+public interface FixCursor extends AutoCloseable {
+
+    /**
+     * Advances to the next fix. Must be called before the first fix can be
+     * read.
+     *
+     * @return false if and only if there are no more fixes
+     */
+    boolean next();
+
+    /**
+     * Releases resources held by the cursor. The cursor cannot be used after
+     * it is closed. Does nothing by default.
+     */
+    @Override
+    default void close() {
+        // nothing to release
+    }
+
+    int mmsi();
+
+    float lat();
+
+    float lon();
+
+    long time();
+
+    /**
+     * Returns the latency in seconds or {@link BinaryFixes#LATENCY_ABSENT}.
+     *
+     * @return latency seconds
+     */
+    int latencySecondsRaw();
+
+    /**
+     * Returns the source or {@link BinaryFixes#SOURCE_ABSENT}.
+     *
+     * @return source
+     */
+    short sourceRaw();
+
+    /**
+     * Returns the ordinal of the {@link NavigationalStatus} or
+     * {@link BinaryFixes#NAV_STATUS_ABSENT}.
+     *
+     * @return navigational status ordinal
+     */
+    byte navigationalStatusRaw();
+
+    /**
+     * Returns the speed over ground in tenths of a knot or
+     * {@link BinaryFixes#SOG_ABSENT}.
+     *
+     * @return speed over ground in tenths of a knot
+     */
+    short sogRaw();
+
+    /**
+     * Returns the course over ground in tenths of a degree or
+     * {@link BinaryFixes#COG_ABSENT}.
+     *
+     * @return course over ground in tenths of a degree
+     */
+    short cogRaw();
+
+    /**
+     * Returns the heading in tenths of a degree or
+     * {@link BinaryFixes#HEADING_ABSENT}.
+     *
+     * @return heading in tenths of a degree
+     */
+    short headingRaw();
+
+    AisClass aisClass();
+
+    /**
+     * Returns the speed over ground in knots or {@link Float#NaN} if absent.
+     *
+     * @return speed over ground in knots
+     */
+    default float speedOverGroundKnots() {
+        short sog = sogRaw();
+        if (sog == BinaryFixes.SOG_ABSENT)
+            return Float.NaN;
+        else
+            return sog / 10f;
+    }
+
+    /**
+     * Returns the course over ground in degrees or {@link Float#NaN} if absent.
+     *
+     * @return course over ground in degrees
+     */
+    default float courseOverGroundDegrees() {
+        short cog = cogRaw();
+        if (cog == BinaryFixes.COG_ABSENT)
+            return Float.NaN;
+        else
+            return cog / 10f;
+    }
+
+    /**
+     * Returns the heading in degrees or {@link Float#NaN} if absent.
+     *
+     * @return heading in degrees
+     */
+    default float headingDegrees() {
+        short heading = headingRaw();
+        if (heading == BinaryFixes.HEADING_ABSENT)
+            return Float.NaN;
+        else
+            return heading / 10f;
+    }
+
+    /**
+     * Creates a {@link Fix} from the current values of the cursor. Only use
+     * this when the fix is needed after the cursor has moved on.
+     *
+     * @return the current fix
+     */
+    default Fix toFix() {
+        int latency = latencySecondsRaw();
+        short source = sourceRaw();
+        byte nav = navigationalStatusRaw();
+        short sog = sogRaw();
+        short cog = cogRaw();
+        short heading = headingRaw();
+        return new FixImpl(mmsi(), lat(), lon(), time(),
+                latency == BinaryFixes.LATENCY_ABSENT ? empty() : of(latency),
+                source == BinaryFixes.SOURCE_ABSENT ? empty() : of(source),
+                nav == BinaryFixes.NAV_STATUS_ABSENT ? empty()
+                        : of(NavigationalStatus.values()[nav]),
+                sog == BinaryFixes.SOG_ABSENT ? empty() : of(sog / 10f),
+                cog == BinaryFixes.COG_ABSENT ? empty() : of(cog / 10f),
+                heading == BinaryFixes.HEADING_ABSENT ? empty() : of(heading / 10f), aisClass());
+    }
+
+}
@@ -4,8 +4,6 @@ import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
-import com.github.davidmoten.grumpy.core.Position;
-
 import au.gov.amsa.risky.format.OperatorMinEffectiveSpeedThreshold.FixWithPreAndPostEffectiveSpeed;
 import au.gov.amsa.util.RingBuffer;
 import rx.Observable.Operator;
@@ -14,6 +12,8 @@ import rx.Subscriber;
 public final class OperatorMinEffectiveSpeedThreshold implements
         Operator<FixWithPreAndPostEffectiveSpeed, HasFix> {
 
+    private static final double RADIUS_EARTH_KM = 6371.01;
+
     private long deltaMs;
     private final long smallestReportingIntervalMs = 1000;
     private final RingBuffer<HasFix> buffer;
@@ -143,12 +143,130 @@ public final class OperatorMinEffectiveSpeedThreshold implements
         };
     }
 
+    /**
+     * Receives the effective speeds calculated from a {@link FixCursor} by
+     * {@link OperatorMinEffectiveSpeedThreshold#effectiveSpeeds}.
+     */
+    public interface EffectiveSpeedListener {
+        void effectiveSpeed(int mmsi, long time, float lat, float lon,
+                double preEffectiveSpeedKnots, double preError, double postEffectiveSpeedKnots,
+                double postError);
+    }
+
+    /**
+     * Performs the same calculation as this operator but reads the fixes from
+     * a cursor and buffers only primitive values so that no {@link Fix} objects
+     * are created. The listener is called with the values of each middle fix
+     * and its pre and post effective speeds.
+     * 
+     * @param fixes
+     * @param deltaMs
+     * @param listener
+     */
+    public static void effectiveSpeeds(FixCursor fixes, long deltaMs,
+            EffectiveSpeedListener listener) {
+        int capacity = (int) (deltaMs / 1000) + 1;
+        long[] times = new long[capacity];
+        float[] lats = new float[capacity];
+        float[] lons = new float[capacity];
+        // buffer positions are sequence numbers, the buffer holds head to
+        // tail - 1
+        long head = 0;
+        long tail = 0;
+        long middle = -1;
+        int mmsi = 0;
+        while (fixes.next()) {
+            // if mmsi changes then clear the fix history
+            if (tail > head && fixes.mmsi() != mmsi) {
+                head = tail;
+                middle = -1;
+            }
+            mmsi = fixes.mmsi();
+            if (tail - head == capacity)
+                throw new IllegalStateException("Cannot add to queue because is full");
+            int latest = (int) (tail % capacity);
+            times[latest] = fixes.time();
+            lats[latest] = fixes.lat();
+            lons[latest] = fixes.lon();
+            tail++;
+            long latestTime = times[latest];
+            if (middle == -1) {
+                if (latestTime - times[(int) (head % capacity)] >= deltaMs)
+                    middle = tail - 1;
+            } else
+                while (latestTime - times[(int) (middle % capacity)] >= deltaMs) {
+                    int first = (int) (head % capacity);
+                    int mid = (int) (middle % capacity);
+
+                    // measure distance from first to middle
+                    double distanceFirstToMiddleKm = 0;
+                    for (long s = head + 1; s <= middle; s++)
+                        distanceFirstToMiddleKm += distanceKm(lats, lons, s - 1, s, capacity);
+
+                    // measure distance from middle to latest
+                    double distanceMiddleToLatestKm = 0;
+                    for (long s = middle + 1; s < tail; s++)
+                        distanceMiddleToLatestKm += distanceKm(lats, lons, s - 1, s, capacity);
+
+                    long timeFirstToMiddleMs = times[mid] - times[first];
+                    long timeMiddleToLatestMs = latestTime - times[mid];
+
+                    double preSpeedKnots = distanceFirstToMiddleKm / (double) timeFirstToMiddleMs
+                            / 1.852 * TimeUnit.HOURS.toMillis(1);
+                    double postSpeedKnots = distanceMiddleToLatestKm
+                            / (double) timeMiddleToLatestMs / 1.852 * TimeUnit.HOURS.toMillis(1);
+                    double preError = Math.abs(timeFirstToMiddleMs - deltaMs)
+                            / (double) TimeUnit.MINUTES.toMillis(1);
+                    double postError = Math.abs(timeMiddleToLatestMs - deltaMs)
+                            / (double) TimeUnit.MINUTES.toMillis(1);
+
+                    listener.effectiveSpeed(mmsi, times[mid], lats[mid], lons[mid], preSpeedKnots,
+                            preError, postSpeedKnots, postError);
+
+                    // drop values from front of buffer
+                    long firstAfterMiddleTime = times[(int) ((middle + 1) % capacity)];
+                    long removed = 0;
+                    for (long s = head + 1; s < tail; s++) {
+                        if (firstAfterMiddleTime - times[(int) (s % capacity)] < deltaMs)
+                            break;
+                        else
+                            removed++;
+                    }
+                    head += removed;
+                    middle++;
+                }
+        }
+    }
+
+    private static double distanceKm(float[] lats, float[] lons, long a, long b, int capacity) {
+        int i = (int) (a % capacity);
+        int j = (int) (b % capacity);
+        return distanceKm(lats[i], lons[i], lats[j], lons[j]);
+    }
+
     private static double distanceKm(HasFix a, HasFix b) {
-        return toPosition(a).getDistanceToKm(toPosition(b));
+        return distanceKm(a.fix().lat(), a.fix().lon(), b.fix().lat(), b.fix().lon());
     }
 
-    private static Position toPosition(HasFix f) {
-        return Position.create(f.fix().lat(), f.fix().lon());
+    /**
+     * Returns the great circle distance in km between the positions, the same
+     * as {@code Position.getDistanceToKm} from grumpy-core but without creating
+     * {@code Position} objects.
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double lat1R = Math.toRadians(lat1);
+        double lat2R = Math.toRadians(lat2);
+        double deltaLon = Math.toRadians(lon2) - Math.toRadians(lon1);
+        double cosLat2 = Math.cos(lat2R);
+        double cosLat1 = Math.cos(lat1R);
+        double sinLat1 = Math.sin(lat1R);
+        double sinLat2 = Math.sin(lat2R);
+        double cosDeltaLon = Math.cos(deltaLon);
+        double x = cosLat2 * Math.sin(deltaLon);
+        double y = cosLat1 * sinLat2 - sinLat1 * cosLat2 * cosDeltaLon;
+        double top = Math.sqrt(x * x + y * y);
+        double bottom = sinLat1 * sinLat2 + cosLat1 * cosLat2 * cosDeltaLon;
+        return Math.abs(RADIUS_EARTH_KM * Math.atan2(top, bottom));
     }
 
     public static final class FixWithPreAndPostEffectiveSpeed implements HasFix {
@@ -0,0 +1,362 @@
+package au.gov.amsa.risky.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.util.Preconditions;
+import com.google.common.util.concurrent.Striped;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Sidecar index of the track files in a directory: a {@link TrackSummary}
+ * (mmsi, fix count, time range and bounding box) per file, held in the file
+ * {@value #FILENAME} in the directory. Readers of track files can use the
+ * index to skip files that cannot contain fixes of interest without opening
+ * them ({@link #filter}).
+ *
+ * <p>
+ * Indexing is opt-in. When asked to, {@link BinaryFixesWriter} appends a
+ * summary of each batch of fixes it writes to the index of the directory of
+ * the file (with the length of the file before the batch) and
+ * {@link BinaryFixesRunWriter} records each track file it finishes.
+ * {@link #rebuild} replaces the index with summaries read from the track
+ * files. A batch summary is only combined with the summary of the file
+ * before the batch if that summary has the length the file had before the
+ * batch, otherwise the file has no summary until the index is rebuilt. A
+ * summary is only used if the file still has the length recorded when it was
+ * summarised, so files changed by other means are never skipped.
+ *
+ * <p>
+ * Writers of the index of a directory (in this and other processes) are
+ * serialized by a lock held on the file {@value #LOCK_FILENAME} in the
+ * directory. An index that has grown to more than four records per summary
+ * is rewritten with one record per file by the writer that appends to it.
+ * Reading the index never writes to it.
+ */
+public final class TrackIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackIndex.class);
+
+    public static final String FILENAME = "track-index.bin";
+    public static final String LOCK_FILENAME = FILENAME + ".lock";
+
+    private static final String TRACK_EXTENSION = ".track";
+    private static final int NUMBER_DIRECTORY_LOCKS = 64;
+    private static final int COMPACT_RATIO = 4;
+
+    /**
+     * Writes to the index of a directory by threads of this process are
+     * serialized by these locks (a file lock is held by only one thread of a
+     * process).
+     */
+    private static final Striped<Lock> directoryLocks = Striped.lock(NUMBER_DIRECTORY_LOCKS);
+
+    /**
+     * The length of the index file of each directory when it was last checked
+     * for compaction. Accessed while holding the lock of the directory.
+     */
+    private static final Map<File, Long> checkedLengths = new ConcurrentHashMap<File, Long>();
+
+    private final Map<String, TrackSummary> summaries;
+
+    private TrackIndex(Map<String, TrackSummary> summaries) {
+        this.summaries = summaries;
+    }
+
+    /**
+     * Reads the index of the directory (empty if the directory has no index).
+     *
+     * @param directory
+     * @return index
+     */
+    public static TrackIndex read(File directory) {
+        Preconditions.checkNotNull(directory);
+        Map<String, TrackSummary> summaries = new HashMap<String, TrackSummary>();
+        load(new File(directory, FILENAME), summaries);
+        return new TrackIndex(summaries);
+    }
+
+    /**
+     * Reads the records of the index file into the map of summaries and
+     * returns the number of records read.
+     */
+    private static long load(File file, Map<String, TrackSummary> summaries) {
+        if (!file.exists())
+            return 0;
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long startLength;
+                TrackSummary s;
+                try {
+                    startLength = in.readLong();
+                    s = new TrackSummary(in.readUTF(), in.readLong(), in.readLong(),
+                            in.readLong(), in.readLong(), in.readFloat(), in.readFloat(),
+                            in.readFloat(), in.readFloat(), in.readLong());
+                } catch (EOFException e) {
+                    // end of index (or a record being appended)
+                    break;
+                }
+                records++;
+                TrackSummary existing = summaries.get(s.filename());
+                if (startLength == 0)
+                    // the file was written from empty
+                    summaries.put(s.filename(), s);
+                else if (existing != null && existing.fileLength() == startLength)
+                    summaries.put(s.filename(), existing.add(s));
+                else
+                    // the fixes before the batch are not summarised
+                    summaries.remove(s.filename());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return records;
+    }
+
+    /**
+     * Rewrites the index file with one record per file if it has accumulated
+     * many more records than files. The index is only read again once it has
+     * doubled in length since it was last checked so the cost of checking is
+     * proportional to the records appended. Must be called while holding the
+     * lock of the directory.
+     */
+    private static void compactIfLarge(File directory) {
+        File file = new File(directory, FILENAME);
+        long length = file.length();
+        Long checked = checkedLengths.get(directory);
+        if (checked != null && length < 2 * checked)
+            return;
+        Map<String, TrackSummary> summaries = new HashMap<String, TrackSummary>();
+        long records = load(file, summaries);
+        if (records > COMPACT_RATIO * Math.max(1, summaries.size())) {
+            replace(directory, summaries);
+            log.info("compacted track index of " + directory + " from " + records + " to "
+                    + summaries.size() + " records");
+        }
+        checkedLengths.put(directory, file.length());
+    }
+
+    // must be called while holding the lock of the directory
+    private static void replace(File directory, Map<String, TrackSummary> summaries) {
+        File tmp = new File(directory, FILENAME + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                for (TrackSummary s : summaries.values())
+                    write(out, s, 0);
+            }
+            Files.move(tmp.toPath(), new File(directory, FILENAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces the index of the directory with summaries read from the track
+     * files (named {@code <mmsi>.track}) in the directory.
+     *
+     * @param directory
+     * @return the new index
+     */
+    public static TrackIndex rebuild(File directory) {
+        Preconditions.checkNotNull(directory);
+        Map<String, TrackSummary> summaries = new HashMap<String, TrackSummary>();
+        File[] files = directory
+                .listFiles(f -> f.isFile() && f.getName().endsWith(TRACK_EXTENSION));
+        if (files != null)
+            for (File f : files)
+                summaries.put(f.getName(), summarise(f));
+        try (DirectoryLock lock = new DirectoryLock(directory.getAbsoluteFile())) {
+            replace(directory, summaries);
+            checkedLengths.put(directory.getAbsoluteFile(),
+                    new File(directory, FILENAME).length());
+        }
+        log.info("rebuilt track index of " + directory + " with " + summaries.size() + " files");
+        return new TrackIndex(summaries);
+    }
+
+    /**
+     * Records in the index of the directory of the file that the fixes have
+     * been written to the file. Should be called while holding the lock used
+     * to write the file so that the recorded file length includes only these
+     * writes.
+     *
+     * @param file
+     * @param fixes
+     * @param startLength
+     *            the length of the file before the fixes were written (0 if
+     *            the file was overwritten)
+     */
+    public static void append(File file, List<HasFix> fixes, long startLength) {
+        if (fixes.isEmpty())
+            return;
+        append(file, TrackSummary.create(file.getName(), fixes.get(0).fix().mmsi(), fixes,
+                file.length()), startLength);
+    }
+
+    /**
+     * Replaces the summary of the track file in the index of its directory
+     * with a summary read from the file.
+     *
+     * @param file
+     */
+    public static void update(File file) {
+        append(file, summarise(file), 0);
+    }
+
+    private static void append(File file, TrackSummary summary, long startLength) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        try (DirectoryLock lock = new DirectoryLock(directory)) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, FILENAME), true)))) {
+                write(out, summary, startLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            compactIfLarge(directory);
+        }
+    }
+
+    private static void write(DataOutputStream out, TrackSummary s, long startLength)
+            throws IOException {
+        out.writeLong(startLength);
+        out.writeUTF(s.filename());
+        out.writeLong(s.mmsi());
+        out.writeLong(s.count());
+        out.writeLong(s.minTime());
+        out.writeLong(s.maxTime());
+        out.writeFloat(s.minLat());
+        out.writeFloat(s.maxLat());
+        out.writeFloat(s.minLon());
+        out.writeFloat(s.maxLon());
+        out.writeLong(s.fileLength());
+    }
+
+    private static TrackSummary summarise(File file) {
+        long length = file.length();
+        return TrackSummary.create(file.getName(), mmsi(file), BinaryFixes.cursor(file), length);
+    }
+
+    private static long mmsi(File file) {
+        String name = file.getName();
+        int i = name.indexOf('.');
+        try {
+            return Long.parseLong(i == -1 ? name : name.substring(0, i));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the summary of the file if it is in the index and the file has
+     * not changed length since it was summarised.
+     *
+     * @param file
+     * @return
+     */
+    public Optional<TrackSummary> summary(File file) {
+        TrackSummary s = summaries.get(file.getName());
+        if (s == null || s.fileLength() != file.length())
+            return Optional.empty();
+        else
+            return Optional.of(s);
+    }
+
+    public Collection<TrackSummary> summaries() {
+        return Collections.unmodifiableCollection(summaries.values());
+    }
+
+    /**
+     * Returns the files except those with an up to date summary in the index
+     * of their directory for which {@code mayContribute} returns false. The
+     * index of each directory is read once per subscription.
+     *
+     * @param files
+     * @param mayContribute
+     * @return
+     */
+    public static Observable<File> filter(Observable<File> files,
+            Func1<TrackSummary, Boolean> mayContribute) {
+        return Observable.defer(() -> {
+            Map<File, TrackIndex> indexes = new ConcurrentHashMap<File, TrackIndex>();
+            return files.filter(file -> {
+                TrackIndex index = indexes.computeIfAbsent(
+                        file.getAbsoluteFile().getParentFile(), TrackIndex::read);
+                Optional<TrackSummary> s = index.summary(file);
+                return !s.isPresent() || mayContribute.call(s.get());
+            });
+        });
+    }
+
+    /**
+     * Holds the lock of the index of a directory for this thread and the file
+     * lock of the index for this process.
+     */
+    private static final class DirectoryLock implements AutoCloseable {
+
+        private final Lock lock;
+        private final FileChannel channel;
+
+        DirectoryLock(File directory) {
+            lock = directoryLocks.get(directory);
+            lock.lock();
+            try {
+                channel = FileChannel.open(new File(directory, LOCK_FILENAME).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                try {
+                    channel.lock();
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                lock.unlock();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                // releases the file lock
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
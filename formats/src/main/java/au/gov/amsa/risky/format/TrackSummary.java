@@ -0,0 +1,189 @@
+package au.gov.amsa.risky.format;
+
+/**
+ * Summary of the fixes in a track file as recorded in a {@link TrackIndex}:
+ * the number of fixes, their time range and bounding box, and the length of
+ * the file when summarised (so a summary of a file that has since been
+ * changed by other means can be detected).
+ */
+public final class TrackSummary {
+
+    private final String filename;
+    private final long mmsi;
+    private final long count;
+    private final long minTime;
+    private final long maxTime;
+    private final float minLat;
+    private final float maxLat;
+    private final float minLon;
+    private final float maxLon;
+    private final long fileLength;
+
+    public TrackSummary(String filename, long mmsi, long count, long minTime, long maxTime,
+            float minLat, float maxLat, float minLon, float maxLon, long fileLength) {
+        this.filename = filename;
+        this.mmsi = mmsi;
+        this.count = count;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * Returns the summary of the fixes.
+     *
+     * @param filename
+     * @param mmsi
+     * @param fixes
+     * @param fileLength
+     * @return
+     */
+    public static TrackSummary create(String filename, long mmsi, Iterable<? extends HasFix> fixes,
+            long fileLength) {
+        long count = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        float minLat = Float.MAX_VALUE;
+        float maxLat = -Float.MAX_VALUE;
+        float minLon = Float.MAX_VALUE;
+        float maxLon = -Float.MAX_VALUE;
+        for (HasFix f : fixes) {
+            Fix fix = f.fix();
+            count++;
+            minTime = Math.min(minTime, fix.time());
+            maxTime = Math.max(maxTime, fix.time());
+            minLat = Math.min(minLat, fix.lat());
+            maxLat = Math.max(maxLat, fix.lat());
+            minLon = Math.min(minLon, fix.lon());
+            maxLon = Math.max(maxLon, fix.lon());
+        }
+        return new TrackSummary(filename, mmsi, count, minTime, maxTime, minLat, maxLat, minLon,
+                maxLon, fileLength);
+    }
+
+    /**
+     * Returns the summary of the fixes read from the cursor.
+     *
+     * @param filename
+     * @param mmsi
+     * @param fixes
+     * @param fileLength
+     * @return
+     */
+    public static TrackSummary create(String filename, long mmsi, FixCursor fixes,
+            long fileLength) {
+        long count = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        float minLat = Float.MAX_VALUE;
+        float maxLat = -Float.MAX_VALUE;
+        float minLon = Float.MAX_VALUE;
+        float maxLon = -Float.MAX_VALUE;
+        while (fixes.next()) {
+            count++;
+            minTime = Math.min(minTime, fixes.time());
+            maxTime = Math.max(maxTime, fixes.time());
+            minLat = Math.min(minLat, fixes.lat());
+            maxLat = Math.max(maxLat, fixes.lat());
+            minLon = Math.min(minLon, fixes.lon());
+            maxLon = Math.max(maxLon, fixes.lon());
+        }
+        return new TrackSummary(filename, mmsi, count, minTime, maxTime, minLat, maxLat, minLon,
+                maxLon, fileLength);
+    }
+
+    /**
+     * Returns the summary of the fixes of this summary followed by the fixes
+     * of the other summary (appended to the same file).
+     *
+     * @param other
+     * @return
+     */
+    public TrackSummary add(TrackSummary other) {
+        return new TrackSummary(filename, mmsi, count + other.count,
+                Math.min(minTime, other.minTime), Math.max(maxTime, other.maxTime),
+                Math.min(minLat, other.minLat), Math.max(maxLat, other.maxLat),
+                Math.min(minLon, other.minLon), Math.max(maxLon, other.maxLon),
+                other.fileLength);
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    public long mmsi() {
+        return mmsi;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long minTime() {
+        return minTime;
+    }
+
+    public long maxTime() {
+        return maxTime;
+    }
+
+    public float minLat() {
+        return minLat;
+    }
+
+    public float maxLat() {
+        return maxLat;
+    }
+
+    public float minLon() {
+        return minLon;
+    }
+
+    public float maxLon() {
+        return maxLon;
+    }
+
+    public long fileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Returns true if and only if a fix may have a time in the range.
+     *
+     * @param startTime
+     *            inclusive
+     * @param finishTime
+     *            exclusive
+     * @return
+     */
+    public boolean overlapsTime(long startTime, long finishTime) {
+        return count > 0 && minTime < finishTime && maxTime >= startTime;
+    }
+
+    /**
+     * Returns true if and only if a fix may be in the box (inclusive).
+     *
+     * @param minLat
+     * @param maxLat
+     * @param minLon
+     * @param maxLon
+     * @return
+     */
+    public boolean intersects(double minLat, double maxLat, double minLon, double maxLon) {
+        return count > 0 && this.minLat <= maxLat && this.maxLat >= minLat
+                && this.minLon <= maxLon && this.maxLon >= minLon;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackSummary [filename=" + filename + ", mmsi=" + mmsi + ", count=" + count
+                + ", minTime=" + minTime + ", maxTime=" + maxTime + ", minLat=" + minLat
+                + ", maxLat=" + maxLat + ", minLon=" + minLon + ", maxLon=" + maxLon
+                + ", fileLength=" + fileLength + "]";
+    }
+
+}
@@ -24,6 +24,7 @@ public class NetCdfWriter implements AutoCloseable {
 
     private final NetcdfFileWriter f;
     private final Map<Var<?>, List<?>> map = new HashMap<>();
+    private boolean created;
 
     public NetCdfWriter(File file, String version) {
         try {
@@ -67,6 +68,78 @@ public class NetCdfWriter implements AutoCloseable {
         return new Var<T>(this, variable, cls);
     }
 
+    public Dimension addDimension(String name, int length) {
+        Preconditions.checkNotNull(name);
+        return f.addDimension(null, name, length);
+    }
+
+    /**
+     * Adds a variable over the given dimensions (for example time, latitude
+     * and longitude). The data of the variable is written by
+     * {@link #write(Var, int[], Array)} after {@link #create()}.
+     * 
+     * @param shortName
+     * @param longName
+     * @param units
+     * @param cls
+     * @param dimensions
+     * @return variable
+     */
+    public <T> Var<T> addVariable(String shortName, Optional<String> longName,
+            Optional<String> units, Class<T> cls, List<Dimension> dimensions) {
+        Preconditions.checkNotNull(shortName);
+        Preconditions.checkNotNull(longName);
+        Preconditions.checkNotNull(units);
+        Preconditions.checkNotNull(cls);
+        Preconditions.checkNotNull(dimensions);
+        Variable variable = f.addVariable(null, shortName, toDataType(cls), dimensions);
+        if (longName.isPresent())
+            variable.addAttribute(new Attribute("long_name", longName.get()));
+        if (units.isPresent())
+            variable.addAttribute(new Attribute("units", units.get()));
+        return new Var<T>(this, variable, cls);
+    }
+
+    /**
+     * Ends the definition of dimensions, variables and attributes so that
+     * data can be written with {@link #write(Var, int[], Array)}. Called by
+     * {@link #close()} if not called before.
+     * 
+     * @return this
+     */
+    public NetCdfWriter create() {
+        Preconditions.checkArgument(!created, "already created");
+        try {
+            f.create();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        created = true;
+        return this;
+    }
+
+    /**
+     * Writes a section of the data of the variable starting at the origin so
+     * that a large multi-dimensional variable can be written a slice at a
+     * time. Must be called after {@link #create()}.
+     * 
+     * @param variable
+     * @param origin
+     * @param data
+     * @return this
+     */
+    public NetCdfWriter write(Var<?> variable, int[] origin, Array data) {
+        Preconditions.checkArgument(created, "create() must be called first");
+        try {
+            f.write(variable.variable(), origin, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InvalidRangeException e) {
+            throw new RuntimeException(e);
+        }
+        return this;
+    }
+
     public <T> NetCdfWriter add(Var<T> variable, T value) {
         @SuppressWarnings("unchecked")
         List<Object> list = (List<Object>) map.get(variable);
@@ -82,7 +155,8 @@ public class NetCdfWriter implements AutoCloseable {
     public void close() {
 
         try {
-            f.create();
+            if (!created)
+                f.create();
             for (Var<?> var : map.keySet()) {
                 List<?> list = map.get(var);
                 int[] shape = new int[] { list.size() };
@@ -0,0 +1,50 @@
+package au.gov.amsa.risky.format;
+
+import static java.util.Optional.of;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of reading a track file of a million fixes with the fast path reader
+ * and with the memory mapped reader.
+ */
+@State(Scope.Benchmark)
+public class BenchmarksFormats {
+
+    private static final int NUM_FIXES = 1000000;
+
+    private final File trace = new File("target/benchmark/123456786.track");
+
+    @Setup
+    public void setup() throws IOException {
+        trace.getParentFile().mkdirs();
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(trace))) {
+            for (int i = 0; i < NUM_FIXES; i++) {
+                Fix fix = new FixImpl(123456786, -10f, 135f + (i % 1000) * 0.01f, 1000 + i * 1000L,
+                        of(12), of((short) 1), of(NavigationalStatus.ENGAGED_IN_FISHING),
+                        of(7.5f), of(45f), of(46f), AisClass.B);
+                BinaryFixes.write(fix, os, BinaryFixesFormat.WITHOUT_MMSI);
+            }
+        }
+    }
+
+    @Benchmark
+    public int readFastPath() {
+        return BinaryFixes.from(trace).count().toBlocking().single();
+    }
+
+    @Benchmark
+    public int readMemoryMapped() {
+        return BinaryFixes.fromMemoryMapped(trace).count().toBlocking().single();
+    }
+
+}
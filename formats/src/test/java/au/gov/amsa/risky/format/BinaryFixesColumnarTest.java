@@ -0,0 +1,165 @@
+package au.gov.amsa.risky.format;
+
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class BinaryFixesColumnarTest {
+
+    private static final double PRECISION = 0.000001;
+
+    @Test
+    public void testConvertTrackFileAndReadBack() {
+        File trace = new File("target/123456791.track");
+        TestingUtil.writeTwoBinaryFixes(trace.getPath(), BinaryFixesFormat.WITHOUT_MMSI);
+        File columnar = new File("target/123456791" + BinaryFixesColumnar.FILE_EXTENSION);
+        assertEquals(2, BinaryFixesColumnar.convert(trace, columnar));
+        List<Fix> expected = BinaryFixes.from(trace).toList().toBlocking().single();
+        List<Fix> fixes = BinaryFixes.from(columnar, false, BinaryFixesFormat.COLUMNAR).toList()
+                .toBlocking().single();
+        assertEquals(expected.size(), fixes.size());
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix a = expected.get(i);
+            Fix b = fixes.get(i);
+            assertEquals(a.mmsi(), b.mmsi());
+            assertEquals(a.time(), b.time());
+            assertEquals(a.lat(), b.lat(), PRECISION);
+            assertEquals(a.lon(), b.lon(), PRECISION);
+            assertEquals(a.latencySeconds(), b.latencySeconds());
+            assertEquals(a.source(), b.source());
+            assertEquals(a.navigationalStatus(), b.navigationalStatus());
+            assertEquals(a.speedOverGroundKnots(), b.speedOverGroundKnots());
+            assertEquals(a.courseOverGroundDegrees(), b.courseOverGroundDegrees());
+            assertEquals(a.headingDegrees(), b.headingDegrees());
+            assertEquals(a.aisClass(), b.aisClass());
+        }
+    }
+
+    @Test
+    public void testBlocksOutsideTimeRangeAndRegionAreSkipped() {
+        File file = new File("target/123456792" + BinaryFixesColumnar.FILE_EXTENSION);
+        List<Fix> fixes = new ArrayList<Fix>();
+        for (int i = 0; i < 100; i++)
+            fixes.add(new FixImpl(123456792, -10f - i * 0.1f, 135f + i * 0.1f, i * 60000L,
+                    AisClass.A));
+        BinaryFixesColumnar.writeFixes(fixes, file, 10);
+
+        ColumnarFixCursor all = BinaryFixesColumnar.cursor(file);
+        int count = 0;
+        while (all.next()) {
+            assertEquals(fixes.get(count).time(), all.time());
+            assertEquals(fixes.get(count).lat(), all.lat(), PRECISION);
+            count++;
+        }
+        assertEquals(100, count);
+        assertEquals(10, all.blocksRead());
+        all.close();
+
+        // fixes 25 to 44 by time
+        ColumnarFixCursor c = BinaryFixesColumnar.cursor(file, BinaryFixesColumnar
+                .intersecting(25 * 60000L, 45 * 60000L, -90, 90, -180, 180));
+        count = 0;
+        while (c.next())
+            count++;
+        assertEquals(30, count);
+        assertEquals(3, c.blocksRead());
+        assertEquals(7, c.blocksSkipped());
+        c.close();
+
+        // fixes 0 to 9 by region
+        c = BinaryFixesColumnar.cursor(file, BinaryFixesColumnar.intersecting(0, Long.MAX_VALUE,
+                -10.5, -9, 130, 135.5));
+        count = 0;
+        while (c.next())
+            count++;
+        assertEquals(10, count);
+        assertEquals(1, c.blocksRead());
+        c.close();
+    }
+
+    @Test
+    public void testAppendWithBinaryFixesWriter() {
+        File file = new File("target/123456793" + BinaryFixesColumnar.FILE_EXTENSION);
+        file.delete();
+        Fix fix1 = new FixImpl(123456793, -10f, 135f, 1000, of(12), of((short) 1),
+                of(NavigationalStatus.ENGAGED_IN_FISHING), of(7.5f), of(45f), of(46f),
+                AisClass.B);
+        Fix fix2 = new FixImpl(123456793, -10.2f, 135.1f, 2000, AisClass.A);
+        BinaryFixesWriter.writeFixes(Arrays.<HasFix> asList(fix1), file, true, false,
+                BinaryFixesFormat.COLUMNAR);
+        BinaryFixesWriter.writeFixes(Arrays.<HasFix> asList(fix2), file, true, false,
+                BinaryFixesFormat.COLUMNAR);
+        FixCursor c = BinaryFixesColumnar.cursor(file);
+        assertTrue(c.next());
+        assertEquals(7.5, c.speedOverGroundKnots(), PRECISION);
+        assertEquals(AisClass.B, c.aisClass());
+        assertTrue(c.next());
+        assertEquals(2000, c.time());
+        assertTrue(Float.isNaN(c.speedOverGroundKnots()));
+        assertFalse(c.next());
+        c.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testClosedCursorCannotBeRead() {
+        File file = new File("target/123456795" + BinaryFixesColumnar.FILE_EXTENSION);
+        BinaryFixesColumnar.writeFixes(
+                Arrays.asList(new FixImpl(123456795, -10f, 135f, 1000, AisClass.A)), file, 10);
+        ColumnarFixCursor c = BinaryFixesColumnar.cursor(file);
+        c.close();
+        // closing again has no effect
+        c.close();
+        c.next();
+    }
+
+    @Test
+    public void testGenericReadersHandleColumnarFormat() {
+        File trace = new File("target/123456796.track");
+        TestingUtil.writeTwoBinaryFixes(trace.getPath(), BinaryFixesFormat.WITHOUT_MMSI);
+        File columnar = new File("target/123456796" + BinaryFixesColumnar.FILE_EXTENSION);
+        BinaryFixesColumnar.convert(trace, columnar);
+        assertEquals(2, (int) BinaryFixes.fromMemoryMapped(columnar, BinaryFixesFormat.COLUMNAR)
+                .count().toBlocking().single());
+        try (FixCursor c = BinaryFixes.cursor(columnar, BinaryFixesFormat.COLUMNAR)) {
+            assertTrue(c.next());
+            assertTrue(c.next());
+            assertFalse(c.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnarFormatHasNoRecordSize() {
+        BinaryFixes.recordSize(BinaryFixesFormat.COLUMNAR);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotWriteSingleFixInColumnarFormat() {
+        BinaryFixes.write(new FixImpl(123456797, -10f, 135f, 1000, AisClass.A),
+                ByteBuffer.allocate(100), BinaryFixesFormat.COLUMNAR);
+    }
+
+    @Test
+    public void testColumnarFileIsSmallerThanTrackFile() {
+        File trace = new File("target/123456794.track");
+        List<HasFix> fixes = new ArrayList<HasFix>();
+        for (int i = 0; i < 100000; i++)
+            fixes.add(new FixImpl(123456794, -10f - i * 0.0001f, 135f + i * 0.0001f,
+                    1421708455237L + i * 10000L, of(1), of((short) 1),
+                    of(NavigationalStatus.UNDER_WAY_USING_ENGINE), of(12.3f), of(45f), of(46f),
+                    AisClass.A));
+        BinaryFixesWriter.writeFixes(fixes, trace, false, false, BinaryFixesFormat.WITHOUT_MMSI);
+        File columnar = new File("target/123456794" + BinaryFixesColumnar.FILE_EXTENSION);
+        BinaryFixesColumnar.convert(trace, columnar);
+        assertTrue(columnar.length() < trace.length() / 4);
+    }
+
+}
@@ -0,0 +1,112 @@
+package au.gov.amsa.risky.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import rx.functions.Func1;
+
+public final class BinaryFixesRunWriterTest {
+
+    @Test
+    public void testFixesOutOfOrderAreWrittenInTimeOrderAfterSpilling() throws IOException {
+        File directory = new File("target/run-writer");
+        FileUtils.deleteDirectory(directory);
+        Func1<Fix, String> fileMapper = fix -> new File(directory, fix.mmsi() + ".track")
+                .getPath();
+        // small budget so that runs are spilled
+        BinaryFixesRunWriter writer = new BinaryFixesRunWriter(fileMapper, 2000, 0);
+        Random r = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            int mmsi = 100000000 + r.nextInt(3);
+            long time = r.nextInt(1000) * 1000L;
+            writer.add(new FixImpl(mmsi, -10f, 135f, time, AisClass.A));
+        }
+        assertEquals(3000, writer.fixesAdded());
+        assertEquals(3, writer.finish());
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            List<Fix> fixes = BinaryFixes.from(new File(directory, (100000000 + i) + ".track"))
+                    .toList().toBlocking().single();
+            for (int j = 1; j < fixes.size(); j++)
+                assertFalse(fixes.get(j).time() < fixes.get(j - 1).time());
+            total += fixes.size();
+        }
+        assertEquals(3000, total);
+        // runs have been deleted
+        assertEquals(3, directory.listFiles().length);
+    }
+
+    @Test
+    public void testRunsOfATrackAreMergedWhenFanInReached() throws IOException {
+        File directory = new File("target/run-writer-fan-in");
+        FileUtils.deleteDirectory(directory);
+        Func1<Fix, String> fileMapper = fix -> new File(directory, fix.mmsi() + ".track")
+                .getPath();
+        BinaryFixesRunWriter writer = new BinaryFixesRunWriter(fileMapper, 2000, 0);
+        Random r = new Random(1);
+        int n = 20000;
+        for (int i = 0; i < n; i++) {
+            writer.add(new FixImpl(123456789, -10f, 135f, r.nextInt(100000) * 1000L,
+                    AisClass.A));
+            assertTrue(runs(directory) < BinaryFixesSorter.MAX_MERGE_FAN_IN);
+        }
+        writer.finish();
+        List<Fix> fixes = BinaryFixes.from(new File(directory, "123456789.track")).toList()
+                .toBlocking().single();
+        assertEquals(n, fixes.size());
+        for (int j = 1; j < fixes.size(); j++)
+            assertFalse(fixes.get(j).time() < fixes.get(j - 1).time());
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testOnlyLargestBuffersAreSpilled() throws IOException {
+        File directory = new File("target/run-writer-largest");
+        FileUtils.deleteDirectory(directory);
+        Func1<Fix, String> fileMapper = fix -> new File(directory, fix.mmsi() + ".track")
+                .getPath();
+        BinaryFixesRunWriter writer = new BinaryFixesRunWriter(fileMapper, 100000, 0);
+        // many tracks with one fix each
+        for (int i = 0; i < 20; i++)
+            writer.add(new FixImpl(100000000 + i, -10f, 135f, 0, AisClass.A));
+        // and one large track
+        for (int i = 0; i < 5000; i++)
+            writer.add(new FixImpl(123456789, -10f, 135f, i * 1000L, AisClass.A));
+        File[] files = directory.listFiles();
+        assertTrue(files.length > 0);
+        for (File file : files)
+            assertTrue(file.getName().startsWith("123456789.track.run"));
+        assertEquals(21, writer.finish());
+    }
+
+    private static int runs(File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testDownsample() {
+        File directory = new File("target/run-writer-downsample");
+        Func1<Fix, String> fileMapper = fix -> new File(directory, fix.mmsi() + ".track")
+                .getPath();
+        BinaryFixesRunWriter writer = new BinaryFixesRunWriter(fileMapper,
+                BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES, 5000);
+        for (long time : new long[] { 9000, 0, 3000, 6000, 1000, 12000 })
+            writer.add(new FixImpl(123456789, -10f, 135f, time, AisClass.A));
+        writer.finish();
+        List<Long> times = BinaryFixes.from(new File(directory, "123456789.track"))
+                .map(fix -> fix.time()).toList().toBlocking().single();
+        assertEquals(Arrays.asList(0L, 6000L, 12000L), times);
+    }
+
+}
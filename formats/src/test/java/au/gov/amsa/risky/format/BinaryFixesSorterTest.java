@@ -0,0 +1,178 @@
+package au.gov.amsa.risky.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+public final class BinaryFixesSorterTest {
+
+    @Test
+    public void testSortFileLargerThanMemoryBudgetWithMmsi() throws IOException {
+        File file = new File("target/sorter-with-mmsi.fix");
+        int n = 10000;
+        writeRandomFixes(file, n, BinaryFixesFormat.WITH_MMSI);
+        List<Fix> before = BinaryFixes.from(file, false, BinaryFixesFormat.WITH_MMSI).toList()
+                .toBlocking().single();
+        // budget for roughly 1000 records so at least 10 runs
+        int runs = BinaryFixesSorter.sortByTime(file, BinaryFixesFormat.WITH_MMSI, 1000 * 51);
+        assertTrue(runs >= 10);
+        assertEquals(n * BinaryFixes.recordSize(BinaryFixesFormat.WITH_MMSI), file.length());
+        List<Fix> after = BinaryFixes.from(file, false, BinaryFixesFormat.WITH_MMSI).toList()
+                .toBlocking().single();
+        assertSortedStably(before, after);
+        assertEquals(0, new File("target/sorter-with-mmsi.fix.run0").length());
+        assertEquals(0, new File("target/sorter-with-mmsi.fix.tmp").length());
+    }
+
+    @Test
+    public void testSortFileWithinMemoryBudget() throws IOException {
+        File input = new File("target/123456795.track");
+        File output = new File("target/sorted/123456795.track");
+        output.getParentFile().mkdirs();
+        writeRandomFixes(input, 1000, BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> before = BinaryFixes.from(input).toList().toBlocking().single();
+        assertEquals(1, BinaryFixesSorter.sortByTime(input, output,
+                BinaryFixesFormat.WITHOUT_MMSI, BinaryFixesSorter.DEFAULT_MEMORY_BUDGET_BYTES));
+        assertEquals(input.length(), output.length());
+        assertSortedStably(before, BinaryFixes.from(output).toList().toBlocking().single());
+    }
+
+    @Test
+    public void testSortEmptyFile() throws IOException {
+        File file = new File("target/123456797.track");
+        new FileOutputStream(file).close();
+        assertEquals(1,
+                BinaryFixesSorter.sortByTime(file, BinaryFixesFormat.WITHOUT_MMSI, 1000));
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testSortBinaryFixFilesByTimeWithSmallMemoryBudget() throws IOException {
+        File directory = new File("target/sorter");
+        directory.mkdirs();
+        File file = new File(directory, "123456798.track");
+        writeRandomFixes(file, 5000, BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> before = BinaryFixes.from(file).toList().toBlocking().single();
+        int count = BinaryFixes
+                .sortBinaryFixFilesByTime(directory, 0, Schedulers.immediate(), 10000)
+                .toBlocking().single();
+        assertEquals(1, count);
+        assertSortedStably(before, BinaryFixes.from(file).toList().toBlocking().single());
+    }
+
+    @Test
+    public void testSortWithMoreRunsThanTheMergeFanIn() throws IOException {
+        File directory = new File("target/sorter-fan-in");
+        directory.mkdirs();
+        File file = new File(directory, "123456801.track");
+        writeRandomFixes(file, 5000, BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> before = BinaryFixes.from(file).toList().toBlocking().single();
+        int runs = BinaryFixesSorter.sortByTime(file, BinaryFixesFormat.WITHOUT_MMSI, 2000);
+        assertTrue(runs > BinaryFixesSorter.MAX_MERGE_FAN_IN);
+        assertSortedStably(before, BinaryFixes.from(file).toList().toBlocking().single());
+        // the runs and the intermediate runs have been deleted
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testMergeInSeveralPassesIsStable() throws IOException {
+        File directory = new File("target/sorter-passes");
+        directory.mkdirs();
+        int recordSize = BinaryFixes.recordSize(BinaryFixesFormat.WITHOUT_MMSI);
+        List<File> runs = new ArrayList<File>();
+        List<Fix> fixes = new ArrayList<Fix>();
+        for (int i = 0; i < 10; i++) {
+            File run = new File(directory, "run" + i);
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(run))) {
+                for (int j = 0; j < 20; j++) {
+                    // the same times in every run
+                    Fix fix = new FixImpl(123456789, -10f - i * 0.01f - j * 0.0001f, 135f,
+                            1421708455237L + j * 1000L, AisClass.A);
+                    BinaryFixes.write(fix, os, BinaryFixesFormat.WITHOUT_MMSI);
+                    fixes.add(fix);
+                }
+            }
+            runs.add(run);
+        }
+        File output = new File(directory, "123456789.track");
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(output))) {
+            // three passes
+            assertEquals(200, BinaryFixesSorter.merge(runs, os, recordSize, 8, 0, 3));
+        }
+        assertSortedStably(fixes, BinaryFixes.from(output).toList().toBlocking().single());
+        // only the given runs and the output remain
+        assertEquals(11, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSortAndDownsampleInOnePassWithOneRun() throws IOException {
+        checkSortAndDownsample("123456799.track", 100000);
+    }
+
+    @Test
+    public void testSortAndDownsampleInOnePassWithManyRuns() throws IOException {
+        checkSortAndDownsample("123456800.track", 10000);
+    }
+
+    private static void checkSortAndDownsample(String name, long memoryBudgetBytes)
+            throws IOException {
+        File directory = new File("target/sorter-downsample");
+        directory.mkdirs();
+        File file = new File(directory, name);
+        File output = new File(directory, name + ".sorted");
+        writeRandomFixes(file, 5000, BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> before = BinaryFixes.from(file).toList().toBlocking().single();
+        List<Fix> sorted = new ArrayList<Fix>(before);
+        sorted.sort((a, b) -> Long.compare(a.time(), b.time()));
+        long step = 5000;
+        List<Fix> expected = Observable.from(sorted)
+                .compose(Downsample.<Fix> minTimeStep(step, TimeUnit.MILLISECONDS)).toList()
+                .toBlocking().single();
+        BinaryFixesSorter.sortByTime(file, output, BinaryFixesFormat.WITHOUT_MMSI,
+                memoryBudgetBytes, step);
+        List<Fix> after = BinaryFixes.from(output).toList().toBlocking().single();
+        assertTrue(expected.size() < before.size());
+        assertEquals(expected.size(), after.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).toString(), after.get(i).toString());
+    }
+
+    private static void assertSortedStably(List<Fix> before, List<Fix> after) {
+        assertEquals(before.size(), after.size());
+        List<Fix> expected = new ArrayList<Fix>(before);
+        // List.sort is a stable sort
+        expected.sort((a, b) -> Long.compare(a.time(), b.time()));
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).toString(), after.get(i).toString());
+    }
+
+    private static void writeRandomFixes(File file, int n, BinaryFixesFormat format)
+            throws IOException {
+        Random r = new Random(1234);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < n; i++) {
+                // few distinct times so that stability is tested
+                long time = 1421708455237L + r.nextInt(n / 10) * 1000L;
+                // lat distinguishes fixes with the same time
+                Fix fix = new FixImpl(123456789, -10f - i * 0.001f, 135f, time, AisClass.A);
+                BinaryFixes.write(fix, os, format);
+            }
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package au.gov.amsa.risky.format;
 
+import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -10,6 +13,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import org.junit.Test;
@@ -99,6 +103,108 @@ public final class BinaryFixesTest {
                 "read " + numFixes + ", fileSizeMB=" + size + ", rateMsgPerSecond=" + rate);
     }
 
+    @Test
+    public void testWriteAndReadBinaryFixesMemoryMapped() throws IOException {
+        File trace = new File("target/123456787.track");
+        TestingUtil.writeTwoBinaryFixes(trace.getPath(), BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> expected = BinaryFixes.from(trace).toList().toBlocking().single();
+        List<Fix> fixes = BinaryFixes.fromMemoryMapped(trace).toList().toBlocking().single();
+        assertEquals(expected.toString(), fixes.toString());
+    }
+
+    @Test
+    public void testWriteAndReadBinaryFixesWithMmsiMemoryMapped() throws IOException {
+        File trace = new File("target/many-craft-mapped.fix");
+        int numFixes = 10000;
+        writeTrace(trace, numFixes, BinaryFixesFormat.WITH_MMSI);
+        List<Fix> fixes = BinaryFixes.fromMemoryMapped(trace, BinaryFixesFormat.WITH_MMSI)
+                .toList().toBlocking().single();
+        assertEquals(numFixes, fixes.size());
+        Fix f = fixes.get(fixes.size() - 1);
+        assertEquals(213456789, f.mmsi());
+        assertEquals(-10.0, f.lat(), PRECISION);
+        assertEquals(135, f.lon(), PRECISION);
+        assertEquals(1000, f.time(), PRECISION);
+        assertEquals(12, (int) f.latencySeconds().get());
+        assertEquals(1, (int) f.source().get());
+        assertEquals(NavigationalStatus.ENGAGED_IN_FISHING, f.navigationalStatus().get());
+        assertEquals(7.5, f.speedOverGroundKnots().get(), PRECISION);
+        assertEquals(45, f.courseOverGroundDegrees().get(), PRECISION);
+        assertEquals(46, f.headingDegrees().get(), PRECISION);
+        assertEquals(AisClass.B, f.aisClass());
+    }
+
+    @Test
+    public void testCursorReadsSameFixesAsObservable() throws IOException {
+        File trace = new File("target/123456785.track");
+        TestingUtil.writeTwoBinaryFixes(trace.getPath(), BinaryFixesFormat.WITHOUT_MMSI);
+        List<Fix> expected = BinaryFixes.from(trace).toList().toBlocking().single();
+        FixCursor c = BinaryFixes.cursor(trace);
+        for (Fix fix : expected) {
+            assertTrue(c.next());
+            assertEquals(fix.toString(), c.toFix().toString());
+            assertEquals(fix.speedOverGroundKnots().get(), c.speedOverGroundKnots(), PRECISION);
+        }
+        assertFalse(c.next());
+    }
+
+    @Test
+    public void testCursorWithMmsi() throws IOException {
+        File trace = new File("target/many-craft-cursor.fix");
+        writeTrace(trace, 3, BinaryFixesFormat.WITH_MMSI);
+        FixCursor c = BinaryFixes.cursor(trace, BinaryFixesFormat.WITH_MMSI);
+        int count = 0;
+        while (c.next()) {
+            count++;
+            assertEquals(213456789, c.mmsi());
+            assertEquals(135, c.lon(), PRECISION);
+            assertEquals(75, c.sogRaw());
+            assertEquals(AisClass.B, c.aisClass());
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testMemoryMappedReadsSameFixesAsFastPath() throws IOException {
+        File trace = new File("target/123456786.track");
+        writeVariedTrace(trace, 1000, BinaryFixesFormat.WITHOUT_MMSI);
+        assertEquals(BinaryFixes.from(trace).toList().toBlocking().single().toString(),
+                BinaryFixes.fromMemoryMapped(trace).toList().toBlocking().single().toString());
+        File traceWithMmsi = new File("target/many-craft-varied.fix");
+        writeVariedTrace(traceWithMmsi, 1000, BinaryFixesFormat.WITH_MMSI);
+        assertEquals(
+                BinaryFixes.from(traceWithMmsi, false, BinaryFixesFormat.WITH_MMSI).toList()
+                        .toBlocking().single().toString(),
+                BinaryFixes.fromMemoryMapped(traceWithMmsi, BinaryFixesFormat.WITH_MMSI)
+                        .toList().toBlocking().single().toString());
+    }
+
+    /**
+     * Writes fixes with different values in every field and with optional
+     * fields sometimes absent.
+     */
+    private static void writeVariedTrace(File trace, int numFixes, BinaryFixesFormat format)
+            throws IOException {
+        Random r = new Random(123);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(trace))) {
+            for (int i = 0; i < numFixes; i++) {
+                Fix fix = new FixImpl(123456786 + r.nextInt(3), -90 + r.nextFloat() * 180,
+                        -180 + r.nextFloat() * 360, 1000 + i * 1000L,
+                        r.nextBoolean() ? of(r.nextInt(100)) : empty(),
+                        r.nextBoolean() ? of((short) (1 + r.nextInt(10))) : empty(),
+                        r.nextBoolean()
+                                ? of(NavigationalStatus.values()[r
+                                        .nextInt(NavigationalStatus.values().length)])
+                                : empty(),
+                        r.nextBoolean() ? of(r.nextInt(300) / 10f) : empty(),
+                        r.nextBoolean() ? of(r.nextInt(3600) / 10f) : empty(),
+                        r.nextBoolean() ? of(r.nextInt(3600) / 10f) : empty(),
+                        r.nextBoolean() ? AisClass.A : AisClass.B);
+                BinaryFixes.write(fix, os, format);
+            }
+        }
+    }
+
     @Test
     public void testWriteTwoBinaryFixes() throws IOException {
         TestingUtil.writeTwoBinaryFixes("target/123456790.track", BinaryFixesFormat.WITHOUT_MMSI);
@@ -3,6 +3,8 @@ package au.gov.amsa.risky.format;
 import static au.gov.amsa.risky.format.Downsample.minTimeStep;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.List;
@@ -77,6 +79,36 @@ public class DownsampleTest {
         assertEquals(Arrays.asList(f, f2, f3), fixes);
     }
 
+    @Test
+    public void testDownSampleCursorOfThreeWithSmallGapThenBigGapReturnsOuterTwo() {
+        FixCursor c = minTimeStep(TestingUtil.cursor(createFix(0), createFix(50), createFix(150)),
+                100, TimeUnit.MILLISECONDS);
+        assertTrue(c.next());
+        assertEquals(0, c.time());
+        assertTrue(c.next());
+        assertEquals(150, c.time());
+        assertFalse(c.next());
+    }
+
+    @Test
+    public void testDownSampleCursorOfNonZeroGapWithItemsWithSameTimeReturnsFirst() {
+        FixCursor c = minTimeStep(TestingUtil.cursor(createFix(50), createFix(50), createFix(50)),
+                100, TimeUnit.MILLISECONDS);
+        assertTrue(c.next());
+        assertEquals(50, c.time());
+        assertFalse(c.next());
+    }
+
+    @Test
+    public void testDownSampleCursorOf0ForItemsWithSameTimeReturnsAll() {
+        FixCursor c = minTimeStep(TestingUtil.cursor(createFix(50), createFix(50), createFix(50)),
+                0, TimeUnit.MILLISECONDS);
+        int count = 0;
+        while (c.next())
+            count++;
+        assertEquals(3, count);
+    }
+
     private static FixImpl createFix(long time) {
         return new FixImpl(213456789, -10f, 135f, time, of(12), of((short) 1),
                 of(NavigationalStatus.ENGAGED_IN_FISHING), of(7.5f), of(45f), of(46f), AisClass.B);
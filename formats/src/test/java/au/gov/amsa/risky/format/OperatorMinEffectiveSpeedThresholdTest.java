@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -134,4 +135,42 @@ public class OperatorMinEffectiveSpeedThresholdTest {
         System.out.println(c);
     }
 
+    @Test
+    public void testCursorGivesSameResultAsOperator() {
+        FixImpl a = createFix(0, 135.0f);
+        FixImpl b = createFix(TimeUnit.MINUTES.toMillis(31), 135.1f);
+        FixImpl c = createFix(TimeUnit.MINUTES.toMillis(32), 135.2f);
+        FixImpl d = createFix(TimeUnit.MINUTES.toMillis(62), 135.3f);
+        FixImpl e = createFix(TimeUnit.MINUTES.toMillis(100), 135.4f);
+        List<FixWithPreAndPostEffectiveSpeed> list = Observable.just(a, b, c, d, e)
+                .lift(new OperatorMinEffectiveSpeedThreshold(TimeUnit.MINUTES.toMillis(30)))
+                .toList().toBlocking().single();
+        List<double[]> values = new ArrayList<double[]>();
+        OperatorMinEffectiveSpeedThreshold.effectiveSpeeds(TestingUtil.cursor(a, b, c, d, e),
+                TimeUnit.MINUTES.toMillis(30),
+                (mmsi, time, lat, lon, preSpeed, preError, postSpeed, postError) -> values
+                        .add(new double[] { time, lon, preSpeed, preError, postSpeed, postError }));
+        assertEquals(list.size(), values.size());
+        for (int i = 0; i < list.size(); i++) {
+            FixWithPreAndPostEffectiveSpeed r = list.get(i);
+            double[] v = values.get(i);
+            assertEquals(r.fix().time(), v[0], 0.0001);
+            assertEquals(r.fix().lon(), v[1], 0.0001);
+            assertEquals(r.preEffectiveSpeedKnots(), v[2], 0.0000001);
+            assertEquals(r.preError(), v[3], 0.0000001);
+            assertEquals(r.postEffectiveSpeedKnots(), v[4], 0.0000001);
+            assertEquals(r.postError(), v[5], 0.0000001);
+        }
+    }
+
+    @Test
+    public void testDistanceKm() {
+        // one degree of longitude on the equator
+        assertEquals(111.1952, OperatorMinEffectiveSpeedThreshold.distanceKm(0, 135, 0, 136),
+                0.0001);
+        assertEquals(0, OperatorMinEffectiveSpeedThreshold.distanceKm(-10, 135, -10, 135), 0);
+        assertEquals(OperatorMinEffectiveSpeedThreshold.distanceKm(-10, 135, -11, 136.5),
+                OperatorMinEffectiveSpeedThreshold.distanceKm(-11, 136.5, -10, 135), 1e-12);
+    }
+
 }
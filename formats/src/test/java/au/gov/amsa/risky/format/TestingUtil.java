@@ -6,6 +6,7 @@ import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class TestingUtil {
 
@@ -27,4 +28,13 @@ public class TestingUtil {
         }
     }
 
+    static FixCursor cursor(Fix... fixes) {
+        BinaryFixesFormat format = BinaryFixesFormat.WITHOUT_MMSI;
+        ByteBuffer bb = ByteBuffer.allocate(fixes.length * BinaryFixes.recordSize(format));
+        for (Fix fix : fixes)
+            BinaryFixes.write(fix, bb, format);
+        int mmsi = fixes.length == 0 ? 0 : fixes[0].mmsi();
+        return BinaryFixesCursor.from(bb, mmsi, format);
+    }
+
 }
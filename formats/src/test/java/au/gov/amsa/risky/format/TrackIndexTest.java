@@ -0,0 +1,145 @@
+package au.gov.amsa.risky.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import rx.Observable;
+
+public final class TrackIndexTest {
+
+    @Test
+    public void testWriterAppendsSummariesAndRebuildGivesSameIndex() throws IOException {
+        File directory = new File("target/track-index");
+        FileUtils.deleteDirectory(directory);
+        File a = new File(directory, "123456789.track");
+        File b = new File(directory, "987654321.track");
+        BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000, 2000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        BinaryFixesWriter.writeFixes(fixes(123456789, -12f, 137f, 3000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        BinaryFixesWriter.writeFixes(fixes(987654321, 20f, -40f, 5000), b, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+
+        TrackSummary s = TrackIndex.read(directory).summary(a).get();
+        assertEquals(123456789, s.mmsi());
+        assertEquals(3, s.count());
+        assertEquals(1000, s.minTime());
+        assertEquals(3000, s.maxTime());
+        assertEquals(-12f, s.minLat(), 0);
+        assertEquals(-10f, s.maxLat(), 0);
+        assertEquals(137f, s.maxLon(), 0);
+        assertTrue(s.overlapsTime(3000, 4000));
+        assertFalse(s.overlapsTime(3001, 4000));
+        assertFalse(s.intersects(0, 10, 130, 140));
+
+        TrackSummary rebuilt = TrackIndex.rebuild(directory).summary(a).get();
+        assertEquals(s.toString(), rebuilt.toString());
+        assertEquals(2, TrackIndex.read(directory).summaries().size());
+    }
+
+    @Test
+    public void testFilterSkipsOnlyFilesWithUpToDateSummaries() throws IOException {
+        File directory = new File("target/track-index-filter");
+        FileUtils.deleteDirectory(directory);
+        File a = new File(directory, "123456789.track");
+        File b = new File(directory, "987654321.track");
+        BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000), a, false, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        BinaryFixesWriter.writeFixes(fixes(987654321, 20f, -40f, 1000), b, false, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        List<File> files = TrackIndex
+                .filter(Observable.just(a, b), summary -> summary.intersects(-20, 0, 130, 140))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(a), files);
+
+        // b changed without updating the index so is not skipped
+        try (OutputStream os = new FileOutputStream(b, true)) {
+            BinaryFixes.write(new FixImpl(987654321, 20f, -40f, 2000, AisClass.A), os,
+                    BinaryFixesFormat.WITHOUT_MMSI);
+        }
+        files = TrackIndex
+                .filter(Observable.just(a, b), summary -> summary.intersects(-20, 0, 130, 140))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(a, b), files);
+    }
+
+    @Test
+    public void testWriterDoesNotIndexUnlessAsked() throws IOException {
+        File directory = new File("target/track-index-opt-in");
+        FileUtils.deleteDirectory(directory);
+        File a = new File(directory, "123456789.track");
+        BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000), a, false, false,
+                BinaryFixesFormat.WITHOUT_MMSI);
+        assertFalse(new File(directory, TrackIndex.FILENAME).exists());
+    }
+
+    @Test
+    public void testAppendToFileWithoutSummaryIsNotSkipped() throws IOException {
+        File directory = new File("target/track-index-append");
+        FileUtils.deleteDirectory(directory);
+        File a = new File(directory, "123456789.track");
+        // first batch written without indexing
+        BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI);
+        // second batch in another time range and place is indexed
+        BinaryFixesWriter.writeFixes(fixes(123456789, 20f, -40f, 5000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        assertFalse(TrackIndex.read(directory).summary(a).isPresent());
+        // the first batch covers the time and the box so the file is kept
+        List<File> files = TrackIndex.filter(Observable.just(a),
+                summary -> summary.overlapsTime(1000, 2000)
+                        && summary.intersects(-20, 0, 130, 140))
+                .toList().toBlocking().single();
+        assertEquals(Arrays.asList(a), files);
+
+        // once rebuilt the summary covers both batches
+        TrackIndex.rebuild(directory);
+        BinaryFixesWriter.writeFixes(fixes(123456789, 30f, -30f, 6000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        TrackSummary s = TrackIndex.read(directory).summary(a).get();
+        assertEquals(3, s.count());
+        assertEquals(1000, s.minTime());
+        assertEquals(6000, s.maxTime());
+    }
+
+    @Test
+    public void testAppendCompactsIndexAndReadDoesNotWrite() throws IOException {
+        File directory = new File("target/track-index-compact");
+        FileUtils.deleteDirectory(directory);
+        File a = new File(directory, "123456789.track");
+        File indexFile = new File(directory, TrackIndex.FILENAME);
+        BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000), a, true, false,
+                BinaryFixesFormat.WITHOUT_MMSI, true);
+        long recordLength = indexFile.length();
+        for (int i = 1; i < 10; i++)
+            BinaryFixesWriter.writeFixes(fixes(123456789, -10f, 135f, 1000 + i), a, true, false,
+                    BinaryFixesFormat.WITHOUT_MMSI, true);
+        // compacted by the appends
+        long length = indexFile.length();
+        assertTrue(length <= 4 * recordLength);
+        TrackSummary s = TrackIndex.read(directory).summary(a).get();
+        assertEquals(10, s.count());
+        // reading does not rewrite the index
+        assertEquals(length, indexFile.length());
+        assertEquals(s.toString(), TrackIndex.read(directory).summary(a).get().toString());
+    }
+
+    private static List<HasFix> fixes(int mmsi, float lat, float lon, long... times) {
+        HasFix[] fixes = new HasFix[times.length];
+        for (int i = 0; i < times.length; i++)
+            fixes[i] = new FixImpl(mmsi, lat - i * 2, lon + i * 2, times[i], AisClass.A);
+        return Arrays.asList(fixes);
+    }
+
+}
@@ -5,14 +5,18 @@ import static org.junit.Assert.assertFalse;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import org.junit.Test;
 
 import au.gov.amsa.util.netcdf.NetCdfWriter.Var;
 import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
 import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFile;
 
 public class NetCdfWriterTest {
@@ -43,4 +47,34 @@ public class NetCdfWriterTest {
             assertEquals(2, array.getSize());
         }
     }
+
+    @Test
+    public void testWriteThreeDimensionalVariableBySlice()
+            throws IOException, InvalidRangeException {
+        File file = new File("target/temp3d.nc");
+        file.delete();
+
+        NetCdfWriter n = new NetCdfWriter(file, "0.1");
+        Dimension time = n.addDimension("time", 2);
+        Dimension lat = n.addDimension("latitude", 3);
+        Dimension lon = n.addDimension("longitude", 4);
+        Var<Double> v = n.addVariable("density", Optional.of("density"), Optional.of("nm-1"),
+                Double.class, Arrays.asList(time, lat, lon));
+        n.create();
+        for (int t = 0; t < 2; t++) {
+            ArrayDouble.D3 slice = new ArrayDouble.D3(1, 3, 4);
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 4; j++)
+                    slice.set(0, i, j, t * 100 + i * 10 + j);
+            n.write(v, new int[] { t, 0, 0 }, slice);
+        }
+        n.close();
+
+        NetcdfFile nc = NetcdfFile.open(file.getCanonicalPath());
+        Array array = nc.readSection("density");
+        assertEquals(24, array.getSize());
+        assertEquals(123, array.getDouble(array.getIndex().set(1, 2, 3)), 0);
+        assertEquals(12, array.getDouble(array.getIndex().set(0, 1, 2)), 0);
+        nc.close();
+    }
 }
@@ -0,0 +1,282 @@
+package au.gov.amsa.geo.distance;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.CellDistanceConsumer;
+import rx.Observable;
+
+/**
+ * Sums distances by cell without boxing. The cell (latIndex, lonIndex) is
+ * packed into a {@code long} key and keys and values are held in open
+ * addressed (linear probing) primitive buffers, either on the heap or off-heap
+ * (direct buffers), so an entry costs 16 bytes (at the load factor of 0.5 to
+ * 0.75 that is about 21 to 32 bytes per cell) instead of about 100 bytes for a
+ * {@code HashMap<Cell, Double>} entry.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class CellDistanceMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_HEAP_CAPACITY = 1 << 30;
+    private static final int MAX_DIRECT_CAPACITY = 1 << 27;
+
+    private final boolean offHeap;
+    private LongBuffer keys;
+    private DoubleBuffer values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize
+     *            number of cells expected (the map grows as required)
+     * @param offHeap
+     *            if true then keys and values are held in direct buffers
+     */
+    public CellDistanceMap(int expectedSize, boolean offHeap) {
+        Preconditions.checkArgument(expectedSize >= 0, "expectedSize must be non-negative");
+        this.offHeap = offHeap;
+        allocate(capacityFor(expectedSize));
+    }
+
+    public CellDistanceMap(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    private int capacityFor(int expectedSize) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity *= 2;
+        return (int) Math.min(capacity, maxCapacity());
+    }
+
+    private int maxCapacity() {
+        return offHeap ? MAX_DIRECT_CAPACITY : MAX_HEAP_CAPACITY;
+    }
+
+    private void allocate(int capacity) {
+        if (offHeap) {
+            keys = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder())
+                    .asLongBuffer();
+            values = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder())
+                    .asDoubleBuffer();
+        } else {
+            keys = LongBuffer.allocate(capacity);
+            values = DoubleBuffer.allocate(capacity);
+        }
+        for (int i = 0; i < capacity; i++)
+            keys.put(i, EMPTY);
+        mask = capacity - 1;
+        resizeAt = capacity == maxCapacity() ? capacity - 1 : capacity * 3 / 4;
+    }
+
+    /**
+     * Adds the distance to the total for the cell.
+     *
+     * @param latIndex
+     *            must be between 0 and {@link Integer#MAX_VALUE} inclusive
+     * @param lonIndex
+     *            must be between 0 and {@link Integer#MAX_VALUE} inclusive
+     * @param distanceNm
+     */
+    public void add(long latIndex, long lonIndex, double distanceNm) {
+        add(key(latIndex, lonIndex), distanceNm);
+    }
+
+    public void add(Cell cell, double distanceNm) {
+        add(cell.getLatIndex(), cell.getLonIndex(), distanceNm);
+    }
+
+    /**
+     * Adds the value to the total for the packed key. Used by
+     * {@link SpillableCellStore} whose keys may be packed differently (any
+     * key other than {@link Long#MIN_VALUE}).
+     *
+     * @param key
+     * @param distanceNm
+     */
+    void add(long key, double distanceNm) {
+        int i = indexOf(key);
+        long k = keys.get(i);
+        if (k == EMPTY) {
+            if (size == resizeAt) {
+                grow();
+                i = indexOf(key);
+            }
+            keys.put(i, key);
+            values.put(i, distanceNm);
+            size++;
+        } else
+            values.put(i, values.get(i) + distanceNm);
+    }
+
+    /**
+     * Adds the totals of the other map to the totals of this map.
+     *
+     * @param other
+     */
+    public void addAll(CellDistanceMap other) {
+        LongBuffer k = other.keys;
+        DoubleBuffer v = other.values;
+        for (int i = 0; i <= other.mask; i++) {
+            long key = k.get(i);
+            if (key != EMPTY)
+                add(key, v.get(i));
+        }
+    }
+
+    /**
+     * Returns the total distance for the cell or 0 if none has been added.
+     *
+     * @param latIndex
+     * @param lonIndex
+     * @return
+     */
+    public double get(long latIndex, long lonIndex) {
+        int i = indexOf(key(latIndex, lonIndex));
+        if (keys.get(i) == EMPTY)
+            return 0;
+        else
+            return values.get(i);
+    }
+
+    /**
+     * Copies the keys and their totals to the arrays (of length at least
+     * {@link #size()}) in ascending key order.
+     *
+     * @param sortedKeys
+     * @param sortedValues
+     */
+    void copySorted(long[] sortedKeys, double[] sortedValues) {
+        LongBuffer k = keys;
+        int n = 0;
+        for (int i = 0; i <= mask; i++) {
+            long key = k.get(i);
+            if (key != EMPTY)
+                sortedKeys[n++] = key;
+        }
+        Arrays.sort(sortedKeys, 0, n);
+        for (int i = 0; i < n; i++)
+            sortedValues[i] = values.get(indexOf(sortedKeys[i]));
+    }
+
+    /**
+     * Returns the index of the slot holding the key or the empty slot where
+     * it would be inserted.
+     */
+    private int indexOf(long key) {
+        LongBuffer k = keys;
+        int i = hash(key) & mask;
+        while (true) {
+            long found = k.get(i);
+            if (found == key || found == EMPTY)
+                return i;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        if (mask + 1 == maxCapacity())
+            throw new IllegalStateException("maximum capacity reached: " + maxCapacity());
+        LongBuffer oldKeys = keys;
+        DoubleBuffer oldValues = values;
+        int oldCapacity = mask + 1;
+        allocate(oldCapacity * 2);
+        for (int i = 0; i < oldCapacity; i++) {
+            long key = oldKeys.get(i);
+            if (key != EMPTY) {
+                int j = indexOf(key);
+                keys.put(j, key);
+                values.put(j, oldValues.get(i));
+            }
+        }
+    }
+
+    private static long key(long latIndex, long lonIndex) {
+        if (latIndex < 0 || latIndex > Integer.MAX_VALUE || lonIndex < 0
+                || lonIndex > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                    "cell index out of range: latIndex=" + latIndex + ", lonIndex=" + lonIndex);
+        return (latIndex << 32) | lonIndex;
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Removes all entries keeping the current capacity.
+     */
+    void clear() {
+        for (int i = 0; i <= mask; i++)
+            keys.put(i, EMPTY);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Reports each cell and its total distance to the consumer (in no
+     * particular order) without allocating.
+     *
+     * @param consumer
+     */
+    public void forEach(CellDistanceConsumer consumer) {
+        LongBuffer k = keys;
+        DoubleBuffer v = values;
+        for (int i = 0; i <= mask; i++) {
+            long key = k.get(i);
+            if (key != EMPTY)
+                consumer.accept(key >>> 32, key & 0xFFFFFFFFL, v.get(i));
+        }
+    }
+
+    /**
+     * Returns the cells and their total distances (in no particular order).
+     * The map should not be modified while the returned {@link Observable} is
+     * being consumed.
+     *
+     * @return
+     */
+    public Observable<CellAndDistance> cellDistances() {
+        return Observable.range(0, mask + 1)
+                // ignore empty slots
+                .filter(i -> keys.get(i) != EMPTY)
+                // to cell and distance
+                .map(i -> {
+                    long key = keys.get(i);
+                    return new CellAndDistance(Cell.create(key >>> 32, key & 0xFFFFFFFFL),
+                            values.get(i));
+                });
+    }
+
+}
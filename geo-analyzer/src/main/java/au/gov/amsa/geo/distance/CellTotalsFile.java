@@ -0,0 +1,155 @@
+package au.gov.amsa.geo.distance;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import au.gov.amsa.geo.model.Cell;
+import rx.Observable;
+
+/**
+ * Reads cell totals stored on disk as a section of a file holding records of
+ * a cell key ({@code latIndex << 32 | lonIndex}) and a total in nautical
+ * miles, in ascending key order. Used by {@link DensityStore} and
+ * {@link DensityCube}.
+ */
+final class CellTotalsFile {
+
+    // cell key (long) and nm (double)
+    static final int RECORD_BYTES = 16;
+    static final int BUFFER_BYTES = 1 << 16;
+
+    private CellTotalsFile() {
+        // prevent instantiation
+    }
+
+    static long key(long latIndex, long lonIndex) {
+        return (latIndex << 32) | lonIndex;
+    }
+
+    /**
+     * Returns the total of the cell in the records from byte offset
+     * {@code start} (inclusive) to {@code finish} (exclusive) of the file (a
+     * binary search) or 0 if the cell has no record.
+     */
+    static double get(File file, long start, long finish, long latIndex, long lonIndex) {
+        long key = key(latIndex, lonIndex);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long lo = 0;
+            long hi = (finish - start) / RECORD_BYTES - 1;
+            while (lo <= hi) {
+                long mid = (lo + hi) >>> 1;
+                raf.seek(start + mid * RECORD_BYTES);
+                long k = raf.readLong();
+                if (k < key)
+                    lo = mid + 1;
+                else if (k > key)
+                    hi = mid - 1;
+                else
+                    return raf.readDouble();
+            }
+            return 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the cells and totals of the records from byte offset
+     * {@code start} (inclusive) to {@code finish} (exclusive) of the file,
+     * read as they are consumed.
+     */
+    static Observable<CellAndDistance> cellDistances(File file, long start, long finish) {
+        return Observable.using(() -> new Reader(file, start, finish),
+                reader -> Observable.from(() -> reader.iterator()), reader -> reader.close());
+    }
+
+    /**
+     * Reads the records of a section of a file in order.
+     */
+    static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private long remaining;
+        long key;
+        double value;
+
+        Reader(File file, long start, long finish) {
+            this.remaining = (finish - start) / RECORD_BYTES;
+            try {
+                InputStream fis = new FileInputStream(file);
+                try {
+                    long skipped = 0;
+                    while (skipped < start) {
+                        long n = fis.skip(start - skipped);
+                        if (n <= 0)
+                            throw new EOFException("cell totals truncated: " + file);
+                        skipped += n;
+                    }
+                } catch (IOException e) {
+                    fis.close();
+                    throw e;
+                }
+                in = new DataInputStream(new BufferedInputStream(fis, BUFFER_BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        boolean next() {
+            if (remaining == 0)
+                return false;
+            try {
+                key = in.readLong();
+                value = in.readDouble();
+                remaining--;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Iterator<CellAndDistance> iterator() {
+            return new Iterator<CellAndDistance>() {
+
+                // null if not yet read
+                Boolean hasNext;
+
+                @Override
+                public boolean hasNext() {
+                    if (hasNext == null)
+                        hasNext = Reader.this.next();
+                    return hasNext;
+                }
+
+                @Override
+                public CellAndDistance next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    hasNext = null;
+                    return new CellAndDistance(Cell.create(key >>> 32, key & 0xFFFFFFFFL),
+                            value);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,340 @@
+package au.gov.amsa.geo.distance;
+
+import static java.util.Optional.of;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+import au.gov.amsa.geo.distance.DistanceTravelledCalculator.CalculationResult;
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.CellDistanceConsumer;
+import au.gov.amsa.geo.model.Grid;
+import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.geo.model.TimeBucket;
+import au.gov.amsa.util.netcdf.NetCdfWriter;
+import au.gov.amsa.util.netcdf.NetCdfWriter.Var;
+import rx.Observable;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.nc2.Dimension;
+
+/**
+ * Nautical miles travelled by cell and time bucket (space by time) as
+ * produced in one pass over the fixes by
+ * {@link DistanceTravelledCalculator#calculateDistanceByCellAndTimeFromFiles}.
+ * The distance of a segment is attributed to the bucket containing the time
+ * of the start of the segment.
+ *
+ * <p>
+ * The cube is not held in memory. While the cube is being built the distances
+ * are summed in a {@link SpillableCellStore} keyed by bucket and cell, so
+ * memory is bounded by its budget however many buckets there are. When
+ * complete the totals are written to a temporary file sorted by bucket then
+ * cell, which the methods reading the cube use. Closing the cube deletes the
+ * file.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class DensityCube implements Closeable {
+
+    private static final String NETCDF_VERSION = "0.1";
+
+    // packing of bucket and cell indexes into a store key
+    private static final int BUCKET_SHIFT = 48;
+    private static final int LAT_SHIFT = 24;
+    private static final long INDEX_MASK = (1L << LAT_SHIFT) - 1;
+    private static final int MAX_BUCKETS = 1 << 15;
+
+    private static final CellDistanceConsumer IGNORE = (latIndex, lonIndex, distanceNm) -> {
+    };
+
+    private final Options options;
+    private final long[] boundaries;
+    private final SpillableCellStore cells;
+
+    // the sorted totals, null until finished
+    private File file;
+    // byte offset of the totals of each bucket in the file and the length of
+    // the file
+    private long[] offsets;
+
+    /**
+     * Constructor.
+     *
+     * @param options
+     * @param boundaries
+     *            increasing bucket boundaries as returned by
+     *            {@link TimeBucket#boundaries(long, long)}
+     * @param memoryBudgetBytes
+     *            memory used to sum distances before spilling to disk
+     */
+    DensityCube(Options options, long[] boundaries, long memoryBudgetBytes) {
+        Preconditions.checkArgument(boundaries.length >= 2, "at least one bucket required");
+        Preconditions.checkArgument(boundaries.length - 1 <= MAX_BUCKETS,
+                "at most " + MAX_BUCKETS + " buckets allowed");
+        Preconditions.checkArgument(options.getGrid().latCount() <= INDEX_MASK
+                && options.getGrid().lonCount() <= INDEX_MASK, "grid too large");
+        this.options = options;
+        this.boundaries = boundaries;
+        this.cells = new SpillableCellStore(memoryBudgetBytes);
+    }
+
+    public Options options() {
+        return options;
+    }
+
+    public int bucketCount() {
+        return boundaries.length - 1;
+    }
+
+    /**
+     * Returns the start time (inclusive, epoch ms) of the bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public long bucketStartTime(int bucket) {
+        return boundaries[bucket];
+    }
+
+    /**
+     * Returns the finish time (exclusive, epoch ms) of the bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    public long bucketFinishTime(int bucket) {
+        return boundaries[bucket + 1];
+    }
+
+    /**
+     * Returns the index of the bucket containing the time or -1 if the time is
+     * outside all buckets.
+     *
+     * @param time
+     * @return
+     */
+    public int bucketOf(long time) {
+        if (time < boundaries[0] || time >= boundaries[boundaries.length - 1])
+            return -1;
+        int i = Arrays.binarySearch(boundaries, time);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Returns the total nautical miles travelled in the cell during the
+     * bucket.
+     *
+     * @param bucket
+     * @param latIndex
+     * @param lonIndex
+     * @return
+     */
+    public double distanceNm(int bucket, long latIndex, long lonIndex) {
+        checkFinished();
+        return CellTotalsFile.get(file, offsets[bucket], offsets[bucket + 1], latIndex,
+                lonIndex);
+    }
+
+    /**
+     * Returns the cells and their totals during the bucket in ascending cell
+     * order, read from disk as they are consumed.
+     *
+     * @param bucket
+     * @return
+     */
+    public Observable<CellAndDistance> cellDistances(int bucket) {
+        checkFinished();
+        return CellTotalsFile.cellDistances(file, offsets[bucket], offsets[bucket + 1]);
+    }
+
+    /**
+     * Returns the traffic density of the cells during the bucket (in the form
+     * used by {@link Renderer} and
+     * {@link DistanceTravelledCalculator#saveCalculationResultAsNetcdf}).
+     *
+     * @param bucket
+     * @param metrics
+     * @return
+     */
+    public CalculationResult toCalculationResult(int bucket, DistanceCalculationMetrics metrics) {
+        return new CalculationResult(cellDistances(bucket)
+                .map(DistanceTravelledCalculator.toCellDensityValue(options)), metrics);
+    }
+
+    /**
+     * Returns the consumer that the cell distances of a segment starting at
+     * the time are summed into.
+     *
+     * @param time
+     * @return
+     */
+    CellDistanceConsumer forSegmentStartingAt(long time) {
+        int bucket = bucketOf(time);
+        if (bucket == -1)
+            return IGNORE;
+        else
+            return (latIndex, lonIndex, distanceNm) -> cells
+                    .add(key(bucket, latIndex, lonIndex), distanceNm);
+    }
+
+    private static long key(int bucket, long latIndex, long lonIndex) {
+        return ((long) bucket << BUCKET_SHIFT) | (latIndex << LAT_SHIFT) | lonIndex;
+    }
+
+    /**
+     * Moves the distances of the other cube (which is closed) to this cube.
+     *
+     * @param other
+     */
+    void addAll(DensityCube other) {
+        Preconditions.checkArgument(Arrays.equals(boundaries, other.boundaries),
+                "buckets differ");
+        cells.addAll(other.cells);
+        other.close();
+    }
+
+    /**
+     * Writes the summed distances to the file read by the cube (sorted by
+     * bucket then cell) after which no more distances can be added.
+     *
+     * @return this
+     */
+    DensityCube finish() {
+        Preconditions.checkArgument(file == null, "already finished");
+        long[] offsets = new long[bucketCount() + 1];
+        try {
+            File f = File.createTempFile("density-cube-", ".bin");
+            // the bucket whose start offset was written last and the bytes
+            // written
+            long[] state = new long[2];
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(f), CellTotalsFile.BUFFER_BYTES))) {
+                cells.forEach((key, value) -> {
+                    int bucket = (int) (key >>> BUCKET_SHIFT);
+                    while (state[0] < bucket)
+                        offsets[(int) ++state[0]] = state[1];
+                    try {
+                        out.writeLong(CellTotalsFile.key((key >>> LAT_SHIFT) & INDEX_MASK,
+                                key & INDEX_MASK));
+                        out.writeDouble(value);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    state[1] += CellTotalsFile.RECORD_BYTES;
+                });
+            } catch (IOException | RuntimeException e) {
+                f.delete();
+                throw e;
+            }
+            while (state[0] < bucketCount())
+                offsets[(int) ++state[0]] = state[1];
+            this.file = f;
+            this.offsets = offsets;
+            return this;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkFinished() {
+        Preconditions.checkArgument(file != null, "cube not finished");
+    }
+
+    /**
+     * Deletes the files of the cube.
+     */
+    @Override
+    public void close() {
+        cells.close();
+        if (file != null)
+            file.delete();
+    }
+
+    /**
+     * Saves the cube as a NetCDF file with coordinate variables
+     * {@code time} (bucket start time), {@code latitude} and
+     * {@code longitude} (cell centres) and the variable
+     * {@code traffic_density[time][latitude][longitude]} in nm per square nm.
+     * The density is written one row of a time slice at a time.
+     *
+     * @param file
+     */
+    public void saveAsNetcdf(File file) {
+        checkFinished();
+        int buckets = bucketCount();
+        Grid grid = options.getGrid();
+        // the last edges bound the cells so are not cells themselves
+        int rows = grid.latCount() - 1;
+        int cols = grid.lonCount() - 1;
+        double[] areas = new double[rows];
+        for (int i = 0; i < rows; i++)
+            areas[i] = Cell.create(i, 0).areaNauticalMiles(options);
+        try (NetCdfWriter n = new NetCdfWriter(file, NETCDF_VERSION)) {
+            Dimension dimTime = n.addDimension("time", buckets);
+            Dimension dimLat = n.addDimension("latitude", rows);
+            Dimension dimLon = n.addDimension("longitude", cols);
+            Var<Double> vTime = n.addVariable("time", of("start of time bucket"),
+                    of("milliseconds since 1970-01-01 00:00:00 UTC"), Double.class,
+                    Arrays.asList(dimTime));
+            Var<Double> vLat = n.addVariable("latitude", of("latitude"), of("degrees_north"),
+                    Double.class, Arrays.asList(dimLat));
+            Var<Double> vLon = n.addVariable("longitude", of("longitude"), of("degrees_east"),
+                    Double.class, Arrays.asList(dimLon));
+            Var<Double> vDensity = n.addVariable("traffic_density",
+                    of("nautical miles travelled per square nautical mile"), of("nm-1"),
+                    Double.class, Arrays.asList(dimTime, dimLat, dimLon));
+            n.create();
+
+            Array times = Array.factory(DataType.DOUBLE, new int[] { buckets });
+            for (int i = 0; i < buckets; i++)
+                times.setDouble(i, boundaries[i]);
+            n.write(vTime, new int[] { 0 }, times);
+            Array lats = Array.factory(DataType.DOUBLE, new int[] { rows });
+            for (int i = 0; i < rows; i++)
+                lats.setDouble(i, grid.centreLat(i));
+            n.write(vLat, new int[] { 0 }, lats);
+            Array lons = Array.factory(DataType.DOUBLE, new int[] { cols });
+            for (int i = 0; i < cols; i++)
+                lons.setDouble(i, grid.centreLon(i));
+            n.write(vLon, new int[] { 0 }, lons);
+
+            // one row of the grid is held in memory at a time
+            ArrayDouble.D3 row = new ArrayDouble.D3(1, 1, cols);
+            for (int t = 0; t < buckets; t++) {
+                try (CellTotalsFile.Reader reader = new CellTotalsFile.Reader(this.file,
+                        offsets[t], offsets[t + 1])) {
+                    // the totals are in ascending cell order so are read
+                    // row by row
+                    boolean more = reader.next();
+                    for (int r = 0; r < rows; r++) {
+                        boolean touched = false;
+                        while (more && (reader.key >>> 32) <= r) {
+                            long lonIndex = reader.key & 0xFFFFFFFFL;
+                            if ((reader.key >>> 32) == r && lonIndex < cols) {
+                                row.set(0, 0, (int) lonIndex, reader.value / areas[r]);
+                                touched = true;
+                            }
+                            more = reader.next();
+                        }
+                        n.write(vDensity, new int[] { t, r, 0 }, row);
+                        if (touched)
+                            for (int c = 0; c < cols; c++)
+                                row.set(0, 0, c, 0);
+                    }
+                }
+            }
+        }
+    }
+
+}
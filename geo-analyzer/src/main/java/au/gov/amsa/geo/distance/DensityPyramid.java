@@ -0,0 +1,489 @@
+package au.gov.amsa.geo.distance;
+
+import static au.gov.amsa.util.navigation.Position.to180;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.CellDistanceConsumer;
+import au.gov.amsa.geo.model.CellValue;
+import au.gov.amsa.geo.model.Grid;
+import au.gov.amsa.geo.model.Options;
+import rx.Observable;
+
+/**
+ * Traffic density at multiple resolutions. Level 0 holds the total nautical
+ * miles travelled in each cell of the {@link Grid} of the options it was built
+ * with and each following level merges 2x2 cells of the level before it, up to
+ * the first level that fits in a single tile. A build holds at most the
+ * memory budget of cells in memory at once. Each level is persisted to its
+ * own file with the cells grouped by tile of {@link #TILE_SIZE} x
+ * {@link #TILE_SIZE} cells and an index of the tiles at the start of the file,
+ * so rendering a region reads only the tiles of the level matching the pixel
+ * size that intersect the region.
+ *
+ * <p>
+ * Reads are thread safe.
+ */
+public final class DensityPyramid implements Closeable {
+
+    private static Logger log = Logger.getLogger(DensityPyramid.class);
+
+    public static final int TILE_SIZE = 256;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int TILE_SHIFT = 8;
+    // packed position of the cell in the tile (char) then nm (double)
+    private static final int RECORD_BYTES = 2 + 8;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int TILE_INDEX_BYTES = 4 + 4 + 8 + 4;
+
+    private final Level[] levels;
+
+    private DensityPyramid(Level[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the levels of the pyramid from the total nautical miles travelled
+     * by cell of the grid of the options and saves them in the directory,
+     * using a quarter of the maximum heap size as the memory budget.
+     *
+     * @param options
+     * @param cells
+     * @param directory
+     * @return the pyramid (open for reading)
+     */
+    public static DensityPyramid build(Options options, Observable<CellAndDistance> cells,
+            File directory) {
+        return build(options, cells, directory, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Builds the levels of the pyramid from the total nautical miles travelled
+     * by cell of the grid of the options and saves them in the directory. The
+     * cells of a level are summed by tile in a {@link SpillableCellStore} that
+     * spills to the directory when it exceeds the memory budget, so the cells
+     * need not fit in memory.
+     *
+     * @param options
+     * @param cells
+     *            cells may be repeated (their distances are summed)
+     * @param directory
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to sum the cells of a level
+     * @return the pyramid (open for reading)
+     */
+    public static DensityPyramid build(Options options, Observable<CellAndDistance> cells,
+            File directory, long memoryBudgetBytes) {
+        Preconditions.checkNotNull(options);
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkArgument(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        directory.mkdirs();
+        Grid grid = options.getGrid();
+        double cellSizeDegrees = options.getCellSizeDegreesAsDouble();
+        double topLat = grid.topEdgeLatitude(0);
+        double leftLon = grid.centreLon(0) - cellSizeDegrees / 2;
+        // the store being written and the store of the next level
+        long budget = memoryBudgetBytes / 2;
+        SpillableCellStore store = new SpillableCellStore(budget, directory);
+        try {
+            int tileCols0 = tileCount(count(grid.lonCount(), 0));
+            SpillableCellStore first = store;
+            cells.toBlocking().forEach(cd -> first.add(
+                    key(cd.getCell().getLatIndex(), cd.getCell().getLonIndex(), tileCols0),
+                    cd.getDistanceNm()));
+            int level = 0;
+            while (true) {
+                int rows = count(grid.latCount(), level);
+                int cols = count(grid.lonCount(), level);
+                boolean last = rows <= TILE_SIZE && cols <= TILE_SIZE;
+                SpillableCellStore next = last ? null
+                        : new SpillableCellStore(budget, directory);
+                try {
+                    long n = writeLevel(file(directory, level), level,
+                            cellSizeDegrees * (1L << level), topLat, leftLon, rows, cols, store,
+                            next, tileCount(count(grid.lonCount(), level + 1)));
+                    log.info("saved density level " + level + ", cells=" + n);
+                } catch (RuntimeException e) {
+                    if (next != null)
+                        next.close();
+                    throw e;
+                }
+                store.close();
+                if (last)
+                    break;
+                store = next;
+                level++;
+            }
+            // remove any coarser levels left by a previous build
+            File f;
+            while ((f = file(directory, ++level)).exists())
+                f.delete();
+        } finally {
+            store.close();
+        }
+        return open(directory);
+    }
+
+    static DensityPyramid build(Options options, CellDistanceMap cells, File directory) {
+        return build(options, cells.cellDistances(), directory);
+    }
+
+    /**
+     * Opens the pyramid saved in the directory by a build.
+     *
+     * @param directory
+     * @return pyramid
+     */
+    public static DensityPyramid open(File directory) {
+        List<Level> list = new ArrayList<Level>();
+        File f;
+        while ((f = file(directory, list.size())).exists())
+            list.add(Level.open(f));
+        if (list.isEmpty())
+            throw new IllegalArgumentException("no density pyramid in " + directory);
+        return new DensityPyramid(list.toArray(new Level[list.size()]));
+    }
+
+    private static File file(File directory, int level) {
+        return new File(directory, "density-level-" + level + ".bin");
+    }
+
+    private static int count(int count, int level) {
+        return (int) ((count + (1L << level) - 1) >> level);
+    }
+
+    public int levels() {
+        return levels.length;
+    }
+
+    public double cellSizeDegrees(int level) {
+        return levels[level].cellSizeDegrees;
+    }
+
+    /**
+     * Returns the finest level with cells at least the given size (or the
+     * coarsest level if none are that large), for example the level to render
+     * when a pixel covers the given number of degrees.
+     *
+     * @param degrees
+     * @return
+     */
+    public int levelFor(double degrees) {
+        for (int i = 0; i < levels.length; i++)
+            if (levels[i].cellSizeDegrees >= degrees)
+                return i;
+        return levels.length - 1;
+    }
+
+    public int rows(int level) {
+        return levels[level].rows;
+    }
+
+    public int cols(int level) {
+        return levels[level].cols;
+    }
+
+    public int tileRows(int level) {
+        return (levels[level].rows + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public int tileCols(int level) {
+        return (levels[level].cols + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Reports the cells of the tile that have been travelled (as cell indexes
+     * of the level) and the total nautical miles travelled in them to the
+     * consumer. The cell indexes of a tile are from {@code tileRow * TILE_SIZE}
+     * and {@code tileCol * TILE_SIZE}.
+     *
+     * @param level
+     * @param tileRow
+     * @param tileCol
+     * @param consumer
+     */
+    public void forEachCell(int level, int tileRow, int tileCol, CellDistanceConsumer consumer) {
+        levels[level].forEachCell(tileRow, tileCol, consumer);
+    }
+
+    /**
+     * Returns the traffic density (nm per square nm) of the travelled cells of
+     * the level in the tiles that intersect the bounds.
+     *
+     * @param level
+     * @param bounds
+     * @return
+     */
+    public Observable<CellValue> cells(int level, Bounds bounds) {
+        Level v = levels[level];
+        int fromTileRow = tileRow(v, bounds.getTopLeftLat());
+        int toTileRow = tileRow(v, bounds.getBottomRightLat());
+        int fromTileCol = tileCol(v, bounds.getTopLeftLon());
+        int toTileCol = tileCol(v, bounds.getBottomRightLon());
+        List<int[]> tiles = new ArrayList<int[]>();
+        for (int r = fromTileRow; r <= toTileRow; r++)
+            if (toTileCol >= fromTileCol)
+                for (int c = fromTileCol; c <= toTileCol; c++)
+                    tiles.add(new int[] { r, c });
+            else {
+                // bounds cross the 180 meridian
+                for (int c = fromTileCol; c < tileCols(level); c++)
+                    tiles.add(new int[] { r, c });
+                for (int c = 0; c <= toTileCol; c++)
+                    tiles.add(new int[] { r, c });
+            }
+        return Observable.from(tiles).concatMap(tile -> Observable.defer(() -> {
+            List<CellValue> list = new ArrayList<CellValue>();
+            v.forEachCell(tile[0], tile[1], (row, col, distanceNm) -> list
+                    .add(new CellValue(v.centreLat(row), v.centreLon(col),
+                            distanceNm / v.areaNauticalMiles(row))));
+            return Observable.from(list);
+        }));
+    }
+
+    private static int tileRow(Level v, double lat) {
+        long row = (long) Math.floor((v.topLat - lat) / v.cellSizeDegrees);
+        return (int) (Math.max(0, Math.min(v.rows - 1, row)) >> TILE_SHIFT);
+    }
+
+    private static int tileCol(Level v, double lon) {
+        double x = lon - v.leftLon;
+        if (x < 0)
+            x += 360;
+        long col = (long) Math.floor(x / v.cellSizeDegrees);
+        return (int) (Math.max(0, Math.min(v.cols - 1, col)) >> TILE_SHIFT);
+    }
+
+    @Override
+    public void close() {
+        for (Level level : levels)
+            level.close();
+    }
+
+    /**
+     * Writes the level from the store (keyed by tile then position in the
+     * tile) and adds the cells to the store of the next level (if not null).
+     * Returns the number of cells written.
+     */
+    private static long writeLevel(File file, int level, double cellSizeDegrees, double topLat,
+            double leftLon, int rows, int cols, SpillableCellStore store,
+            SpillableCellStore next, int nextTileCols) {
+        int tileCols = tileCount(cols);
+        // the cells are written to a temporary file first because the tile
+        // index precedes them
+        File cellsFile = new File(file.getParentFile(), file.getName() + ".cells.tmp");
+        List<long[]> index = new ArrayList<long[]>();
+        long[] count = new long[1];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(cellsFile)))) {
+                IOException[] error = new IOException[1];
+                store.forEach((key, distanceNm) -> {
+                    long tile = tileOf(key);
+                    int local = (int) (key & 0xFFFF);
+                    if (index.isEmpty() || index.get(index.size() - 1)[0] != tile)
+                        // tile id and number of cells
+                        index.add(new long[] { tile, 0 });
+                    index.get(index.size() - 1)[1]++;
+                    count[0]++;
+                    if (next != null) {
+                        long row = ((tile / tileCols) << TILE_SHIFT) + (local >>> TILE_SHIFT);
+                        long col = ((tile % tileCols) << TILE_SHIFT) + (local & (TILE_SIZE - 1));
+                        next.add(key(row >> 1, col >> 1, nextTileCols), distanceNm);
+                    }
+                    if (error[0] == null)
+                        try {
+                            out.writeChar(local);
+                            out.writeDouble(distanceNm);
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                });
+                if (error[0] != null)
+                    throw error[0];
+            }
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(level);
+                out.writeDouble(cellSizeDegrees);
+                out.writeDouble(topLat);
+                out.writeDouble(leftLon);
+                out.writeInt(rows);
+                out.writeInt(cols);
+                out.writeInt(index.size());
+                // tile index
+                long offset = HEADER_BYTES + (long) index.size() * TILE_INDEX_BYTES;
+                for (long[] entry : index) {
+                    out.writeInt((int) (entry[0] / tileCols));
+                    out.writeInt((int) (entry[0] % tileCols));
+                    out.writeLong(offset);
+                    out.writeInt((int) entry[1]);
+                    offset += entry[1] * RECORD_BYTES;
+                }
+                // cells
+                Files.copy(cellsFile.toPath(), out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            cellsFile.delete();
+        }
+        return count[0];
+    }
+
+    private static int tileCount(int cells) {
+        return (cells + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    // sorts by tile then position in the tile
+    private static long key(long latIndex, long lonIndex, int tileCols) {
+        long tile = (latIndex >> TILE_SHIFT) * tileCols + (lonIndex >> TILE_SHIFT);
+        return (tile << (2 * TILE_SHIFT)) | localKey(latIndex, lonIndex);
+    }
+
+    private static long localKey(long latIndex, long lonIndex) {
+        return ((latIndex & (TILE_SIZE - 1)) << TILE_SHIFT) | (lonIndex & (TILE_SIZE - 1));
+    }
+
+    private static long tileOf(long key) {
+        return key >>> (2 * TILE_SHIFT);
+    }
+
+    private static final class Level {
+
+        final FileChannel channel;
+        final double cellSizeDegrees;
+        final double topLat;
+        final double leftLon;
+        final int rows;
+        final int cols;
+        final int tileCols;
+        // tile ids (tileRow * tileCols + tileCol) in ascending order
+        final long[] tiles;
+        final long[] offsets;
+        final int[] counts;
+
+        Level(FileChannel channel, double cellSizeDegrees, double topLat, double leftLon,
+                int rows, int cols, long[] tiles, long[] offsets, int[] counts) {
+            this.channel = channel;
+            this.cellSizeDegrees = cellSizeDegrees;
+            this.topLat = topLat;
+            this.leftLon = leftLon;
+            this.rows = rows;
+            this.cols = cols;
+            this.tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+            this.tiles = tiles;
+            this.offsets = offsets;
+            this.counts = counts;
+        }
+
+        static Level open(File file) {
+            try {
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                ByteBuffer header = read(channel, 0, HEADER_BYTES);
+                int formatVersion = header.getInt();
+                if (formatVersion != FORMAT_VERSION)
+                    throw new IllegalStateException(
+                            "unsupported density level format " + formatVersion + ": " + file);
+                // level
+                header.getInt();
+                double cellSizeDegrees = header.getDouble();
+                double topLat = header.getDouble();
+                double leftLon = header.getDouble();
+                int rows = header.getInt();
+                int cols = header.getInt();
+                int tileCount = header.getInt();
+                int tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+                ByteBuffer index = read(channel, HEADER_BYTES, tileCount * TILE_INDEX_BYTES);
+                long[] tiles = new long[tileCount];
+                long[] offsets = new long[tileCount];
+                int[] counts = new int[tileCount];
+                for (int i = 0; i < tileCount; i++) {
+                    tiles[i] = (long) index.getInt() * tileCols + index.getInt();
+                    offsets[i] = index.getLong();
+                    counts[i] = index.getInt();
+                }
+                return new Level(channel, cellSizeDegrees, topLat, leftLon, rows, cols, tiles,
+                        offsets, counts);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void forEachCell(int tileRow, int tileCol, CellDistanceConsumer consumer) {
+            int i = Arrays.binarySearch(tiles, (long) tileRow * tileCols + tileCol);
+            if (i < 0)
+                // no cells travelled in the tile
+                return;
+            ByteBuffer bb = read(channel, offsets[i], counts[i] * RECORD_BYTES);
+            long rowBase = (long) tileRow << TILE_SHIFT;
+            long colBase = (long) tileCol << TILE_SHIFT;
+            for (int j = 0; j < counts[i]; j++) {
+                int local = bb.getChar();
+                consumer.accept(rowBase + (local >>> TILE_SHIFT),
+                        colBase + (local & (TILE_SIZE - 1)), bb.getDouble());
+            }
+        }
+
+        double centreLat(long row) {
+            return topLat - (row + 0.5) * cellSizeDegrees;
+        }
+
+        double centreLon(long col) {
+            return to180(leftLon + (col + 0.5) * cellSizeDegrees);
+        }
+
+        double areaNauticalMiles(long row) {
+            return Cell.areaNauticalMiles(topLat - row * cellSizeDegrees,
+                    topLat - (row + 1) * cellSizeDegrees, cellSizeDegrees);
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) {
+            ByteBuffer bb = ByteBuffer.allocate(length);
+            try {
+                while (bb.hasRemaining()) {
+                    if (channel.read(bb, position + bb.position()) == -1)
+                        throw new IOException("unexpected end of density level file");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bb.flip();
+            return bb;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
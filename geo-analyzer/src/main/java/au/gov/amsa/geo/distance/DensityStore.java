@@ -0,0 +1,602 @@
+package au.gov.amsa.geo.distance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.rx.slf4j.Logging;
+
+import au.gov.amsa.geo.distance.DistanceTravelledCalculator.CalculationResult;
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.geo.model.SegmentOptions;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.BinaryFixesCursor;
+import au.gov.amsa.risky.format.BinaryFixesFormat;
+import au.gov.amsa.risky.format.FixCursor;
+import au.gov.amsa.risky.format.TrackIndex;
+import au.gov.amsa.risky.format.TrackSummary;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Persistent traffic density (total nautical miles travelled by cell) that is
+ * brought up to date incrementally. Alongside the cell totals the store
+ * records for each craft (MMSI) the time range of the fixes already included
+ * and where the segment calculation got to, and for each track file how many
+ * bytes have been read, so an {@link #update} only reads the bytes appended
+ * to a track file since the last update and only rasterises the new segments
+ * (including the segment joining the old fixes to the new).
+ *
+ * <p>
+ * The cell totals are kept on disk sorted by cell, not in memory. An update
+ * sums the new cell distances in {@link SpillableCellStore}s and merges them
+ * with the stored totals into the new version of the store, and
+ * {@link #distanceNm} is a binary search of the stored totals.
+ *
+ * <p>
+ * Each update increments the version of the store and replaces the store file
+ * atomically so a failed update leaves the previous version intact.
+ *
+ * <p>
+ * Fixes of a craft that are not later than the fixes already included for
+ * the craft (for example a late delivery of an earlier day) are ignored. A
+ * track file that has been rewritten rather than appended to since the last
+ * update (detected by the last fix read no longer being at the same place in
+ * the file) is read from the start.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class DensityStore {
+
+    private static Logger log = Logger.getLogger(DensityStore.class);
+
+    private static final String FILENAME = "density.bin";
+    private static final int FORMAT_VERSION = 2;
+    private static final BinaryFixesFormat TRACK_FORMAT = BinaryFixesFormat.WITHOUT_MMSI;
+    private static final int TRACK_RECORD_SIZE = BinaryFixes.recordSize(TRACK_FORMAT);
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final File file;
+    private final Options options;
+    private final long memoryBudgetBytes;
+    private final Map<Long, TrackState> tracks;
+    private final Map<String, FileState> files;
+    private long version;
+    // position of the sorted cell totals in the file
+    private long cellsOffset;
+
+    private DensityStore(File file, Options options, long memoryBudgetBytes,
+            Map<Long, TrackState> tracks, Map<String, FileState> files, long version,
+            long cellsOffset) {
+        this.file = file;
+        this.options = options;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.tracks = tracks;
+        this.files = files;
+        this.version = version;
+        this.cellsOffset = cellsOffset;
+    }
+
+    /**
+     * Opens the store in the directory (an empty store if the directory has
+     * no store yet) using a quarter of the maximum heap size as the memory
+     * budget of an update.
+     *
+     * @param directory
+     * @param options
+     *            must have the same grid, bounds, time range and segment
+     *            options that the store was created with
+     * @return store
+     */
+    public static DensityStore open(File directory, Options options) {
+        return open(directory, options, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Opens the store in the directory (an empty store if the directory has
+     * no store yet).
+     *
+     * @param directory
+     * @param options
+     *            must have the same grid, bounds, time range and segment
+     *            options that the store was created with
+     * @param memoryBudgetBytes
+     *            approximate maximum heap used to sum the new cell distances
+     *            of an update before they are spilled to disk (in the
+     *            directory)
+     * @return store
+     */
+    public static DensityStore open(File directory, Options options, long memoryBudgetBytes) {
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkNotNull(options);
+        Preconditions.checkArgument(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        File file = new File(directory, FILENAME);
+        if (!file.exists()) {
+            directory.mkdirs();
+            return new DensityStore(file, options, memoryBudgetBytes,
+                    new HashMap<Long, TrackState>(), new HashMap<String, FileState>(), 0, -1);
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION)
+                throw new IllegalStateException(
+                        "unsupported density store format " + formatVersion + ": " + file);
+            int headerBytes = in.readInt();
+            long version = in.readLong();
+            byte[] storedKey = new byte[in.readInt()];
+            in.readFully(storedKey);
+            if (!Arrays.equals(storedKey, optionsKey(options)))
+                throw new IllegalArgumentException(
+                        "store " + file + " was created with different options to " + options);
+            int trackCount = in.readInt();
+            Map<Long, TrackState> tracks = new HashMap<Long, TrackState>(trackCount * 2);
+            for (int i = 0; i < trackCount; i++) {
+                long mmsi = in.readLong();
+                TrackState s = new TrackState();
+                s.startTime = in.readLong();
+                s.finishTime = in.readLong();
+                s.haveFirst = in.readBoolean();
+                s.firstTime = in.readLong();
+                s.firstLat = in.readFloat();
+                s.firstLon = in.readFloat();
+                s.havePrevious = in.readBoolean();
+                s.previousTime = in.readLong();
+                s.previousLat = in.readFloat();
+                s.previousLon = in.readFloat();
+                tracks.put(mmsi, s);
+            }
+            int fileCount = in.readInt();
+            Map<String, FileState> files = new HashMap<String, FileState>(fileCount * 2);
+            for (int i = 0; i < fileCount; i++)
+                files.put(in.readUTF(), new FileState(in.readLong(), in.readLong(), in.readLong()));
+            // the cell totals follow the header and are read on demand
+            return new DensityStore(file, options, memoryBudgetBytes, tracks, files, version,
+                    8 + headerBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the bytes of the options that determine the cell totals, in a
+     * fixed order (so that the key does not depend on
+     * {@link Options#toString()}).
+     */
+    private static byte[] optionsKey(Options options) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(plain(options.getOriginLat()));
+            out.writeUTF(plain(options.getOriginLon()));
+            out.writeUTF(plain(options.getCellSizeDegrees()));
+            writeBounds(out, options.getBounds());
+            writeBounds(out, options.getFilterBounds());
+            out.writeLong(options.getStartTime().orElse(Long.MIN_VALUE));
+            out.writeLong(options.getFinishTime().orElse(Long.MAX_VALUE));
+            SegmentOptions o = options.getSegmentOptions();
+            out.writeLong(o.acceptAnyFixAfterHours() == null ? -1 : o.acceptAnyFixAfterHours());
+            out.writeDouble(o.speedCheckDistanceThresholdNm());
+            out.writeLong(o.speedCheckMinTimeDiffMs());
+            out.writeDouble(o.maxSpeedKnots());
+            out.writeDouble(o.maxDistancePerSegmentNm() == null ? -1
+                    : o.maxDistancePerSegmentNm());
+            out.writeLong(o.maxTimePerSegmentMs() == null ? -1 : o.maxTimePerSegmentMs());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String plain(BigDecimal d) {
+        return d.stripTrailingZeros().toPlainString();
+    }
+
+    private static void writeBounds(DataOutputStream out, Bounds b) throws IOException {
+        out.writeDouble(b.getTopLeftLat());
+        out.writeDouble(b.getTopLeftLon());
+        out.writeDouble(b.getBottomRightLat());
+        out.writeDouble(b.getBottomRightLon());
+    }
+
+    /**
+     * Returns the number of updates applied to the store.
+     *
+     * @return
+     */
+    public long version() {
+        return version;
+    }
+
+    public Options options() {
+        return options;
+    }
+
+    /**
+     * Returns the time range (inclusive) of the fixes of the craft that have
+     * been included in the store.
+     *
+     * @param mmsi
+     * @return
+     */
+    public Optional<Long> includedStartTime(long mmsi) {
+        TrackState s = tracks.get(mmsi);
+        return s == null || s.isEmpty() ? Optional.empty() : Optional.of(s.startTime);
+    }
+
+    public Optional<Long> includedFinishTime(long mmsi) {
+        TrackState s = tracks.get(mmsi);
+        return s == null || s.isEmpty() ? Optional.empty() : Optional.of(s.finishTime);
+    }
+
+    /**
+     * Returns the total nautical miles travelled in the cell (a binary search
+     * of the totals in the store file).
+     *
+     * @param latIndex
+     * @param lonIndex
+     * @return
+     */
+    public double distanceNm(long latIndex, long lonIndex) {
+        if (cellsOffset < 0)
+            return 0;
+        return CellTotalsFile.get(file, cellsOffset, file.length(), latIndex, lonIndex);
+    }
+
+    /**
+     * Adds the segments of the fixes in the track files (named
+     * {@code <mmsi>.track}) that are later than the fixes already included
+     * for each craft, then saves the store as a new version. Only the bytes
+     * of a track file after those read by the last update are read. The files
+     * of a craft (there may be several, for example one per year directory)
+     * are processed in the order of their first fix, which is taken from the
+     * {@link TrackIndex} of the directory of the file or from the store if
+     * possible rather than by opening the file.
+     *
+     * @param files
+     * @return metrics of the update
+     */
+    public DistanceCalculationMetrics update(Observable<File> files) {
+        DistanceCalculationMetrics metrics = new DistanceCalculationMetrics();
+        DistanceTravelledCalculator calculator = new DistanceTravelledCalculator(options,
+                metrics);
+        int processors = Runtime.getRuntime().availableProcessors();
+        Map<File, TrackIndex> indexes = new HashMap<File, TrackIndex>();
+        List<List<File>> crafts = files.toMultimap(DensityStore::mmsi).toBlocking().single()
+                .values().stream().map(craftFiles -> sortByFirstFixTime(craftFiles, indexes))
+                .collect(Collectors.toList());
+        log.info("updating density store version " + version + " from files of "
+                + crafts.size() + " crafts");
+        AtomicLong craftCount = new AtomicLong();
+        long groupBudget = memoryBudgetBytes / (processors + 1);
+        Delta delta = Observable.from(crafts)
+                // a craft is only in one group so its fixes are processed in
+                // order
+                .buffer(Math.max(1, (crafts.size() + processors - 1) / processors))
+                .flatMap(group -> Observable.from(group)
+                        .lift(Logging.<List<File>> logger().showCount(craftCount).every(1000)
+                                .showMemory().log())
+                        .collect(() -> new Delta(groupBudget), (d, craftFiles) -> d
+                                .add(calculator, craftFiles))
+                        .subscribeOn(Schedulers.computation()), processors)
+                // combine the deltas
+                .reduce((a, b) -> a.addAll(b))
+                // no files
+                .switchIfEmpty(Observable.fromCallable(() -> new Delta(groupBudget)))
+                // block
+                .toBlocking().single();
+        try {
+            save(delta);
+        } finally {
+            delta.cells.close();
+        }
+        log.info("updated density store to version " + version + ", " + metrics);
+        return metrics;
+    }
+
+    /**
+     * Returns the traffic density of the cells (in the form used by
+     * {@link DistanceTravelledCalculator#saveCalculationResultAsNetcdf} and
+     * {@link DistanceTravelledCalculator#saveCalculationResultAsText}). The
+     * totals are read from the store file as the cells are consumed.
+     *
+     * @param metrics
+     * @return
+     */
+    public CalculationResult toCalculationResult(DistanceCalculationMetrics metrics) {
+        return new CalculationResult(
+                cellDistances().map(DistanceTravelledCalculator.toCellDensityValue(options)),
+                metrics);
+    }
+
+    /**
+     * Builds a {@link DensityPyramid} of the current cell totals in the
+     * directory.
+     *
+     * @param directory
+     * @return pyramid
+     */
+    public DensityPyramid buildPyramid(File directory) {
+        return DensityPyramid.build(options, cellDistances(), directory);
+    }
+
+    /**
+     * Returns the stored cell totals in ascending cell order, read from the
+     * store file as they are consumed.
+     */
+    private Observable<CellAndDistance> cellDistances() {
+        if (cellsOffset < 0)
+            return Observable.empty();
+        return CellTotalsFile.cellDistances(file, cellsOffset, file.length());
+    }
+
+    private void save(Delta delta) {
+        Map<Long, TrackState> newTracks = new HashMap<Long, TrackState>(tracks);
+        newTracks.putAll(delta.tracks);
+        Map<String, FileState> newFiles = new HashMap<String, FileState>(files);
+        newFiles.putAll(delta.files);
+        long newVersion = version + 1;
+        byte[] header = header(newVersion, newTracks, newFiles);
+        File tmp = new File(file.getParentFile(), FILENAME + ".tmp");
+        long cellCount;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_BYTES));
+                CellTotalsFile.Reader old = cellsOffset < 0 ? null
+                        : new CellTotalsFile.Reader(file, cellsOffset, file.length())) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(header.length);
+            out.write(header);
+            cellCount = mergeCells(old, delta.cells, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tracks.clear();
+        tracks.putAll(newTracks);
+        files.clear();
+        files.putAll(newFiles);
+        version = newVersion;
+        cellsOffset = 8 + header.length;
+        log.info("saved " + cellCount + " cells to " + file);
+    }
+
+    private byte[] header(long version, Map<Long, TrackState> tracks,
+            Map<String, FileState> files) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(version);
+            byte[] key = optionsKey(options);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(tracks.size());
+            for (Entry<Long, TrackState> entry : tracks.entrySet()) {
+                TrackState s = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeLong(s.startTime);
+                out.writeLong(s.finishTime);
+                out.writeBoolean(s.haveFirst);
+                out.writeLong(s.firstTime);
+                out.writeFloat(s.firstLat);
+                out.writeFloat(s.firstLon);
+                out.writeBoolean(s.havePrevious);
+                out.writeLong(s.previousTime);
+                out.writeFloat(s.previousLat);
+                out.writeFloat(s.previousLon);
+            }
+            out.writeInt(files.size());
+            for (Entry<String, FileState> entry : files.entrySet()) {
+                FileState s = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(s.length);
+                out.writeLong(s.firstTime);
+                out.writeLong(s.lastTime);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the sum of the stored totals and the new totals (both in
+     * ascending key order) to the output and returns the number of cells
+     * written.
+     */
+    private static long mergeCells(CellTotalsFile.Reader old, SpillableCellStore cells,
+            DataOutputStream out) throws IOException {
+        long[] count = new long[1];
+        IOException[] error = new IOException[1];
+        boolean[] haveOld = new boolean[] { old != null && old.next() };
+        cells.forEach((key, value) -> {
+            if (error[0] != null)
+                return;
+            try {
+                while (haveOld[0] && old.key < key) {
+                    writeCell(out, old.key, old.value, count);
+                    haveOld[0] = old.next();
+                }
+                if (haveOld[0] && old.key == key) {
+                    writeCell(out, key, old.value + value, count);
+                    haveOld[0] = old.next();
+                } else
+                    writeCell(out, key, value, count);
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null)
+            throw error[0];
+        while (haveOld[0]) {
+            writeCell(out, old.key, old.value, count);
+            haveOld[0] = old.next();
+        }
+        return count[0];
+    }
+
+    private static void writeCell(DataOutputStream out, long key, double value, long[] count)
+            throws IOException {
+        out.writeLong(key);
+        out.writeDouble(value);
+        count[0]++;
+    }
+
+    private static long mmsi(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.indexOf(".track")));
+    }
+
+    private List<File> sortByFirstFixTime(Collection<File> craftFiles,
+            Map<File, TrackIndex> indexes) {
+        List<File> list = new ArrayList<File>(craftFiles);
+        if (list.size() > 1) {
+            Map<File, Long> times = new HashMap<File, Long>();
+            for (File f : list)
+                times.put(f, firstFixTime(f, indexes));
+            list.sort((a, b) -> Long.compare(times.get(a), times.get(b)));
+        }
+        return list;
+    }
+
+    private long firstFixTime(File f, Map<File, TrackIndex> indexes) {
+        Optional<TrackSummary> summary = indexes
+                .computeIfAbsent(f.getAbsoluteFile().getParentFile(), TrackIndex::read)
+                .summary(f);
+        if (summary.isPresent())
+            return summary.get().count() == 0 ? Long.MAX_VALUE : summary.get().minTime();
+        FileState s = files.get(key(f));
+        if (s != null && f.length() >= s.length)
+            // appended to since the last update so the first fix is the same
+            return s.firstTime;
+        try (FixCursor c = BinaryFixes.cursor(f)) {
+            return c.next() ? c.time() : Long.MAX_VALUE;
+        }
+    }
+
+    private static String key(File f) {
+        return f.getAbsolutePath();
+    }
+
+    /**
+     * How much of a track file has been read: the length read (a whole number
+     * of records) and the times of the first and last fixes read.
+     */
+    private static final class FileState {
+        final long length;
+        final long firstTime;
+        final long lastTime;
+
+        FileState(long length, long firstTime, long lastTime) {
+            this.length = length;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+    }
+
+    /**
+     * The cell distances, craft states and file states produced by processing
+     * the new fixes of a group of crafts.
+     */
+    private final class Delta {
+        final SpillableCellStore cells;
+        final Map<Long, TrackState> tracks = new HashMap<Long, TrackState>();
+        final Map<String, FileState> files = new HashMap<String, FileState>();
+
+        Delta(long memoryBudgetBytes) {
+            cells = new SpillableCellStore(memoryBudgetBytes,
+                    DensityStore.this.file.getParentFile());
+        }
+
+        void add(DistanceTravelledCalculator calculator, List<File> craftFiles) {
+            long mmsi = mmsi(craftFiles.get(0));
+            TrackState stored = DensityStore.this.tracks.get(mmsi);
+            // don't modify the store until the update succeeds
+            TrackState state = stored == null ? new TrackState() : stored.copy();
+            for (File f : craftFiles)
+                read(calculator, f, (int) mmsi, state);
+            if (!state.isEmpty())
+                tracks.put(mmsi, state);
+        }
+
+        private void read(DistanceTravelledCalculator calculator, File f, int mmsi,
+                TrackState state) {
+            String key = key(f);
+            FileState previous = DensityStore.this.files.get(key);
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+                    FileChannel channel = raf.getChannel()) {
+                // ignore a trailing partial record
+                long length = channel.size() - channel.size() % TRACK_RECORD_SIZE;
+                if (length == 0)
+                    return;
+                Preconditions.checkArgument(length <= Integer.MAX_VALUE,
+                        "file too large to map: " + f);
+                // the mapping remains valid after the channel is closed
+                ByteBuffer bb = channel.map(MapMode.READ_ONLY, 0, length);
+                int start = 0;
+                if (previous != null && previous.length <= length
+                        && timeAt(bb, (int) previous.length - TRACK_RECORD_SIZE,
+                                mmsi) == previous.lastTime)
+                    // resume at the last fix read (which the state skips)
+                    start = (int) previous.length - TRACK_RECORD_SIZE;
+                calculator.reportCellDistances(
+                        BinaryFixesCursor.from(bb, start, (int) length - start, mmsi,
+                                TRACK_FORMAT),
+                        state, cells::add);
+                long firstTime = start == 0 ? timeAt(bb, 0, mmsi) : previous.firstTime;
+                files.put(key, new FileState(length, firstTime,
+                        timeAt(bb, (int) length - TRACK_RECORD_SIZE, mmsi)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Delta addAll(Delta other) {
+            cells.addAll(other.cells);
+            other.cells.close();
+            tracks.putAll(other.tracks);
+            files.putAll(other.files);
+            return this;
+        }
+    }
+
+    // returns the time of the track file record at the position
+    private static long timeAt(ByteBuffer bb, int position, int mmsi) {
+        BinaryFixesCursor c = BinaryFixesCursor.from(bb, position, TRACK_RECORD_SIZE, mmsi,
+                TRACK_FORMAT);
+        c.next();
+        return c.time();
+    }
+
+}
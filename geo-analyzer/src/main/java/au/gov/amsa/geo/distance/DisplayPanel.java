@@ -39,6 +39,10 @@ public class DisplayPanel extends JPanel {
 
 	private CalculationResult calculationResult;
 
+	// if not null the cells are read from the pyramid
+	private DensityPyramid pyramid;
+	private DistanceCalculationMetrics metrics;
+
 	public DisplayPanel(int numberStandardDeviations, final CellsUpdater updater) {
 		this.numStandardDeviations = numberStandardDeviations;
 		setPreferredSize(java.awt.Toolkit.getDefaultToolkit().getScreenSize());
@@ -52,6 +56,24 @@ public class DisplayPanel extends JPanel {
 			Options options) {
 		this.calculationResult = calculationResult;
 		this.options = options;
+		this.pyramid = null;
+		repaint();
+	}
+
+	/**
+	 * Displays the traffic density of the pyramid within the bounds of the
+	 * options. Zooming only changes the bounds (no recalculation is needed).
+	 * 
+	 * @param pyramid
+	 * @param metrics
+	 * @param options
+	 */
+	public void setPyramid(DensityPyramid pyramid,
+			DistanceCalculationMetrics metrics, Options options) {
+		this.pyramid = pyramid;
+		this.metrics = metrics;
+		this.options = options;
+		this.calculationResult = null;
 		repaint();
 	}
 
@@ -59,8 +81,12 @@ public class DisplayPanel extends JPanel {
 	protected void paintComponent(Graphics gOld) {
 		super.paintComponent(gOld);
 		Graphics2D g = (Graphics2D) gOld;
-		Renderer.paintAll(g, options, numStandardDeviations, getWidth(),
-				getHeight(), calculationResult, true, true);
+		if (pyramid != null)
+			Renderer.paintAll(g, options, numStandardDeviations, getWidth(),
+					getHeight(), pyramid, metrics, true, true);
+		else
+			Renderer.paintAll(g, options, numStandardDeviations, getWidth(),
+					getHeight(), calculationResult, true, true);
 	}
 
 	public static interface CellsUpdater {
@@ -209,4 +235,25 @@ public class DisplayPanel extends JPanel {
 		display.run();
 	}
 
+	/**
+	 * Displays the traffic density of the pyramid. Zooming reads the level of
+	 * the pyramid matching the new bounds rather than recalculating.
+	 * 
+	 * @param pyramid
+	 * @param metrics
+	 * @param options
+	 */
+	public static void displayGui(final DensityPyramid pyramid,
+			final DistanceCalculationMetrics metrics, final Options options) {
+		final DisplayPanel display = new DisplayPanel(2, new CellsUpdater() {
+			@Override
+			public void update(DisplayPanel display, Bounds bounds) {
+				display.setPyramid(pyramid, metrics,
+						options.buildFrom().bounds(bounds).build());
+			}
+		});
+		display.setPyramid(pyramid, metrics, options);
+		display.run();
+	}
+
 }
@@ -1,15 +1,14 @@
 package au.gov.amsa.geo.distance;
 
+import static au.gov.amsa.geo.distance.EffectiveSpeedChecker.effectiveSpeedOk;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -21,14 +20,22 @@ import com.google.common.annotations.VisibleForTesting;
 
 import au.gov.amsa.geo.model.Bounds;
 import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.CellDistanceConsumer;
 import au.gov.amsa.geo.model.CellValue;
+import au.gov.amsa.geo.model.DenseGridAccumulator;
+import au.gov.amsa.geo.model.Grid;
 import au.gov.amsa.geo.model.GridTraversor;
 import au.gov.amsa.geo.model.Options;
 import au.gov.amsa.geo.model.SegmentOptions;
+import au.gov.amsa.geo.model.SegmentRasteriser;
+import au.gov.amsa.geo.model.TimeBucket;
 import au.gov.amsa.geo.model.Util;
 import au.gov.amsa.risky.format.BinaryFixes;
 import au.gov.amsa.risky.format.Fix;
+import au.gov.amsa.risky.format.FixCursor;
 import au.gov.amsa.risky.format.HasPosition;
+import au.gov.amsa.risky.format.TrackIndex;
+import au.gov.amsa.risky.format.TrackSummary;
 import au.gov.amsa.util.navigation.Position;
 import rx.Observable;
 import rx.Observable.OnSubscribe;
@@ -55,10 +62,38 @@ public class DistanceTravelledCalculator {
 
     private final Options options;
     private final DistanceCalculationMetrics metrics;
+    private final long memoryBudgetBytes;
+    private final SegmentRasteriser rasteriser;
 
-    public DistanceTravelledCalculator(Options options, DistanceCalculationMetrics metrics) {
+    /**
+     * Constructor.
+     * 
+     * @param options
+     * @param metrics
+     * @param memoryBudgetBytes
+     *            if the per worker {@link DenseGridAccumulator}s for the grid
+     *            of the options fit in this many bytes then cell distances are
+     *            summed in arrays, otherwise they are summed in
+     *            {@link SpillableCellStore}s that share this many bytes and
+     *            spill to disk when full
+     */
+    public DistanceTravelledCalculator(Options options, DistanceCalculationMetrics metrics,
+            long memoryBudgetBytes) {
         this.options = options;
         this.metrics = metrics;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.rasteriser = new SegmentRasteriser(options);
+    }
+
+    /**
+     * Constructor using a quarter of the maximum heap size as the memory
+     * budget.
+     * 
+     * @param options
+     * @param metrics
+     */
+    public DistanceTravelledCalculator(Options options, DistanceCalculationMetrics metrics) {
+        this(options, metrics, Runtime.getRuntime().maxMemory() / 4);
     }
 
     /**
@@ -68,6 +103,18 @@ public class DistanceTravelledCalculator {
      * files (number of open file handles should be limited by number of
      * available processors).
      * 
+     * <p>
+     * The segments of each craft are rasterised straight into an accumulator
+     * per worker. If a {@link DenseGridAccumulator} per processor fits in the
+     * memory budget then each worker sums into its own dense grid and the
+     * grids are added together at the end, otherwise workers sum into
+     * {@link SpillableCellStore}s (that spill sorted runs to disk when their
+     * share of the memory budget is full) whose runs are merged at the end.
+     * 
+     * <p>
+     * Files that the {@link TrackIndex} of their directory shows cannot
+     * contribute are skipped without being opened.
+     * 
      * @param files
      * @return
      */
@@ -76,205 +123,389 @@ public class DistanceTravelledCalculator {
         // ('maps') the fixes by craft to multiple threads (number determined by
         // available processors) and is passed the 'reduce'
         // calculateDistanceByCellFromFile() method to combine the results.
+        // skip files whose track index summary shows they cannot contribute
+        files = pruneFiles(files);
         int numFiles = files.count().toBlocking().single();
         log.info("numFiles=" + numFiles);
         AtomicLong fileCount = new AtomicLong();
-        AtomicLong cellCount = new AtomicLong(1);
+        int processors = Runtime.getRuntime().availableProcessors();
+        Observable<List<File>> fileLists = files
+                // buffer for parallel processing of groups of files
+                .buffer(Math.max(1, (numFiles + processors - 1) / processors));
+        if (useDenseGrid(processors)) {
+            log.info("summing distances in dense grids");
+            return fileLists
+                    // sum distances into a grid per group, at most one group
+                    // per processor at a time
+                    .flatMap(fileList -> extractDenseCellDistances(fileCount, fileList),
+                            processors)
+                    // add the grids together
+                    .collect(() -> new DenseGridAccumulator(options.getGrid()),
+                            (total, grid) -> total.addAll(grid))
+                    // report the cell distances for the grid
+                    .flatMap(grid -> listCellDistances(grid))
+                    // record total nm in metrics
+                    .doOnNext(sumNauticalMiles());
+        } else {
+            return fileLists
+                    .flatMap(fileList -> extractCellDistances(fileCount, fileList,
+                            memoryBudgetBytes / (processors + 1)), processors)
+                    // move the runs of the group stores into one store
+                    .collect(storeFactory(memoryBudgetBytes / (processors + 1)),
+                            collectCellDistances())
+                    // report the merged cell distances for the grid and
+                    // delete the spill files
+                    .flatMap(listCellDistances())
+                    // record total nm in metrics
+                    .doOnNext(sumNauticalMiles());
+        }
+    }
+
+    /**
+     * Returns the same cells and distances as
+     * {@link #calculateDistanceByCellFromFiles(Observable)} (in a different
+     * order) but with the cells of the grid split into {@code horizontal} by
+     * {@code vertical} blocks (partitions) that are summed separately. The
+     * files are read once: workers rasterise the segments of groups of crafts
+     * and add each cell distance as it is produced to the accumulator of the
+     * partition containing the cell. Each partition has its own
+     * {@link SpillableCellStore} (sharing the memory budget) guarded by its
+     * own lock so workers adding to different partitions do not contend and
+     * a cell is held in only one accumulator. The partitions have no cells in
+     * common so their totals are concatenated.
+     * 
+     * @param files
+     * @param horizontal
+     *            number of partitions across the grid
+     * @param vertical
+     *            number of partitions down the grid
+     * @return
+     */
+    public Observable<CellAndDistance> calculateDistanceByCellFromFilesPartitioned(
+            Observable<File> files, int horizontal, int vertical) {
+        Preconditions.checkArgument(horizontal > 0 && vertical > 0,
+                "horizontal and vertical must be positive");
+        Grid grid = options.getGrid();
+        int rowsPerPartition = (grid.latCount() + vertical - 1) / vertical;
+        int colsPerPartition = (grid.lonCount() + horizontal - 1) / horizontal;
+        int partitions = horizontal * vertical;
+        // skip files whose track index summary shows they cannot contribute
+        Observable<File> prunedFiles = pruneFiles(files);
+        return Observable.using(() -> {
+            SpillableCellStore[] stores = new SpillableCellStore[partitions];
+            for (int i = 0; i < partitions; i++)
+                stores[i] = new SpillableCellStore(memoryBudgetBytes / partitions);
+            return stores;
+        }, stores -> {
+            int numFiles = prunedFiles.count().toBlocking().single();
+            log.info("numFiles=" + numFiles + ", partitions=" + partitions);
+            AtomicLong fileCount = new AtomicLong();
+            int processors = Runtime.getRuntime().availableProcessors();
+            CellDistanceConsumer router = (latIndex, lonIndex, distanceNm) -> {
+                SpillableCellStore store = stores[(int) Math
+                        .min(lonIndex / colsPerPartition, horizontal - 1) * vertical
+                        + (int) Math.min(latIndex / rowsPerPartition, vertical - 1)];
+                synchronized (store) {
+                    store.add(latIndex, lonIndex, distanceNm);
+                }
+            };
+            return prunedFiles
+                    // buffer for parallel processing of groups of files
+                    .buffer(Math.max(1, (numFiles + processors - 1) / processors))
+                    // rasterise the crafts of each group adding the cell
+                    // distances to the partitions
+                    .flatMap(fileList -> Observable.from(fileList)
+                            .lift(Logging.<File> logger().showCount(fileCount).every(1000)
+                                    .showMemory().log())
+                            .doOnNext(file -> reportCellDistances(BinaryFixes.cursor(file),
+                                    router))
+                            .subscribeOn(Schedulers.computation()), processors)
+                    .ignoreElements()
+                    // stitch the partitions together and delete the spill
+                    // files
+                    .cast(CellAndDistance.class)
+                    .concatWith(Observable.from(stores).concatMap(listCellDistances()))
+                    // record total nm in metrics
+                    .doOnNext(sumNauticalMiles());
+        }, stores -> {
+            for (SpillableCellStore store : stores)
+                store.close();
+        });
+    }
+
+    /**
+     * Returns the nautical miles travelled by cell and time bucket over the
+     * time range of the options in one pass over the fixes. The distance of a
+     * segment is attributed to the bucket containing the start of the
+     * segment. Work is shared between processors as in
+     * {@link #calculateDistanceByCellFromFiles(Observable)} with each worker
+     * summing into its own {@link DensityCube} within a share of the memory
+     * budget. The caller should close the returned cube to delete its files.
+     * 
+     * @param files
+     * @param bucket
+     *            length of the time buckets
+     * @return cube of distances by time bucket and cell
+     */
+    public DensityCube calculateDistanceByCellAndTimeFromFiles(Observable<File> files,
+            TimeBucket bucket) {
+        Preconditions.checkArgument(
+                options.getStartTime().isPresent() && options.getFinishTime().isPresent(),
+                "options must have a start time and a finish time");
+        long[] boundaries = bucket.boundaries(options.getStartTime().get(),
+                options.getFinishTime().get());
+        // skip files whose track index summary shows they cannot contribute
+        files = pruneFiles(files);
+        int numFiles = files.count().toBlocking().single();
+        log.info("numFiles=" + numFiles + ", buckets=" + (boundaries.length - 1));
+        AtomicLong fileCount = new AtomicLong();
+        int processors = Runtime.getRuntime().availableProcessors();
+        long cubeBudget = memoryBudgetBytes / (processors + 1);
         return files
                 // buffer for parallel processing of groups of files
-                .buffer(Math.max(1,
-                        (int) Math.round(
-                                Math.ceil(numFiles / Runtime.getRuntime().availableProcessors()))))
-                .flatMap(fileList -> extractCellDistances(fileCount, cellCount, fileList))
-                // sum distances into global map
-                .collect(bigMapFactory(), collectCellDistances())
-                // report the cell distances for the grid
-                .flatMap(listCellDistances())
-                // record total nm in metrics
-                .doOnNext(sumNauticalMiles());
+                .buffer(Math.max(1, (numFiles + processors - 1) / processors))
+                // sum distances into a cube per group
+                .flatMap(fileList -> Observable.from(fileList)
+                        .lift(Logging.<File> logger().showCount(fileCount).every(1000)
+                                .showMemory().log())
+                        .collect(() -> new DensityCube(options, boundaries, cubeBudget),
+                                (cube, file) -> reportCellDistances(BinaryFixes.cursor(file),
+                                        new TrackState(), cube::forSegmentStartingAt))
+                        .subscribeOn(Schedulers.computation()), processors)
+                // add the cubes together
+                .collect(() -> new DensityCube(options, boundaries, cubeBudget),
+                        (total, cube) -> total.addAll(cube))
+                // write the totals to disk
+                .map(cube -> cube.finish())
+                // block
+                .toBlocking().single();
     }
 
-    private Func1<? super HashMap<Cell, Double>, Observable<CellAndDistance>> listCellDistances() {
-        return map -> Observable.from(map.entrySet())
-                .map(entry -> new CellAndDistance(entry.getKey(), entry.getValue()));
+    /**
+     * Returns the files except those that the {@link TrackIndex} of their
+     * directory shows have no fixes in the time range and filter bounds of
+     * the options (so would contribute no segments).
+     * 
+     * @param files
+     * @return
+     */
+    Observable<File> pruneFiles(Observable<File> files) {
+        return TrackIndex.filter(files, summary -> mayContribute(summary));
     }
 
-    private Func0<HashMap<Cell, Double>> bigMapFactory() {
-        return () -> new HashMap<Cell, Double>(20_000_000, 1.0f);
+    private boolean mayContribute(TrackSummary s) {
+        if (!s.overlapsTime(options.getStartTime().orElse(Long.MIN_VALUE),
+                options.getFinishTime().orElse(Long.MAX_VALUE)))
+            return false;
+        Bounds b = options.getFilterBounds();
+        double minLon = b.getTopLeftLon();
+        double maxLon = b.getBottomRightLon();
+        // only compare longitudes when neither range wraps the antimeridian
+        if (minLon > maxLon || minLon < -180 || maxLon > 180 || s.minLon() < -180
+                || s.maxLon() > 180) {
+            minLon = -Double.MAX_VALUE;
+            maxLon = Double.MAX_VALUE;
+        }
+        return s.intersects(b.getBottomRightLat(), b.getTopLeftLat(), minLon, maxLon);
     }
 
-    private Action2<HashMap<Cell, Double>, Map<Cell, Double>> collectCellDistances() {
-        return (a, b) -> {
-            // put all entries in b into a
-            long t = System.currentTimeMillis();
-            log.info("reducing");
-            for (Entry<Cell, Double> entry : b.entrySet()) {
-                Double val = a.putIfAbsent(entry.getKey(), entry.getValue());
-                if (val != null) {
-                    a.put(entry.getKey(), val + entry.getValue());
-                }
-            }
-            log.info("reduced in " + (System.currentTimeMillis() - t) + "ms");
-        };
+    private boolean useDenseGrid(int processors) {
+        long bytes = DenseGridAccumulator.bytesRequired(options.getGrid());
+        // a grid per concurrent group plus the grid being reduced into
+        return bytes != Long.MAX_VALUE
+                && bytes <= memoryBudgetBytes / (processors + 1);
     }
 
-    private Observable<Map<Cell, Double>> extractCellDistances(AtomicLong fileCount,
-            AtomicLong cellCount, List<File> fileList) {
-        return // extract fixes from each file
-        Observable.from(fileList)
-                .lift(Logging.<File> logger().showCount(fileCount).every(1000).log())
-                .map(file -> BinaryFixes.from(file))
-                // for one craft aggregate distance (not a
-                // problem with SerializedObserver buffering
-                // because each file relatively small), also
-                // subscribes on computation() to get
-                // concurrency
-                .flatMap(toCraftCellAndDistances)
-                // log
-                .lift(Logging.<CellAndDistance> logger().showCount("cellsReceived", cellCount)
-                        .every(1_000_000).showMemory().log())
-                // sum cell distances and emit maps of up to
-                // 100K entries
-                .lift(OperatorSumCellDistances.create(1_000_000))
+    private Observable<DenseGridAccumulator> extractDenseCellDistances(AtomicLong fileCount,
+            List<File> fileList) {
+        return Observable.from(fileList)
+                .lift(Logging.<File> logger().showCount(fileCount).every(1000).showMemory()
+                        .log())
+                // sum the cell distances of each craft into the grid for this
+                // group
+                .collect(() -> new DenseGridAccumulator(options.getGrid()),
+                        (grid, file) -> reportCellDistances(BinaryFixes.cursor(file), grid::add))
                 .subscribeOn(Schedulers.computation());
     }
 
-    private final Func1<Observable<Fix>, Observable<CellAndDistance>> toCraftCellAndDistances = new Func1<Observable<Fix>, Observable<CellAndDistance>>() {
-
-        @Override
-        public Observable<CellAndDistance> call(Observable<Fix> allFixesForASingleCraft) {
-
-            return allFixesForASingleCraft
-                    // count fixes
-                    .doOnNext(incrementFixesCount)
-                    // filter on time between startTime and finishTime if exist
-                    .filter(inTimeRange)
-                    // restrict to fixes in filter bounds
-                    .filter(inRegion)
-                    // sort fixes by position time
-                    // .toSortedList(au.gov.amsa.geo.Util.COMPARE_FIXES_BY_POSITION_TIME)
-                    // convert list to Observable and flatten
-                    // .concatMap(au.gov.amsa.geo.Util.TO_OBSERVABLE)
-                    // keep only positions that pass effective speed
-                    .lift(filterOnEffectiveSpeedOk())
-                    // filter on passed effective speed check
-                    .filter(check -> check.isOk())
-                    // map back to the fix again
-                    .map(check -> check.fix())
-                    // update metrics with fixes passing effective speed check
-                    .doOnNext(countFixesPassedEffectiveSpeedCheck)
-                    // pair them up again
-                    .buffer(2, 1)
-                    // segments only
-                    .filter(PAIRS_ONLY)
-                    // count segments
-                    .doOnNext(segment -> metrics.segments.incrementAndGet())
-                    // remove segments with invalid time separation
-                    .filter(timeDifferenceOk)
-                    // remove segments with invalid distance separation
-                    .filter(distanceOk)
-                    // calculate distances
-                    .flatMap(toCellAndDistance)
-                    // update counts of cells in each segment
-                    .doOnNext(countSegmentCells)
-                    // use memory to buffer if producing fast
-                    .onBackpressureBuffer();
-        }
+    private static Observable<CellAndDistance> listCellDistances(DenseGridAccumulator grid) {
+        return Observable.range(0, grid.size())
+                // ignore cells not visited
+                .filter(i -> grid.isVisited(i))
+                // to cell and distance
+                .map(i -> new CellAndDistance(Cell.create(grid.latIndex(i), grid.lonIndex(i)),
+                        grid.valueAt(i)));
+    }
 
-    };
+    private Func1<SpillableCellStore, Observable<CellAndDistance>> listCellDistances() {
+        return store -> Observable.using(() -> store, s -> s.cellDistances(), s -> s.close());
+    }
 
-    private OperatorEffectiveSpeedChecker filterOnEffectiveSpeedOk() {
-        return new OperatorEffectiveSpeedChecker(options.getSegmentOptions());
+    private Func0<SpillableCellStore> storeFactory(long memoryBudgetBytes) {
+        return () -> new SpillableCellStore(memoryBudgetBytes);
     }
 
-    private final Func1<Fix, Boolean> inRegion = new Func1<Fix, Boolean>() {
-        @Override
-        public Boolean call(Fix fix) {
-            boolean in = options.getFilterBounds().contains(fix);
-            if (in)
-                metrics.fixesWithinRegion.incrementAndGet();
-            return in;
-        }
-    };
-
-    private final Func1<Fix, Boolean> inTimeRange = new Func1<Fix, Boolean>() {
-        @Override
-        public Boolean call(Fix fix) {
-
-            boolean lowerBoundOk = !options.getStartTime().isPresent()
-                    || fix.time() >= options.getStartTime().get();
-            boolean upperBoundOk = !options.getFinishTime().isPresent()
-                    || fix.time() < options.getFinishTime().get();
-            boolean result = lowerBoundOk && upperBoundOk;
-            if (result)
-                metrics.fixesInTimeRange.incrementAndGet();
-            return result;
-        }
-    };
-
-    private final Func1<List<Fix>, Boolean> timeDifferenceOk = new Func1<List<Fix>, Boolean>() {
-        @Override
-        public Boolean call(List<Fix> pair) {
-            Preconditions.checkArgument(pair.size() == 2);
-            Fix a = pair.get(0);
-            Fix b = pair.get(1);
-            boolean ok = timeDifferenceOk(a, b, options.getSegmentOptions());
-            if (ok)
-                metrics.segmentsTimeDifferenceOk.incrementAndGet();
-            return ok;
-        }
-    };
-
-    private final Func1<List<Fix>, Boolean> distanceOk = new Func1<List<Fix>, Boolean>() {
-        @Override
-        public Boolean call(List<Fix> pair) {
-            Preconditions.checkArgument(pair.size() == 2);
-            Fix a = pair.get(0);
-            Fix b = pair.get(1);
-            boolean ok = distanceOk(a, b, options.getSegmentOptions());
-            if (ok)
-                metrics.segmentsDistanceOk.incrementAndGet();
-            return ok;
-        }
-    };
+    private Action2<SpillableCellStore, SpillableCellStore> collectCellDistances() {
+        return (a, b) -> {
+            log.info("reducing");
+            a.addAll(b);
+            log.info("runs=" + a.runCount());
+        };
+    }
 
-    private static boolean timeDifferenceOk(Fix a, Fix b, SegmentOptions o) {
-        long timeDiffMs = Math.abs(a.time() - b.time());
-        return o.maxTimePerSegmentMs() == null || timeDiffMs <= o.maxTimePerSegmentMs();
+    private Observable<SpillableCellStore> extractCellDistances(AtomicLong fileCount,
+            List<File> fileList, long memoryBudgetBytes) {
+        return Observable.from(fileList)
+                .lift(Logging.<File> logger().showCount(fileCount).every(1000).showMemory()
+                        .log())
+                // sum the cell distances of each craft into the store for this
+                // group (subscribes on computation() to get concurrency)
+                .collect(storeFactory(memoryBudgetBytes),
+                        (store, file) -> reportCellDistances(BinaryFixes.cursor(file),
+                                store::add))
+                .subscribeOn(Schedulers.computation());
     }
 
-    private static boolean distanceOk(Fix a, Fix b, SegmentOptions o) {
-        return o.maxDistancePerSegmentNm() > Util.greatCircleDistanceNm(a, b);
+    /**
+     * Reads the fixes for a single craft from the cursor without creating
+     * {@link Fix} objects, filters them on time range, region and effective
+     * speed (with the same semantics as {@link OperatorEffectiveSpeedChecker})
+     * and reports the cell distances of the segments between consecutive fixes
+     * that pass the checks.
+     * 
+     * @param fixes
+     * @param consumer
+     */
+    private void reportCellDistances(FixCursor fixes, CellDistanceConsumer consumer) {
+        reportCellDistances(fixes, new TrackState(), consumer);
     }
 
-    private static final Func1<List<Fix>, Boolean> PAIRS_ONLY = new Func1<List<Fix>, Boolean>() {
+    /**
+     * As for {@link #reportCellDistances(FixCursor, CellDistanceConsumer)} but
+     * resumes from and updates the state of a previous calculation for the
+     * same craft. Fixes at or before the finish time of the state have
+     * already been processed and are skipped.
+     * 
+     * @param fixes
+     * @param state
+     * @param consumer
+     */
+    void reportCellDistances(FixCursor fixes, TrackState state, CellDistanceConsumer consumer) {
+        reportCellDistances(fixes, state, time -> consumer);
+    }
 
-        @Override
-        public Boolean call(List<Fix> list) {
-            return list.size() == 2;
-        }
-    };
+    /**
+     * Supplies the consumer of the cell distances of a segment given the time
+     * of the start of the segment.
+     */
+    interface SegmentConsumers {
+        CellDistanceConsumer forSegmentStartingAt(long time);
+    }
 
-    private final Func1<List<Fix>, Observable<CellAndDistance>> toCellAndDistance = new Func1<List<Fix>, Observable<CellAndDistance>>() {
+    /**
+     * As for {@link #reportCellDistances(FixCursor, TrackState,
+     * CellDistanceConsumer)} but the cell distances of each segment are
+     * reported to the consumer for the start time of the segment.
+     * 
+     * @param fixes
+     * @param state
+     * @param consumers
+     */
+    void reportCellDistances(FixCursor fixes, TrackState state, SegmentConsumers consumers) {
+        SegmentOptions o = options.getSegmentOptions();
+        TrackState s = state;
+        long processedUntil = s.finishTime;
+        while (fixes.next()) {
+            long time = fixes.time();
+            if (time <= processedUntil)
+                continue;
+            metrics.fixes.incrementAndGet();
+            s.startTime = Math.min(s.startTime, time);
+            s.finishTime = Math.max(s.finishTime, time);
+            float lat = fixes.lat();
+            float lon = fixes.lon();
+            if (!inTimeRange(time) || !inRegion(lat, lon))
+                continue;
+            if (!s.havePrevious) {
+                if (!s.haveFirst) {
+                    // the first fix is only used if passes the effective
+                    // speed check with the following fix
+                    s.haveFirst = true;
+                    s.firstTime = time;
+                    s.firstLat = lat;
+                    s.firstLon = lon;
+                } else if (effectiveSpeedOk(s.firstTime, s.firstLat, s.firstLon, time, lat, lon,
+                        o)) {
+                    metrics.fixesPassedEffectiveSpeedCheck.addAndGet(2);
+                    reportSegment(s.firstTime, s.firstLat, s.firstLon, time, lat, lon, consumers);
+                    s.havePrevious = true;
+                    s.previousTime = time;
+                    s.previousLat = lat;
+                    s.previousLon = lon;
+                } else {
+                    s.firstTime = time;
+                    s.firstLat = lat;
+                    s.firstLon = lon;
+                }
+            } else if (effectiveSpeedOk(s.previousTime, s.previousLat, s.previousLon, time, lat,
+                    lon, o)) {
+                metrics.fixesPassedEffectiveSpeedCheck.incrementAndGet();
+                reportSegment(s.previousTime, s.previousLat, s.previousLon, time, lat, lon,
+                        consumers);
+                s.previousTime = time;
+                s.previousLat = lat;
+                s.previousLon = lon;
+            }
+        }
+    }
 
-        @Override
-        public Observable<CellAndDistance> call(List<Fix> pair) {
-            Preconditions.checkArgument(pair.size() == 2);
-            Fix fix1 = pair.get(0);
-            Fix fix2 = pair.get(1);
-            return getCellDistances(fix1, fix2, options);
+    private void reportSegment(long aTime, float aLat, float aLon, long bTime, float bLat,
+            float bLon, SegmentConsumers consumers) {
+        metrics.segments.incrementAndGet();
+        if (!timeDifferenceOk(aTime, bTime, options.getSegmentOptions()))
+            return;
+        metrics.segmentsTimeDifferenceOk.incrementAndGet();
+        if (!distanceOk(aLat, aLon, bLat, bLon, options.getSegmentOptions()))
+            return;
+        metrics.segmentsDistanceOk.incrementAndGet();
+        try {
+            int cells = rasteriser.rasterise(aLat, aLon, bLat, bLon,
+                    consumers.forSegmentStartingAt(aTime));
+            metrics.segmentCells.addAndGet(cells);
+        } catch (RuntimeException e) {
+            // TODO resolve all problems so that this will revert to a
+            // call to onError
+            log.warn(e.getMessage(), e);
         }
+    }
 
-    };
+    private boolean inRegion(float lat, float lon) {
+        boolean in = options.getFilterBounds().contains(lat, lon);
+        if (in)
+            metrics.fixesWithinRegion.incrementAndGet();
+        return in;
+    }
 
-    private final Action1<CellAndDistance> countSegmentCells = new Action1<CellAndDistance>() {
+    private boolean inTimeRange(long time) {
+        boolean lowerBoundOk = !options.getStartTime().isPresent()
+                || time >= options.getStartTime().get();
+        boolean upperBoundOk = !options.getFinishTime().isPresent()
+                || time < options.getFinishTime().get();
+        boolean result = lowerBoundOk && upperBoundOk;
+        if (result)
+            metrics.fixesInTimeRange.incrementAndGet();
+        return result;
+    }
 
-        @Override
-        public void call(CellAndDistance cd) {
-            metrics.segmentCells.incrementAndGet();
-        }
+    private static boolean timeDifferenceOk(long aTime, long bTime, SegmentOptions o) {
+        long timeDiffMs = Math.abs(aTime - bTime);
+        return o.maxTimePerSegmentMs() == null || timeDiffMs <= o.maxTimePerSegmentMs();
+    }
 
-    };
+    private static boolean distanceOk(double aLat, double aLon, double bLat, double bLon,
+            SegmentOptions o) {
+        return o.maxDistancePerSegmentNm() > Position.distanceKm(aLat, aLon, bLat, bLon) / 1.852;
+    }
 
     @VisibleForTesting
     static final Observable<CellAndDistance> getCellDistances(HasPosition a, HasPosition b,
@@ -282,6 +513,16 @@ public class DistanceTravelledCalculator {
         return getCellDistances(Util.toPos(a), Util.toPos(b), options);
     }
 
+    /**
+     * Returns the distance travelled in each cell by the segment from a to b.
+     * {@link SegmentRasteriser} walks the same cells without creating objects
+     * per cell and should be used where throughput matters.
+     * 
+     * @param a
+     * @param b
+     * @param options
+     * @return
+     */
     @VisibleForTesting
     static final Observable<CellAndDistance> getCellDistances(final Position a, final Position b,
             final Options options) {
@@ -355,36 +596,16 @@ public class DistanceTravelledCalculator {
     public static Observable<CellValue> calculateDensityByCellFromFiles(Options options,
             Observable<File> files, int horizontal, int vertical,
             DistanceCalculationMetrics metrics) {
-        Observable<CellValue> cells = partition(options, horizontal, vertical)
-                // get results (blocks to limit memory use)
-                .concatMap(calculateDistanceTravelled(files, metrics));
-
+        DistanceTravelledCalculator c = new DistanceTravelledCalculator(options, metrics);
+        final Observable<CellAndDistance> cells;
         if (horizontal > 1 || vertical > 1)
-            // aggregate using a file backed map
-            return cells.lift(new OperatorSumCellValues(true));
+            // one scan of the files summing partitions concurrently
+            cells = c.calculateDistanceByCellFromFilesPartitioned(files, horizontal, vertical);
         else
-            return cells;
-    }
-
-    private static Func1<Options, Observable<CellValue>> calculateDistanceTravelled(
-            final Observable<File> files, final DistanceCalculationMetrics metrics) {
-        return new Func1<Options, Observable<CellValue>>() {
-
-            @Override
-            public Observable<CellValue> call(Options options) {
-                log.info("running distance calculation on " + options);
-                DistanceTravelledCalculator c = new DistanceTravelledCalculator(options, metrics);
-                // blocks to return answer, this is desirable because we need to
-                // back the results with a file because they can get so large
-                return Observable.from(c.calculateDistanceByCellFromFiles(files)
-                        // as cell density values
-                        .map(toCellDensityValue(options))
-                        // as list
-                        .toList()
-                        // block and get
-                        .toBlocking().single());
-            }
-        };
+            cells = c.calculateDistanceByCellFromFiles(files);
+        return cells
+                // as cell density values
+                .map(toCellDensityValue(options));
     }
 
     public static CalculationResult calculateTrafficDensity(Options options,
@@ -404,7 +625,7 @@ public class DistanceTravelledCalculator {
         return new CalculationResult(cells, metrics);
     }
 
-    private static Func1<CellAndDistance, CellValue> toCellDensityValue(final Options options) {
+    static Func1<CellAndDistance, CellValue> toCellDensityValue(final Options options) {
         return new Func1<CellAndDistance, CellValue>() {
 
             @Override
@@ -609,22 +830,6 @@ public class DistanceTravelledCalculator {
         };
     }
 
-    private final Action1<? super Fix> incrementFixesCount = new Action1<Fix>() {
-
-        @Override
-        public void call(Fix fix) {
-            metrics.fixes.incrementAndGet();
-        }
-    };
-
-    private final Action1<? super Fix> countFixesPassedEffectiveSpeedCheck = new Action1<Fix>() {
-
-        @Override
-        public void call(Fix fix) {
-            metrics.fixesPassedEffectiveSpeedCheck.incrementAndGet();
-        }
-    };
-
     /**
      * Returns a sequence of {@link Options} that are same as the source apart
      * from the {@link Bounds} which are partitioned according to horizontal and
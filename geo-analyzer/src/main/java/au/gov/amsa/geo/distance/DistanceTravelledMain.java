@@ -142,6 +142,27 @@ public class DistanceTravelledMain {
         }
     }
 
+    /**
+     * Brings the density store in the store directory up to date with the
+     * track files in the directory (only fixes not already in the store are
+     * processed) and writes the densities to NetCDF.
+     * 
+     * @param directory
+     * @param storeDirectory
+     * @param options
+     * @param outputDirectory
+     * @param name
+     */
+    public static void updateTrafficDensity(String directory, File storeDirectory,
+            Options options, File outputDirectory, String name) {
+        DensityStore store = DensityStore.open(storeDirectory, options);
+        DistanceCalculationMetrics metrics = store
+                .update(Util.getFiles(directory, ".*\\.track"));
+        DistanceTravelledCalculator.saveCalculationResultAsNetcdf(options,
+                store.toCalculationResult(metrics),
+                new File(outputDirectory, name + "-densities.nc").getAbsolutePath());
+    }
+
     private static Options createOptions(double cellSizeDegrees) {
         return Options.builder()
                 // set origin latitude
@@ -1,13 +1,9 @@
 package au.gov.amsa.geo.distance;
 
-import static au.gov.amsa.geo.distance.DistanceTravelledCalculator.calculateTrafficDensity;
 import static au.gov.amsa.geo.distance.Renderer.saveAsPng;
 import static java.util.Optional.of;
 
 import java.io.File;
-import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
@@ -15,10 +11,8 @@ import org.joda.time.DateTime;
 import au.gov.amsa.geo.Util;
 import au.gov.amsa.geo.distance.DistanceTravelledCalculator.CalculationResult;
 import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.geo.model.TimeBucket;
 import rx.Observable;
-import rx.Observer;
-import rx.functions.Action1;
-import rx.functions.Func1;
 
 public class DistanceTravelledMovieMaker {
 
@@ -27,67 +21,39 @@ public class DistanceTravelledMovieMaker {
 
 	/**
 	 * Saves a sequence of image files of Vessel Traffic Density plots to the
-	 * <code>imageDirectory</code> with filenames map1.png, map2.png, etc.
+	 * <code>imageDirectory</code> with filenames map1.png, map2.png, etc, one
+	 * for each time bucket in the time range of the options. The density of
+	 * all buckets is calculated in one pass over the fixes and is also saved
+	 * as a NetCDF cube (time, latitude, longitude) to
+	 * <code>imageDirectory/density-cube.nc</code>.
 	 * 
 	 * @param options
 	 * @param files
-	 * @param times
+	 * @param bucket
 	 * @param imageDirectory
 	 */
-	private static void saveImagesWithTimeRange(final Options options,
-			final Observable<File> files, Observable<Long> times,
+	private static void saveImagesByTimeBucket(final Options options,
+			final Observable<File> files, TimeBucket bucket,
 			final String imageDirectory) {
-
-		times.buffer(2, 1).doOnNext(new Action1<List<Long>>() {
-			AtomicInteger i = new AtomicInteger();
-
-			@Override
-			public void call(List<Long> pair) {
-				if (pair.size() < 2)
-					return;
-				Long startTime = pair.get(0);
-				Long finishTime = pair.get(1);
-				saveImageWithTimeRange(options, files, startTime, finishTime,
-						imageDirectory + "/map" + i.incrementAndGet() + ".png");
+		DistanceCalculationMetrics metrics = new DistanceCalculationMetrics();
+		try (DensityCube cube = new DistanceTravelledCalculator(options, metrics)
+				.calculateDistanceByCellAndTimeFromFiles(files, bucket)) {
+			log.info(metrics);
+			cube.saveAsNetcdf(new File(imageDirectory, "density-cube.nc"));
+			for (int i = 0; i < cube.bucketCount(); i++) {
+				Options op = options.buildFrom()
+				// set start time
+						.startTime(of(cube.bucketStartTime(i)))
+						// set finish time
+						.finishTime(of(cube.bucketFinishTime(i)))
+						// build
+						.build();
+				CalculationResult result = cube.toCalculationResult(i, metrics);
+				saveAsPng(Renderer.createImage(op, 2, 1600, result), new File(
+						imageDirectory + "/map" + (i + 1) + ".png"));
 			}
-		}).subscribe(reportErrors());
-
-	}
-
-	private static Observer<Object> reportErrors() {
-		return new Observer<Object>() {
-
-			@Override
-			public void onCompleted() {
-				log.info("completed");
-			}
-
-			@Override
-			public void onError(Throwable e) {
-				log.error(e.getMessage(), e);
-				throw new RuntimeException(e);
-			}
-
-			@Override
-			public void onNext(Object t) {
-				// do nothing
-			}
-
-		};
-	}
-
-	private static void saveImageWithTimeRange(Options options,
-			final Observable<File> files, long startTime, long finishTime,
-			String filename) {
-		Options op = options.buildFrom()
-		// set start time
-				.startTime(of(startTime))
-				// set finish time
-				.finishTime(of(finishTime))
-				// build
-				.build();
-		CalculationResult result = calculateTrafficDensity(op, files);
-		saveAsPng(Renderer.createImage(op, 2, 1600, result), new File(filename));
+		}
+		log.info("completed");
 	}
 
 	private static Options createOptions(double cellSizeDegrees) {
@@ -116,16 +82,14 @@ public class DistanceTravelledMovieMaker {
 
 		final Observable<File> files = Util.getFiles(directory, "craft-");
 
-		Observable<Long> times = Observable.range(1, 13).map(
-				new Func1<Integer, Long>() {
-
-					@Override
-					public Long call(Integer n) {
-						return DateTime.parse("2013-06-01").plusMonths(n - 1)
-								.getMillis();
-					}
-				});
-		saveImagesWithTimeRange(options, files, times, "target");
+		Options op = options.buildFrom()
+		// set start time
+				.startTime(of(DateTime.parse("2013-06-01").getMillis()))
+				// set finish time
+				.finishTime(of(DateTime.parse("2014-06-01").getMillis()))
+				// build
+				.build();
+		saveImagesByTimeBucket(op, files, TimeBucket.MONTH, "target");
 
 	}
 
@@ -1,23 +1,17 @@
 package au.gov.amsa.geo.distance;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
-import au.gov.amsa.geo.model.Cell;
 import rx.Observable.Operator;
 import rx.Subscriber;
 
+/**
+ * Sums the distances by cell and emits the sums in a {@link CellDistanceMap}
+ * whenever it reaches the maximum size and on completion.
+ */
 public final class OperatorSumCellDistances
-        implements Operator<Map<Cell, Double>, CellAndDistance> {
+        implements Operator<CellDistanceMap, CellAndDistance> {
 
     private static final int INITIAL_CAPACITY = 100000;
 
-    /**
-     * This takes about 100 bytes per entry of memory;
-     */
-    private Map<Cell, Double> map = createMap();
-
     private final int maxSize;
 
     private OperatorSumCellDistances(int maxSize) {
@@ -30,14 +24,19 @@ public final class OperatorSumCellDistances
 
     @Override
     public Subscriber<? super CellAndDistance> call(
-            final Subscriber<? super Map<Cell, Double>> child) {
+            final Subscriber<? super CellDistanceMap> child) {
 
         Subscriber<CellAndDistance> parent = new Subscriber<CellAndDistance>(child) {
 
+            /**
+             * This takes about 32 bytes per entry of memory.
+             */
+            private CellDistanceMap map = createMap();
+
             @Override
             public void onCompleted() {
                 try {
-                    child.onNext(Collections.unmodifiableMap(map));
+                    child.onNext(map);
                     child.onCompleted();
                 } catch (Throwable t) {
                     onError(t);
@@ -51,26 +50,20 @@ public final class OperatorSumCellDistances
 
             @Override
             public void onNext(CellAndDistance cd) {
-                Cell key = cd.getCell();
-
-                Double val = map.putIfAbsent(key, cd.getDistanceNm());
-                if (val != null) {
-                    map.put(key, val + cd.getDistanceNm());
+                int size = map.size();
+                map.add(cd.getCell(), cd.getDistanceNm());
+                if (map.size() > size && map.size() == maxSize) {
+                    CellDistanceMap m = map;
+                    map = createMap();
+                    child.onNext(m);
+                } else
                     request(1);
-                } else {
-                    if (map.size() == maxSize) {
-                        Map<Cell, Double> m = map;
-                        map = createMap();
-                        child.onNext(Collections.unmodifiableMap(m));
-                    } else
-                        request(1);
-                }
             }
         };
         return parent;
     }
 
-    private static Map<Cell, Double> createMap() {
-        return new HashMap<Cell, Double>(INITIAL_CAPACITY, 1.0f);
+    private CellDistanceMap createMap() {
+        return new CellDistanceMap(Math.min(INITIAL_CAPACITY, maxSize));
     }
 }
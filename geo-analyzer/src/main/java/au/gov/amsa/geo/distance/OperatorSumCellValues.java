@@ -1,36 +1,31 @@
 package au.gov.amsa.geo.distance;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
-
 import org.apache.log4j.Logger;
 
 import rx.Observable.Operator;
 import rx.Observer;
 import rx.Subscriber;
 import rx.observers.Subscribers;
+import rx.subscriptions.Subscriptions;
 import au.gov.amsa.geo.model.CellValue;
-import au.gov.amsa.geo.model.Position;
 
 public class OperatorSumCellValues implements Operator<CellValue, CellValue> {
 
     private static Logger log = Logger.getLogger(OperatorSumCellValues.class);
 
-    private static final int INITIAL_CAPACITY = 35000000;
+    private static final long DISK_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    private final long memoryBudgetBytes;
 
     /**
-     * This takes about 100 bytes per entry of memory;
+     * Constructor.
+     * 
+     * @param useDisk
+     *            if true then the sums are held in a bounded amount of memory
+     *            and spill to disk, otherwise they are held in memory
      */
-    final Map<Position, Double> map;
-
-    @SuppressWarnings("unchecked")
     public OperatorSumCellValues(boolean useDisk) {
-        if (useDisk)
-            map = (Map<Position, Double>) MapDb.INSTANCE.getDb().hashMap(UUID.randomUUID().toString()).create();
-        else
-            map = new HashMap<Position, Double>(INITIAL_CAPACITY, 1.0f);
+        this.memoryBudgetBytes = useDisk ? DISK_MEMORY_BUDGET_BYTES : Long.MAX_VALUE;
     }
 
     public OperatorSumCellValues() {
@@ -42,20 +37,18 @@ public class OperatorSumCellValues implements Operator<CellValue, CellValue> {
     @Override
     public Subscriber<? super CellValue> call(final Subscriber<? super CellValue> child) {
 
+        // sums keyed by the bits of the cell centre as floats
+        final SpillableCellStore store = new SpillableCellStore(memoryBudgetBytes);
+        child.add(Subscriptions.create(() -> store.close()));
+
         Subscriber<CellValue> parent = Subscribers.from(new Observer<CellValue>() {
 
             @Override
             public void onCompleted() {
-                // MapDb.INSTANCE.getDb().commit();
                 try {
                     log.info("starting to emit map values");
-                    synchronized (map) {
-                        for (Entry<Position, Double> entry : map.entrySet()) {
-                            CellValue cv = new CellValue(entry.getKey().lat(),
-                                    entry.getKey().lon(), entry.getValue().doubleValue());
-                            child.onNext(cv);
-                        }
-                    }
+                    store.forEach((key, value) -> child
+                            .onNext(new CellValue(lat(key), lon(key), value)));
                     child.onCompleted();
                 } catch (Throwable t) {
                     onError(t);
@@ -70,14 +63,25 @@ public class OperatorSumCellValues implements Operator<CellValue, CellValue> {
 
             @Override
             public void onNext(CellValue cv) {
-                Position position = new Position((float) cv.getCentreLat(), (float) cv
-                        .getCentreLon());
-                Double val = map.putIfAbsent(position, cv.getValue());
-                if (val != null)
-                    map.put(position, val + cv.getValue());
+                store.add(key((float) cv.getCentreLat(), (float) cv.getCentreLon()),
+                        cv.getValue());
             }
         });
         child.add(parent);
         return parent;
     }
+
+    private static long key(float lat, float lon) {
+        // adding 0 turns -0 into 0 so equal positions have equal keys
+        return ((long) Float.floatToIntBits(lat + 0.0f) << 32)
+                | (Float.floatToIntBits(lon + 0.0f) & 0xFFFFFFFFL);
+    }
+
+    private static float lat(long key) {
+        return Float.intBitsToFloat((int) (key >>> 32));
+    }
+
+    private static float lon(long key) {
+        return Float.intBitsToFloat((int) key);
+    }
 }
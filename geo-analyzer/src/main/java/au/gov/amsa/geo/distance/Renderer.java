@@ -49,6 +49,31 @@ public class Renderer {
             paintParameters(g, options, calculationResult, w, h);
     }
 
+    /**
+     * As for
+     * {@link #paintAll(Graphics2D, Options, int, int, int, CalculationResult, boolean, boolean)}
+     * but the cells are read from the level of the pyramid that best matches
+     * the pixel size for the bounds of the options (only the tiles that
+     * intersect the bounds are read).
+     *
+     * @param g
+     * @param options
+     * @param numberStandardDeviations
+     * @param w
+     * @param h
+     * @param pyramid
+     * @param metrics
+     * @param addLegend
+     * @param addParameters
+     */
+    public static void paintAll(Graphics2D g, Options options, int numberStandardDeviations, int w,
+            int h, DensityPyramid pyramid, DistanceCalculationMetrics metrics, boolean addLegend,
+            boolean addParameters) {
+        paintMap(g, pyramid, options.getBounds(), numberStandardDeviations, w, h, addLegend);
+        if (addParameters)
+            paintParameters(g, options, metrics, w, h);
+    }
+
     private static Func1<Position, Point> epsg4326Locator(Bounds b, int w, int h) {
 
         ProjectorBounds projectorBounds = new ProjectorBounds(FeatureUtil.EPSG_4326,
@@ -73,6 +98,24 @@ public class Renderer {
                 addLegend, epsg4326Locator(b, w, h));
     }
 
+    /**
+     * Paints the cells of the level of the pyramid that best matches the
+     * pixel size, reading only the tiles that intersect the bounds.
+     */
+    public static void paintMap(Graphics2D g, DensityPyramid pyramid, Bounds b,
+            double numberStandardDeviationsForHighValue, int w, int h, boolean addLegend,
+            Func1<Position, Point> locator) {
+        int level = pyramid.levelFor(b.getWidthDegrees() / w);
+        paintMap(g, b, pyramid.cellSizeDegrees(level), numberStandardDeviationsForHighValue, w,
+                h, pyramid.cells(level, b), addLegend, locator);
+    }
+
+    public static void paintMap(Graphics2D g, DensityPyramid pyramid, Bounds b,
+            double numberStandardDeviationsForHighValue, int w, int h, boolean addLegend) {
+        paintMap(g, pyramid, b, numberStandardDeviationsForHighValue, w, h, addLegend,
+                epsg4326Locator(b, w, h));
+    }
+
     public static void paintMap(final Graphics2D g, Bounds b, final double cellSizeDegrees,
             double numberStandardDeviationsForHighValue, final int w, final int h,
             Observable<CellValue> cells, final boolean addLegend,
@@ -115,6 +158,11 @@ public class Renderer {
 
     public static void paintParameters(Graphics2D g, Options options,
             CalculationResult calculationResult, int w, int h) {
+        paintParameters(g, options, calculationResult.getMetrics(), w, h);
+    }
+
+    private static void paintParameters(Graphics2D g, Options options,
+            DistanceCalculationMetrics metrics, int w, int h) {
 
         g.setColor(Color.darkGray);
         Font font = g.getFont();
@@ -127,7 +175,7 @@ public class Renderer {
             g.drawString(label, (w - labelWidth) / 2, h - 50);
         }
         {
-            String label = metricsToString(calculationResult);
+            String label = metricsToString(metrics);
             int labelWidth = g.getFontMetrics().stringWidth(label);
             g.drawString(label, (w - labelWidth) / 2, h - 50 + g.getFontMetrics().getHeight());
         }
@@ -135,10 +183,8 @@ public class Renderer {
         g.setFont(font);
     }
 
-    private static String metricsToString(CalculationResult r) {
+    private static String metricsToString(DistanceCalculationMetrics m) {
         StringBuilder s = new StringBuilder();
-        // s.append("cells=" + r.getCells().size());
-        DistanceCalculationMetrics m = r.getMetrics();
         s.append(", fixes=" + m.fixes.get());
         s.append(", inTime=" + m.fixesInTimeRange.get());
         s.append(", inRegion=" + m.fixesWithinRegion.get());
@@ -0,0 +1,426 @@
+package au.gov.amsa.geo.distance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+import au.gov.amsa.geo.model.Cell;
+import rx.Observable;
+
+/**
+ * Sums values by cell in a bounded amount of memory. Values are summed in a
+ * {@link CellDistanceMap} and when the map holds as many entries as the
+ * memory budget allows its entries are written to a temporary file as a run
+ * sorted by key and the map is cleared. The totals are produced by merging
+ * the sorted runs and the map (summing the values of equal keys), which only
+ * needs a buffered reader per run. If there are more than
+ * {@link #MAX_MERGE_FAN_IN} runs then groups of runs are first merged into
+ * fewer runs (in as many passes as needed) so that the number of open runs is
+ * bounded. Runs are deleted as soon as they have been merged.
+ *
+ * <p>
+ * Keys are normally cells ({@link #add(long, long, double)}) but any packed
+ * {@code long} other than {@link Long#MIN_VALUE} may be used as long as one
+ * packing is used per store ({@link #add(long, double)}).
+ *
+ * <p>
+ * Reading the totals ({@link #forEach} or {@link #cellDistances}) empties the
+ * store. Not thread safe. Closing the store deletes its spill files.
+ */
+public final class SpillableCellStore implements Closeable {
+
+    private static Logger log = Logger.getLogger(SpillableCellStore.class);
+
+    // a key and a value
+    private static final int BYTES_PER_SLOT = 16;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int INITIAL_EXPECTED_SIZE = 1 << 16;
+    private static final int RUN_BUFFER_BYTES = 1 << 16;
+
+    // maximum number of runs read at once by a merge
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private final File directory;
+    private final int maxEntries;
+    private final CellDistanceMap map;
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudgetBytes
+     *            approximate maximum size of the in-memory map (spilling
+     *            temporarily needs as much again for sorting)
+     * @param directory
+     *            directory for the spill files
+     */
+    public SpillableCellStore(long memoryBudgetBytes, File directory) {
+        Preconditions.checkNotNull(directory);
+        this.directory = directory;
+        this.maxEntries = maxEntries(memoryBudgetBytes);
+        this.map = new CellDistanceMap(Math.min(maxEntries, INITIAL_EXPECTED_SIZE));
+    }
+
+    /**
+     * Constructor that spills to the system temporary directory.
+     *
+     * @param memoryBudgetBytes
+     */
+    public SpillableCellStore(long memoryBudgetBytes) {
+        this(memoryBudgetBytes, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    private static int maxEntries(long memoryBudgetBytes) {
+        long capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && capacity * 2 * BYTES_PER_SLOT <= memoryBudgetBytes)
+            capacity *= 2;
+        // spill before the map would grow beyond the capacity
+        return (int) (capacity * 3 / 4);
+    }
+
+    /**
+     * Adds the value to the total for the cell.
+     *
+     * @param latIndex
+     * @param lonIndex
+     * @param value
+     */
+    public void add(long latIndex, long lonIndex, double value) {
+        map.add(latIndex, lonIndex, value);
+        spillIfFull();
+    }
+
+    /**
+     * Adds the value to the total for the packed key.
+     *
+     * @param key
+     *            any value but {@link Long#MIN_VALUE}
+     * @param value
+     */
+    public void add(long key, double value) {
+        map.add(key, value);
+        spillIfFull();
+    }
+
+    /**
+     * Moves the entries and spill files of the other store to this store.
+     *
+     * @param other
+     */
+    public void addAll(SpillableCellStore other) {
+        if (map.size() + other.map.size() <= maxEntries) {
+            map.addAll(other.map);
+            other.map.clear();
+        } else
+            other.spill();
+        runs.addAll(other.runs);
+        other.runs.clear();
+    }
+
+    /**
+     * Returns the number of sorted runs spilled to disk.
+     *
+     * @return
+     */
+    public int runCount() {
+        return runs.size();
+    }
+
+    private void spillIfFull() {
+        if (map.size() >= maxEntries)
+            spill();
+    }
+
+    private void spill() {
+        if (map.isEmpty())
+            return;
+        int n = map.size();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        map.copySorted(keys, values);
+        try {
+            File file = createRunFile();
+            try (DataOutputStream out = openRun(file)) {
+                for (int i = 0; i < n; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeDouble(values[i]);
+                }
+            }
+            runs.add(file);
+            log.info("spilled " + n + " cells to " + file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        map.clear();
+    }
+
+    private File createRunFile() throws IOException {
+        return File.createTempFile("cells-", ".run", directory);
+    }
+
+    private static DataOutputStream openRun(File file) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER_BYTES));
+    }
+
+    /**
+     * Merges groups of runs into single runs until there are at most
+     * {@link #MAX_MERGE_FAN_IN} runs.
+     */
+    private void reduceRuns() {
+        while (runs.size() > MAX_MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_FAN_IN) {
+                List<File> group = new ArrayList<File>(
+                        runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_FAN_IN)));
+                if (group.size() == 1)
+                    merged.add(group.get(0));
+                else
+                    merged.add(mergeToRun(group));
+            }
+            log.info("merged " + runs.size() + " runs into " + merged.size() + " runs");
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    // merges the runs into a new run and deletes them
+    private File mergeToRun(List<File> group) {
+        List<Source> sources = new ArrayList<Source>();
+        for (File run : group)
+            sources.add(new RunSource(run));
+        try {
+            File file = createRunFile();
+            try (Merge merge = new Merge(sources, group);
+                    DataOutputStream out = openRun(file)) {
+                while (merge.next()) {
+                    out.writeLong(merge.key);
+                    out.writeDouble(merge.value);
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Receives the merged totals in ascending key order.
+     */
+    public interface EntryConsumer {
+        void accept(long key, double value);
+    }
+
+    /**
+     * Reports each key and its total to the consumer in ascending key order.
+     *
+     * @param consumer
+     */
+    public void forEach(EntryConsumer consumer) {
+        try (Merge merge = merge()) {
+            while (merge.next())
+                consumer.accept(merge.key, merge.value);
+        }
+    }
+
+    /**
+     * Returns the cells and their totals in ascending key order (for a store
+     * keyed by cell). The files are read as the returned {@link Observable}
+     * is consumed and deleted when it terminates.
+     *
+     * @return
+     */
+    public Observable<CellAndDistance> cellDistances() {
+        return Observable.using(() -> merge(), merge -> Observable.from(() -> merge.iterator()),
+                merge -> merge.close());
+    }
+
+    /**
+     * Returns a merge of the runs and the map that takes them from the store.
+     */
+    private Merge merge() {
+        reduceRuns();
+        long[] keys = new long[map.size()];
+        double[] values = new double[map.size()];
+        map.copySorted(keys, values);
+        map.clear();
+        List<Source> sources = new ArrayList<Source>();
+        sources.add(new ArraySource(keys, values));
+        List<File> files = new ArrayList<File>(runs);
+        runs.clear();
+        for (File run : files)
+            sources.add(new RunSource(run));
+        return new Merge(sources, files);
+    }
+
+    @Override
+    public void close() {
+        for (File run : runs)
+            run.delete();
+        runs.clear();
+        map.clear();
+    }
+
+    /**
+     * A sorted sequence of keys and values.
+     */
+    private static abstract class Source {
+        long key;
+        double value;
+
+        abstract boolean next();
+
+        void close() {
+            // do nothing
+        }
+    }
+
+    private static final class ArraySource extends Source {
+        private final long[] keys;
+        private final double[] values;
+        private int index = -1;
+
+        ArraySource(long[] keys, double[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        boolean next() {
+            if (++index == keys.length)
+                return false;
+            key = keys[index];
+            value = values[index];
+            return true;
+        }
+    }
+
+    private static final class RunSource extends Source {
+        private final DataInputStream in;
+
+        RunSource(File file) {
+            try {
+                in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        boolean next() {
+            try {
+                key = in.readLong();
+                value = in.readDouble();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Merges sorted sources summing the values of equal keys. Closing the
+     * merge deletes the given files.
+     */
+    private static final class Merge implements Closeable {
+
+        private final List<Source> sources;
+        private final List<File> files;
+        private final PriorityQueue<Source> queue;
+        long key;
+        double value;
+
+        Merge(List<Source> sources, List<File> files) {
+            this.sources = sources;
+            this.files = files;
+            queue = new PriorityQueue<Source>(sources.size() + 1,
+                    (a, b) -> Long.compare(a.key, b.key));
+            for (Source s : sources)
+                if (s.next())
+                    queue.add(s);
+        }
+
+        boolean next() {
+            Source s = queue.poll();
+            if (s == null)
+                return false;
+            key = s.key;
+            value = s.value;
+            if (s.next())
+                queue.add(s);
+            while (!queue.isEmpty() && queue.peek().key == key) {
+                Source t = queue.poll();
+                value += t.value;
+                if (t.next())
+                    queue.add(t);
+            }
+            return true;
+        }
+
+        Iterator<CellAndDistance> iterator() {
+            return new Iterator<CellAndDistance>() {
+
+                // null if not yet read
+                Boolean hasNext;
+
+                @Override
+                public boolean hasNext() {
+                    if (hasNext == null)
+                        hasNext = Merge.this.next();
+                    return hasNext;
+                }
+
+                @Override
+                public CellAndDistance next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    hasNext = null;
+                    return new CellAndDistance(Cell.create(key >>> 32, key & 0xFFFFFFFFL),
+                            value);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (Source s : sources)
+                    s.close();
+            } finally {
+                for (File file : files)
+                    file.delete();
+            }
+        }
+    }
+
+}
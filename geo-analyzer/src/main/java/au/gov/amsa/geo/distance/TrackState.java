@@ -0,0 +1,48 @@
+package au.gov.amsa.geo.distance;
+
+/**
+ * Where the segment calculation got to in the fixes of one craft, so that the
+ * calculation can resume from there when more fixes arrive without the fixes
+ * already processed being read again.
+ *
+ * <p>
+ * Not thread safe.
+ */
+final class TrackState {
+
+    // time range of the fixes processed so far (inclusive)
+    long startTime = Long.MAX_VALUE;
+    long finishTime = Long.MIN_VALUE;
+
+    // candidate first fix awaiting the effective speed check with the next fix
+    boolean haveFirst;
+    long firstTime;
+    float firstLat;
+    float firstLon;
+
+    // last fix that passed the effective speed check
+    boolean havePrevious;
+    long previousTime;
+    float previousLat;
+    float previousLon;
+
+    boolean isEmpty() {
+        return finishTime == Long.MIN_VALUE;
+    }
+
+    TrackState copy() {
+        TrackState s = new TrackState();
+        s.startTime = startTime;
+        s.finishTime = finishTime;
+        s.haveFirst = haveFirst;
+        s.firstTime = firstTime;
+        s.firstLat = firstLat;
+        s.firstLon = firstLon;
+        s.havePrevious = havePrevious;
+        s.previousTime = previousTime;
+        s.previousLat = previousLat;
+        s.previousLon = previousLon;
+        return s;
+    }
+
+}
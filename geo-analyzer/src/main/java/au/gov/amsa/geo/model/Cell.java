@@ -33,6 +33,18 @@ public class Cell implements Serializable {
         hashCode = calculateHashCode();
     }
 
+    /**
+     * Returns the cell with the given indexes in the grid of the
+     * {@link Options} that produced the indexes.
+     * 
+     * @param latIndex
+     * @param lonIndex
+     * @return
+     */
+    public static Cell create(long latIndex, long lonIndex) {
+        return new Cell(latIndex, lonIndex);
+    }
+
     public static Optional<Cell> cellAt(HasPosition p, Options options) {
         return cellAt(p.lat(), p.lon(), options);
     }
@@ -80,12 +92,28 @@ public class Cell implements Serializable {
      * @return
      */
     public double areaNauticalMiles(Options options) {
-        double topLatRads = Math.toRadians(topEdgeLatitude(options));
-        double bottomLatRads = Math.toRadians(bottomEdgeLatitude(options));
+        return areaNauticalMiles(topEdgeLatitude(options), bottomEdgeLatitude(options),
+                options.getCellSizeDegreesAsDouble());
+    }
+
+    /**
+     * Returns the area in square nautical miles of a cell with the given edge
+     * latitudes and width in degrees. From
+     * http://mathforum.org/library/drmath/view/63767.html
+     * 
+     * @param topEdgeLatitude
+     * @param bottomEdgeLatitude
+     * @param cellSizeDegrees
+     * @return
+     */
+    public static double areaNauticalMiles(double topEdgeLatitude, double bottomEdgeLatitude,
+            double cellSizeDegrees) {
+        double topLatRads = Math.toRadians(topEdgeLatitude);
+        double bottomLatRads = Math.toRadians(bottomEdgeLatitude);
 
         return Math.PI / 180 * radiusEarthKm * radiusEarthKm
-                * Math.abs(Math.sin(topLatRads) - Math.sin(bottomLatRads))
-                * options.getCellSizeDegreesAsDouble() / (KM_PER_NM * KM_PER_NM);
+                * Math.abs(Math.sin(topLatRads) - Math.sin(bottomLatRads)) * cellSizeDegrees
+                / (KM_PER_NM * KM_PER_NM);
     }
 
     @Override
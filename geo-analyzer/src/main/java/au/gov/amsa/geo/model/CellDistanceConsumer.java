@@ -0,0 +1,11 @@
+package au.gov.amsa.geo.model;
+
+/**
+ * Receives a cell (as its grid indexes) and a distance in nautical miles
+ * without either being boxed.
+ */
+public interface CellDistanceConsumer {
+
+    void accept(long latIndex, long lonIndex, double distanceNm);
+
+}
@@ -0,0 +1,164 @@
+package au.gov.amsa.geo.model;
+
+import java.util.BitSet;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Sums values by cell in a {@code double[]} indexed directly by the
+ * {@link Grid} lat and lon indexes (row major), so no hashing or per cell
+ * objects are involved. Suited to a bounded region where the number of cells
+ * is known up front. Intended to be used as one copy per worker thread with
+ * the copies combined at the end by {@link #addAll(DenseGridAccumulator)}.
+ * The cells that have been added to are tracked separately from the totals
+ * so that a visited cell with a zero total is still reported (as it is by
+ * the sparse accumulators).
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class DenseGridAccumulator {
+
+    private final int latCount;
+    private final int lonCount;
+    private final double[] values;
+    private final BitSet visited;
+
+    public DenseGridAccumulator(int latCount, int lonCount) {
+        Preconditions.checkArgument(latCount > 0 && lonCount > 0,
+                "latCount and lonCount must be positive");
+        Preconditions.checkArgument(fits(latCount, lonCount),
+                "too many cells for an array: " + latCount + "x" + lonCount);
+        this.latCount = latCount;
+        this.lonCount = lonCount;
+        this.values = new double[latCount * lonCount];
+        this.visited = new BitSet(latCount * lonCount);
+    }
+
+    public DenseGridAccumulator(Grid grid) {
+        this(grid.latCount(), grid.lonCount());
+    }
+
+    /**
+     * Returns the number of bytes used by the values and visited flags of an
+     * accumulator for the grid (or {@link Long#MAX_VALUE} if the grid has too
+     * many cells for an array).
+     *
+     * @param grid
+     * @return
+     */
+    public static long bytesRequired(Grid grid) {
+        if (!fits(grid.latCount(), grid.lonCount()))
+            return Long.MAX_VALUE;
+        else {
+            long cells = (long) grid.latCount() * grid.lonCount();
+            return cells * 8 + (cells + 7) / 8;
+        }
+    }
+
+    private static boolean fits(int latCount, int lonCount) {
+        // leave some headroom below Integer.MAX_VALUE for array headers
+        return (long) latCount * lonCount <= Integer.MAX_VALUE - 8;
+    }
+
+    /**
+     * Adds the value to the total for the cell.
+     *
+     * @param latIndex
+     * @param lonIndex
+     * @param value
+     */
+    public void add(long latIndex, long lonIndex, double value) {
+        if (latIndex < 0 || latIndex >= latCount || lonIndex < 0 || lonIndex >= lonCount)
+            throw new IndexOutOfBoundsException(
+                    "cell outside grid: latIndex=" + latIndex + ", lonIndex=" + lonIndex);
+        int i = (int) latIndex * lonCount + (int) lonIndex;
+        values[i] += value;
+        visited.set(i);
+    }
+
+    public void add(Cell cell, double value) {
+        add(cell.getLatIndex(), cell.getLonIndex(), value);
+    }
+
+    /**
+     * Adds the totals of the other accumulator (which must have the same
+     * dimensions) to this one. The loop is a plain element-wise sum over the
+     * arrays that the JIT compiler vectorizes.
+     *
+     * @param other
+     */
+    public void addAll(DenseGridAccumulator other) {
+        Preconditions.checkArgument(other.latCount == latCount && other.lonCount == lonCount,
+                "dimensions differ");
+        double[] a = values;
+        double[] b = other.values;
+        for (int i = 0; i < a.length; i++)
+            a[i] += b[i];
+        visited.or(other.visited);
+    }
+
+    public double get(long latIndex, long lonIndex) {
+        return values[(int) latIndex * lonCount + (int) lonIndex];
+    }
+
+    /**
+     * Returns the number of cells (including cells with a zero total).
+     *
+     * @return
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Returns the total for the cell at position {@code i} (row major) where
+     * {@code 0 <= i < size()}.
+     *
+     * @param i
+     * @return
+     */
+    public double valueAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns true if and only if a value has been added to the cell at
+     * position {@code i} (row major) where {@code 0 <= i < size()}.
+     *
+     * @param i
+     * @return
+     */
+    public boolean isVisited(int i) {
+        return visited.get(i);
+    }
+
+    public long latIndex(int i) {
+        return i / lonCount;
+    }
+
+    public long lonIndex(int i) {
+        return i % lonCount;
+    }
+
+    public int latCount() {
+        return latCount;
+    }
+
+    public int lonCount() {
+        return lonCount;
+    }
+
+    /**
+     * Reports each visited cell (including those with a zero total) to the
+     * consumer in row major order.
+     *
+     * @param consumer
+     */
+    public void forEach(CellDistanceConsumer consumer) {
+        double[] v = values;
+        for (int i = visited.nextSetBit(0); i >= 0; i = visited.nextSetBit(i + 1))
+            consumer.accept(i / lonCount, i % lonCount, v[i]);
+    }
+
+}
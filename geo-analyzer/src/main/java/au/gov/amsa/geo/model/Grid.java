@@ -32,6 +32,24 @@ public class Grid {
 
 	private final Options options;
 
+	/**
+	 * index of cell --> top lat of cell
+	 */
+	private final double[] latEdges;
+
+	/**
+	 * index of cell --> left lon of cell
+	 */
+	private final double[] lonEdges;
+
+	/**
+	 * true if cells are located by arithmetic on the edge arrays rather than
+	 * by TreeSet lookups
+	 */
+	private final boolean regular;
+
+	private final double cellSizeDegrees;
+
 	public Grid(Options options) {
 		this.options = options;
 		lats = new TreeSet<Double>();
@@ -82,7 +100,33 @@ public class Grid {
 				index++;
 			}
 		}
+		cellSizeDegrees = options.getCellSizeDegrees().doubleValue();
+		latEdges = toArray(latIndexes.inverse(), lats.size());
+		lonEdges = toArray(lonIndexes.inverse(), lons.size());
+		regular = options.isRegularGridLookup()
+				&& isRegular(latEdges, -cellSizeDegrees)
+				&& isRegular(lonEdges, cellSizeDegrees);
+	}
 
+	private static double[] toArray(BiMap<Long, Double> edges, int size) {
+		double[] a = new double[size];
+		for (int i = 0; i < size; i++)
+			a[i] = edges.get((long) i);
+		return a;
+	}
+
+	/**
+	 * Returns true if the edges are evenly spaced by the step (not the case
+	 * for example when the longitudes wrap around the 180 meridian). The last
+	 * edge is ignored because it only bounds the last cell (and the last
+	 * latitude edge is two cells below its predecessor).
+	 */
+	private static boolean isRegular(double[] edges, double step) {
+		double tolerance = Math.abs(step) * 1e-6;
+		for (int i = 1; i < edges.length - 1; i++)
+			if (Math.abs(edges[i] - edges[i - 1] - step) > tolerance)
+				return false;
+		return true;
 	}
 
 	@VisibleForTesting
@@ -123,24 +167,134 @@ public class Grid {
 	public Optional<Cell> cellAt(double lat, double lon) {
 		if (!options.getFilterBounds().contains(lat, lon))
 			return Optional.empty();
-		else {
-			Long latIndex = latIndexes.get(lats.ceiling(lat));
-			Long lonIndex = lonIndexes.get(lons.floor(lon));
-			return Optional.of(new Cell(latIndex, lonIndex));
-		}
+		else
+			return Optional.of(new Cell(latIndex(lat), lonIndex(lon)));
+	}
+
+	/**
+	 * Returns the lat index of the cells containing the latitude which is
+	 * expected to be within the filter bounds of the options.
+	 * 
+	 * @param lat
+	 * @return
+	 */
+	public long latIndex(double lat) {
+		long index = regular ? regularLatIndex(lat) : -1;
+		// the TreeSet lookup is used for irregular grids and when the
+		// latitude is beyond the edges
+		if (index == -1)
+			return latIndexes.get(lats.ceiling(lat));
+		else
+			return index;
+	}
+
+	/**
+	 * Returns the lon index of the cells containing the longitude which is
+	 * expected to be within the filter bounds of the options.
+	 * 
+	 * @param lon
+	 * @return
+	 */
+	public long lonIndex(double lon) {
+		long index = regular ? regularLonIndex(lon) : -1;
+		// the TreeSet lookup is used for irregular grids and when the
+		// longitude is beyond the edges
+		if (index == -1)
+			return lonIndexes.get(lons.floor(lon));
+		else
+			return index;
+	}
+
+	/**
+	 * Returns the index of the smallest top edge greater than or equal to lat
+	 * (as for {@code lats.ceiling(lat)}) or -1 if there is none.
+	 */
+	private long regularLatIndex(double lat) {
+		double[] edges = latEdges;
+		int i = clamp(
+				(long) Math.floor((edges[0] - lat) / cellSizeDegrees),
+				edges.length);
+		// correct for rounding, edges are in descending order
+		while (i + 1 < edges.length && edges[i + 1] >= lat)
+			i++;
+		while (i > 0 && edges[i] < lat)
+			i--;
+		if (edges[i] < lat)
+			return -1;
+		else
+			return i;
+	}
+
+	/**
+	 * Returns the index of the largest left edge less than or equal to lon (as
+	 * for {@code lons.floor(lon)}) or -1 if there is none.
+	 */
+	private long regularLonIndex(double lon) {
+		double[] edges = lonEdges;
+		int i = clamp(
+				(long) Math.floor((lon - edges[0]) / cellSizeDegrees),
+				edges.length);
+		// correct for rounding, edges are in ascending order
+		while (i + 1 < edges.length && edges[i + 1] <= lon)
+			i++;
+		while (i > 0 && edges[i] > lon)
+			i--;
+		if (edges[i] > lon)
+			return -1;
+		else
+			return i;
+	}
+
+	private static int clamp(long i, int length) {
+		return (int) Math.max(0, Math.min(length - 1, i));
+	}
+
+	/**
+	 * Returns true if cells are located arithmetically rather than by
+	 * searching sorted sets of edges. This is the case if
+	 * {@link Options#isRegularGridLookup()} is true and the grid edges are
+	 * evenly spaced (they are not if the grid crosses the 180 meridian).
+	 * 
+	 * @return
+	 */
+	public boolean isRegular() {
+		return regular;
+	}
+
+	/**
+	 * Returns the number of latitude indexes (rows) of the grid. Cell lat
+	 * indexes are from 0 to this value minus one.
+	 * 
+	 * @return
+	 */
+	public int latCount() {
+		return lats.size();
+	}
+
+	/**
+	 * Returns the number of longitude indexes (columns) of the grid. Cell lon
+	 * indexes are from 0 to this value minus one.
+	 * 
+	 * @return
+	 */
+	public int lonCount() {
+		return lons.size();
 	}
 
 	public double leftEdgeLongitude(Cell cell) {
 		return leftEdgeLongitude(cell.getLonIndex());
 	}
 
-	private double leftEdgeLongitude(long lonIndex) {
-		return lonIndexes.inverse().get(lonIndex);
+	public double leftEdgeLongitude(long lonIndex) {
+		if (regular)
+			return lonEdges[(int) lonIndex];
+		else
+			return lonIndexes.inverse().get(lonIndex);
 	}
 
 	public double rightEdgeLongitude(Cell cell) {
 		try {
-			return lonIndexes.inverse().get(cell.getLonIndex() + 1);
+			return leftEdgeLongitude(cell.getLonIndex() + 1);
 		} catch (RuntimeException e) {
 			log.warn("cell=" + cell + ", options=" + options);
 			throw e;
@@ -151,12 +305,23 @@ public class Grid {
 		return topEdgeLatitude(cell.getLatIndex());
 	}
 
+	public double rightEdgeLongitude(long lonIndex) {
+		return leftEdgeLongitude(lonIndex + 1);
+	}
+
 	public double topEdgeLatitude(long latIndex) {
-		return latIndexes.inverse().get(latIndex);
+		if (regular)
+			return latEdges[(int) latIndex];
+		else
+			return latIndexes.inverse().get(latIndex);
 	}
 
 	public double bottomEdgeLatitude(Cell cell) {
-		return latIndexes.inverse().get(cell.getLatIndex() + 1);
+		return bottomEdgeLatitude(cell.getLatIndex());
+	}
+
+	public double bottomEdgeLatitude(long latIndex) {
+		return topEdgeLatitude(latIndex + 1);
 	}
 
 	public double centreLat(long latIndex) {
@@ -22,11 +22,21 @@ public class Options {
 	private final SegmentOptions segmentOptions;
 	private final Optional<Long> startTime;
 	private final Optional<Long> finishTime;
+	private final boolean regularGridLookup;
 
 	public Options(BigDecimal originLat, BigDecimal originLon,
 			BigDecimal cellSizeDegrees, Bounds bounds,
 			Optional<Bounds> filterBounds, SegmentOptions segmentOptions,
 			Optional<Long> startTime, Optional<Long> finishTime) {
+		this(originLat, originLon, cellSizeDegrees, bounds, filterBounds,
+				segmentOptions, startTime, finishTime, true);
+	}
+
+	public Options(BigDecimal originLat, BigDecimal originLon,
+			BigDecimal cellSizeDegrees, Bounds bounds,
+			Optional<Bounds> filterBounds, SegmentOptions segmentOptions,
+			Optional<Long> startTime, Optional<Long> finishTime,
+			boolean regularGridLookup) {
 		Preconditions.checkNotNull(originLat);
 		Preconditions.checkNotNull(originLon);
 		Preconditions.checkNotNull(cellSizeDegrees);
@@ -45,6 +55,7 @@ public class Options {
 		this.segmentOptions = segmentOptions;
 		this.startTime = startTime;
 		this.finishTime = finishTime;
+		this.regularGridLookup = regularGridLookup;
 		grid = new Grid(this);
 		this.cellSizeDegreesDouble = cellSizeDegrees.doubleValue();
 	}
@@ -110,6 +121,17 @@ public class Options {
 		return grid;
 	}
 
+	/**
+	 * Returns true if the {@link Grid} should locate cells arithmetically
+	 * when its edges are evenly spaced (see {@link Grid#isRegular()}),
+	 * otherwise cells are located by searching the sorted edges.
+	 * 
+	 * @return
+	 */
+	public boolean isRegularGridLookup() {
+		return regularGridLookup;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -143,7 +165,8 @@ public class Options {
 				.filterBounds(o.getFilterBounds())
 				.finishTime(o.getFinishTime()).startTime(o.getStartTime())
 				.originLat(o.getOriginLat()).originLon(o.getOriginLon())
-				.segmentOptions(o.getSegmentOptions());
+				.segmentOptions(o.getSegmentOptions())
+				.regularGridLookup(o.isRegularGridLookup());
 	}
 
 	public SegmentOptions getSegmentOptions() {
@@ -161,6 +184,7 @@ public class Options {
 		private Optional<Bounds> filterBounds = Optional.empty();
 		private Optional<Long> startTime = Optional.empty();
 		private Optional<Long> finishTime = Optional.empty();
+		private boolean regularGridLookup = true;
 
 		private Builder() {
 		}
@@ -233,9 +257,15 @@ public class Options {
 			return this;
 		}
 
+		public Builder regularGridLookup(boolean regularGridLookup) {
+			this.regularGridLookup = regularGridLookup;
+			return this;
+		}
+
 		public Options build() {
 			return new Options(originLat, originLon, cellSizeDegrees, bounds,
-					filterBounds, segmentOptions, startTime, finishTime);
+					filterBounds, segmentOptions, startTime, finishTime,
+					regularGridLookup);
 		}
 	}
 
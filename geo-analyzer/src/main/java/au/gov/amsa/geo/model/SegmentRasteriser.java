@@ -0,0 +1,253 @@
+package au.gov.amsa.geo.model;
+
+import static au.gov.amsa.util.navigation.Position.distanceKm;
+import static au.gov.amsa.util.navigation.Position.getBearingDifferenceDegrees;
+import static au.gov.amsa.util.navigation.Position.latitudeOnGreatCircle;
+import static au.gov.amsa.util.navigation.Position.longitudesOnGreatCircle;
+
+import org.apache.log4j.Logger;
+
+import au.gov.amsa.util.navigation.Position;
+
+/**
+ * Walks a segment along the great circle between its end points across the
+ * cells of the {@link Grid} of the options and reports the distance travelled
+ * in each cell to a {@link CellDistanceConsumer}. The walk follows the same
+ * steps as {@link GridTraversor#nextPoint} but works on primitive latitudes,
+ * longitudes and cell indexes (using the edge arithmetic of a regular grid)
+ * so no {@link Position}, {@link Cell} or other per cell objects are created,
+ * only one small scratch object per segment. The consumer can be an
+ * accumulator (for example {@code DenseGridAccumulator::add}) that the
+ * distances are summed into directly.
+ *
+ * <p>
+ * Thread safe (holds no mutable state).
+ */
+public final class SegmentRasteriser {
+
+    private static Logger log = Logger.getLogger(SegmentRasteriser.class);
+
+    private static final double KM_PER_NM = 1.852;
+    private static final int MAX_STEPS = 100000;
+    private static final double SMALL_INCREMENT_DEGREES = 0.0000001;
+
+    private final Options options;
+    private final Grid grid;
+    private final Bounds filterBounds;
+
+    public SegmentRasteriser(Options options) {
+        this.options = options;
+        this.grid = options.getGrid();
+        this.filterBounds = options.getFilterBounds();
+    }
+
+    /**
+     * Reports the distance travelled in each cell by the segment from a to b
+     * to the consumer. Parts of the segment outside the filter bounds of the
+     * options are not reported.
+     *
+     * @param a
+     * @param b
+     * @param consumer
+     * @return the number of cells reported
+     */
+    public int rasterise(Position a, Position b, CellDistanceConsumer consumer) {
+        return rasterise(a.getLat(), a.getLon(), b.getLat(), b.getLon(), consumer);
+    }
+
+    /**
+     * As {@link #rasterise(Position, Position, CellDistanceConsumer)} for the
+     * segment from (aLat, aLon) to (bLat, bLon).
+     *
+     * @param aLat
+     * @param aLon
+     * @param bLat
+     * @param bLon
+     * @param consumer
+     * @return the number of cells reported
+     */
+    public int rasterise(double aLat, double aLon, double bLat, double bLon,
+            CellDistanceConsumer consumer) {
+        Step step = new Step();
+        double lat = aLat;
+        double lon = aLon;
+        boolean keepGoing = true;
+        int count = 0;
+        int cells = 0;
+        while (keepGoing) {
+            nextPoint(lat, lon, bLat, bLon, step);
+            if (filterBounds.contains(lat, lon)) {
+                consumer.accept(grid.latIndex(lat), grid.lonIndex(lon),
+                        distanceKm(lat, lon, step.lat, step.lon) / KM_PER_NM);
+                cells++;
+            }
+            keepGoing = step.lat != bLat || step.lon != bLon;
+            lat = step.lat;
+            lon = step.lon;
+            count++;
+            if (count > MAX_STEPS)
+                throw new RuntimeException("unexpectedly stuck in loop p1=[" + lat + "," + lon
+                        + "],destination=[" + bLat + "," + bLon + "],options=" + options);
+        }
+        return cells;
+    }
+
+    /**
+     * Sets the step to the point where the segment from a to b leaves the cell
+     * containing a (or to b if b is in the same cell), as
+     * {@link GridTraversor#nextPoint} does.
+     */
+    private void nextPoint(double aLat, double aLon, double bLat, double bLon, Step step) {
+        if (aLat == bLat && aLon == bLon) {
+            step.set(bLat, bLon);
+            return;
+        }
+        double bearingDegrees = bearingDegrees(aLat, aLon, bLat, bLon);
+
+        // if on left edge heading left or top edge heading up then nudge into
+        // next cell
+        checkInBounds(aLat, aLon);
+        long latIndex = grid.latIndex(aLat);
+        long lonIndex = grid.lonIndex(aLon);
+        if (bearingDegrees > 180 && aLon == grid.leftEdgeLongitude(lonIndex)) {
+            aLon = aLon - SMALL_INCREMENT_DEGREES;
+            checkInBounds(aLat, aLon);
+            lonIndex = grid.lonIndex(aLon);
+            latIndex = grid.latIndex(aLat);
+            bearingDegrees = bearingDegrees(aLat, aLon, bLat, bLon);
+        } else if ((bearingDegrees > 270 || bearingDegrees < 90)
+                && aLat == grid.topEdgeLatitude(latIndex)) {
+            aLat = aLat + SMALL_INCREMENT_DEGREES;
+            checkInBounds(aLat, aLon);
+            lonIndex = grid.lonIndex(aLon);
+            latIndex = grid.latIndex(aLat);
+            bearingDegrees = bearingDegrees(aLat, aLon, bLat, bLon);
+        }
+
+        checkInBounds(bLat, bLon);
+        if (latIndex == grid.latIndex(bLat) && lonIndex == grid.lonIndex(bLon)) {
+            step.set(bLat, bLon);
+            return;
+        }
+        boolean northwards = bearingDegrees >= 270 || bearingDegrees < 90;
+        double targetLon = bearingDegrees >= 0 && bearingDegrees < 180
+                ? grid.rightEdgeLongitude(lonIndex) : grid.leftEdgeLongitude(lonIndex);
+
+        // check if crosses target lat based on bearing
+        double leftLon = grid.leftEdgeLongitude(lonIndex);
+        double rightLon = grid.rightEdgeLongitude(lonIndex);
+        double topLat = grid.topEdgeLatitude(latIndex);
+        double bottomLat = grid.bottomEdgeLatitude(latIndex);
+        double targetLat = northwards ? topLat : bottomLat;
+
+        if (bearingDegrees == 0 || bearingDegrees == 180) {
+            step.set(targetLat, aLon);
+            return;
+        }
+        if (nextPointCrossingLatitude(aLat, aLon, bLat, bLon, leftLon, rightLon, targetLat,
+                bearingDegrees, step))
+            return;
+        double otherLat = northwards ? bottomLat : topLat;
+        if (nextPointCrossingLatitude(aLat, aLon, bLat, bLon, leftLon, rightLon, otherLat,
+                bearingDegrees, step))
+            return;
+
+        // see if crosses left or right edge
+        double latCrossing = latitudeOnGreatCircle(aLat, aLon, bLat, bLon, targetLon);
+        if (!Double.isNaN(latCrossing) && topLat >= latCrossing && bottomLat <= latCrossing) {
+            step.set(latCrossing, targetLon);
+            return;
+        }
+
+        log.warn("unexpected! Could not calculate next point for segment between\n a = [" + aLat
+                + "," + aLon + "] b = [" + bLat + "," + bLon + "]\noptions=" + options);
+        step.set(bLat, bLon);
+    }
+
+    private boolean nextPointCrossingLatitude(double aLat, double aLon, double bLat,
+            double bLon, double leftLon, double rightLon, double targetLat,
+            double bearingDegrees, Step step) {
+        double[] candidates = step.candidates;
+        if (!longitudesOnGreatCircle(aLat, aLon, bLat, bLon, targetLat, candidates))
+            return false;
+        double lon1 = candidates[0];
+        double lon2 = candidates[1];
+        // choose candidate closest in longitude to point a along path to b
+        boolean candidate1ok = leftLon <= lon1 && lon1 <= rightLon
+                && !(lon1 == aLon && targetLat == aLat);
+        boolean candidate2ok = leftLon <= lon2 && lon2 <= rightLon
+                && !(lon2 == aLon && targetLat == aLat);
+        double lonCrossing;
+        if (candidate1ok && candidate2ok) {
+            // choose the best of the candidates
+            double distance1ToB = distanceKm(targetLat, lon1, bLat, bLon);
+            double distance2ToB = distanceKm(targetLat, lon2, bLat, bLon);
+            double distanceAToB = distanceKm(aLat, aLon, bLat, bLon);
+            if (distance1ToB > distanceAToB)
+                candidate1ok = false;
+            if (distance2ToB > distanceAToB)
+                candidate2ok = false;
+            if (candidate1ok && candidate2ok) {
+                if (distance1ToB < distance2ToB)
+                    candidate1ok = false;
+                else
+                    candidate2ok = false;
+            }
+            if (candidate1ok)
+                lonCrossing = lon1;
+            else if (candidate2ok)
+                lonCrossing = lon2;
+            else
+                // neither of the candidates are on the way to b!
+                return false;
+        } else if (candidate1ok)
+            lonCrossing = lon1;
+        else if (candidate2ok)
+            lonCrossing = lon2;
+        else
+            return false;
+        // check that lonCrossing is on the segment a to b
+        double diff = getBearingDifferenceDegrees(bearingDegrees,
+                bearingDegrees(aLat, aLon, targetLat, lonCrossing));
+        if (Math.abs(diff) > 90)
+            return false;
+        step.set(targetLat, lonCrossing);
+        return true;
+    }
+
+    // as Cell.cellAt(lat, lon, options).get() would fail
+    private void checkInBounds(double lat, double lon) {
+        if (!filterBounds.contains(lat, lon))
+            throw new RuntimeException("point [" + lat + "," + lon
+                    + "] is outside the filter bounds, options=" + options);
+    }
+
+    private static double bearingDegrees(double aLat, double aLon, double bLat, double bLon) {
+        double val = Position.bearingDegrees(aLat, aLon, bLat, bLon);
+        if (val == 0 && aLat == bLat) {
+            if (bLon > aLon)
+                val = 90;
+            else if (bLon < aLon)
+                val = 270;
+            else
+                // same point
+                val = 0;
+        }
+        return val;
+    }
+
+    /**
+     * The next point of the walk and scratch space for longitude crossings.
+     */
+    private static final class Step {
+        double lat;
+        double lon;
+        final double[] candidates = new double[2];
+
+        void set(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package au.gov.amsa.geo.model;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Length of the time intervals that a time range is divided into (for
+ * example to calculate traffic density by month). Intervals are calculated in
+ * UTC.
+ */
+public enum TimeBucket {
+
+    DAY, WEEK, MONTH;
+
+    /**
+     * Returns the boundaries of the consecutive buckets covering the time
+     * range. The first boundary is {@code startTime}, each subsequent
+     * boundary is one bucket length after {@code startTime} and the last
+     * boundary is {@code finishTime} (so the last bucket may be shorter than
+     * the others). Bucket {@code i} covers times {@code t} with
+     * {@code boundaries[i] <= t < boundaries[i + 1]}.
+     *
+     * @param startTime
+     *            inclusive, epoch ms
+     * @param finishTime
+     *            exclusive, epoch ms
+     * @return boundaries of the buckets (number of buckets plus one)
+     */
+    public long[] boundaries(long startTime, long finishTime) {
+        Preconditions.checkArgument(startTime < finishTime,
+                "startTime must be before finishTime");
+        ZonedDateTime start = Instant.ofEpochMilli(startTime).atZone(ZoneOffset.UTC);
+        List<Long> list = new ArrayList<Long>();
+        list.add(startTime);
+        long t = startTime;
+        for (int i = 1; t < finishTime; i++) {
+            t = Math.min(finishTime, plus(start, i).toInstant().toEpochMilli());
+            list.add(t);
+        }
+        long[] boundaries = new long[list.size()];
+        for (int i = 0; i < boundaries.length; i++)
+            boundaries[i] = list.get(i);
+        return boundaries;
+    }
+
+    private ZonedDateTime plus(ZonedDateTime start, int n) {
+        switch (this) {
+        case DAY:
+            return start.plusDays(n);
+        case WEEK:
+            return start.plusWeeks(n);
+        default:
+            // from the start rather than cumulatively so that a start on the
+            // 31st is not pulled back to the 28th for every later month
+            return start.plusMonths(n);
+        }
+    }
+
+}
@@ -126,15 +126,37 @@ public class Position {
 	 */
 	public Double getLatitudeOnGreatCircle(Position position,
 			double longitudeDegrees) {
+		double result = latitudeOnGreatCircle(lat, lon, position.getLat(),
+				position.getLon(), longitudeDegrees);
+		if (Double.isNaN(result))
+			return null;
+		else
+			return result;
+	}
+
+	/**
+	 * As {@link #getLatitudeOnGreatCircle(Position, double)} for the great
+	 * circle through (lat1, lon1) and (lat2, lon2) but without creating
+	 * objects. Returns {@link Double#NaN} if there is no crossing.
+	 * 
+	 * @param lat1
+	 * @param lon1
+	 * @param lat2
+	 * @param lon2
+	 * @param longitudeDegrees
+	 * @return
+	 */
+	public static double latitudeOnGreatCircle(double lat1, double lon1,
+			double lat2, double lon2, double longitudeDegrees) {
 		double lonR = toRadians(longitudeDegrees);
-		double lat1R = toRadians(lat);
-		double lon1R = toRadians(lon);
-		double lat2R = toRadians(position.getLat());
-		double lon2R = toRadians(position.getLon());
+		double lat1R = toRadians(lat1);
+		double lon1R = toRadians(lon1);
+		double lat2R = toRadians(lat2);
+		double lon2R = toRadians(lon2);
 
 		double sinDiffLon1RLon2R = sin(lon1R - lon2R);
 		if (abs(sinDiffLon1RLon2R) < 0.00000001) {
-			return null;
+			return Double.NaN;
 		} else {
 			double cosLat1R = cos(lat1R);
 			double cosLat2R = cos(lat2R);
@@ -181,37 +203,59 @@ public class Position {
 	// TODO add unit test
 	public LongitudePair getLongitudeOnGreatCircle(Position position,
 			double latitudeDegrees) {
-		double lat3 = toRadians(latitudeDegrees);
-		double lat1 = toRadians(lat);
-		double lon1 = toRadians(lon);
-		double lat2 = toRadians(position.getLat());
-		double lon2 = toRadians(position.getLon());
-		double l12 = lon1 - lon2;
-		double sinLat1 = sin(lat1);
-		double cosLat2 = cos(lat2);
-		double cosLat3 = cos(lat3);
-		double cosLat1 = cos(lat1);
+		double[] result = new double[2];
+		if (longitudesOnGreatCircle(lat, lon, position.getLat(),
+				position.getLon(), latitudeDegrees, result))
+			return new LongitudePair(result[0], result[1]);
+		else
+			return null;
+	}
+
+	/**
+	 * As {@link #getLongitudeOnGreatCircle(Position, double)} for the great
+	 * circle through (lat1, lon1) and (lat2, lon2) but without creating
+	 * objects. Returns false if there is no crossing otherwise sets the two
+	 * longitude candidates in the first two elements of {@code result}.
+	 * 
+	 * @param lat1
+	 * @param lon1
+	 * @param lat2
+	 * @param lon2
+	 * @param latitudeDegrees
+	 * @param result
+	 * @return
+	 */
+	public static boolean longitudesOnGreatCircle(double lat1, double lon1,
+			double lat2, double lon2, double latitudeDegrees, double[] result) {
+		double lat3R = toRadians(latitudeDegrees);
+		double lat1R = toRadians(lat1);
+		double lon1R = toRadians(lon1);
+		double lat2R = toRadians(lat2);
+		double lon2R = toRadians(lon2);
+		double l12 = lon1R - lon2R;
+		double sinLat1 = sin(lat1R);
+		double cosLat2 = cos(lat2R);
+		double cosLat3 = cos(lat3R);
+		double cosLat1 = cos(lat1R);
 		double sinL12 = sin(l12);
 		double A = sinLat1 * cosLat2 * cosLat3 * sinL12;
-		double B = sinLat1 * cosLat2 * cosLat3 * cos(l12) - cosLat1 * sin(lat2)
+		double B = sinLat1 * cosLat2 * cosLat3 * cos(l12) - cosLat1 * sin(lat2R)
 				* cosLat3;
-		double C = cosLat1 * cosLat2 * sin(lat3) * sinL12;
+		double C = cosLat1 * cosLat2 * sin(lat3R) * sinL12;
 		double longitude = atan2(B, A);
 		double v = sqrt(sqr(A) + sqr(B));
 		if (abs(C) >= v) {
 			// not found!
-			return null;
+			return false;
 		} else {
 			double dlon = acos(C / v);
-			double lonCandidate1Degrees = to180(FastMath.toDegrees(lon1 + dlon
-					+ longitude));
-			double lonCandidate2Degrees = to180(FastMath.toDegrees(lon1 - dlon
-					+ longitude));
-			return new LongitudePair(lonCandidate1Degrees, lonCandidate2Degrees);
+			result[0] = to180(FastMath.toDegrees(lon1R + dlon + longitude));
+			result[1] = to180(FastMath.toDegrees(lon1R - dlon + longitude));
+			return true;
 		}
 	}
 
-	private double sqr(double d) {
+	private static double sqr(double d) {
 		return d * d;
 	}
 
@@ -268,15 +312,30 @@ public class Position {
 	 * @return
 	 */
 	public final double getDistanceToKm(Position position) {
-		double lat1 = toRadians(lat);
-		double lat2 = toRadians(position.lat);
-		double lon1 = toRadians(lon);
-		double lon2 = toRadians(position.lon);
-		double deltaLon = lon2 - lon1;
-		double cosLat2 = cos(lat2);
-		double cosLat1 = cos(lat1);
-		double sinLat1 = sin(lat1);
-		double sinLat2 = sin(lat2);
+		return distanceKm(lat, lon, position.lat, position.lon);
+	}
+
+	/**
+	 * As {@link #getDistanceToKm(Position)} from (lat1, lon1) to (lat2, lon2)
+	 * but without creating objects.
+	 * 
+	 * @param lat1
+	 * @param lon1
+	 * @param lat2
+	 * @param lon2
+	 * @return
+	 */
+	public static double distanceKm(double lat1, double lon1, double lat2,
+			double lon2) {
+		double lat1R = toRadians(lat1);
+		double lat2R = toRadians(lat2);
+		double lon1R = toRadians(lon1);
+		double lon2R = toRadians(lon2);
+		double deltaLon = lon2R - lon1R;
+		double cosLat2 = cos(lat2R);
+		double cosLat1 = cos(lat1R);
+		double sinLat1 = sin(lat1R);
+		double sinLat2 = sin(lat2R);
 		double cosDeltaLon = cos(deltaLon);
 		double top = sqrt(sqr(cosLat2 * sin(deltaLon))
 				+ sqr(cosLat1 * sinLat2 - sinLat1 * cosLat2 * cosDeltaLon));
@@ -292,15 +351,30 @@ public class Position {
 	 * @return
 	 */
 	public final double getBearingDegrees(Position position) {
-		double lat1 = toRadians(lat);
-		double lat2 = toRadians(position.lat);
-		double lon1 = toRadians(lon);
-		double lon2 = toRadians(position.lon);
-		double dLon = lon2 - lon1;
+		return bearingDegrees(lat, lon, position.lat, position.lon);
+	}
+
+	/**
+	 * As {@link #getBearingDegrees(Position)} from (lat1, lon1) to (lat2,
+	 * lon2) but without creating objects.
+	 * 
+	 * @param lat1
+	 * @param lon1
+	 * @param lat2
+	 * @param lon2
+	 * @return
+	 */
+	public static double bearingDegrees(double lat1, double lon1, double lat2,
+			double lon2) {
+		double lat1R = toRadians(lat1);
+		double lat2R = toRadians(lat2);
+		double lon1R = toRadians(lon1);
+		double lon2R = toRadians(lon2);
+		double dLon = lon2R - lon1R;
 		double sinDLon = sin(dLon);
-		double cosLat2 = cos(lat2);
+		double cosLat2 = cos(lat2R);
 		double y = sinDLon * cosLat2;
-		double x = cos(lat1) * sin(lat2) - sin(lat1) * cosLat2 * cos(dLon);
+		double x = cos(lat1R) * sin(lat2R) - sin(lat1R) * cosLat2 * cos(dLon);
 		double course = FastMath.toDegrees(atan2(y, x));
 		if (course < 0)
 			course += 360;
@@ -0,0 +1,68 @@
+package au.gov.amsa.geo.distance;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.util.navigation.Position;
+
+@State(Scope.Benchmark)
+public class BenchmarksGeo {
+
+    private static final Bounds BOUNDS = new Bounds(-5, 100, -45, 170);
+
+    private static final Options REGULAR = Options.builder().originLat(0).originLon(0)
+            .cellSizeDegrees(0.1).bounds(BOUNDS).filterBounds(BOUNDS).build();
+
+    private static final Options TREE_SET = REGULAR.buildFrom().regularGridLookup(false).build();
+
+    // a year of hourly fixes
+    private static final Position[] positions = createPositions(365 * 24);
+
+    private static Position[] createPositions(int n) {
+        // random walk at about 12 knots that stays within the bounds
+        Random r = new Random(12345);
+        Position[] p = new Position[n];
+        double lat = -25;
+        double lon = 135;
+        double course = 45;
+        for (int i = 0; i < n; i++) {
+            p[i] = new Position(lat, lon);
+            course += r.nextGaussian() * 20;
+            double lat2 = lat + 0.2 * Math.cos(Math.toRadians(course));
+            double lon2 = lon + 0.2 * Math.sin(Math.toRadians(course));
+            if (!BOUNDS.contains(lat2, lon2)) {
+                // turn around
+                course += 180;
+                lat2 = lat + 0.2 * Math.cos(Math.toRadians(course));
+                lon2 = lon + 0.2 * Math.sin(Math.toRadians(course));
+            }
+            lat = lat2;
+            lon = lon2;
+        }
+        return p;
+    }
+
+    private static double sumCellDistances(Options options) {
+        double[] sum = new double[1];
+        for (int i = 1; i < positions.length; i++)
+            DistanceTravelledCalculator.getCellDistances(positions[i - 1], positions[i], options)
+                    .subscribe(c -> sum[0] += c.getDistanceNm());
+        return sum[0];
+    }
+
+    @Benchmark
+    public double cellDistancesForYearOfSegmentsRegularGridLookup() {
+        return sumCellDistances(REGULAR);
+    }
+
+    @Benchmark
+    public double cellDistancesForYearOfSegmentsTreeSetGridLookup() {
+        return sumCellDistances(TREE_SET);
+    }
+
+}
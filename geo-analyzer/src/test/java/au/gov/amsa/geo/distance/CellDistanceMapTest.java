@@ -0,0 +1,92 @@
+package au.gov.amsa.geo.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.gov.amsa.geo.model.Cell;
+import rx.Observable;
+
+public class CellDistanceMapTest {
+
+    private static final double PRECISION = 0.0000001;
+
+    @Test
+    public void testAddAndGet() {
+        CellDistanceMap map = new CellDistanceMap(0);
+        map.add(0, 0, 1.5);
+        map.add(0, 0, 2.0);
+        map.add(Integer.MAX_VALUE, 3, 4.0);
+        assertEquals(2, map.size());
+        assertEquals(3.5, map.get(0, 0), PRECISION);
+        assertEquals(4.0, map.get(Integer.MAX_VALUE, 3), PRECISION);
+        assertEquals(0, map.get(3, Integer.MAX_VALUE), PRECISION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeIndexThrows() {
+        new CellDistanceMap(0).add(-1, 0, 1.0);
+    }
+
+    @Test
+    public void testSameAsHashMapWhenGrowingOnAndOffHeap() {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            CellDistanceMap map = new CellDistanceMap(10, offHeap);
+            Map<Cell, Double> expected = new HashMap<Cell, Double>();
+            Random r = new Random(1);
+            for (int i = 0; i < 100000; i++) {
+                Cell cell = Cell.create(r.nextInt(500), r.nextInt(500));
+                double d = r.nextDouble();
+                map.add(cell, d);
+                expected.merge(cell, d, (a, b) -> a + b);
+            }
+            assertEquals(expected.size(), map.size());
+            List<CellAndDistance> list = map.cellDistances().toList().toBlocking().single();
+            assertEquals(expected.size(), list.size());
+            for (CellAndDistance cd : list)
+                assertEquals(expected.get(cd.getCell()), cd.getDistanceNm(), PRECISION);
+        }
+    }
+
+    @Test
+    public void testAddAllAndForEach() {
+        CellDistanceMap a = new CellDistanceMap(100);
+        CellDistanceMap b = new CellDistanceMap(100, true);
+        a.add(1, 2, 1.0);
+        a.add(3, 4, 2.0);
+        b.add(3, 4, 3.0);
+        b.add(5, 6, 4.0);
+        a.addAll(b);
+        assertEquals(3, a.size());
+        double[] total = new double[1];
+        a.forEach((latIndex, lonIndex, nm) -> {
+            assertTrue(latIndex + 1 == lonIndex);
+            total[0] += nm;
+        });
+        assertEquals(10.0, total[0], PRECISION);
+        assertEquals(5.0, a.get(3, 4), PRECISION);
+    }
+
+    @Test
+    public void testOperatorEmitsMapsOfMaxSize() {
+        List<CellDistanceMap> maps = Observable.range(0, 25)
+                .map(i -> new CellAndDistance(Cell.create(i % 12, 0), 1.0))
+                .lift(OperatorSumCellDistances.create(5)).toList().toBlocking().single();
+        assertEquals(6, maps.size());
+        CellDistanceMap total = new CellDistanceMap(0);
+        for (CellDistanceMap m : maps) {
+            assertTrue(m.size() <= 5);
+            total.addAll(m);
+        }
+        assertEquals(12, total.size());
+        assertEquals(3.0, total.get(0, 0), PRECISION);
+        assertEquals(2.0, total.get(11, 0), PRECISION);
+    }
+
+}
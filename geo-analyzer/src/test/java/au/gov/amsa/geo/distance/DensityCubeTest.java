@@ -0,0 +1,98 @@
+package au.gov.amsa.geo.distance;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.geo.model.TimeBucket;
+import rx.Observable;
+
+public class DensityCubeTest {
+
+    private static final long DAY = HOURS.toMillis(24);
+
+    private static final Options options = TrackFixtures.OPTIONS.buildFrom()
+            .startTime(Optional.of(0L)).finishTime(Optional.of(3 * DAY)).build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBucketsSumToDensityOfWholeTimeRange() throws IOException {
+        File file = new File(folder.newFolder(), "123456789.track");
+        // 40 hourly fixes span the first two days
+        TrackFixtures.writeFixes(file, 0, 40);
+
+        try (DensityCube cube = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics()).calculateDistanceByCellAndTimeFromFiles(
+                        Observable.just(file), TimeBucket.DAY)) {
+            assertEquals(3, cube.bucketCount());
+            assertEquals(DAY, cube.bucketStartTime(1));
+            assertEquals(2 * DAY, cube.bucketFinishTime(1));
+            // 23 segments start on the first day and 16 on the second
+            assertTrue(cube.cellDistances(0).count().toBlocking().single() > 10);
+            assertTrue(cube.cellDistances(1).count().toBlocking().single() > 10);
+            assertEquals(0, (int) cube.cellDistances(2).count().toBlocking().single());
+
+            Map<Cell, Double> full = new DistanceTravelledCalculator(options,
+                    new DistanceCalculationMetrics()).calculateDistanceByCellFromFiles(
+                            Observable.just(file))
+                    .toMap(cd -> cd.getCell(), cd -> cd.getDistanceNm()).toBlocking().single();
+            for (Cell cell : full.keySet()) {
+                double sum = 0;
+                for (int i = 0; i < cube.bucketCount(); i++)
+                    sum += cube.distanceNm(i, cell.getLatIndex(), cell.getLonIndex());
+                assertEquals(full.get(cell), sum, 0.000001);
+            }
+        }
+    }
+
+    @Test
+    public void testSmallMemoryBudgetGivesSameCube() throws IOException {
+        File file = new File(folder.newFolder(), "123456789.track");
+        TrackFixtures.writeFixes(file, 0, 40);
+        try (DensityCube expected = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics()).calculateDistanceByCellAndTimeFromFiles(
+                        Observable.just(file), TimeBucket.DAY);
+                // spills every few cells
+                DensityCube cube = new DistanceTravelledCalculator(options,
+                        new DistanceCalculationMetrics(), 1)
+                                .calculateDistanceByCellAndTimeFromFiles(Observable.just(file),
+                                        TimeBucket.DAY)) {
+            for (int i = 0; i < cube.bucketCount(); i++) {
+                List<CellAndDistance> a = expected.cellDistances(i).toList().toBlocking()
+                        .single();
+                List<CellAndDistance> b = cube.cellDistances(i).toList().toBlocking().single();
+                assertEquals(a.size(), b.size());
+                for (int j = 0; j < a.size(); j++) {
+                    assertEquals(a.get(j).getCell(), b.get(j).getCell());
+                    assertEquals(a.get(j).getDistanceNm(), b.get(j).getDistanceNm(), 0.000001);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBucketOf() {
+        DensityCube cube = new DensityCube(options, TimeBucket.DAY.boundaries(0, 3 * DAY), 1024);
+        assertEquals(-1, cube.bucketOf(-1));
+        assertEquals(0, cube.bucketOf(0));
+        assertEquals(0, cube.bucketOf(DAY - 1));
+        assertEquals(1, cube.bucketOf(DAY));
+        assertEquals(2, cube.bucketOf(3 * DAY - 1));
+        assertEquals(-1, cube.bucketOf(3 * DAY));
+    }
+
+}
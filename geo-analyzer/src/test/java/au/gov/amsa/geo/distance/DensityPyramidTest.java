@@ -0,0 +1,153 @@
+package au.gov.amsa.geo.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.CellValue;
+import au.gov.amsa.geo.model.Options;
+import rx.Observable;
+
+public class DensityPyramidTest {
+
+    private static final Options options = Options.builder().originLat(0).originLon(0)
+            .cellSizeDegrees(0.05).bounds(new Bounds(0, 100, -60, 175)).build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLevelsPreserveTotalsAndTilesHoldTheirCells() throws IOException {
+        Random r = new Random(1);
+        CellDistanceMap map = new CellDistanceMap(16);
+        double total = 0;
+        for (int i = 0; i < 20000; i++) {
+            Cell cell = options.getGrid()
+                    .cellAt(-r.nextDouble() * 59, 100 + r.nextDouble() * 74).get();
+            double nm = r.nextDouble();
+            map.add(cell, nm);
+            total += nm;
+        }
+        File directory = folder.newFolder();
+        try (DensityPyramid p = DensityPyramid.build(options, map, directory)) {
+            // 1202 x 3502 cells at level 0 (the grid starts at the origin
+            // longitude) down to at most 256 x 256
+            assertEquals(5, p.levels());
+            assertEquals(0.4, p.cellSizeDegrees(3), 0.0000001);
+            assertTrue(p.rows(p.levels() - 1) <= DensityPyramid.TILE_SIZE);
+            for (int level = 0; level < p.levels(); level++) {
+                double[] sum = new double[1];
+                int lvl = level;
+                for (int tr = 0; tr < p.tileRows(level); tr++)
+                    for (int tc = 0; tc < p.tileCols(level); tc++) {
+                        int tileRow = tr;
+                        int tileCol = tc;
+                        p.forEachCell(level, tr, tc, (row, col, nm) -> {
+                            assertEquals(tileRow, row / DensityPyramid.TILE_SIZE);
+                            assertEquals(tileCol, col / DensityPyramid.TILE_SIZE);
+                            if (lvl == 0)
+                                assertEquals(map.get(row, col), nm, 0);
+                            sum[0] += nm;
+                        });
+                    }
+                assertEquals(total, sum[0], 0.000001);
+            }
+        }
+        // reopen
+        try (DensityPyramid p = DensityPyramid.open(directory)) {
+            assertEquals(5, p.levels());
+            assertEquals(1, p.levelFor(0.07));
+            assertEquals(0, p.levelFor(0.01));
+            assertEquals(4, p.levelFor(10));
+        }
+    }
+
+    @Test
+    public void testLevelZeroCellsMatchDensityOfCalculationResult() throws IOException {
+        CellDistanceMap map = new CellDistanceMap(16);
+        Cell a = options.getGrid().cellAt(-10.02, 130.02).get();
+        Cell b = options.getGrid().cellAt(-50.02, 170.02).get();
+        map.add(a, 3.0);
+        map.add(b, 5.0);
+        File directory = folder.newFolder();
+        try (DensityPyramid p = DensityPyramid.build(options, map, directory)) {
+            Map<Cell, CellValue> expected = new HashMap<>();
+            map.cellDistances().map(DistanceTravelledCalculator.toCellDensityValue(options))
+                    .forEach(cv -> expected.put(
+                            options.getGrid().cellAt(cv.getCentreLat(), cv.getCentreLon()).get(),
+                            cv));
+            // only the tile containing a is read
+            List<CellValue> list = p.cells(0, new Bounds(-9, 129, -11, 131)).toList()
+                    .toBlocking().single();
+            assertEquals(1, list.size());
+            CellValue cv = list.get(0);
+            CellValue e = expected.get(a);
+            assertEquals(e.getCentreLat(), cv.getCentreLat(), 0.000001);
+            assertEquals(e.getCentreLon(), cv.getCentreLon(), 0.000001);
+            assertEquals(e.getValue(), cv.getValue(), e.getValue() * 0.000001);
+            assertEquals(2, (int) p.cells(0, options.getBounds()).count().toBlocking().single());
+            // the coarsest level is a single tile
+            assertEquals(2, (int) p.cells(p.levels() - 1, new Bounds(-9, 129, -11, 131)).count()
+                    .toBlocking().single());
+        }
+    }
+
+    @Test
+    public void testBuildFromObservable() throws IOException {
+        Cell a = options.getGrid().cellAt(-10.02, 130.02).get();
+        File directory = folder.newFolder();
+        try (DensityPyramid p = DensityPyramid.build(options,
+                Observable.just(new CellAndDistance(a, 1.0), new CellAndDistance(a, 2.0)),
+                directory)) {
+            double[] sum = new double[1];
+            p.forEachCell(0, (int) a.getLatIndex() / DensityPyramid.TILE_SIZE,
+                    (int) a.getLonIndex() / DensityPyramid.TILE_SIZE,
+                    (row, col, nm) -> sum[0] += nm);
+            assertEquals(3.0, sum[0], 0.000001);
+        }
+    }
+
+    @Test
+    public void testBuildWithSmallMemoryBudgetGivesSameLevels() throws IOException {
+        Random r = new Random(2);
+        CellDistanceMap map = new CellDistanceMap(16);
+        for (int i = 0; i < 5000; i++)
+            map.add(options.getGrid().cellAt(-r.nextDouble() * 59, 100 + r.nextDouble() * 74)
+                    .get(), r.nextDouble());
+        File large = folder.newFolder();
+        File small = folder.newFolder();
+        try (DensityPyramid a = DensityPyramid.build(options, map, large);
+                // a budget of a few cells so every level spills
+                DensityPyramid b = DensityPyramid.build(options, map.cellDistances(), small,
+                        2000)) {
+            assertEquals(a.levels(), b.levels());
+            for (int level = 0; level < a.levels(); level++)
+                assertEquals(cells(a, level), cells(b, level));
+        }
+        // only the level files are left
+        assertEquals(5, small.list().length);
+    }
+
+    private static List<String> cells(DensityPyramid p, int level) {
+        List<String> list = new ArrayList<String>();
+        for (int tr = 0; tr < p.tileRows(level); tr++)
+            for (int tc = 0; tc < p.tileCols(level); tc++)
+                p.forEachCell(level, tr, tc,
+                        (row, col, nm) -> list.add(row + "," + col + "=" + Math.round(nm * 1e6)));
+        return list;
+    }
+
+}
@@ -0,0 +1,127 @@
+package au.gov.amsa.geo.distance;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.Options;
+import rx.Observable;
+
+public class DensityStoreTest {
+
+    private static final Options options = TrackFixtures.OPTIONS;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIncrementalUpdatesGiveSameDensityAsFullCalculation() throws IOException {
+        File directory = folder.newFolder();
+        File file = new File(directory, "fixes/123456789.track");
+        file.getParentFile().mkdirs();
+
+        // first day of fixes
+        TrackFixtures.writeFixes(file, 0, 10);
+        DensityStore store = DensityStore.open(new File(directory, "store"), options);
+        assertEquals(0, store.version());
+        assertFalse(store.includedFinishTime(123456789).isPresent());
+        store.update(Observable.just(file));
+        assertEquals(1, store.version());
+        assertEquals(HOURS.toMillis(9), (long) store.includedFinishTime(123456789).get());
+
+        // more fixes arrive
+        TrackFixtures.writeFixes(file, 0, 20);
+        store = DensityStore.open(new File(directory, "store"), options);
+        assertEquals(1, store.version());
+        DistanceCalculationMetrics metrics = store.update(Observable.just(file));
+        assertEquals(2, store.version());
+        // only the new fixes were processed
+        assertEquals(10, metrics.fixes.get());
+        assertEquals(0, (long) store.includedStartTime(123456789).get());
+        assertEquals(HOURS.toMillis(19), (long) store.includedFinishTime(123456789).get());
+
+        Map<Cell, Double> full = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics()).calculateDistanceByCellFromFiles(
+                        Observable.just(file))
+                .toMap(cd -> cd.getCell(), cd -> cd.getDistanceNm()).toBlocking().single();
+        assertTrue(full.size() > 10);
+        DensityStore reopened = DensityStore.open(new File(directory, "store"), options);
+        for (Cell cell : full.keySet())
+            assertEquals(full.get(cell),
+                    reopened.distanceNm(cell.getLatIndex(), cell.getLonIndex()), 0.000001);
+        assertEquals(full.size(), (int) reopened
+                .toCalculationResult(new DistanceCalculationMetrics()).getCells().count()
+                .toBlocking().single());
+    }
+
+    @Test
+    public void testUpdateReadsOnlyAppendedBytes() throws IOException {
+        File directory = folder.newFolder();
+        File file = new File(directory, "fixes/123456789.track");
+        file.getParentFile().mkdirs();
+        TrackFixtures.writeFixes(file, 0, 10);
+        DensityStore store = DensityStore.open(new File(directory, "store"), options);
+        store.update(Observable.just(file));
+
+        // change the first fix to a later time (the change is not seen if
+        // the bytes already read are skipped) and append more fixes
+        try (OutputStream os = new FileOutputStream(file)) {
+            TrackFixtures.writeFixes(os, 100, 101);
+            TrackFixtures.writeFixes(os, 1, 20);
+        }
+        DistanceCalculationMetrics metrics = store.update(Observable.just(file));
+        assertEquals(10, metrics.fixes.get());
+        assertEquals(HOURS.toMillis(19), (long) store.includedFinishTime(123456789).get());
+
+        // rewrite so the last fix read has moved and the file is read again
+        TrackFixtures.writeFixes(file, 1, 25);
+        metrics = store.update(Observable.just(file));
+        assertEquals(5, metrics.fixes.get());
+        assertEquals(HOURS.toMillis(24), (long) store.includedFinishTime(123456789).get());
+    }
+
+    @Test
+    public void testSmallMemoryBudgetGivesSameDensity() throws IOException {
+        File directory = folder.newFolder();
+        File file = new File(directory, "fixes/123456789.track");
+        file.getParentFile().mkdirs();
+        TrackFixtures.writeFixes(file, 0, 40);
+        // a budget of a few cells so the new cell distances are spilled
+        DensityStore store = DensityStore.open(new File(directory, "store"), options, 1000);
+        store.update(Observable.just(file));
+        Map<Cell, Double> full = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics()).calculateDistanceByCellFromFiles(
+                        Observable.just(file))
+                .toMap(cd -> cd.getCell(), cd -> cd.getDistanceNm()).toBlocking().single();
+        assertTrue(full.size() > 30);
+        for (Cell cell : full.keySet())
+            assertEquals(full.get(cell),
+                    store.distanceNm(cell.getLatIndex(), cell.getLonIndex()), 0.000001);
+        assertEquals(0, store.distanceNm(0, 0), 0);
+        // no spill files are left behind
+        assertEquals(1, new File(directory, "store").list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenWithDifferentOptionsThrows() throws IOException {
+        File directory = folder.newFolder();
+        File file = new File(directory, "fixes/123456789.track");
+        file.getParentFile().mkdirs();
+        TrackFixtures.writeFixes(file, 0, 2);
+        DensityStore.open(directory, options).update(Observable.just(file));
+        DensityStore.open(directory, options.buildFrom().cellSizeDegrees(0.2).build());
+    }
+
+}
@@ -4,22 +4,37 @@ import static au.gov.amsa.geo.Util.toPos;
 import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static rx.Observable.from;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Cell;
 import au.gov.amsa.geo.model.Options;
 import au.gov.amsa.geo.model.Position;
 import au.gov.amsa.risky.format.AisClass;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.BinaryFixesFormat;
+import au.gov.amsa.risky.format.BinaryFixesWriter;
 import au.gov.amsa.risky.format.Fix;
 import au.gov.amsa.risky.format.FixImpl;
+import au.gov.amsa.risky.format.HasFix;
 import au.gov.amsa.util.navigation.Position.LongitudePair;
 import rx.Observable;
 import rx.Observable.OnSubscribe;
@@ -33,6 +48,9 @@ public class DistanceTravelledCalculatorTest {
     private static final Fix f3 = new FixImpl(3, -35.12f, 142.12f, HOURS.toMillis(2), AisClass.A);
     private static final Fix f4 = new FixImpl(4, -36.12f, 143.12f, HOURS.toMillis(2), AisClass.A);
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testPairs() {
         System.out.println(from(asList(1, 2, 3)).buffer(2, 1).toList().toBlocking().single());
@@ -67,6 +85,140 @@ public class DistanceTravelledCalculatorTest {
                 count.get() + " cells returned in " + (System.currentTimeMillis() - t) + "ms");
     }
 
+    @Test
+    public void testWithTrackFileGivesSameDistanceAsSegments() throws IOException {
+        File file = new File(folder.newFolder(), "123456789.track");
+        Fix a = new FixImpl(123456789, -35.0f, 142.0f, 0, AisClass.A);
+        Fix b = new FixImpl(123456789, -35.12f, 142.12f, HOURS.toMillis(1), AisClass.A);
+        Fix c = new FixImpl(123456789, -35.3f, 142.2f, HOURS.toMillis(2), AisClass.A);
+        try (OutputStream os = new FileOutputStream(file)) {
+            for (Fix fix : asList(a, b, c))
+                BinaryFixes.write(fix, os, BinaryFixesFormat.WITHOUT_MMSI);
+        }
+        Options options = TrackFixtures.OPTIONS;
+        DistanceCalculationMetrics metrics = new DistanceCalculationMetrics();
+        double totalNm = new DistanceTravelledCalculator(options, metrics)
+                .calculateDistanceByCellFromFiles(Observable.just(file))
+                .map(x -> x.getDistanceNm()).reduce(0.0, (x, y) -> x + y).toBlocking().single();
+        double expectedNm = Observable.concat(DistanceTravelledCalculator.getCellDistances(a, b,
+                options), DistanceTravelledCalculator.getCellDistances(b, c, options))
+                .map(x -> x.getDistanceNm()).reduce(0.0, (x, y) -> x + y).toBlocking().single();
+        assertEquals(expectedNm, totalNm, 0.00001);
+        assertEquals(3, metrics.fixesPassedEffectiveSpeedCheck.get());
+        assertEquals(2, metrics.segments.get());
+    }
+
+    @Test
+    public void testDenseGridAndMapGiveSameCellDistances() throws IOException {
+        File file = new File(folder.newFolder(), "123456789.track");
+        TrackFixtures.writeFixes(file, 0, 20);
+        Options options = TrackFixtures.OPTIONS;
+        Map<Cell, Double> dense = cellDistances(
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics(),
+                        Long.MAX_VALUE).calculateDistanceByCellFromFiles(Observable.just(file)));
+        Map<Cell, Double> sparse = cellDistances(
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics(), 0)
+                        .calculateDistanceByCellFromFiles(Observable.just(file)));
+        assertTrue(dense.size() > 10);
+        assertEquals(sparse.keySet(), dense.keySet());
+        for (Cell cell : dense.keySet())
+            assertEquals(sparse.get(cell), dense.get(cell), 0.000001);
+    }
+
+    @Test
+    public void testGzippedTrackFileGivesSameCellDistances() throws IOException {
+        File file = new File(folder.newFolder(), "123456789.track");
+        File gz = new File(folder.newFolder(), "123456789.track.gz");
+        TrackFixtures.writeFixes(file, 0, 20);
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(gz))) {
+            TrackFixtures.writeFixes(os, 0, 20);
+        }
+        Options options = TrackFixtures.OPTIONS;
+        Map<Cell, Double> expected = cellDistances(
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics())
+                        .calculateDistanceByCellFromFiles(Observable.just(file)));
+        assertTrue(expected.size() > 10);
+        // dense grid, spillable store and partitioned
+        for (Observable<CellAndDistance> o : asList(
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics(),
+                        Long.MAX_VALUE).calculateDistanceByCellFromFiles(Observable.just(gz)),
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics(), 0)
+                        .calculateDistanceByCellFromFiles(Observable.just(gz)),
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics(),
+                        1 << 20).calculateDistanceByCellFromFilesPartitioned(
+                                Observable.just(gz), 2, 2))) {
+            Map<Cell, Double> actual = cellDistances(o);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (Cell cell : expected.keySet())
+                assertEquals(expected.get(cell), actual.get(cell), 0.000001);
+        }
+    }
+
+    @Test
+    public void testPartitionedGivesSameCellDistancesAsUnpartitioned() throws IOException {
+        File directory = folder.newFolder();
+        List<File> files = new ArrayList<File>();
+        for (int craft = 0; craft < 5; craft++) {
+            File file = new File(directory, (123456780 + craft) + ".track");
+            try (OutputStream os = new FileOutputStream(file)) {
+                for (int i = 0; i < 40; i++)
+                    BinaryFixes.write(new FixImpl(123456780 + craft,
+                            -10.0f - craft * 5 - i * 0.3f, 110.0f + craft * 7 + i * 0.4f,
+                            HOURS.toMillis(i), AisClass.A), os, BinaryFixesFormat.WITHOUT_MMSI);
+            }
+            files.add(file);
+        }
+        Options options = TrackFixtures.OPTIONS;
+        Map<Cell, Double> whole = cellDistances(
+                new DistanceTravelledCalculator(options, new DistanceCalculationMetrics())
+                        .calculateDistanceByCellFromFiles(Observable.from(files)));
+        List<CellAndDistance> partitioned = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics(), 1 << 20)
+                        .calculateDistanceByCellFromFilesPartitioned(Observable.from(files), 4, 3)
+                        .toList().toBlocking().single();
+        assertTrue(whole.size() > 100);
+        // the partitions have no cells in common
+        assertEquals(whole.size(), partitioned.size());
+        for (CellAndDistance cd : partitioned)
+            assertEquals(whole.get(cd.getCell()), cd.getDistanceNm(), 0.000001);
+    }
+
+    @Test
+    public void testPruneFilesUsesTrackIndex() throws IOException {
+        File directory = folder.newFolder();
+        File inside = new File(directory, "123456789.track");
+        File outside = new File(directory, "987654321.track");
+        File unindexed = new File(directory, "111111111.track");
+        BinaryFixesWriter.writeFixes(
+                Arrays.<HasFix> asList(new FixImpl(123456789, -35f, 142f, 1000, AisClass.A)), inside, false,
+                false, BinaryFixesFormat.WITHOUT_MMSI, true);
+        BinaryFixesWriter.writeFixes(
+                Arrays.<HasFix> asList(new FixImpl(987654321, 10f, 142f, 1000, AisClass.A)), outside, false,
+                false, BinaryFixesFormat.WITHOUT_MMSI, true);
+        try (OutputStream os = new FileOutputStream(unindexed)) {
+            BinaryFixes.write(new FixImpl(111111111, 10f, 142f, 1000, AisClass.A), os,
+                    BinaryFixesFormat.WITHOUT_MMSI);
+        }
+        Options options = Options.builder().originLat(0).originLon(0).cellSizeDegrees(0.1)
+                .bounds(new Bounds(0, 100, -60, 175)).build();
+        List<File> files = new DistanceTravelledCalculator(options,
+                new DistanceCalculationMetrics())
+                        .pruneFiles(Observable.just(inside, outside, unindexed)).toList()
+                        .toBlocking().single();
+        assertEquals(asList(inside, unindexed), files);
+        // outside the time range
+        files = new DistanceTravelledCalculator(
+                options.buildFrom().startTime(Optional.of(2000L)).build(),
+                new DistanceCalculationMetrics())
+                        .pruneFiles(Observable.just(inside, outside, unindexed)).toList()
+                        .toBlocking().single();
+        assertEquals(asList(unindexed), files);
+    }
+
+    private static Map<Cell, Double> cellDistances(Observable<CellAndDistance> o) {
+        return o.toMap(cd -> cd.getCell(), cd -> cd.getDistanceNm()).toBlocking().single();
+    }
+
     @Test
     public void testGetCellDistances() {
 
@@ -1,16 +1,56 @@
 package au.gov.amsa.geo.distance;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.text.DecimalFormat;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Cell;
+import au.gov.amsa.geo.model.Options;
 
 public class RendererTest {
 
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void test() {
 		assertEquals("1.23E-11",
 				new DecimalFormat("0.##E0").format(0.00000000001234567));
 	}
+
+	@Test
+	public void testPaintAllFromPyramid() throws IOException {
+		Options options = Options.builder().originLat(0).originLon(0)
+				.cellSizeDegrees(1).bounds(new Bounds(0, 100, -60, 175))
+				.build();
+		CellDistanceMap map = new CellDistanceMap(16);
+		Cell cell = options.getGrid().cellAt(-30.5, 140.5).get();
+		map.add(cell, 10.0);
+		int w = 150;
+		int h = 120;
+		BufferedImage image = new BufferedImage(w, h,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setBackground(Color.white);
+		g.clearRect(0, 0, w, h);
+		try (DensityPyramid pyramid = DensityPyramid.build(options, map,
+				folder.newFolder())) {
+			Renderer.paintAll(g, options, 2, w, h, pyramid,
+					new DistanceCalculationMetrics(), false, false);
+		}
+		// the pixel at the cell has been painted
+		int x = (int) Math.round((140.5 - 100) / 75 * w);
+		int y = (int) Math.round(30.5 / 60 * h);
+		assertNotEquals(Color.white.getRGB(), image.getRGB(x, y));
+	}
 }
@@ -0,0 +1,125 @@
+package au.gov.amsa.geo.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.gov.amsa.geo.model.Cell;
+
+public class SpillableCellStoreTest {
+
+    private static final double PRECISION = 0.0000001;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSpilledTotalsMergeToSameAsHashMapInKeyOrder() {
+        File directory = folder.getRoot();
+        Map<Cell, Double> expected = new HashMap<Cell, Double>();
+        Random r = new Random(1);
+        // small budget so that many runs are spilled
+        try (SpillableCellStore store = new SpillableCellStore(4096, directory)) {
+            for (int i = 0; i < 10000; i++) {
+                int lat = r.nextInt(50);
+                int lon = r.nextInt(50);
+                double d = r.nextDouble();
+                store.add(lat, lon, d);
+                expected.merge(Cell.create(lat, lon), d, (a, b) -> a + b);
+            }
+            assertTrue(store.runCount() > 10);
+            assertEquals(store.runCount(), directory.listFiles().length);
+            List<CellAndDistance> list = store.cellDistances().toList().toBlocking().single();
+            assertEquals(expected.size(), list.size());
+            long previous = -1;
+            for (CellAndDistance cd : list) {
+                long key = (cd.getCell().getLatIndex() << 32) | cd.getCell().getLonIndex();
+                assertTrue(key > previous);
+                previous = key;
+                assertEquals(expected.get(cd.getCell()), cd.getDistanceNm(), PRECISION);
+            }
+            // the runs are deleted once merged
+            assertEquals(0, store.runCount());
+            assertEquals(0, directory.listFiles().length);
+            assertEquals(0, store.cellDistances().count().toBlocking().single().intValue());
+        }
+    }
+
+    @Test
+    public void testManyRunsAreMergedWithBoundedFanIn() {
+        File directory = folder.getRoot();
+        try (SpillableCellStore store = new SpillableCellStore(1024, directory)) {
+            int cells = 10000;
+            for (int i = 0; i < cells; i++) {
+                store.add(i, 0, 1.0);
+                store.add(cells - 1 - i, 0, 2.0);
+            }
+            assertTrue(store.runCount() > SpillableCellStore.MAX_MERGE_FAN_IN);
+            long[] count = new long[1];
+            store.forEach((key, value) -> {
+                assertEquals(count[0], key >>> 32);
+                assertEquals(3.0, value, PRECISION);
+                count[0]++;
+            });
+            assertEquals(cells, count[0]);
+            assertEquals(0, directory.listFiles().length);
+        }
+    }
+
+    @Test
+    public void testClosingDeletesTheRuns() {
+        File directory = folder.getRoot();
+        try (SpillableCellStore store = new SpillableCellStore(1024, directory)) {
+            for (int i = 0; i < 1000; i++)
+                store.add(i, 0, 1.0);
+            assertTrue(store.runCount() > 0);
+        }
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testAddAllTakesRunsAndEntriesOfOtherStore() {
+        File directory = folder.getRoot();
+        try (SpillableCellStore a = new SpillableCellStore(1024, directory);
+                SpillableCellStore b = new SpillableCellStore(1024, directory)) {
+            for (int i = 0; i < 100; i++) {
+                a.add(i, 0, 1.0);
+                b.add(i, 0, 2.0);
+            }
+            b.add(1000, 1000, 5.0);
+            a.addAll(b);
+            assertEquals(0, b.runCount());
+            List<Double> values = new ArrayList<Double>();
+            a.forEach((key, value) -> values.add(value));
+            assertEquals(101, values.size());
+            for (int i = 0; i < 100; i++)
+                assertEquals(3.0, values.get(i), PRECISION);
+            assertEquals(5.0, values.get(100), PRECISION);
+        }
+    }
+
+    @Test
+    public void testNoSpillWithinBudget() {
+        try (SpillableCellStore store = new SpillableCellStore(1 << 20)) {
+            store.add(1, 2, 3.0);
+            store.add(1, 2, 4.0);
+            store.add(-5L, 1.0);
+            assertEquals(0, store.runCount());
+            List<Long> keys = new ArrayList<Long>();
+            store.forEach((key, value) -> keys.add(key));
+            assertEquals(-5L, (long) keys.get(0));
+            assertEquals((1L << 32) | 2, (long) keys.get(1));
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package au.gov.amsa.geo.distance;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import au.gov.amsa.geo.model.Bounds;
+import au.gov.amsa.geo.model.Options;
+import au.gov.amsa.geo.model.SegmentOptions;
+import au.gov.amsa.risky.format.AisClass;
+import au.gov.amsa.risky.format.BinaryFixes;
+import au.gov.amsa.risky.format.BinaryFixesFormat;
+import au.gov.amsa.risky.format.Fix;
+import au.gov.amsa.risky.format.FixImpl;
+
+/**
+ * Options and track files shared by the density tests.
+ */
+final class TrackFixtures {
+
+    static final int MMSI = 123456789;
+
+    /**
+     * A 0.1 degree grid over the region of the fixes with segments of at most
+     * 100nm, 50 knots and 3 hours.
+     */
+    static final Options OPTIONS = Options.builder().originLat(0).originLon(0)
+            .cellSizeDegrees(0.1).bounds(new Bounds(0, 100, -60, 175))
+            .segmentOptions(SegmentOptions.builder().maxSpeedKnots(50)
+                    .maxDistancePerSegmentNm(100.0).maxTimePerSegment(3, HOURS).build())
+            .build();
+
+    private TrackFixtures() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the i-th hourly fix of a craft heading south east.
+     *
+     * @param i
+     * @return
+     */
+    static Fix fix(int i) {
+        return new FixImpl(MMSI, -35.0f - i * 0.07f, 142.0f + i * 0.05f, HOURS.toMillis(i),
+                AisClass.A);
+    }
+
+    /**
+     * Writes fixes {@code from} (inclusive) to {@code to} (exclusive) to the
+     * file (replacing it).
+     */
+    static void writeFixes(File file, int from, int to) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            writeFixes(os, from, to);
+        }
+    }
+
+    static void writeFixes(OutputStream os, int from, int to) throws IOException {
+        for (int i = from; i < to; i++)
+            BinaryFixes.write(fix(i), os, BinaryFixesFormat.WITHOUT_MMSI);
+    }
+
+}
@@ -0,0 +1,75 @@
+package au.gov.amsa.geo.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DenseGridAccumulatorTest {
+
+    private static final double PRECISION = 0.0000001;
+
+    @Test
+    public void testAddAndAddAll() {
+        DenseGridAccumulator a = new DenseGridAccumulator(3, 4);
+        DenseGridAccumulator b = new DenseGridAccumulator(3, 4);
+        a.add(0, 0, 1.0);
+        a.add(2, 3, 2.0);
+        b.add(2, 3, 3.0);
+        b.add(Cell.create(1, 2), 4.0);
+        a.addAll(b);
+        assertEquals(12, a.size());
+        assertEquals(1.0, a.get(0, 0), PRECISION);
+        assertEquals(5.0, a.get(2, 3), PRECISION);
+        assertEquals(4.0, a.get(1, 2), PRECISION);
+        assertEquals(1, a.latIndex(6));
+        assertEquals(2, a.lonIndex(6));
+        assertEquals(4.0, a.valueAt(6), PRECISION);
+        List<String> list = new ArrayList<String>();
+        a.forEach((latIndex, lonIndex, value) -> list.add(latIndex + "," + lonIndex + "=" + value));
+        assertEquals("[0,0=1.0, 1,2=4.0, 2,3=5.0]", list.toString());
+    }
+
+    @Test
+    public void testVisitedCellWithZeroTotalIsReported() {
+        DenseGridAccumulator a = new DenseGridAccumulator(2, 2);
+        DenseGridAccumulator b = new DenseGridAccumulator(2, 2);
+        a.add(0, 1, 0.0);
+        b.add(1, 0, 2.0);
+        a.addAll(b);
+        assertTrue(a.isVisited(1));
+        assertTrue(a.isVisited(2));
+        assertFalse(a.isVisited(0));
+        List<String> list = new ArrayList<String>();
+        a.forEach((latIndex, lonIndex, value) -> list.add(latIndex + "," + lonIndex + "=" + value));
+        assertEquals("[0,1=0.0, 1,0=2.0]", list.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAddOutsideGridThrows() {
+        new DenseGridAccumulator(3, 4).add(0, 4, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAllWithDifferentDimensionsThrows() {
+        new DenseGridAccumulator(3, 4).addAll(new DenseGridAccumulator(4, 3));
+    }
+
+    @Test
+    public void testGridDimensionsCoverAllCells() {
+        Options options = Options.builder().originLat(0).originLon(0).cellSizeDegrees(1)
+                .bounds(new Bounds(-10, 110, -20, 120)).build();
+        Grid grid = options.getGrid();
+        DenseGridAccumulator a = new DenseGridAccumulator(grid);
+        for (double lat = -19.5; lat < -10; lat += 0.5)
+            for (double lon = 110.25; lon < 120; lon += 0.5)
+                a.add(grid.cellAt(lat, lon).get(), 1.0);
+        long cells = (long) grid.latCount() * grid.lonCount();
+        assertEquals(cells * 8 + (cells + 7) / 8, DenseGridAccumulator.bytesRequired(grid));
+    }
+
+}
@@ -2,6 +2,9 @@ package au.gov.amsa.geo.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -92,4 +95,64 @@ public class GridTest {
 		System.out.println(grid.rightEdgeLongitude(Cell.cellAt(-10, 100, o)
 				.get()));
 	}
+
+	@Test
+	public void testRegularGridLookupUsedForRegularGrid() {
+		assertTrue(new Grid(options).isRegular());
+		assertFalse(new Grid(options.buildFrom().regularGridLookup(false).build())
+				.isRegular());
+	}
+
+	@Test
+	public void testRegularGridLookupNotUsedForGridGoingOver180Longitude() {
+		Options o = options.buildFrom()
+				.filterBounds(new Bounds(0, 100, -60, -174)).build();
+		assertFalse(new Grid(o).isRegular());
+	}
+
+	@Test
+	public void testRegularGridLookupSameAsTreeSetLookupOnEdges() {
+		Options o = options.buildFrom().build();
+		Grid regular = new Grid(o);
+		Grid treeSet = new Grid(o.buildFrom().regularGridLookup(false)
+				.build());
+		for (int i = 0; i <= 600; i++)
+			for (int j = 0; j <= 750; j += 7) {
+				double lat = -i * 0.1;
+				double lon = 100 + j * 0.1;
+				checkSame(regular, treeSet, lat, lon);
+				checkSame(regular, treeSet, Math.nextUp(lat),
+						Math.nextUp(lon));
+				checkSame(regular, treeSet, Math.nextDown(lat),
+						Math.nextDown(lon));
+			}
+	}
+
+	@Test
+	public void testRegularGridLookupSameAsTreeSetLookupAtRandomPositions() {
+		Options o = options.buildFrom().cellSizeDegrees(0.07).build();
+		Grid regular = new Grid(o);
+		Grid treeSet = new Grid(o.buildFrom().regularGridLookup(false)
+				.build());
+		assertTrue(regular.isRegular());
+		Random r = new Random(123);
+		for (int i = 0; i < 100000; i++)
+			checkSame(regular, treeSet, -r.nextDouble() * 60,
+					100 + r.nextDouble() * 75);
+	}
+
+	private static void checkSame(Grid a, Grid b, double lat, double lon) {
+		assertEquals(b.cellAt(lat, lon), a.cellAt(lat, lon));
+		if (a.cellAt(lat, lon).isPresent()) {
+			Cell cell = a.cellAt(lat, lon).get();
+			assertEquals(b.topEdgeLatitude(cell), a.topEdgeLatitude(cell),
+					0);
+			assertEquals(b.bottomEdgeLatitude(cell),
+					a.bottomEdgeLatitude(cell), 0);
+			assertEquals(b.leftEdgeLongitude(cell), a.leftEdgeLongitude(cell),
+					0);
+			assertEquals(b.rightEdgeLongitude(cell),
+					a.rightEdgeLongitude(cell), 0);
+		}
+	}
 }
@@ -0,0 +1,91 @@
+package au.gov.amsa.geo.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.gov.amsa.util.navigation.Position;
+
+public class SegmentRasteriserTest {
+
+    private static final Options options = Options.builder().originLat(0).originLon(0)
+            .cellSizeDegrees(0.1).bounds(new Bounds(0, 100, -60, 175)).build();
+
+    @Test
+    public void testDistancesSumToSegmentLength() {
+        Position a = new Position(-10.05, 130.01);
+        Position b = new Position(-11.27, 131.93);
+        double[] total = new double[1];
+        int cells = new SegmentRasteriser(options).rasterise(a, b,
+                (latIndex, lonIndex, distanceNm) -> total[0] += distanceNm);
+        assertTrue(cells > 10);
+        assertEquals(a.getDistanceToKm(b) / 1.852, total[0], 0.0001);
+    }
+
+    @Test
+    public void testCellsAreThoseContainingTheStartOfEachStep() {
+        Position a = new Position(-10.05, 130.05);
+        Position b = new Position(-10.05, 130.35);
+        List<Cell> cells = new ArrayList<>();
+        new SegmentRasteriser(options).rasterise(a, b,
+                (latIndex, lonIndex, distanceNm) -> cells.add(Cell.create(latIndex, lonIndex)));
+        Cell first = options.getGrid().cellAt(a.getLat(), a.getLon()).get();
+        assertEquals(4, cells.size());
+        for (int i = 0; i < cells.size(); i++)
+            assertEquals(Cell.create(first.getLatIndex(), first.getLonIndex() + i),
+                    cells.get(i));
+    }
+
+    @Test
+    public void testRasteriseIntoDenseGrid() {
+        DenseGridAccumulator grid = new DenseGridAccumulator(options.getGrid());
+        SegmentRasteriser r = new SegmentRasteriser(options);
+        r.rasterise(-10.05, 130.05, -10.05, 130.35, grid::add);
+        r.rasterise(-10.05, 130.05, -10.05, 130.35, grid::add);
+        Cell cell = options.getGrid().cellAt(-10.05, 130.15).get();
+        double nm = new Position(-10.05, 130.1).getDistanceToKm(new Position(-10.05, 130.2))
+                / 1.852;
+        assertEquals(2 * nm, grid.get(cell.getLatIndex(), cell.getLonIndex()), 0.001);
+    }
+
+    @Test
+    public void testSameCellsAndDistancesAsGridTraversor() {
+        Random random = new Random(12345);
+        SegmentRasteriser r = new SegmentRasteriser(options);
+        for (int i = 0; i < 1000; i++) {
+            Position a = new Position(-10 - random.nextDouble() * 2,
+                    130 + random.nextDouble() * 2);
+            Position b = new Position(-10 - random.nextDouble() * 2,
+                    130 + random.nextDouble() * 2);
+            List<Cell> cells = new ArrayList<>();
+            List<Double> distances = new ArrayList<>();
+            r.rasterise(a, b, (latIndex, lonIndex, distanceNm) -> {
+                cells.add(Cell.create(latIndex, lonIndex));
+                distances.add(distanceNm);
+            });
+            List<Cell> expectedCells = new ArrayList<>();
+            List<Double> expectedDistances = new ArrayList<>();
+            GridTraversor traversor = new GridTraversor(options);
+            Position p1 = a;
+            while (p1.getLat() != b.getLat() || p1.getLon() != b.getLon()) {
+                Position p2 = traversor.nextPoint(p1, b);
+                Optional<Cell> cell = Cell.cellAt(p1.getLat(), p1.getLon(), options);
+                if (cell.isPresent()) {
+                    expectedCells.add(cell.get());
+                    expectedDistances.add(p1.getDistanceToKm(p2) / 1.852);
+                }
+                p1 = p2;
+            }
+            assertEquals(expectedCells, cells);
+            for (int j = 0; j < distances.size(); j++)
+                assertEquals(expectedDistances.get(j), distances.get(j), 1e-9);
+        }
+    }
+
+}
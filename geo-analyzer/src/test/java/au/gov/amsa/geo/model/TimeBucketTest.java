@@ -0,0 +1,29 @@
+package au.gov.amsa.geo.model;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+public class TimeBucketTest {
+
+    @Test
+    public void testMonthBoundariesFromEndOfMonthWithShortLastBucket() {
+        long[] b = TimeBucket.MONTH.boundaries(t("2015-01-31T00:00Z"), t("2015-04-15T00:00Z"));
+        assertArrayEquals(new long[] { t("2015-01-31T00:00Z"), t("2015-02-28T00:00Z"),
+                t("2015-03-31T00:00Z"), t("2015-04-15T00:00Z") }, b);
+    }
+
+    @Test
+    public void testWeekBoundaries() {
+        long[] b = TimeBucket.WEEK.boundaries(t("2015-01-01T00:00Z"), t("2015-01-15T00:00Z"));
+        assertArrayEquals(new long[] { t("2015-01-01T00:00Z"), t("2015-01-08T00:00Z"),
+                t("2015-01-15T00:00Z") }, b);
+    }
+
+    private static long t(String s) {
+        return ZonedDateTime.parse(s).toInstant().toEpochMilli();
+    }
+
+}